@@ -0,0 +1,132 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * Runs a script of gitlet commands, one per line, in a single process.
+ * <p>
+ * Each line is split into words at spaces; a word may be quoted with double
+ * quotes to include spaces, and a backslash escapes the next character.
+ * Blank lines and lines starting with # are skipped. Every command prints
+ * what it would print on its own, followed by a status line of "--- ok" if
+ * it succeeded or "--- error" if it failed. A failed command does not stop
+ * the script. The whole script is one journal group, committed with one
+ * sync when it ends.
+ * @author Connor Bernard
+ */
+public class Batch {
+    /**
+     * Status line printed after a command that succeeded.
+     */
+    private static final String OK_STATUS = "--- ok";
+    /**
+     * Status line printed after a command that failed.
+     */
+    private static final String ERROR_STATUS = "--- error";
+    /**
+     * Runs the commands of a script file, or of standard input if no file is
+     * given.
+     * @param fileName name of the script, or null to read standard input
+     */
+    public static void run(String fileName) {
+        Reader source;
+        if (fileName == null) {
+            source = new InputStreamReader(System.in);
+        } else {
+            File script = new File(fileName);
+            if (!script.isFile()) {
+                throw new GitletException(ERROR_COLOR + "File does not exist."
+                        + RESET_COLOR);
+            }
+            try {
+                source = new FileReader(script);
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
+            }
+        }
+        try (BufferedReader in = new BufferedReader(source)) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                System.out.println(execute(words(trimmed))
+                        ? OK_STATUS : ERROR_STATUS);
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        System.out.flush();
+    }
+    /**
+     * Runs one command of a script, printing its output.
+     * @param args the command and its operands
+     * @return whether the command succeeded
+     */
+    private static boolean execute(String[] args) {
+        if (args[0].equals("batch") || args[0].equals("daemon")) {
+            System.out.println(ERROR_COLOR + "Cannot run " + args[0]
+                    + " from a batch." + RESET_COLOR);
+            return false;
+        }
+        try {
+            Main.run(args);
+            return true;
+        } catch (GitletException e) {
+            if (e.getMessage() != null) {
+                System.out.println(e.getMessage());
+            }
+            return false;
+        } catch (RuntimeException e) {
+            System.err.println(e);
+            return false;
+        }
+    }
+    /**
+     * Splits a line of a script into words.
+     * @param line the line, which is not blank
+     * @return the words of the line
+     */
+    private static String[] words(String line) {
+        ArrayList<String> result = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        boolean inWord = false;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                i += 1;
+                word.append(line.charAt(i));
+                inWord = true;
+            } else if (c == '"') {
+                quoted = !quoted;
+                inWord = true;
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (inWord) {
+                    result.add(word.toString());
+                    word.setLength(0);
+                    inWord = false;
+                }
+            } else {
+                word.append(c);
+                inWord = true;
+            }
+        }
+        if (inWord) {
+            result.add(word.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+import static gitlet.Directories.DAEMON_SOCKET;
+
+/**
+ * Thin client running a command on the repository's daemon, if one is
+ * running, and printing its output exactly as the command would. Without a
+ * daemon the command runs in this process instead.
+ * <p>
+ * Usage: java gitlet.Client ARGS, with the same ARGS as gitlet.Main.
+ * @author Connor Bernard
+ */
+public class Client {
+    /**
+     * Size of the buffer frames are read through.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Runs a command on the daemon, or in this process if there is none.
+     * @param args the command and its operands
+     */
+    public static void main(String... args) {
+        SocketChannel channel = connect();
+        if (channel == null) {
+            Main.main(args);
+            return;
+        }
+        int status;
+        try (SocketChannel daemon = channel) {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(daemon)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            status = copyFrames(new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(daemon), BUFFER_SIZE)));
+        } catch (IOException e) {
+            System.err.println("Lost connection to the daemon: "
+                    + e.getMessage());
+            status = 1;
+        }
+        System.out.flush();
+        System.err.flush();
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+    /**
+     * Connects to the daemon of the repository in the current directory.
+     * @return connection to the daemon, or null if none is running
+     */
+    static SocketChannel connect() {
+        if (!DAEMON_SOCKET.file().exists()) {
+            return null;
+        }
+        try {
+            SocketChannel channel = SocketChannel.open(
+                    StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(
+                        DAEMON_SOCKET.file().toPath()));
+            } catch (IOException e) {
+                channel.close();
+                return null;
+            }
+            return channel;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+    /**
+     * Copies the output frames of a command to standard output and error
+     * until the frame ending the response.
+     * @param in stream of frames from the daemon
+     * @return the command's exit status
+     * @throws IOException if the daemon went away
+     */
+    private static int copyFrames(DataInputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (true) {
+            int stream = in.readUnsignedByte();
+            if (stream == Daemon.EXIT_STREAM) {
+                return in.readInt();
+            }
+            PrintStream dest = stream == Daemon.ERR_STREAM
+                    ? System.err : System.out;
+            int remaining = in.readInt();
+            while (remaining > 0) {
+                int n = Math.min(remaining, buffer.length);
+                in.readFully(buffer, 0, n);
+                dest.write(buffer, 0, n);
+                remaining -= n;
+            }
+            if (dest == System.err) {
+                System.err.flush();
+            }
+        }
+    }
+}
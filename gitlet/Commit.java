@@ -1,20 +1,63 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.TreeSet;
 
-import static gitlet.Directories.COMMITS_DIR;
-
 /**
  * A commit to a repository.
+ * <p>
+ * Commits are stored in a versioned text encoding, and a commit's hash is the
+ * SHA-1 of that encoding. The encoding is a header of one "key value" line
+ * each for the format version, tree, parents, branch and time stamp, then an
+ * empty line, then the commit message. The printed date is made from the
+ * time stamp in the local time zone whenever it is shown, so that the same
+ * commit has the same hash on every machine. Commits of the first version of
+ * the encoding also had a date line, which is read past. Commits written with
+ * Java
+ * serialization before this encoding existed, in any of the forms they took,
+ * can still be read through LegacyCommit, and the migrate command rewrites
+ * them.
  *
  * @author Connor Bernard
  */
-public class Commit implements Serializable {
+public class Commit {
+    /**
+     * Version of the commit encoding written by encode.
+     */
+    private static final int FORMAT_VERSION = 2;
+    /**
+     * Oldest version of the commit encoding that can be decoded.
+     */
+    private static final int OLDEST_FORMAT_VERSION = 1;
+    /**
+     * Format of printed dates.
+     */
+    private static final String DATE_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+    /**
+     * Key of the header line giving the encoding's format version, which is
+     * always the first line.
+     */
+    private static final String FORMAT_KEY = "commit";
+    /**
+     * Key of the header line giving the commit's tree.
+     */
+    private static final String TREE_KEY = "tree";
+    /**
+     * Key of each header line giving one of the commit's parents.
+     */
+    private static final String PARENT_KEY = "parent";
+    /**
+     * Key of the header line giving the commit's branch.
+     */
+    private static final String BRANCH_KEY = "branch";
+    /**
+     * Key of the header line giving the commit's time stamp.
+     */
+    private static final String TIMESTAMP_KEY = "timestamp";
     /**
      * The first parent's hash.
      */
@@ -32,44 +75,42 @@ public class Commit implements Serializable {
      */
     private String hash;
     /**
-     * This commit's time stamp.
+     * Hash of the tree of this commit's files.
      */
-    private String time;
+    private final String treeHash;
     /**
-     * This commit's blobs.
+     * This commit's blobs by file path, read from its tree on first use.
      */
-    private final HashMap<String, String> blobs;
+    private HashMap<String, String> blobs;
     /**
      * This commit's branch.
      */
     private final String branch;
     /**
-     * This commit's ancestors.
+     * This commit's time stamp in milliseconds since the epoch.
      */
-    private final TreeSet<String> ancestors = new TreeSet<String>();
+    private long timestamp;
     /**
      * Constructor for the initial commit.
      */
     public Commit() {
-        this("master", "initial commit", null,
-                new HashMap<String, String>());
-        time = "Wed Dec 31 16:00:00 1969 -0800";
+        this("master", "initial commit", null, Tree.EMPTY_HASH);
+        timestamp = 0;
     }
     /**
      * General constructor for a commit.
      * @param inputBranch the branch of this commit
      * @param message message for the commit
      * @param firstParentHash    this commit's parent's hash
-     * @param inputFiles         the hashmap of this commit's blobs
+     * @param inputTree          hash of the tree of this commit's files
      */
     public Commit(String inputBranch, String message, String firstParentHash,
-                  HashMap<String, String> inputFiles) {
+                  String inputTree) {
         commitMessage = message;
         parentHash = firstParentHash;
-        blobs = inputFiles;
+        treeHash = inputTree;
         branch = inputBranch;
-        time = new SimpleDateFormat("EEE MMM d HH:mm:ss YYYY Z")
-                .format(new Date());
+        timestamp = System.currentTimeMillis();
     }
     /**
      * Constructor for commit with two parents.
@@ -77,20 +118,187 @@ public class Commit implements Serializable {
      * @param message    message for the commit
      * @param firstParentHash       this commit's parent's hash
      * @param parent2Hash this commit's second parent
-     * @param inputFiles            the hashmap of this commit's blobs
+     * @param inputTree             hash of the tree of this commit's files
      */
     public Commit(String inputBranch, String message, String firstParentHash,
-                  String parent2Hash, HashMap<String, String> inputFiles) {
-        this(inputBranch, message, firstParentHash, inputFiles);
+                  String parent2Hash, String inputTree) {
+        this(inputBranch, message, firstParentHash, inputTree);
         secondParentHash = parent2Hash;
     }
+    /**
+     * Constructor for a commit made at a given time, as when history is
+     * imported.
+     * @param inputBranch branch of this commit
+     * @param message message for the commit
+     * @param firstParentHash this commit's parent's hash, or null
+     * @param parent2Hash this commit's second parent, or null
+     * @param inputTree hash of the tree of this commit's files
+     * @param inputTimestamp milliseconds since the epoch at which this commit
+     * was made
+     */
+    public Commit(String inputBranch, String message, String firstParentHash,
+                  String parent2Hash, String inputTree, long inputTimestamp) {
+        commitMessage = message;
+        parentHash = firstParentHash;
+        secondParentHash = parent2Hash;
+        treeHash = inputTree;
+        branch = inputBranch;
+        timestamp = inputTimestamp;
+    }
+    /**
+     * Makes a commit read from one of the forms written with Java
+     * serialization, which keeps the hash it is stored under.
+     * @param inputBranch branch of the commit
+     * @param message message for the commit
+     * @param firstParentHash the commit's parent's hash
+     * @param parent2Hash the commit's second parent
+     * @param inputTree hash of the tree of the commit's files
+     * @param inputTimestamp time stamp of the commit
+     * @param storedHash hash the commit is stored under
+     * @return the commit
+     */
+    static Commit legacy(String inputBranch, String message,
+                         String firstParentHash, String parent2Hash,
+                         String inputTree, long inputTimestamp,
+                         String storedHash) {
+        Commit result = new Commit(inputBranch, message, firstParentHash,
+                parent2Hash, inputTree, inputTimestamp);
+        result.hash = storedHash;
+        return result;
+    }
+    /**
+     * Formats a time stamp the way commit dates are printed, in the local
+     * time zone.
+     * @param millis milliseconds since the epoch
+     * @return the printed date
+     */
+    static String formatTime(long millis) {
+        return new SimpleDateFormat(DATE_FORMAT, Locale.US)
+                .format(new Date(millis));
+    }
+    /**
+     * Makes a copy of this commit with different parents, as when the
+     * parents were rewritten under new hashes.
+     * @param firstParentHash hash of the copy's first parent
+     * @param parent2Hash hash of the copy's second parent, or null
+     * @return the copy
+     */
+    public Commit withParents(String firstParentHash, String parent2Hash) {
+        return new Commit(branch, commitMessage, firstParentHash, parent2Hash,
+                treeHash, timestamp);
+    }
+    /**
+     * Encodes this commit in the current commit format.
+     * @return the canonical encoding of this commit
+     */
+    public byte[] encode() {
+        StringBuilder result = new StringBuilder();
+        result.append(FORMAT_KEY).append(' ').append(FORMAT_VERSION)
+                .append('\n');
+        result.append(TREE_KEY).append(' ').append(treeHash).append('\n');
+        if (parentHash != null) {
+            result.append(PARENT_KEY).append(' ').append(parentHash)
+                    .append('\n');
+        }
+        if (secondParentHash != null) {
+            result.append(PARENT_KEY).append(' ').append(secondParentHash)
+                    .append('\n');
+        }
+        result.append(BRANCH_KEY).append(' ').append(branch).append('\n');
+        result.append(TIMESTAMP_KEY).append(' ').append(timestamp)
+                .append('\n');
+        result.append('\n').append(commitMessage);
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    /**
+     * Checks whether stored commit contents are in the current commit
+     * format rather than Java serialization.
+     * @param contents stored contents of a commit
+     * @return whether contents were written by encode
+     */
+    public static boolean isEncoded(byte[] contents) {
+        byte[] key = (FORMAT_KEY + " ").getBytes(StandardCharsets.UTF_8);
+        if (contents.length < key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i += 1) {
+            if (contents[i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Decodes a commit written by encode.
+     * @param contents the encoding of the commit
+     * @return the commit
+     */
+    public static Commit decode(byte[] contents) {
+        return decode(contents, Utils.sha1(contents));
+    }
+    /**
+     * Decodes a commit written by encode whose hash is already known, as
+     * when it was looked up by hash, so the contents need not be hashed
+     * again. Only the header is parsed; the commit's tree is not read until
+     * its blobs are asked for.
+     * @param contents the encoding of the commit
+     * @param knownHash hash of contents
+     * @return the commit
+     */
+    public static Commit decode(byte[] contents, String knownHash) {
+        String text = new String(contents, StandardCharsets.UTF_8);
+        int headerEnd = text.indexOf("\n\n");
+        if (headerEnd < 0) {
+            throw new IllegalArgumentException("malformed commit");
+        }
+        String[] parents = new String[2];
+        int numParents = 0;
+        String tree = null;
+        String commitBranch = null;
+        long stamp = 0;
+        for (String line : text.substring(0, headerEnd).split("\n")) {
+            int space = line.indexOf(' ');
+            String key = line.substring(0, space);
+            String value = line.substring(space + 1);
+            switch (key) {
+            case FORMAT_KEY:
+                int version = Integer.parseInt(value);
+                if (version < OLDEST_FORMAT_VERSION
+                        || version > FORMAT_VERSION) {
+                    throw new IllegalArgumentException(
+                            "unknown commit format " + value);
+                }
+                break;
+            case TREE_KEY:
+                tree = value;
+                break;
+            case PARENT_KEY:
+                parents[numParents] = value;
+                numParents += 1;
+                break;
+            case BRANCH_KEY:
+                commitBranch = value;
+                break;
+            case TIMESTAMP_KEY:
+                stamp = Long.parseLong(value);
+                break;
+            default:
+                break;
+            }
+        }
+        Commit result = new Commit(commitBranch,
+                text.substring(headerEnd + 2), parents[0], parents[1], tree,
+                stamp);
+        result.hash = knownHash;
+        return result;
+    }
     /**
      * Gets this commit's hash.
      * @return this commit's hash
      */
     public String getHash() {
         if (hash == null) {
-            hash = Utils.sha1(Utils.serialize(this));
+            hash = Utils.sha1(encode());
         }
         return hash;
     }
@@ -123,11 +331,18 @@ public class Commit implements Serializable {
         return commitMessage;
     }
     /**
-     * Gets this commit's commit time.
-     * @return this commit's commit time
+     * Gets this commit's printed date.
+     * @return this commit's time stamp as a date in the local time zone
      */
     public String getTime() {
-        return time;
+        return formatTime(timestamp);
+    }
+    /**
+     * Gets this commit's time stamp.
+     * @return milliseconds since the epoch at which this commit was made
+     */
+    public long getTimestamp() {
+        return timestamp;
     }
     /**
      * Gets this commit's branch.
@@ -137,10 +352,21 @@ public class Commit implements Serializable {
         return branch;
     }
     /**
-     * Gets this commit's blobs.
-     * @return this commit's blobs
+     * Gets the hash of this commit's tree.
+     * @return this commit's tree hash
+     */
+    public String getTreeHash() {
+        return treeHash;
+    }
+    /**
+     * Gets this commit's blobs, reading every tree of this commit the first
+     * time it is called.
+     * @return map from the path of each of this commit's files to its blob
      */
     public HashMap<String, String> getBlobs() {
+        if (blobs == null) {
+            blobs = Tree.flatten(ObjectStore.local(), treeHash);
+        }
         return blobs;
     }
     /**
@@ -149,7 +375,7 @@ public class Commit implements Serializable {
      * @return whether this commit contains the file
      */
     public boolean containsFile(String fileName) {
-        return blobs.containsKey(fileName);
+        return getBlobs().containsKey(fileName);
     }
     /**
      * Checks to see if this commit contains the input blob.
@@ -157,46 +383,14 @@ public class Commit implements Serializable {
      * @return whether input blob is in this commit
      */
     public boolean containsBlob(String blobHash) {
-        return blobs.containsValue(blobHash);
-    }
-    /**
-     * Adds a blob to this commit.
-     * @param fileName name of file corresponding to the blob being added
-     * @param blobHash hash of blob to add to this commit
-     */
-    public void addBlob(String fileName, String blobHash) {
-        blobs.put(fileName, blobHash);
+        return getBlobs().containsValue(blobHash);
     }
     /**
      * Getter method for this commit's ancestors.
      * @return a set of this commit's ancestors
      */
     public TreeSet<String> getAncestors() {
-        getAncestorsRecursive(hash);
-        return ancestors;
-    }
-    /**
-     * Recursive helper method for the getAncestors method.
-     * @param curr current branch
-     */
-    private void getAncestorsRecursive(String curr) {
-        if (readCommitFromHash(curr).getParentHash() != null) {
-            getAncestorsRecursive(readCommitFromHash(curr).getParentHash());
-        }
-        ancestors.add(curr);
-        if (readCommitFromHash(curr).getSecondParentHash() != null) {
-            getAncestorsRecursive(readCommitFromHash(curr)
-                    .getSecondParentHash());
-        }
-    }
-    /**
-     * Gets the commit associated with a given hash.
-     * @param commitHash hash to get the commit of
-     * @return the commit associated with the given hash
-     */
-    private Commit readCommitFromHash(String commitHash) {
-        return Utils.readObject(new File(COMMITS_DIR + "/"
-                + commitHash), Commit.class);
+        return CommitGraph.get().ancestors(getHash());
     }
     /**
      * This objects representation as a string.
@@ -204,7 +398,7 @@ public class Commit implements Serializable {
      */
     @Override
     public String toString() {
-        return "===\ncommit " + getHash() + "\nDate: " + time + "\n"
+        return "===\ncommit " + getHash() + "\nDate: " + getTime() + "\n"
                 + commitMessage + "\n";
     }
 }
@@ -0,0 +1,695 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import static gitlet.Directories.COMMIT_CATALOG;
+import static gitlet.Directories.COMMIT_TOKENS;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * An append-only catalog of the hash, time stamp, parents and message of
+ * every commit, so that find and global-log read one file instead of
+ * every commit. A commit is appended when it is made; commits that arrive
+ * any other way, such as by fetch or fast-import, are appended the next
+ * time the catalog is read, by comparing it with the commit index. Commits
+ * no longer in the index are skipped.
+ * <p>
+ * Each record is its length followed by the raw hash, the time stamp, the
+ * number of parents and their raw hashes, and a date and the message, each
+ * as its length and UTF-8 bytes. The date is left empty, and read past in
+ * records written when it held the printed date: dates are printed from the
+ * time stamp. A record cut short by a crash is ignored and cut off before
+ * the next record is appended.
+ * <p>
+ * Messages are split into lowercase tokens of letters and digits, and an
+ * inverted index from each token to the records holding it is kept in a
+ * second file. The index covers the records up to some point; the records
+ * after it are checked directly, and the index is rewritten once they grow
+ * too many.
+ * @author Connor Bernard
+ */
+public class CommitCatalog {
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of bytes in the token index header: the number of records
+     * covered, the catalog length covered and the number of tokens.
+     */
+    private static final int TOKENS_HEADER_BYTES = Integer.BYTES
+            + Long.BYTES + Integer.BYTES;
+    /**
+     * Number of bytes in each token entry of the token index: the token's
+     * hash, and the start and length of its list of records.
+     */
+    private static final int TOKEN_ENTRY_BYTES = Long.BYTES
+            + 2 * Integer.BYTES;
+    /**
+     * Least number of records past the token index before it is rewritten.
+     */
+    private static final int MIN_UNINDEXED = 1024;
+    /**
+     * One commit in the catalog.
+     */
+    static class Entry {
+        /**
+         * Hash of the commit.
+         */
+        private final String hash;
+        /**
+         * Time stamp of the commit in milliseconds since the epoch.
+         */
+        private final long timestamp;
+        /**
+         * Hashes of the commit's parents.
+         */
+        private final String[] parents;
+        /**
+         * Message of the commit.
+         */
+        private final String message;
+        /**
+         * Creates an entry.
+         * @param commitHash hash of the commit
+         * @param commitTimestamp time stamp of the commit
+         * @param commitParents hashes of the commit's parents
+         * @param commitMessage message of the commit
+         */
+        Entry(String commitHash, long commitTimestamp, String[] commitParents,
+              String commitMessage) {
+            hash = commitHash;
+            timestamp = commitTimestamp;
+            parents = commitParents;
+            message = commitMessage;
+        }
+        /**
+         * Gets the hash of the commit.
+         * @return the commit's hash
+         */
+        String getHash() {
+            return hash;
+        }
+        /**
+         * Prints the commit the way global-log prints a commit.
+         * @return the commit's log entry
+         */
+        @Override
+        public String toString() {
+            return "===\ncommit " + hash + "\nDate: "
+                    + Commit.formatTime(timestamp) + "\n" + message + "\n";
+        }
+    }
+    /**
+     * A search of the catalog: an optional test of the message and an
+     * optional range of time stamps.
+     */
+    static class Query {
+        /**
+         * Whole message to match, or null.
+         */
+        private String exact;
+        /**
+         * Text the message must contain, or null.
+         */
+        private String substring;
+        /**
+         * Pattern the message must contain a match of, or null.
+         */
+        private Pattern regex;
+        /**
+         * Least time stamp to match.
+         */
+        private long since = Long.MIN_VALUE;
+        /**
+         * Time stamp every match must be before.
+         */
+        private long until = Long.MAX_VALUE;
+        /**
+         * Matches commits whose whole message is some text.
+         * @param message the message
+         * @return this query
+         */
+        Query exact(String message) {
+            exact = message;
+            return this;
+        }
+        /**
+         * Matches commits whose message contains some text.
+         * @param text the text
+         * @return this query
+         */
+        Query substring(String text) {
+            substring = text;
+            return this;
+        }
+        /**
+         * Matches commits whose message contains a match of a pattern.
+         * @param pattern the pattern
+         * @return this query
+         */
+        Query regex(Pattern pattern) {
+            regex = pattern;
+            return this;
+        }
+        /**
+         * Matches only commits made in a range of time.
+         * @param from least time stamp, inclusive
+         * @param to greatest time stamp, exclusive
+         * @return this query
+         */
+        Query between(long from, long to) {
+            since = Math.max(since, from);
+            until = Math.min(until, to);
+            return this;
+        }
+        /**
+         * Checks whether a commit matches this query.
+         * @param entry the commit
+         * @return whether it matches
+         */
+        boolean matches(Entry entry) {
+            String message = entry.message;
+            return entry.timestamp >= since && entry.timestamp < until
+                    && (exact == null || message.equals(exact))
+                    && (substring == null || message.contains(substring))
+                    && (regex == null || regex.matcher(message).find());
+        }
+        /**
+         * Gets tokens every matching message has, so only the records
+         * holding all of them need be checked.
+         * @return the tokens, which may be none
+         */
+        List<String> requiredTokens() {
+            if (exact != null) {
+                return tokens(exact, false);
+            } else if (substring != null) {
+                return tokens(substring, true);
+            }
+            return Collections.emptyList();
+        }
+    }
+    /**
+     * The catalog as last read or written by this process.
+     */
+    private static CommitCatalog loaded;
+    /**
+     * The commits in the order they were appended.
+     */
+    private final ArrayList<Entry> entries = new ArrayList<Entry>();
+    /**
+     * Position in entries of each commit.
+     */
+    private final HashMap<String, Integer> positions =
+            new HashMap<String, Integer>();
+    /**
+     * Number of bytes of whole records in the catalog file.
+     */
+    private long length;
+    /**
+     * Gets the catalog of this repository, reading any records appended
+     * since it was last read and appending every commit in the commit index
+     * that it is missing.
+     * @return the catalog
+     */
+    public static CommitCatalog get() {
+        File file = COMMIT_CATALOG.file();
+        if (loaded == null || file.length() < loaded.length) {
+            loaded = new CommitCatalog();
+        }
+        loaded.readFrom(file);
+        loaded.catchUp();
+        return loaded;
+    }
+    /**
+     * Regenerates the catalog and its token index from the commits.
+     * @return the catalog
+     */
+    public static CommitCatalog rebuild() {
+        COMMIT_CATALOG.file().delete();
+        COMMIT_TOKENS.file().delete();
+        loaded = new CommitCatalog();
+        loaded.catchUp();
+        loaded.writeTokens();
+        return loaded;
+    }
+    /**
+     * Appends a newly made commit to the catalog. The commit must already be
+     * in the commit index.
+     * @param hash hash of the commit
+     * @param commit the commit
+     */
+    public static void record(String hash, Commit commit) {
+        CommitCatalog catalog = loaded;
+        if (catalog == null
+                || COMMIT_CATALOG.file().length() != catalog.length) {
+            catalog = new CommitCatalog();
+            catalog.readFrom(COMMIT_CATALOG.file());
+            loaded = catalog;
+        }
+        if (!catalog.positions.containsKey(hash)) {
+            catalog.append(Collections.singletonList(entryOf(hash, commit)));
+        }
+    }
+    /**
+     * Gets the number of commits in this catalog.
+     * @return the number of commits, including ones no longer in the index
+     */
+    public int size() {
+        return entries.size();
+    }
+    /**
+     * Gets every commit in the commit index, sorted by hash as a scan of the
+     * index would list them.
+     * @return the commits
+     */
+    public List<Entry> all() {
+        return sorted(liveRange(0, entries.size(), null));
+    }
+    /**
+     * Finds the commits in the commit index matching a query, sorted by
+     * hash as a scan of the index would list them. The token index narrows
+     * down the records to check when the query has whole tokens.
+     * @param query the query
+     * @return the matching commits
+     */
+    public List<Entry> find(Query query) {
+        List<String> required = query.requiredTokens();
+        int[] covered = required.isEmpty() ? null : lookup(required);
+        CommitIndex index = CommitIndex.get();
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        int from = 0;
+        if (covered != null) {
+            for (int i = 1; i < covered.length; i += 1) {
+                Entry entry = entries.get(covered[i]);
+                if (query.matches(entry) && index.contains(entry.hash)) {
+                    result.add(entry);
+                }
+            }
+            from = covered[0];
+        }
+        result.addAll(liveRange(from, entries.size(), query));
+        if (entries.size() - from > Math.max(MIN_UNINDEXED,
+                entries.size() / 8)) {
+            writeTokens();
+        }
+        return sorted(result);
+    }
+    /**
+     * Lists the commits in a range of positions that are in the commit
+     * index and match a query.
+     * @param from first position
+     * @param to position after the last
+     * @param query the query, or null to match every commit
+     * @return the matching commits
+     */
+    private ArrayList<Entry> liveRange(int from, int to, Query query) {
+        CommitIndex index = CommitIndex.get();
+        ArrayList<Entry> result = new ArrayList<Entry>();
+        for (Entry entry : entries.subList(from, to)) {
+            if ((query == null || query.matches(entry))
+                    && index.contains(entry.hash)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+    /**
+     * Sorts commits by hash.
+     * @param list the commits
+     * @return the list, sorted
+     */
+    private static List<Entry> sorted(List<Entry> list) {
+        list.sort((a, b) -> a.hash.compareTo(b.hash));
+        return list;
+    }
+    /**
+     * Splits text into lowercase tokens of letters and digits.
+     * @param text the text
+     * @param innerOnly whether to leave out a token at the start or end of
+     * the text, which may be part of a longer token in text containing it
+     * @return the tokens
+     */
+    static List<String> tokens(String text, boolean innerOnly) {
+        ArrayList<String> result = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i += 1) {
+            boolean inToken = i < text.length()
+                    && Character.isLetterOrDigit(text.charAt(i));
+            if (inToken && start < 0) {
+                start = i;
+            } else if (!inToken && start >= 0) {
+                if (!innerOnly || (start > 0 && i < text.length())) {
+                    result.add(text.substring(start, i)
+                            .toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return result;
+    }
+    /**
+     * Hashes a token to 64 bits with FNV-1a. Tokens that collide only make
+     * the token index name records that are then checked and dropped.
+     * @param token the token
+     * @return the token's hash
+     */
+    private static long tokenHash(String token) {
+        long result = 0xcbf29ce484222325L;
+        for (byte b : token.getBytes(StandardCharsets.UTF_8)) {
+            result = (result ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return result;
+    }
+    /**
+     * Looks up the records holding every one of some tokens in the token
+     * index.
+     * @param required the tokens
+     * @return the number of records the index covers followed by the
+     * positions of the covered records holding every token, or null if
+     * there is no usable index
+     */
+    private int[] lookup(List<String> required) {
+        File file = COMMIT_TOKENS.file();
+        if (!file.isFile()) {
+            return null;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Utils.readContents(file));
+        int coveredCount = index.getInt();
+        long coveredLength = index.getLong();
+        int numTokens = index.getInt();
+        if (coveredCount > entries.size() || coveredLength > length) {
+            return null;
+        }
+        int[] result = null;
+        for (String token : required) {
+            int[] postings = postings(index, numTokens, tokenHash(token));
+            result = result == null ? postings : intersect(result, postings);
+        }
+        int[] withCount = new int[result.length + 1];
+        withCount[0] = coveredCount;
+        System.arraycopy(result, 0, withCount, 1, result.length);
+        return withCount;
+    }
+    /**
+     * Finds the list of records of one token in the token index by binary
+     * search over the sorted token hashes.
+     * @param index contents of the token index
+     * @param numTokens number of tokens in the index
+     * @param hash hash of the token
+     * @return positions of the records holding the token, in order
+     */
+    private static int[] postings(ByteBuffer index, int numTokens,
+                                  long hash) {
+        int lo = 0;
+        int hi = numTokens;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int at = TOKENS_HEADER_BYTES + mid * TOKEN_ENTRY_BYTES;
+            long midHash = index.getLong(at);
+            if (midHash < hash) {
+                lo = mid + 1;
+            } else if (midHash > hash) {
+                hi = mid;
+            } else {
+                int start = index.getInt(at + Long.BYTES);
+                int[] result = new int[index.getInt(at + Long.BYTES
+                        + Integer.BYTES)];
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = index.getInt(start + i * Integer.BYTES);
+                }
+                return result;
+            }
+        }
+        return new int[0];
+    }
+    /**
+     * Intersects two sorted lists of positions.
+     * @param a the first list
+     * @param b the second list
+     * @return positions in both lists, in order
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[size] = a[i];
+                size += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+    /**
+     * Rewrites the token index to cover every record in this catalog,
+     * replacing the file in one rename.
+     */
+    private void writeTokens() {
+        HashMap<Long, ArrayList<Integer>> byToken =
+                new HashMap<Long, ArrayList<Integer>>();
+        for (int i = 0; i < entries.size(); i += 1) {
+            for (String token : tokens(entries.get(i).message, false)) {
+                ArrayList<Integer> postings = byToken.computeIfAbsent(
+                        tokenHash(token), k -> new ArrayList<Integer>());
+                if (postings.isEmpty()
+                        || postings.get(postings.size() - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+        ArrayList<Long> hashes = new ArrayList<Long>(byToken.keySet());
+        Collections.sort(hashes);
+        int numPostings = 0;
+        for (ArrayList<Integer> postings : byToken.values()) {
+            numPostings += postings.size();
+        }
+        ByteBuffer index = ByteBuffer.allocate(TOKENS_HEADER_BYTES
+                + hashes.size() * TOKEN_ENTRY_BYTES
+                + numPostings * Integer.BYTES);
+        index.putInt(entries.size());
+        index.putLong(length);
+        index.putInt(hashes.size());
+        int start = TOKENS_HEADER_BYTES + hashes.size() * TOKEN_ENTRY_BYTES;
+        for (long hash : hashes) {
+            int count = byToken.get(hash).size();
+            index.putLong(hash);
+            index.putInt(start);
+            index.putInt(count);
+            start += count * Integer.BYTES;
+        }
+        for (long hash : hashes) {
+            for (int position : byToken.get(hash)) {
+                index.putInt(position);
+            }
+        }
+        File tmp = new File(COMMIT_TOKENS.file().getPath() + ".lock");
+        Utils.writeContents(tmp, index.array());
+        try {
+            Files.move(tmp.toPath(), COMMIT_TOKENS.file().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Reads the whole records of the catalog file past those already read.
+     * @param file the catalog file
+     */
+    private void readFrom(File file) {
+        if (!file.isFile() || file.length() == length) {
+            return;
+        }
+        ByteBuffer contents;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            contents = ByteBuffer.allocate((int) (channel.size() - length));
+            channel.read(contents, length);
+            contents.flip();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        while (contents.remaining() >= Integer.BYTES) {
+            int size = contents.getInt(contents.position());
+            if (size <= 0 || contents.remaining() - Integer.BYTES < size) {
+                break;
+            }
+            contents.getInt();
+            ByteBuffer record = contents.slice();
+            record.limit(size);
+            contents.position(contents.position() + size);
+            add(decode(record));
+            length += Integer.BYTES + size;
+        }
+    }
+    /**
+     * Appends every commit in the commit index that this catalog is
+     * missing, reading each one.
+     */
+    private void catchUp() {
+        ObjectStore store = ObjectStore.local();
+        ArrayList<Entry> missing = new ArrayList<Entry>();
+        for (String hash : CommitIndex.get().hashes()) {
+            if (!positions.containsKey(hash)) {
+                missing.add(entryOf(hash, store.readCommit(hash)));
+            }
+        }
+        if (!missing.isEmpty()) {
+            append(missing);
+        }
+    }
+    /**
+     * Appends commits to the catalog file and to this catalog, first
+     * cutting off a record left half written.
+     * @param added the commits
+     */
+    private void append(List<Entry> added) {
+        File file = COMMIT_CATALOG.file();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (Entry entry : added) {
+            byte[] record = encode(entry);
+            records.write(record.length >>> 24);
+            records.write(record.length >>> 16);
+            records.write(record.length >>> 8);
+            records.write(record.length);
+            records.writeBytes(record);
+        }
+        try {
+            if (file.length() > length) {
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    channel.truncate(length);
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(file, true)) {
+                out.write(records.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        for (Entry entry : added) {
+            add(entry);
+        }
+        length += records.size();
+    }
+    /**
+     * Adds a commit read or appended to this catalog, unless it is already
+     * in it.
+     * @param entry the commit
+     */
+    private void add(Entry entry) {
+        if (!positions.containsKey(entry.hash)) {
+            positions.put(entry.hash, entries.size());
+            entries.add(entry);
+        }
+    }
+    /**
+     * Makes the entry of a commit.
+     * @param hash hash of the commit
+     * @param commit the commit
+     * @return the commit's entry
+     */
+    private static Entry entryOf(String hash, Commit commit) {
+        String[] parents;
+        if (commit.getParentHash() == null) {
+            parents = new String[0];
+        } else if (commit.getSecondParentHash() == null) {
+            parents = new String[] {commit.getParentHash()};
+        } else {
+            parents = new String[] {commit.getParentHash(),
+                commit.getSecondParentHash()};
+        }
+        return new Entry(hash, commit.getTimestamp(), parents,
+                commit.getCommitMessage());
+    }
+    /**
+     * Encodes the record of a commit, without its length.
+     * @param entry the commit
+     * @return the record
+     */
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(Utils.hexToBytes(entry.hash));
+            out.writeLong(entry.timestamp);
+            out.writeByte(entry.parents.length);
+            for (String parent : entry.parents) {
+                out.write(Utils.hexToBytes(parent));
+            }
+            writeString(out, null);
+            writeString(out, entry.message);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+    /**
+     * Writes a string as its length and UTF-8 bytes.
+     * @param out stream to write to
+     * @param text the string, where null is written as an empty string
+     * @throws IOException if writing fails
+     */
+    private static void writeString(DataOutputStream out, String text)
+            throws IOException {
+        byte[] bytes = (text == null ? "" : text)
+                .getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    /**
+     * Reads a string written by writeString.
+     * @param record buffer to read from
+     * @return the string
+     */
+    private static String readString(ByteBuffer record) {
+        byte[] bytes = new byte[record.getInt()];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    /**
+     * Decodes a record written by encode.
+     * @param record the record
+     * @return the commit it describes
+     */
+    private static Entry decode(ByteBuffer record) {
+        byte[] hash = new byte[HASH_BYTES];
+        record.get(hash);
+        long timestamp = record.getLong();
+        String[] parents = new String[record.get()];
+        for (int i = 0; i < parents.length; i += 1) {
+            byte[] parent = new byte[HASH_BYTES];
+            record.get(parent);
+            parents[i] = Utils.bytesToHex(parent, 0, HASH_BYTES);
+        }
+        readString(record);
+        return new Entry(Utils.bytesToHex(hash, 0, HASH_BYTES), timestamp,
+                parents, readString(record));
+    }
+}
@@ -0,0 +1,535 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import static gitlet.Directories.COMMIT_GRAPH;
+import static gitlet.Directories.REPO_DIR;
+
+/**
+ * A compact, append-only file describing the shape of the commit history:
+ * for every commit, the positions of its parents, its generation number and
+ * its time stamp. Ancestry and split point queries are answered from this
+ * file without reading any commits.
+ * <p>
+ * Commits are appended under an exclusive lock on the file. A process
+ * holding it first reads the records other processes appended since it
+ * last looked, so that the graph it appends to is always the whole file and
+ * every parent position it writes points at the right record.
+ * @author Connor Bernard
+ */
+public class CommitGraph {
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of bytes in one record: hash, two parent positions, generation
+     * and time stamp.
+     */
+    private static final int RECORD_BYTES = HASH_BYTES + 3 * Integer.BYTES
+            + Long.BYTES;
+    /**
+     * Parent position of a commit with no such parent.
+     */
+    private static final int NONE = -1;
+    /**
+     * Length of the graph file recorded by a graph being rebuilt, so that
+     * the file is emptied when the graph is first written.
+     */
+    private static final long REBUILD = -1;
+    /**
+     * Flag marking a commit reachable from the first commit of a query.
+     */
+    private static final int FIRST = 1;
+    /**
+     * Flag marking a commit reachable from the second commit of a query.
+     */
+    private static final int SECOND = 2;
+    /**
+     * Flag marking a commit below a common ancestor that was already found.
+     */
+    private static final int STALE = 4;
+    /**
+     * The graph as last read or written by this process.
+     */
+    private static CommitGraph loaded;
+    /**
+     * Raw hashes of the commits, HASH_BYTES bytes per commit.
+     */
+    private byte[] hashes;
+    /**
+     * Position of each first parent, or NONE.
+     */
+    private int[] firstParents;
+    /**
+     * Position of each second parent, or NONE.
+     */
+    private int[] secondParents;
+    /**
+     * Generation number of each commit: one more than the largest generation
+     * of its parents, and 1 for a commit without parents.
+     */
+    private int[] generations;
+    /**
+     * Time stamp of each commit in milliseconds.
+     */
+    private long[] times;
+    /**
+     * Number of commits in this graph.
+     */
+    private int size;
+    /**
+     * Map from commit hash to position in this graph.
+     */
+    private HashMap<String, Integer> positions =
+            new HashMap<String, Integer>();
+    /**
+     * Length of the graph file this graph reflects.
+     */
+    private long fileLength;
+    /**
+     * Records appended since this graph was last written.
+     */
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    /**
+     * Creates an empty graph with room for the given number of commits.
+     * @param capacity initial number of commits this graph can hold
+     */
+    private CommitGraph(int capacity) {
+        capacity = Math.max(capacity, 16);
+        hashes = new byte[capacity * HASH_BYTES];
+        firstParents = new int[capacity];
+        secondParents = new int[capacity];
+        generations = new int[capacity];
+        times = new long[capacity];
+    }
+    /**
+     * Gets the commit graph of this repository, reading it again if another
+     * process appended to it.
+     * @return the commit graph
+     */
+    public static CommitGraph get() {
+        File graphFile = COMMIT_GRAPH.file();
+        if (loaded != null && loaded.fileLength == graphFile.length()) {
+            return loaded;
+        }
+        if (!graphFile.exists()) {
+            return rebuild();
+        }
+        ByteBuffer contents = ByteBuffer.wrap(Utils.readContents(graphFile));
+        int numRecords = contents.capacity() / RECORD_BYTES;
+        CommitGraph graph = new CommitGraph(numRecords);
+        byte[] hash = new byte[HASH_BYTES];
+        for (int i = 0; i < numRecords; i += 1) {
+            contents.get(hash);
+            graph.put(hash, contents.getInt(), contents.getInt(),
+                    contents.getInt(), contents.getLong());
+        }
+        graph.fileLength = (long) numRecords * RECORD_BYTES;
+        graph.pending.reset();
+        loaded = graph;
+        return graph;
+    }
+    /**
+     * Rebuilds the commit graph from every commit in the commit index.
+     * @return the rebuilt commit graph
+     */
+    public static CommitGraph rebuild() {
+        List<String> allCommits = CommitIndex.get().hashes();
+        CommitGraph graph = new CommitGraph(allCommits.size());
+        graph.fileLength = REBUILD;
+        loaded = graph;
+        graph.positionsOf(allCommits.toArray(new String[0]));
+        return graph;
+    }
+    /**
+     * Records a newly written commit in the graph.
+     * @param commit commit to add
+     */
+    public static void record(Commit commit) {
+        get().positionsOf(commit.getHash());
+    }
+    /**
+     * Checks whether one commit is an ancestor of (or the same as) another.
+     * Only commits with a generation at least that of the possible ancestor
+     * are visited.
+     * @param ancestorHash hash of the possible ancestor
+     * @param descendantHash hash of the possible descendant
+     * @return whether ancestorHash is reachable from descendantHash
+     */
+    public boolean isAncestor(String ancestorHash, String descendantHash) {
+        int[] ends = positionsOf(ancestorHash, descendantHash);
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(ends[1]);
+        return reaches(stack, ends[0]);
+    }
+    /**
+     * Checks whether a commit is reachable from any of the commits on a
+     * stack. Only commits with a generation greater than the target's are
+     * walked through.
+     * @param stack positions of the commits to start from, emptied as they
+     * are visited
+     * @param ancestor position of the commit to look for
+     * @return whether ancestor is one of the commits or an ancestor of one
+     */
+    private boolean reaches(ArrayDeque<Integer> stack, int ancestor) {
+        int minGeneration = generations[ancestor];
+        HashSet<Integer> visited = new HashSet<Integer>();
+        while (!stack.isEmpty()) {
+            int curr = stack.pop();
+            if (curr == ancestor) {
+                return true;
+            }
+            if (generations[curr] <= minGeneration || !visited.add(curr)) {
+                continue;
+            }
+            pushParent(stack, firstParents[curr]);
+            pushParent(stack, secondParents[curr]);
+        }
+        return false;
+    }
+    /**
+     * Gets the split point of two commits: a latest common ancestor, that is,
+     * a common ancestor that is not an ancestor of any other common ancestor.
+     * When there are several, the one nearest to the current commit wins.
+     * @param currHash hash of the current commit
+     * @param givenHash hash of the given commit
+     * @return hash of the split point, or null if there is no common ancestor
+     */
+    public String splitPoint(String currHash, String givenHash) {
+        int[] ends = positionsOf(currHash, givenHash);
+        int curr = ends[0];
+        List<Integer> bases = mergeBases(curr, ends[1]);
+        if (bases.size() <= 1) {
+            return bases.isEmpty() ? null : hashAt(bases.get(0));
+        }
+        HashSet<Integer> candidates = new HashSet<Integer>(bases);
+        HashSet<Integer> visited = new HashSet<Integer>();
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+        queue.add(curr);
+        visited.add(curr);
+        while (!queue.isEmpty()) {
+            int removed = queue.remove();
+            if (candidates.contains(removed)) {
+                return hashAt(removed);
+            }
+            for (int parent : new int[] {firstParents[removed],
+                secondParents[removed]}) {
+                if (parent != NONE && visited.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return hashAt(bases.get(0));
+    }
+    /**
+     * Gets the hashes of every ancestor of a commit, including itself.
+     * @param hash hash of the commit
+     * @return set of the hashes of all of its ancestors
+     */
+    public TreeSet<String> ancestors(String hash) {
+        int start = positionsOf(hash)[0];
+        TreeSet<String> result = new TreeSet<String>();
+        HashSet<Integer> visited = new HashSet<Integer>();
+        ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int curr = stack.pop();
+            if (visited.add(curr)) {
+                result.add(hashAt(curr));
+                pushParent(stack, firstParents[curr]);
+                pushParent(stack, secondParents[curr]);
+            }
+        }
+        return result;
+    }
+    /**
+     * Finds the best common ancestors of two commits by walking down from
+     * both in order of decreasing generation, painting each commit with the
+     * sides it is reachable from, until every commit left to visit lies
+     * below a common ancestor already found. The number of queued entries
+     * whose commit is not painted stale is kept as the walk goes, so that
+     * the walk ends without looking through the queue.
+     * @param first position of the first commit
+     * @param second position of the second commit
+     * @return positions of the best common ancestors
+     */
+    private List<Integer> mergeBases(int first, int second) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        if (first == second) {
+            result.add(first);
+            return result;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<Integer, Integer>();
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(
+            (a, b) -> generations[a] != generations[b]
+                    ? Integer.compare(generations[b], generations[a])
+                    : Long.compare(times[b], times[a]));
+        HashMap<Integer, Integer> queued = new HashMap<Integer, Integer>();
+        flags.put(first, FIRST);
+        flags.put(second, SECOND);
+        queue.add(first);
+        queue.add(second);
+        queued.put(first, 1);
+        queued.put(second, 1);
+        int fresh = 2;
+        while (fresh > 0) {
+            int curr = queue.remove();
+            int flag = flags.get(curr);
+            queued.merge(curr, -1, Integer::sum);
+            if ((flag & STALE) == 0) {
+                fresh -= 1;
+            }
+            int paint = flag & (FIRST | SECOND | STALE);
+            if ((paint & (FIRST | SECOND)) == (FIRST | SECOND)) {
+                if ((paint & STALE) == 0 && !result.contains(curr)) {
+                    result.add(curr);
+                }
+                paint |= STALE;
+            }
+            for (int parent : new int[] {firstParents[curr],
+                secondParents[curr]}) {
+                if (parent == NONE) {
+                    continue;
+                }
+                int parentFlag = flags.getOrDefault(parent, 0);
+                if ((parentFlag & paint) != paint) {
+                    int count = queued.getOrDefault(parent, 0);
+                    if ((parentFlag & STALE) == 0) {
+                        fresh -= count;
+                    }
+                    if (((parentFlag | paint) & STALE) == 0) {
+                        fresh += count + 1;
+                    }
+                    flags.put(parent, parentFlag | paint);
+                    queue.add(parent);
+                    queued.put(parent, count + 1);
+                }
+            }
+        }
+        return removeRedundant(result);
+    }
+    /**
+     * Removes the common ancestors that are ancestors of another one. Only
+     * one of greater generation can be above a common ancestor, so each is
+     * looked for in one walk from those alone.
+     * @param bases positions of common ancestors
+     * @return the common ancestors that are not below any other
+     */
+    private List<Integer> removeRedundant(List<Integer> bases) {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        for (int base : bases) {
+            ArrayDeque<Integer> stack = new ArrayDeque<Integer>();
+            for (int other : bases) {
+                if (generations[other] > generations[base]) {
+                    stack.push(other);
+                }
+            }
+            if (!reaches(stack, base)) {
+                result.add(base);
+            }
+        }
+        return result;
+    }
+    /**
+     * Pushes a parent position onto a stack if there is such a parent.
+     * @param stack stack to push onto
+     * @param parent position of the parent, or NONE
+     */
+    private void pushParent(ArrayDeque<Integer> stack, int parent) {
+        if (parent != NONE) {
+            stack.push(parent);
+        }
+    }
+    /**
+     * Gets the position of a commit, adding it and any of its ancestors that
+     * are missing from the graph by reading them from the object store.
+     * Shallow commits are added without parents. The caller holds the graph
+     * file's lock.
+     * @param hash full hash of the commit
+     * @return position of the commit in this graph
+     */
+    private int ensure(String hash) {
+        if (positions.containsKey(hash)) {
+            return positions.get(hash);
+        }
+        TreeSet<String> shallow = Shallow.read(REPO_DIR.file());
+        ArrayDeque<String> stack = new ArrayDeque<String>();
+        stack.push(hash);
+        while (!stack.isEmpty()) {
+            String top = stack.peek();
+            if (positions.containsKey(top)) {
+                stack.pop();
+                continue;
+            }
+            Commit commit = ObjectStore.local().readCommit(top);
+            String[] parents = Shallow.parents(commit, shallow);
+            String first = parents[0];
+            String second = parents[1];
+            if (first != null && !positions.containsKey(first)) {
+                stack.push(first);
+            } else if (second != null && !positions.containsKey(second)) {
+                stack.push(second);
+            } else {
+                stack.pop();
+                append(top, first, second, commit.getTimestamp());
+            }
+        }
+        return positions.get(hash);
+    }
+    /**
+     * Appends a commit whose parents are already in the graph.
+     * @param hash hash of the commit
+     * @param first hash of its first parent, or null
+     * @param second hash of its second parent, or null
+     * @param time time stamp of the commit
+     */
+    private void append(String hash, String first, String second, long time) {
+        int firstPos = first == null ? NONE : positions.get(first);
+        int secondPos = second == null ? NONE : positions.get(second);
+        int generation = 1;
+        if (firstPos != NONE) {
+            generation = Math.max(generation, generations[firstPos] + 1);
+        }
+        if (secondPos != NONE) {
+            generation = Math.max(generation, generations[secondPos] + 1);
+        }
+        byte[] raw = Utils.hexToBytes(hash);
+        put(raw, firstPos, secondPos, generation, time);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+        record.put(raw).putInt(firstPos).putInt(secondPos)
+                .putInt(generation).putLong(time);
+        pending.write(record.array(), 0, RECORD_BYTES);
+    }
+    /**
+     * Stores a record in the in-memory arrays of this graph.
+     * @param hash raw hash of the commit
+     * @param first position of the first parent, or NONE
+     * @param second position of the second parent, or NONE
+     * @param generation generation number of the commit
+     * @param time time stamp of the commit
+     */
+    private void put(byte[] hash, int first, int second, int generation,
+                     long time) {
+        if (size == firstParents.length) {
+            int capacity = 2 * size;
+            hashes = Arrays.copyOf(hashes, capacity * HASH_BYTES);
+            firstParents = Arrays.copyOf(firstParents, capacity);
+            secondParents = Arrays.copyOf(secondParents, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+        System.arraycopy(hash, 0, hashes, size * HASH_BYTES, HASH_BYTES);
+        firstParents[size] = first;
+        secondParents[size] = second;
+        generations[size] = generation;
+        times[size] = time;
+        positions.put(Utils.bytesToHex(hash, 0, HASH_BYTES), size);
+        size += 1;
+    }
+    /**
+     * Gets the hash of the commit at a position.
+     * @param pos position of the commit
+     * @return hash of the commit
+     */
+    private String hashAt(int pos) {
+        return Utils.bytesToHex(hashes, pos * HASH_BYTES, HASH_BYTES);
+    }
+    /**
+     * Gets the positions of commits, first adding any missing from the graph
+     * under the graph file's lock. Commits already in the graph are found
+     * without touching the file.
+     * @param hashList full hashes of the commits
+     * @return their positions, in the same order
+     */
+    private int[] positionsOf(String... hashList) {
+        int[] result = new int[hashList.length];
+        boolean known = fileLength != REBUILD;
+        for (int i = 0; i < hashList.length; i += 1) {
+            Integer pos = positions.get(hashList[i]);
+            known = known && pos != null;
+            result[i] = pos == null ? NONE : pos;
+        }
+        if (known) {
+            return result;
+        }
+        try (FileChannel graphFile = FileChannel.open(
+                COMMIT_GRAPH.file().toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = graphFile.lock();
+            try {
+                catchUp(graphFile);
+                for (int i = 0; i < hashList.length; i += 1) {
+                    result[i] = ensure(hashList[i]);
+                }
+                ByteBuffer records = ByteBuffer.wrap(pending.toByteArray());
+                while (records.hasRemaining()) {
+                    graphFile.write(records, fileLength
+                            + records.position());
+                }
+                fileLength += pending.size();
+                pending.reset();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return result;
+    }
+    /**
+     * Brings this graph up to date with the locked graph file: reads the
+     * records other processes appended since this graph last read or wrote
+     * it, starts over if the file was rebuilt or deleted since, or if this
+     * graph is a rebuild, and cuts off the part of a record a crash left at
+     * its end.
+     * @param graphFile the graph file, locked
+     * @throws IOException if the file cannot be read
+     */
+    private void catchUp(FileChannel graphFile) throws IOException {
+        long whole = graphFile.size() - graphFile.size() % RECORD_BYTES;
+        if (fileLength == REBUILD) {
+            whole = 0;
+        }
+        if (whole < fileLength || fileLength == REBUILD) {
+            size = 0;
+            positions.clear();
+            fileLength = 0;
+        }
+        if (graphFile.size() > whole) {
+            graphFile.truncate(whole);
+        }
+        if (whole == fileLength) {
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.allocate((int) (whole - fileLength));
+        while (contents.hasRemaining()) {
+            if (graphFile.read(contents, fileLength + contents.position())
+                    < 0) {
+                throw new IOException("commit graph ended early");
+            }
+        }
+        contents.flip();
+        byte[] hash = new byte[HASH_BYTES];
+        while (contents.hasRemaining()) {
+            contents.get(hash);
+            put(hash, contents.getInt(), contents.getInt(),
+                    contents.getInt(), contents.getLong());
+        }
+        fileLength = whole;
+    }
+}
@@ -0,0 +1,302 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Directories.COMMITS_DIR;
+import static gitlet.Directories.COMMIT_INDEX;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * A sorted, persistent index of the hashes of every commit in the repository.
+ * Commits are looked up by full or abbreviated id with a binary search
+ * instead of a listing of the commits directory.
+ * @author Connor Bernard
+ */
+public class CommitIndex {
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of bytes in the index file header (commits directory time
+     * stamp in nanoseconds followed by the number of entries).
+     */
+    private static final int HEADER_BYTES = Long.BYTES + Integer.BYTES;
+    /**
+     * The index as last read or written by this process.
+     */
+    private static CommitIndex loaded;
+    /**
+     * Sorted raw hashes, HASH_BYTES bytes per entry.
+     */
+    private byte[] entries;
+    /**
+     * Number of hashes in this index.
+     */
+    private int size;
+    /**
+     * Modification time of the commits directory this index reflects.
+     */
+    private long dirStamp;
+    /**
+     * Modification time of the index file when it was read or written.
+     */
+    private long fileStamp;
+    /**
+     * Whether this index was built from a listing of the commits by this
+     * process, so that a lookup it misses is not retried.
+     */
+    private boolean listed;
+    /**
+     * Creates an index over the given sorted raw hashes.
+     * @param sortedEntries sorted raw hashes, HASH_BYTES bytes per entry
+     * @param numEntries number of entries in sortedEntries
+     * @param commitsStamp time stamp of the commits directory
+     */
+    private CommitIndex(byte[] sortedEntries, int numEntries,
+                        long commitsStamp) {
+        entries = sortedEntries;
+        size = numEntries;
+        dirStamp = commitsStamp;
+    }
+    /**
+     * Gets the commit index of this repository, reading it from disk if it
+     * changed since it was last read and rebuilding it if it is missing or
+     * out of date with the commits directory (for instance after a repack).
+     * @return the commit index
+     */
+    public static CommitIndex get() {
+        File indexFile = COMMIT_INDEX.file();
+        if (loaded != null && loaded.fileStamp == stamp(indexFile)
+                && loaded.dirStamp == stamp(COMMITS_DIR.file())) {
+            return loaded;
+        }
+        CommitIndex index = read();
+        if (index != null
+                && index.dirStamp == stamp(COMMITS_DIR.file())) {
+            loaded = index;
+            return loaded;
+        }
+        return rebuild();
+    }
+    /**
+     * Rebuilds the commit index from the packed and loose commits, holding
+     * the lock on the index file so that a commit recorded meanwhile is not
+     * lost.
+     * @return the rebuilt commit index
+     */
+    public static CommitIndex rebuild() {
+        try (LockFile lock = LockFile.acquire(COMMIT_INDEX.file())) {
+            CommitIndex index = list();
+            index.write(lock);
+            return index;
+        }
+    }
+    /**
+     * Records a newly written commit in the index. The commit's file must
+     * already exist. The index is read again while its lock is held, so
+     * that commits recorded by other commands since this one read it are
+     * kept.
+     * @param hash full hash of the commit to add
+     */
+    public static void record(String hash) {
+        try (LockFile lock = LockFile.acquire(COMMIT_INDEX.file())) {
+            CommitIndex index = read();
+            if (index == null) {
+                index = list();
+            } else {
+                index.add(hash);
+            }
+            index.write(lock);
+        }
+    }
+    /**
+     * Reads the index file, whatever commits directory it reflects.
+     * @return the index in the file, or null if there is none
+     */
+    private static CommitIndex read() {
+        File indexFile = COMMIT_INDEX.file();
+        if (!indexFile.exists()) {
+            return null;
+        }
+        long indexStamp = stamp(indexFile);
+        ByteBuffer contents = ByteBuffer.wrap(Utils.readContents(indexFile));
+        if (contents.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        long commitsStamp = contents.getLong();
+        int numEntries = contents.getInt();
+        if (numEntries < 0
+                || contents.remaining() != numEntries * HASH_BYTES) {
+            return null;
+        }
+        byte[] sortedEntries = new byte[numEntries * HASH_BYTES];
+        contents.get(sortedEntries);
+        CommitIndex index = new CommitIndex(sortedEntries, numEntries,
+                commitsStamp);
+        index.fileStamp = indexStamp;
+        return index;
+    }
+    /**
+     * Builds an index from a listing of the packed and loose commits. The
+     * commits directory's time stamp is taken before listing it, so that a
+     * commit written during the listing makes the index out of date.
+     * @return the new index
+     */
+    private static CommitIndex list() {
+        long commitsStamp = stamp(COMMITS_DIR.file());
+        List<String> hashes = ObjectStore.local().list(
+                ObjectStore.Kind.COMMIT);
+        byte[] sortedEntries = new byte[hashes.size() * HASH_BYTES];
+        int numEntries = 0;
+        for (String hash : hashes) {
+            System.arraycopy(Utils.hexToBytes(hash), 0, sortedEntries,
+                    numEntries * HASH_BYTES, HASH_BYTES);
+            numEntries += 1;
+        }
+        CommitIndex index = new CommitIndex(sortedEntries, numEntries,
+                commitsStamp);
+        index.listed = true;
+        return index;
+    }
+    /**
+     * Gets the modification time of a file in nanoseconds, finer than
+     * File.lastModified where the file system allows.
+     * @param file the file
+     * @return its modification time, or 0 if it does not exist
+     */
+    private static long stamp(File file) {
+        try {
+            return Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+    /**
+     * Adds a commit to this index, which then reflects the commits
+     * directory as it is now.
+     * @param hash full hash of the commit to add
+     */
+    private void add(String hash) {
+        int pos = lowerBound(hash);
+        if (pos >= size || compare(pos, hash) != 0) {
+            byte[] newEntries = new byte[(size + 1) * HASH_BYTES];
+            System.arraycopy(entries, 0, newEntries, 0, pos * HASH_BYTES);
+            System.arraycopy(Utils.hexToBytes(hash), 0, newEntries,
+                    pos * HASH_BYTES, HASH_BYTES);
+            System.arraycopy(entries, pos * HASH_BYTES, newEntries,
+                    (pos + 1) * HASH_BYTES, (size - pos) * HASH_BYTES);
+            entries = newEntries;
+            size += 1;
+        }
+        dirStamp = stamp(COMMITS_DIR.file());
+    }
+    /**
+     * Checks whether this index contains the commit with the given full hash.
+     * @param hash full hash to look for
+     * @return whether the commit is in this index
+     */
+    public boolean contains(String hash) {
+        return hash.length() == Utils.UID_LENGTH && resolve(hash) != null;
+    }
+    /**
+     * Resolves a full or abbreviated commit id to a full commit hash. An id
+     * this index does not have is looked up again in a rebuilt index, since
+     * a commit written in the same clock tick as the index leaves the
+     * commits directory's time stamp unchanged.
+     * @param prefix full or abbreviated commit id
+     * @return the full hash of the matching commit, or null if there is none
+     * @throws GitletException if the abbreviation matches more than one
+     * commit, so that the command fails without ending a daemon serving it
+     */
+    public String resolve(String prefix) {
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < prefix.length(); i += 1) {
+            if (Character.digit(prefix.charAt(i), 16) < 0
+                    || Character.isUpperCase(prefix.charAt(i))) {
+                return null;
+            }
+        }
+        int pos = lowerBound(prefix);
+        if (pos >= size || compare(pos, prefix) != 0) {
+            return listed ? null : rebuild().resolve(prefix);
+        }
+        if (pos + 1 < size && compare(pos + 1, prefix) == 0) {
+            throw new GitletException(ERROR_COLOR + "Ambiguous commit id."
+                    + RESET_COLOR);
+        }
+        return Utils.bytesToHex(entries, pos * HASH_BYTES, HASH_BYTES);
+    }
+    /**
+     * Gets the full hashes of every commit in this index, in sorted order.
+     * @return list of all commit hashes
+     */
+    public List<String> hashes() {
+        ArrayList<String> result = new ArrayList<String>(size);
+        for (int i = 0; i < size; i += 1) {
+            result.add(Utils.bytesToHex(entries, i * HASH_BYTES, HASH_BYTES));
+        }
+        return result;
+    }
+    /**
+     * Gets the position of the first entry not less than the given prefix.
+     * @param prefix hexadecimal hash prefix
+     * @return position of the first entry at or after prefix
+     */
+    private int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+    /**
+     * Compares the entry at the given position with a hexadecimal prefix,
+     * looking only at as many digits as the prefix has.
+     * @param pos position of the entry
+     * @param prefix hexadecimal hash prefix
+     * @return negative, zero or positive as the entry is less than, starts
+     * with or is greater than prefix
+     */
+    private int compare(int pos, String prefix) {
+        for (int i = 0; i < prefix.length(); i += 1) {
+            int b = entries[pos * HASH_BYTES + i / 2] & 0xff;
+            int digit = i % 2 == 0 ? b >>> 4 : b & 0xf;
+            int diff = digit - Character.digit(prefix.charAt(i), 16);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+    /**
+     * Writes this index to the index file and makes it the loaded index.
+     * @param lock the lock on the index file, which is released
+     */
+    private void write(LockFile lock) {
+        ByteBuffer contents = ByteBuffer.allocate(HEADER_BYTES
+                + size * HASH_BYTES);
+        contents.putLong(dirStamp);
+        contents.putInt(size);
+        contents.put(entries, 0, size * HASH_BYTES);
+        lock.commit(contents.array());
+        fileStamp = stamp(COMMIT_INDEX.file());
+        loaded = this;
+    }
+}
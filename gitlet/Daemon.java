@@ -0,0 +1,290 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static gitlet.Directories.DAEMON_SOCKET;
+import static gitlet.Directories.REPO_DIR;
+import static gitlet.TextColors.COMPLETION_COLOR;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * A long-running process serving the commands of one repository over a Unix
+ * domain socket in its .gitlet folder, so that commands do not each pay for
+ * starting a JVM and the repository's caches stay in memory between them.
+ * <p>
+ * Every command reads the repository's state from disk as it would in its
+ * own process, and each cache checks the files it was built from before it
+ * is used, so changes made by other processes are always seen. Commands are
+ * run one at a time, with nothing on standard input.
+ * <p>
+ * A client sends the number of arguments and then each argument as modified
+ * UTF-8. The daemon answers with frames of a one byte stream number, a four
+ * byte length and that many bytes of output, and ends with a frame of stream
+ * number 0 followed by the command's exit status.
+ * @author Connor Bernard
+ */
+public class Daemon {
+    /**
+     * Stream number of the frame ending a response.
+     */
+    static final int EXIT_STREAM = 0;
+    /**
+     * Stream number of frames of standard output.
+     */
+    static final int OUT_STREAM = 1;
+    /**
+     * Stream number of frames of standard error.
+     */
+    static final int ERR_STREAM = 2;
+    /**
+     * Name of the system property giving the number of seconds the daemon
+     * may go without a command before it shuts down.
+     */
+    private static final String IDLE_PROPERTY = "gitlet.daemon.idle";
+    /**
+     * Number of seconds the daemon waits for a command by default.
+     */
+    private static final long DEFAULT_IDLE_SECONDS = 600;
+    /**
+     * Number of milliseconds between checks that the socket and repository
+     * still exist.
+     */
+    private static final long CHECK_MILLIS = 1000;
+    /**
+     * Size of the buffer output is collected in before it is sent.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * An output stream sending everything written to it as frames of one
+     * stream.
+     */
+    private static class FrameStream extends OutputStream {
+        /**
+         * Stream the frames are written to.
+         */
+        private final DataOutputStream out;
+        /**
+         * Stream number of the frames.
+         */
+        private final int stream;
+        /**
+         * Creates a stream of frames.
+         * @param frames stream to write the frames to
+         * @param streamNumber stream number of the frames
+         */
+        FrameStream(DataOutputStream frames, int streamNumber) {
+            out = frames;
+            stream = streamNumber;
+        }
+        /**
+         * Sends one byte as a frame of its own.
+         * @param b the byte to send
+         * @throws IOException if the client went away
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+        /**
+         * Sends bytes as one frame.
+         * @param b bytes to send
+         * @param off index of the first byte to send
+         * @param len number of bytes to send
+         * @throws IOException if the client went away
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            out.writeByte(stream);
+            out.writeInt(len);
+            out.write(b, off, len);
+        }
+        /**
+         * Flushes the frames written so far to the client.
+         * @throws IOException if the client went away
+         */
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+    /**
+     * Serves commands on the repository's socket until no command arrives
+     * for the idle time, or the socket or repository is removed.
+     */
+    public static void serve() {
+        Path socket = DAEMON_SOCKET.file().toPath();
+        if (isRunning()) {
+            throw new GitletException(ERROR_COLOR
+                    + "A daemon is already running." + RESET_COLOR);
+        }
+        long idleMillis = idleSeconds() * 1000;
+        try (ServerSocketChannel server = ServerSocketChannel.open(
+                StandardProtocolFamily.UNIX);
+             Selector selector = Selector.open()) {
+            Files.deleteIfExists(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            Object socketKey = fileKey(socket);
+            System.out.println(COMPLETION_COLOR + "Serving on " + socket
+                    + RESET_COLOR);
+            long lastCommand = System.currentTimeMillis();
+            while (System.currentTimeMillis() - lastCommand < idleMillis) {
+                selector.select(CHECK_MILLIS);
+                selector.selectedKeys().clear();
+                SocketChannel client = server.accept();
+                if (client != null) {
+                    handle(client);
+                    lastCommand = System.currentTimeMillis();
+                }
+                if (!REPO_DIR.file().isDirectory()
+                        || !socketKey.equals(fileKey(socket))) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        } finally {
+            deleteSocket(socket);
+        }
+    }
+    /**
+     * Runs the command sent by a client and sends back its output and exit
+     * status. A command that fails unexpectedly sends one line naming the
+     * failure on its error stream, without a stack trace, and exits with
+     * status 1.
+     * @param client connection to the client
+     */
+    private static void handle(SocketChannel client) {
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        try (SocketChannel channel = client) {
+            channel.configureBlocking(true);
+            DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel),
+                            BUFFER_SIZE));
+            String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i += 1) {
+                args[i] = in.readUTF();
+            }
+            PrintStream commandOut = new PrintStream(new BufferedOutputStream(
+                    new FrameStream(out, OUT_STREAM), BUFFER_SIZE));
+            PrintStream commandErr = new PrintStream(
+                    new FrameStream(out, ERR_STREAM), true);
+            System.setIn(new ByteArrayInputStream(new byte[0]));
+            System.setOut(commandOut);
+            System.setErr(commandErr);
+            int status = 0;
+            try {
+                if (args.length > 0 && args[0].equals("daemon")) {
+                    throw new GitletException(ERROR_COLOR
+                            + "A daemon is already running." + RESET_COLOR);
+                }
+                Main.main(args);
+            } catch (GitletException e) {
+                if (e.getMessage() != null) {
+                    System.out.println(e.getMessage());
+                }
+            } catch (RuntimeException | Error e) {
+                System.err.println(ERROR_COLOR + "Command failed: " + e
+                        + RESET_COLOR);
+                status = 1;
+            }
+            commandOut.flush();
+            commandErr.flush();
+            out.writeByte(EXIT_STREAM);
+            out.writeInt(status);
+            out.flush();
+        } catch (IOException e) {
+            return;
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+    /**
+     * Checks whether a daemon is serving the repository's socket.
+     * @return whether a daemon accepted a connection
+     */
+    private static boolean isRunning() {
+        SocketChannel channel = Client.connect();
+        if (channel == null) {
+            return false;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            return true;
+        }
+        return true;
+    }
+    /**
+     * Gets the number of seconds the daemon may be idle before it shuts
+     * down, from the gitlet.daemon.idle system property.
+     * @return idle time in seconds
+     */
+    private static long idleSeconds() {
+        String property = System.getProperty(IDLE_PROPERTY);
+        if (property == null) {
+            return DEFAULT_IDLE_SECONDS;
+        }
+        try {
+            return Math.max(1, Long.parseLong(property));
+        } catch (NumberFormatException e) {
+            return DEFAULT_IDLE_SECONDS;
+        }
+    }
+    /**
+     * Gets the key identifying a file, which changes if the file is replaced.
+     * @param file file to identify
+     * @return the file's key, or a new object if it does not exist
+     */
+    private static Object fileKey(Path file) {
+        try {
+            Object key = Files.readAttributes(file, BasicFileAttributes.class)
+                    .fileKey();
+            return key == null ? file : key;
+        } catch (IOException e) {
+            return new Object();
+        }
+    }
+    /**
+     * Deletes the socket file unless another daemon has replaced it.
+     * @param socket the socket file
+     */
+    private static void deleteSocket(Path socket) {
+        if (!isRunning()) {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+}
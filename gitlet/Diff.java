@@ -0,0 +1,317 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static gitlet.Directories.USER_DIR;
+
+/**
+ * Prints how files changed between two versions, either as unified diffs
+ * with three lines of context or, with --stat, as a count of the lines
+ * added and removed in each file. Each side of a file is read twice as a
+ * stream: once to intern its lines for LineDiff, and once to copy the lines
+ * a hunk shows, so that no side is held in memory as a whole; only the
+ * distinct lines the interner keeps to confirm matches, up to a limit. A
+ * side with a NUL byte near its start is binary and only reported as
+ * changed.
+ * @author Connor Bernard
+ */
+public class Diff {
+    /**
+     * Number of unchanged lines shown around each change.
+     */
+    private static final int CONTEXT = 3;
+    /**
+     * Widest the bar of a --stat line grows before it is scaled down.
+     */
+    private static final int STAT_WIDTH = 40;
+    /**
+     * Whether to print a summary of the lines changed instead of the
+     * changes.
+     */
+    private boolean stat;
+    /**
+     * Prints a count of the lines changed in each file instead of the
+     * changes.
+     * @return this diff
+     */
+    Diff stat() {
+        stat = true;
+        return this;
+    }
+    /**
+     * Prints the changes to some files.
+     * @param changes map, sorted by path, from each changed file to a pair
+     * of its blob hash before and after, either of which is null where the
+     * file does not exist
+     * @param worktree whether the files after are the working files rather
+     * than the blobs
+     */
+    void print(Map<String, String[]> changes, boolean worktree) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<int[]> counts = new ArrayList<int[]>();
+        OutputStream out = new BufferedOutputStream(System.out);
+        try {
+            for (Map.Entry<String, String[]> e : changes.entrySet()) {
+                String path = e.getKey();
+                String before = e.getValue()[0];
+                String after = e.getValue()[1];
+                int[] a;
+                int[] b;
+                boolean binary;
+                int numIds;
+                try (LineDiff.Interner interner = new LineDiff.Interner()) {
+                    a = lines(interner, path, before, false);
+                    binary = interner.binary();
+                    b = lines(interner, path, after, worktree);
+                    binary = binary || interner.binary();
+                    numIds = interner.size();
+                }
+                List<int[]> edits = binary ? null
+                        : LineDiff.diff(a, b, numIds);
+                if (stat) {
+                    names.add(path);
+                    counts.add(binary ? null : count(edits));
+                } else if (binary) {
+                    write(out, "Binary files " + (before == null
+                            ? "/dev/null" : "a/" + path) + " and "
+                            + (after == null ? "/dev/null" : "b/" + path)
+                            + " differ\n");
+                } else if (!edits.isEmpty()) {
+                    write(out, "--- " + (before == null ? "/dev/null"
+                            : "a/" + path) + "\n+++ " + (after == null
+                            ? "/dev/null" : "b/" + path) + "\n");
+                    printHunks(out, edits, a.length, b.length,
+                            open(path, before, false),
+                            open(path, after, worktree));
+                }
+            }
+            if (stat) {
+                printStat(out, names, counts);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Prints the hunks of a file's diff, copying their lines from the two
+     * sides as it goes. Changes closer together than twice the context
+     * share a hunk.
+     * @param out stream to print to
+     * @param edits the changed regions of the file
+     * @param aLength number of lines before
+     * @param bLength number of lines after
+     * @param before stream of the file before, closed when done
+     * @param after stream of the file after, closed when done
+     * @throws IOException if printing fails
+     */
+    private static void printHunks(OutputStream out, List<int[]> edits,
+                                   int aLength, int bLength,
+                                   InputStream before, InputStream after)
+            throws IOException {
+        try (LineDiff.Cursor a = new LineDiff.Cursor(before);
+             LineDiff.Cursor b = new LineDiff.Cursor(after)) {
+            int first = 0;
+            while (first < edits.size()) {
+                int last = first;
+                while (last + 1 < edits.size() && edits.get(last + 1)[0]
+                        - edits.get(last)[1] <= 2 * CONTEXT) {
+                    last += 1;
+                }
+                int[] start = edits.get(first);
+                int[] end = edits.get(last);
+                int aStart = Math.max(0, start[0] - CONTEXT);
+                int aEnd = Math.min(aLength, end[1] + CONTEXT);
+                int bStart = start[2] - (start[0] - aStart);
+                int bEnd = Math.min(bLength, end[3] + (aEnd - end[1]));
+                write(out, "@@ -" + range(aStart, aEnd) + " +"
+                        + range(bStart, bEnd) + " @@\n");
+                a.skipTo(aStart);
+                b.skipTo(bStart);
+                for (int i = first; i <= last; i += 1) {
+                    int[] edit = edits.get(i);
+                    copy(out, ' ', a, edit[0], b);
+                    copy(out, '-', a, edit[1], null);
+                    copy(out, '+', b, edit[3], null);
+                }
+                copy(out, ' ', a, aEnd, b);
+                first = last + 1;
+            }
+        }
+    }
+    /**
+     * Prints lines of one side up to a line, each after a mark, noting a
+     * line without a newline.
+     * @param out stream to print to
+     * @param mark character put before each line
+     * @param from cursor of the side the lines are copied from
+     * @param end line to stop before
+     * @param other cursor of the other side, skipped along for unchanged
+     * lines, or null
+     * @throws IOException if printing fails
+     */
+    private static void copy(OutputStream out, char mark, LineDiff.Cursor from,
+                             int end, LineDiff.Cursor other)
+            throws IOException {
+        while (from.line() < end) {
+            out.write(mark);
+            if (!from.copy(out)) {
+                write(out, "\n\\ No newline at end of file\n");
+            }
+            if (other != null) {
+                other.copy(null);
+            }
+        }
+    }
+    /**
+     * Formats the lines of one side of a hunk for its header: the first
+     * line, counting from one, and the number of lines if not one. An empty
+     * side gives the line before it.
+     * @param start start of the lines, counting from zero
+     * @param end end of the lines
+     * @return the range as a hunk header shows it
+     */
+    private static String range(int start, int end) {
+        if (end - start == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (end == start ? start : start + 1) + "," + (end - start);
+    }
+    /**
+     * Counts the lines a file's changes add and remove.
+     * @param edits the changed regions of the file
+     * @return number of lines added and number removed
+     */
+    private static int[] count(List<int[]> edits) {
+        int[] result = new int[2];
+        for (int[] edit : edits) {
+            result[0] += edit[3] - edit[2];
+            result[1] += edit[1] - edit[0];
+        }
+        return result;
+    }
+    /**
+     * Prints a line per file with the number of lines changed and a bar of
+     * + and - for the lines added and removed, then a total.
+     * @param out stream to print to
+     * @param names the files
+     * @param counts lines added and removed in each file, or null for a
+     * binary file
+     * @throws IOException if printing fails
+     */
+    private static void printStat(OutputStream out, List<String> names,
+                                  List<int[]> counts) throws IOException {
+        int nameWidth = 0;
+        int most = 0;
+        int insertions = 0;
+        int deletions = 0;
+        for (int i = 0; i < names.size(); i += 1) {
+            nameWidth = Math.max(nameWidth, names.get(i).length());
+            int[] count = counts.get(i);
+            if (count != null) {
+                most = Math.max(most, count[0] + count[1]);
+                insertions += count[0];
+                deletions += count[1];
+            }
+        }
+        int countWidth = Integer.toString(most).length();
+        for (int i = 0; i < names.size(); i += 1) {
+            int[] count = counts.get(i);
+            StringBuilder line = new StringBuilder(" ");
+            line.append(String.format("%-" + nameWidth + "s | ",
+                    names.get(i)));
+            if (count == null) {
+                line.append("Bin");
+            } else {
+                line.append(String.format("%" + countWidth + "d ",
+                        count[0] + count[1]));
+                line.append("+".repeat(scale(count[0], most)));
+                line.append("-".repeat(scale(count[1], most)));
+            }
+            write(out, line.toString().stripTrailing() + "\n");
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        StringBuilder total = new StringBuilder(" " + names.size()
+                + (names.size() == 1 ? " file" : " files") + " changed");
+        if (insertions > 0) {
+            total.append(", ").append(insertions).append(insertions == 1
+                    ? " insertion(+)" : " insertions(+)");
+        }
+        if (deletions > 0) {
+            total.append(", ").append(deletions).append(deletions == 1
+                    ? " deletion(-)" : " deletions(-)");
+        }
+        write(out, total + "\n");
+    }
+    /**
+     * Scales a number of lines to the width of a --stat bar, keeping at
+     * least one character for any change.
+     * @param lines number of lines
+     * @param most largest number of lines changed in any file
+     * @return number of characters to draw
+     */
+    private static int scale(int lines, int most) {
+        if (most <= STAT_WIDTH || lines == 0) {
+            return lines;
+        }
+        return Math.max(1, (int) ((long) lines * STAT_WIDTH / most));
+    }
+    /**
+     * Interns the lines of one side of a file.
+     * @param interner interner shared by both sides
+     * @param path path of the file
+     * @param hash hash of the side, or null if the file does not exist
+     * @param worktree whether to read the working file rather than the blob
+     * @return ids of the lines
+     */
+    private static int[] lines(LineDiff.Interner interner, String path,
+                               String hash, boolean worktree) {
+        try (InputStream in = open(path, hash, worktree)) {
+            return interner.lines(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Opens one side of a file.
+     * @param path path of the file
+     * @param hash hash of the side, or null if the file does not exist
+     * @param worktree whether to read the working file rather than the blob
+     * @return stream of the side, empty if the file does not exist
+     */
+    private static InputStream open(String path, String hash,
+                                    boolean worktree) {
+        if (hash == null) {
+            return InputStream.nullInputStream();
+        } else if (!worktree) {
+            return ObjectStore.local().open(ObjectStore.Kind.BLOB, hash);
+        }
+        try {
+            return Files.newInputStream(new File(USER_DIR.file(), path)
+                    .toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Writes a string as UTF-8.
+     * @param out stream to write to
+     * @param text the string
+     * @throws IOException if writing fails
+     */
+    private static void write(OutputStream out, String text)
+            throws IOException {
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
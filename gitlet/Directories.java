@@ -14,11 +14,22 @@ public enum Directories {
     REPO_DIR(USER_DIR + "/.gitlet"),
     BLOBS_DIR(REPO_DIR + "/Blobs"),
     COMMITS_DIR(REPO_DIR + "/Commits"),
+    TREES_DIR(REPO_DIR + "/Trees"),
+    PACKS_DIR(REPO_DIR + "/Packs"),
     BRANCHES_DIR(REPO_DIR + "/Branches"),
     REMOTE_DIR(USER_DIR + "/Remotes"),
     STAGING_FILE(REPO_DIR + "/Stage"),
     HEAD_FILE(REPO_DIR + "/HEAD"),
-    CURRENT_COMMIT(REPO_DIR + "/CurrentCommit"),;
+    CURRENT_COMMIT(REPO_DIR + "/CurrentCommit"),
+    COMMIT_INDEX(REPO_DIR + "/CommitIndex"),
+    COMMIT_GRAPH(REPO_DIR + "/CommitGraph"),
+    COMMIT_CATALOG(REPO_DIR + "/CommitCatalog"),
+    COMMIT_TOKENS(REPO_DIR + "/CommitTokens"),
+    BLOB_TRIGRAMS(REPO_DIR + "/BlobTrigrams"),
+    BLOB_TRIGRAMS_LOG(REPO_DIR + "/BlobTrigramsLog"),
+    STAT_CACHE(REPO_DIR + "/StatCache"),
+    JOURNAL(REPO_DIR + "/Journal"),
+    DAEMON_SOCKET(REPO_DIR + "/daemon.sock"),;
     /**
      * String value associated with each directory.
      */
@@ -0,0 +1,408 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.Directories.BRANCHES_DIR;
+import static gitlet.Directories.CURRENT_COMMIT;
+import static gitlet.Directories.HEAD_FILE;
+import static gitlet.TextColors.COMPLETION_COLOR;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * Imports history from a stream of commands, writing blobs, trees, commits
+ * and branches directly without touching the working directory or the
+ * staging area. Every object is written into a single new pack, which is
+ * synced to disk once at the end, and only the trees of the commit being
+ * built are kept in memory.
+ * <p>
+ * The stream is a sequence of the following commands, where DATA is a line
+ * "data N" followed by exactly N bytes and an optional newline, a MARK is a
+ * name starting with a colon, and a COMMIT is a mark, a full commit hash or
+ * a branch name.
+ * <pre>
+ * blob
+ * mark MARK              (optional)
+ * DATA                   the contents of the file
+ *
+ * commit BRANCH
+ * mark MARK              (optional)
+ * timestamp MILLIS       (optional, defaults to now)
+ * from COMMIT            (optional, defaults to the branch's last commit)
+ * merge COMMIT           (optional second parent)
+ * DATA                   the commit message
+ * M BLOB PATH            adds or replaces a file; BLOB is a mark, a full
+ *                        blob hash, or "inline" followed by DATA
+ * D PATH                 removes a file
+ * deleteall              removes every file
+ *                        (an empty line ends the commit)
+ *
+ * reset BRANCH
+ * from COMMIT            (optional, otherwise the branch starts afresh)
+ * </pre>
+ * Files of each commit start as those of its first parent. Lines starting
+ * with # are skipped.
+ * @author Connor Bernard
+ */
+public class FastImport {
+    /**
+     * Stream the commands are read from.
+     */
+    private final InputStream in;
+    /**
+     * The store objects are written to.
+     */
+    private final ObjectStore store = ObjectStore.local();
+    /**
+     * Hash of the blob or commit named by each mark.
+     */
+    private final HashMap<String, String> marks =
+            new HashMap<String, String>();
+    /**
+     * Last commit of each branch changed by the import, or null for a
+     * branch reset without a commit.
+     */
+    private final HashMap<String, String> tips =
+            new HashMap<String, String>();
+    /**
+     * Last commit of each branch changed by the import as it was before the
+     * import, or an empty string for a branch that did not exist.
+     */
+    private final HashMap<String, String> originalTips =
+            new HashMap<String, String>();
+    /**
+     * A line read ahead of time and not yet handled, or null.
+     */
+    private String pushedBack;
+    /**
+     * Number of the line last read.
+     */
+    private int lineNumber;
+    /**
+     * Number of commits imported.
+     */
+    private int numCommits;
+    /**
+     * Number of blobs imported.
+     */
+    private int numBlobs;
+    /**
+     * Creates an import reading from a stream.
+     * @param input stream of import commands
+     */
+    private FastImport(InputStream input) {
+        in = new BufferedInputStream(input, 1 << 16);
+    }
+    /**
+     * Imports the history in a file, or on standard input if no file is
+     * given, then moves the imported branches to their new commits.
+     * @param fileName name of the file, or null to read standard input
+     */
+    public static void run(String fileName) {
+        InputStream input = System.in;
+        if (fileName != null) {
+            try {
+                input = new FileInputStream(fileName);
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR + "File does not exist."
+                        + RESET_COLOR);
+            }
+        }
+        FastImport importer = new FastImport(input);
+        importer.store.beginPack();
+        try {
+            importer.readCommands();
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        } finally {
+            importer.store.finishPack();
+        }
+        importer.updateBranches();
+        System.out.println(COMPLETION_COLOR + "Imported "
+                + importer.numCommits + " commits and " + importer.numBlobs
+                + " blobs." + RESET_COLOR);
+    }
+    /**
+     * Reads and carries out every command in the stream.
+     * @throws IOException if the stream cannot be read
+     */
+    private void readCommands() throws IOException {
+        for (String line = nextLine(); line != null; line = nextLine()) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            } else if (line.equals("blob")) {
+                readBlob();
+            } else if (line.startsWith("commit ")) {
+                readCommit(line.substring("commit ".length()));
+            } else if (line.startsWith("reset ")) {
+                readReset(line.substring("reset ".length()));
+            } else {
+                throw error("unknown command " + line);
+            }
+        }
+    }
+    /**
+     * Reads a blob command and stores the blob.
+     * @throws IOException if the stream cannot be read
+     */
+    private void readBlob() throws IOException {
+        String mark = readOptional("mark");
+        String hash = storeBlob();
+        if (mark != null) {
+            marks.put(mark, hash);
+        }
+    }
+    /**
+     * Reads the data of a blob and stores it.
+     * @return hash of the blob
+     * @throws IOException if the stream cannot be read
+     */
+    private String storeBlob() throws IOException {
+        numBlobs += 1;
+        return store.writeBlob(readData());
+    }
+    /**
+     * Reads a commit command and stores the commit and its new trees.
+     * @param branch branch the commit is made on
+     * @throws IOException if the stream cannot be read
+     */
+    private void readCommit(String branch) throws IOException {
+        String mark = readOptional("mark");
+        String stamp = readOptional("timestamp");
+        String from = readOptional("from");
+        String merge = readOptional("merge");
+        String message = new String(readData(), StandardCharsets.UTF_8);
+        String parent = from != null ? resolveCommit(from) : tip(branch);
+        String secondParent = merge != null ? resolveCommit(merge) : null;
+        String baseTree = parent == null ? Tree.EMPTY_HASH
+                : store.readCommit(parent).getTreeHash();
+        TreeMap<String, String> changes = new TreeMap<String, String>();
+        for (String line = nextLine(); line != null && !line.isEmpty();
+             line = nextLine()) {
+            if (line.equals("deleteall")) {
+                baseTree = Tree.EMPTY_HASH;
+                changes.clear();
+            } else if (line.startsWith("M ")) {
+                int space = line.indexOf(' ', 2);
+                if (space < 0) {
+                    throw error("missing path in " + line);
+                }
+                String blob = line.substring(2, space);
+                String hash = blob.equals("inline")
+                        ? storeBlob() : resolveBlob(blob);
+                changes.put(checkPath(line.substring(space + 1)), hash);
+            } else if (line.startsWith("D ")) {
+                changes.put(checkPath(line.substring(2)), null);
+            } else {
+                pushedBack = line;
+                break;
+            }
+        }
+        long timestamp;
+        try {
+            timestamp = stamp == null ? System.currentTimeMillis()
+                    : Long.parseLong(stamp);
+        } catch (NumberFormatException e) {
+            throw error("bad timestamp " + stamp);
+        }
+        Commit commit = new Commit(branch, message, parent, secondParent,
+                Tree.update(store, baseTree, changes), timestamp);
+        String hash = store.writeCommit(commit);
+        numCommits += 1;
+        setTip(branch, hash);
+        if (mark != null) {
+            marks.put(mark, hash);
+        }
+    }
+    /**
+     * Reads a reset command, moving or clearing the branch.
+     * @param branch branch to reset
+     * @throws IOException if the stream cannot be read
+     */
+    private void readReset(String branch) throws IOException {
+        String from = readOptional("from");
+        setTip(branch, from == null ? null : resolveCommit(from));
+    }
+    /**
+     * Writes the new last commit of every imported branch. If the current
+     * branch moved, the current commit moves with it, but the working
+     * directory and staging area are left as they are.
+     */
+    private void updateBranches() {
+        String currentBranch = Utils.readContentsAsString(HEAD_FILE.file());
+        RefTransaction refs = new RefTransaction();
+        for (Map.Entry<String, String> entry : tips.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            refs.update(new File(BRANCHES_DIR + "/" + entry.getKey()),
+                    originalTips.get(entry.getKey()), entry.getValue());
+            if (entry.getKey().equals(currentBranch)) {
+                refs.update(CURRENT_COMMIT.file(), null, entry.getValue());
+            }
+        }
+        refs.commit();
+        CommitIndex.rebuild();
+    }
+    /**
+     * Moves a branch during the import, first recording where it was before
+     * so that it is only updated if no other command moves it meanwhile.
+     * @param branch name of the branch
+     * @param hash hash of the branch's new last commit, or null
+     */
+    private void setTip(String branch, String hash) {
+        if (!tips.containsKey(branch)) {
+            originalTips.put(branch, RefTransaction.read(new File(BRANCHES_DIR
+                    + "/" + branch)));
+        }
+        tips.put(branch, hash);
+    }
+    /**
+     * Gets the last commit of a branch, as changed by the import so far.
+     * @param branch name of the branch
+     * @return hash of the branch's last commit, or null if it has none
+     */
+    private String tip(String branch) {
+        if (tips.containsKey(branch)) {
+            return tips.get(branch);
+        }
+        String tip = RefTransaction.read(new File(BRANCHES_DIR + "/"
+                + branch));
+        return tip.isEmpty() ? null : tip;
+    }
+    /**
+     * Resolves a reference to a commit.
+     * @param ref a mark, a full commit hash or a branch name
+     * @return hash of the commit
+     */
+    private String resolveCommit(String ref) {
+        String hash;
+        if (ref.startsWith(":")) {
+            hash = marks.get(ref);
+        } else if (ref.length() == Utils.UID_LENGTH
+                && store.contains(ObjectStore.Kind.COMMIT, ref)) {
+            hash = ref;
+        } else {
+            hash = tip(ref);
+        }
+        if (hash == null || !store.contains(ObjectStore.Kind.COMMIT, hash)) {
+            throw error("no commit " + ref);
+        }
+        return hash;
+    }
+    /**
+     * Resolves a reference to a blob.
+     * @param ref a mark or a full blob hash
+     * @return hash of the blob
+     */
+    private String resolveBlob(String ref) {
+        String hash = ref.startsWith(":") ? marks.get(ref) : ref;
+        if (hash == null || !store.contains(ObjectStore.Kind.BLOB, hash)) {
+            throw error("no blob " + ref);
+        }
+        return hash;
+    }
+    /**
+     * Checks that a path names a file below the working directory.
+     * @param path path of a file, separated by forward slashes
+     * @return the path
+     */
+    private String checkPath(String path) {
+        for (String part : path.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw error("bad path " + path);
+            }
+        }
+        return path;
+    }
+    /**
+     * Reads a line of the form "KEY VALUE" if the next line has that key.
+     * @param key key of the line
+     * @return the line's value, or null if the next line has another key
+     * @throws IOException if the stream cannot be read
+     */
+    private String readOptional(String key) throws IOException {
+        String line = nextLine();
+        if (line != null && line.startsWith(key + " ")) {
+            return line.substring(key.length() + 1);
+        }
+        pushedBack = line;
+        return null;
+    }
+    /**
+     * Reads a "data N" line and the N bytes following it, along with a
+     * newline right after them, if there is one.
+     * @return the bytes
+     * @throws IOException if the stream cannot be read
+     */
+    private byte[] readData() throws IOException {
+        String length = readOptional("data");
+        if (length == null) {
+            throw error("expected data");
+        }
+        int size;
+        try {
+            size = Integer.parseInt(length);
+        } catch (NumberFormatException e) {
+            throw error("bad data length " + length);
+        }
+        byte[] result = in.readNBytes(size);
+        if (result.length != size) {
+            throw error("stream ended inside data");
+        }
+        for (byte b : result) {
+            if (b == '\n') {
+                lineNumber += 1;
+            }
+        }
+        in.mark(1);
+        if (in.read() != '\n') {
+            in.reset();
+        } else {
+            lineNumber += 1;
+        }
+        return result;
+    }
+    /**
+     * Reads the next line of the stream.
+     * @return the line without its newline, or null at the end of the stream
+     * @throws IOException if the stream cannot be read
+     */
+    private String nextLine() throws IOException {
+        if (pushedBack != null) {
+            String line = pushedBack;
+            pushedBack = null;
+            return line;
+        }
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b = in.read();
+        if (b < 0) {
+            return null;
+        }
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        lineNumber += 1;
+        return line.toString(StandardCharsets.UTF_8);
+    }
+    /**
+     * Makes the exception reporting a malformed stream.
+     * @param problem what is wrong with the stream
+     * @return the exception to throw
+     */
+    private GitletException error(String problem) {
+        return new GitletException(ERROR_COLOR + "Bad import stream at line "
+                + lineNumber + ": " + problem + RESET_COLOR);
+    }
+}
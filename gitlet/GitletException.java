@@ -6,6 +6,8 @@ package gitlet;
  */
 class GitletException extends RuntimeException {
 
+    /** Serialization version; GitletExceptions are never stored. */
+    private static final long serialVersionUID = 1L;
 
     /** A GitletException with no message. */
     GitletException() {
@@ -0,0 +1,233 @@
+package gitlet;
+
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * A search of the contents of files for a fixed string or a regular
+ * expression, line by line. When the repository has a trigram index, only
+ * the blobs the index names as holding every trigram of a fixed string are
+ * read, along with any blob not indexed yet, which is then indexed. The
+ * blobs read are matched in parallel.
+ * @author Connor Bernard
+ */
+public class Grep {
+    /**
+     * Number of bytes at the start of a blob checked for a NUL byte, which
+     * marks the blob as binary.
+     */
+    private static final int BINARY_CHECK_BYTES = 8000;
+    /**
+     * Largest number of trigrams of unindexed blobs one search keeps in
+     * memory to index them; blobs past it are left for a later search.
+     */
+    private static final long MAX_UNINDEXED_TRIGRAMS =
+            Runtime.getRuntime().maxMemory() / 16 / Integer.BYTES;
+    /**
+     * One blob that matched.
+     */
+    static class Match {
+        /**
+         * Whether the blob is binary, so that its lines are not printed.
+         */
+        private final boolean binary;
+        /**
+         * The matching lines, each with its line number in front if asked
+         * for.
+         */
+        private final List<String> lines;
+        /**
+         * Creates a match.
+         * @param isBinary whether the blob is binary
+         * @param matchingLines the matching lines
+         */
+        Match(boolean isBinary, List<String> matchingLines) {
+            binary = isBinary;
+            lines = matchingLines;
+        }
+    }
+    /**
+     * Text or pattern searched for.
+     */
+    private String text;
+    /**
+     * Whether text is a regular expression rather than a fixed string.
+     */
+    private boolean regex;
+    /**
+     * Whether ASCII letters match either case.
+     */
+    private boolean ignoreCase;
+    /**
+     * Whether to print only the names of matching files.
+     */
+    private boolean filesOnly;
+    /**
+     * Whether to print the line number of each matching line.
+     */
+    private boolean lineNumbers;
+    /**
+     * The compiled pattern, or null until the search runs.
+     */
+    private Pattern pattern;
+    /**
+     * Searches for some text.
+     * @param searched the text, or a regular expression if regex is set
+     * @return this search
+     */
+    Grep text(String searched) {
+        text = searched;
+        return this;
+    }
+    /**
+     * Makes the text a regular expression.
+     * @return this search
+     */
+    Grep regex() {
+        regex = true;
+        return this;
+    }
+    /**
+     * Makes ASCII letters match either case.
+     * @return this search
+     */
+    Grep ignoreCase() {
+        ignoreCase = true;
+        return this;
+    }
+    /**
+     * Prints only the names of matching files.
+     * @return this search
+     */
+    Grep filesOnly() {
+        filesOnly = true;
+        return this;
+    }
+    /**
+     * Prints the line number of each matching line.
+     * @return this search
+     */
+    Grep lineNumbers() {
+        lineNumbers = true;
+        return this;
+    }
+    /**
+     * Searches blobs. The trigram index, if there is one, narrows down the
+     * blobs read when searching for a fixed string of three bytes or more.
+     * @param blobs hashes of the blobs to search
+     * @return the match of each blob that matched
+     */
+    Map<String, Match> search(Collection<String> blobs) {
+        compile();
+        ObjectStore store = ObjectStore.local();
+        TrigramIndex index = TrigramIndex.open();
+        Collection<String> candidates = blobs;
+        int[] needed = regex ? new int[0] : TrigramIndex.trigrams(text);
+        if (index != null && needed.length > 0) {
+            Set<String> indexed = index.candidates(needed);
+            candidates = blobs.stream().filter(hash -> indexed.contains(hash)
+                    || !index.covers(hash)).collect(Collectors.toList());
+        }
+        Collection<String> toRead = candidates;
+        ConcurrentHashMap<String, int[]> unindexed =
+                new ConcurrentHashMap<String, int[]>();
+        AtomicLong numUnindexed = new AtomicLong();
+        HashMap<String, Match> result = new HashMap<String, Match>();
+        WorkingTree.run(() -> toRead.parallelStream().map(hash -> {
+            byte[] contents = TrigramIndex.read(store, hash);
+            if (index != null && !index.covers(hash)
+                    && numUnindexed.get() < MAX_UNINDEXED_TRIGRAMS) {
+                int[] trigrams = TrigramIndex.trigrams(contents);
+                numUnindexed.addAndGet(trigrams.length);
+                unindexed.put(hash, trigrams);
+            }
+            Match match = match(contents);
+            return match == null ? null : Map.entry(hash, match);
+        }).filter(e -> e != null).collect(Collectors.toList()))
+                .forEach(e -> result.put(e.getKey(), e.getValue()));
+        if (!unindexed.isEmpty()) {
+            index.append(unindexed);
+            index.mergeIfLarge();
+        }
+        return result;
+    }
+    /**
+     * Prints the match of one file.
+     * @param out stream to print to
+     * @param name name of the file as it is to be printed
+     * @param match the file's match
+     */
+    void print(PrintWriter out, String name, Match match) {
+        if (filesOnly) {
+            out.println(name);
+        } else if (match.binary) {
+            out.println("Binary file " + name + " matches");
+        } else {
+            for (String line : match.lines) {
+                out.println(name + ":" + line);
+            }
+        }
+    }
+    /**
+     * Compiles the text searched for, once.
+     */
+    private void compile() {
+        if (pattern != null) {
+            return;
+        }
+        int flags = Pattern.MULTILINE | (ignoreCase ? Pattern.CASE_INSENSITIVE
+                : 0);
+        try {
+            pattern = Pattern.compile(regex ? text : Pattern.quote(text),
+                    flags);
+        } catch (PatternSyntaxException e) {
+            throw new GitletException(ERROR_COLOR + "Invalid regular"
+                    + " expression." + RESET_COLOR);
+        }
+    }
+    /**
+     * Matches the contents of a blob, decoded as UTF-8.
+     * @param contents the contents
+     * @return the blob's match, or null if no line matches
+     */
+    private Match match(byte[] contents) {
+        String decoded = new String(contents, StandardCharsets.UTF_8);
+        Matcher matcher = pattern.matcher(decoded);
+        if (!matcher.find()) {
+            return null;
+        }
+        for (int i = 0; i < Math.min(contents.length, BINARY_CHECK_BYTES);
+             i += 1) {
+            if (contents[i] == 0) {
+                return new Match(true, null);
+            }
+        }
+        ArrayList<String> lines = new ArrayList<String>();
+        int lineNumber = 1;
+        for (int start = 0; start < decoded.length(); lineNumber += 1) {
+            int end = decoded.indexOf('\n', start);
+            end = end < 0 ? decoded.length() : end;
+            String line = decoded.substring(start, end);
+            if (matcher.reset(line).find()) {
+                lines.add(lineNumbers ? lineNumber + ":" + line : line);
+            }
+            start = end + 1;
+        }
+        return lines.isEmpty() ? null : new Match(false, lines);
+    }
+}
@@ -0,0 +1,1072 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32C;
+
+import static gitlet.Directories.COMMIT_CATALOG;
+import static gitlet.Directories.COMMIT_GRAPH;
+import static gitlet.Directories.COMMIT_INDEX;
+import static gitlet.Directories.COMMIT_TOKENS;
+import static gitlet.Directories.JOURNAL;
+import static gitlet.Directories.STAT_CACHE;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * A write-ahead journal of the changes made to a repository, so that the
+ * refs, the staging area and the other locked files a command replaces are
+ * never left naming objects that did not reach the disk, nor half written.
+ * <p>
+ * The writes of one command form a group. Before a ref, the staging area or
+ * another locked file is replaced, its old and new contents are appended to
+ * the journal and the journal is synced, so the rename that makes the new
+ * contents visible never reaches the disk ahead of its record. New objects
+ * are not journaled: each is synced under its temporary name before it is
+ * renamed into place, and the directories objects were renamed into are
+ * synced before the group next syncs the journal, so every object a file
+ * names is on disk before the file is replaced. When the group ends, a
+ * commit record is appended and the journal is synced. Groups of commands
+ * running at the same time append to the same journal, one record at a
+ * time under a lock.
+ * <p>
+ * A command starting when no group is open looks through the journal. If a
+ * group was cut short by a crash, its records are discarded: each file it
+ * replaced is put back as it was, unless another command replaced it since.
+ * If a committed group's files did not reach the disk, they are written
+ * again. Once the journal passes a size, or after a crash, it is
+ * checkpointed: the journaled files are synced and the journal is emptied.
+ * Journals written by earlier builds also hold a copy of each new object,
+ * which a checkpoint writes into one synced pack.
+ * <p>
+ * Setting the gitlet.durable system property to false skips the syncs;
+ * refs are still journaled so that recovery never puts back an older value
+ * over a newer one.
+ * @author Connor Bernard
+ */
+public class Journal {
+    /**
+     * Name of the system property turning durability off.
+     */
+    private static final String DURABLE_PROPERTY = "gitlet.durable";
+    /**
+     * First four bytes of every record.
+     */
+    private static final int MAGIC = 0x474a524e;
+    /**
+     * Number of bytes in a record header: the magic number, the record type,
+     * the group, the length of the body and the header's checksum.
+     */
+    private static final int HEADER_BYTES = 4 + 1 + 8 + 8 + 4;
+    /**
+     * Number of bytes in the checksum following a record's body.
+     */
+    private static final int CRC_BYTES = 4;
+    /**
+     * Number of bytes before the stored contents in an object record's
+     * body: the kind and the raw hash.
+     */
+    private static final int OBJECT_PREFIX_BYTES = 1 + Utils.UID_LENGTH / 2;
+    /**
+     * Type of a record replacing or deleting a file.
+     */
+    private static final byte FILE_RECORD = 1;
+    /**
+     * Type of a record holding a new object, written only by earlier builds.
+     */
+    private static final byte OBJECT_RECORD = 2;
+    /**
+     * Type of the record ending a group.
+     */
+    private static final byte COMMIT_RECORD = 3;
+    /**
+     * Byte of the journal locked, shared, by every process with an open
+     * group, and exclusively by a process recovering or checkpointing.
+     */
+    private static final long LIVE_LOCK = Long.MAX_VALUE - 1;
+    /**
+     * Byte of the journal locked while a record is appended.
+     */
+    private static final long APPEND_LOCK = Long.MAX_VALUE - 2;
+    /**
+     * Size of the journal past which it is checkpointed.
+     */
+    private static final long CHECKPOINT_BYTES = 4L << 20;
+    /**
+     * Stored size of an object past which a checkpoint syncs its loose file
+     * rather than copying it into the checkpoint's pack.
+     */
+    private static final long LARGE_OBJECT_BYTES = 1L << 20;
+    /**
+     * Size of the blocks read when copying or checking record bodies.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Files built from the objects, deleted after a crash lost objects so
+     * that they are rebuilt.
+     */
+    private static final Directories[] DERIVED = {COMMIT_INDEX,
+        COMMIT_GRAPH, COMMIT_CATALOG, COMMIT_TOKENS, STAT_CACHE};
+    /**
+     * The journals written by the open group of this process, by the
+     * .gitlet directory of their repository.
+     */
+    private static final HashMap<Path, Journal> OPEN =
+            new HashMap<Path, Journal>();
+    /**
+     * The .gitlet directories whose journals the open group recovered.
+     */
+    private static final HashSet<Path> RECOVERED = new HashSet<Path>();
+    /**
+     * Number of times the open group was begun and not yet ended.
+     */
+    private static int depth;
+    /**
+     * The .gitlet directory of the repository.
+     */
+    private final Path root;
+    /**
+     * The journal file.
+     */
+    private final File file;
+    /**
+     * Whether objects are journaled and the journal synced.
+     */
+    private final boolean durable;
+    /**
+     * Number identifying this group's records.
+     */
+    private final long group;
+    /**
+     * The journal opened for appending, or null until the first record.
+     */
+    private FileChannel channel;
+    /**
+     * Shared lock showing this group is open, or null until the first
+     * record.
+     */
+    private FileLock live;
+    /**
+     * Number of records appended by this group.
+     */
+    private int numRecords;
+    /**
+     * Whether records were appended since the journal was last synced.
+     */
+    private boolean unsynced;
+    /**
+     * Directories new objects were renamed into since the journal was last
+     * synced.
+     */
+    private final TreeSet<File> objectDirs = new TreeSet<File>();
+    /**
+     * A record read back from the journal.
+     */
+    private static class Record {
+        /**
+         * Type of the record.
+         */
+        private byte type;
+        /**
+         * Group the record belongs to.
+         */
+        private long group;
+        /**
+         * Position of the record's body in the journal.
+         */
+        private long bodyPos;
+        /**
+         * Length of the record's body.
+         */
+        private long bodyLength;
+        /**
+         * Whether the body was read back whole.
+         */
+        private boolean intact;
+        /**
+         * Path of a file record's file, relative to the repository.
+         */
+        private String path;
+        /**
+         * Contents of the file before a file record, or null if it did not
+         * exist.
+         */
+        private byte[] before;
+        /**
+         * Contents of the file after a file record, or null if it was
+         * deleted.
+         */
+        private byte[] after;
+        /**
+         * Kind of an object record's object.
+         */
+        private ObjectStore.Kind kind;
+        /**
+         * Hash of an object record's object.
+         */
+        private String hash;
+        /**
+         * Number of records in the group, for a commit record.
+         */
+        private int count;
+        /**
+         * Gets the position just past this record.
+         * @return end of the record
+         */
+        long end() {
+            return bodyPos + bodyLength + CRC_BYTES;
+        }
+        /**
+         * Gets the length of an object record's stored contents.
+         * @return length of the object
+         */
+        long objectLength() {
+            return bodyLength - OBJECT_PREFIX_BYTES;
+        }
+    }
+    /**
+     * Creates a repository's part of the open group.
+     * @param repoDir the repository's .gitlet directory
+     */
+    private Journal(Path repoDir) {
+        root = repoDir;
+        file = new File(repoDir.toFile(), JOURNAL.file().getName());
+        durable = durable();
+        group = ThreadLocalRandom.current().nextLong();
+    }
+    /**
+     * Begins a group of writes, first recovering from any crash the journal
+     * of the repository the group works on shows. A group begun while
+     * another is open joins it. Writes to other repositories, such as a
+     * local remote pushed to, go to those repositories' journals, which are
+     * recovered when the group first writes to them.
+     * @param repoDir the .gitlet directory of the repository the group works
+     * on, which need not exist yet, or null if it works on none in
+     * particular
+     */
+    public static synchronized void begin(File repoDir) {
+        if (depth == 0 && repoDir != null) {
+            recover(repoDir);
+            RECOVERED.add(repoDir.getAbsoluteFile().toPath().normalize());
+        }
+        depth += 1;
+    }
+    /**
+     * Ends a group. Ending the outermost group commits it in the journal of
+     * every repository it wrote to, syncing each of those once.
+     */
+    public static synchronized void end() {
+        depth -= 1;
+        if (depth > 0) {
+            return;
+        }
+        ArrayList<Journal> journals = new ArrayList<Journal>(OPEN.values());
+        OPEN.clear();
+        RECOVERED.clear();
+        GitletException failure = null;
+        for (Journal journal : journals) {
+            try {
+                journal.commit();
+            } catch (GitletException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    /**
+     * Records that a file of a repository is about to be replaced or
+     * deleted, if a group is open, and syncs the record, along with the
+     * directories of the objects written before it, so that the file can be
+     * replaced. Files built from the objects are replaced in one rename and
+     * rebuilt rather than restored, so only the objects are synced for
+     * them.
+     * @param target the file, in a .gitlet directory
+     * @param after its new contents, or null if it is to be deleted
+     */
+    static synchronized void recordFile(File target, byte[] after) {
+        Path repoDir = depth == 0 ? null : repoDirOf(target);
+        if (repoDir == null) {
+            return;
+        }
+        Journal journal = journalOf(repoDir);
+        if (isDerived(repoDir, target)) {
+            journal.sync();
+            return;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(body)) {
+            out.writeUTF(repoDir.relativize(target.getAbsoluteFile().toPath()
+                    .normalize()).toString().replace(File.separatorChar, '/'));
+            writeContents(out, contentsOf(target));
+            writeContents(out, after);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        journal.append(FILE_RECORD, body.toByteArray());
+        journal.sync();
+    }
+    /**
+     * Checks whether a file of a repository is one built from its objects.
+     * @param repoDir the repository's .gitlet directory
+     * @param target the file
+     * @return whether the file is derived
+     */
+    private static boolean isDerived(Path repoDir, File target) {
+        Path path = target.getAbsoluteFile().toPath().normalize();
+        for (Directories derived : DERIVED) {
+            if (path.equals(repoDir.resolve(derived.file().getName()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Syncs a new object's file, about to be renamed into place in the
+     * directory it is in, or a new pack. If a group is open, the directory
+     * is synced before the group next replaces a file or ends. Nothing is
+     * synced when durability is off.
+     * @param repoDir the .gitlet directory of the object's store
+     * @param stored file holding the stored contents of the object
+     */
+    static synchronized void syncObject(File repoDir, File stored) {
+        if (!durable()) {
+            return;
+        }
+        syncFile(stored);
+        if (depth > 0) {
+            journalOf(repoDir.getAbsoluteFile().toPath().normalize())
+                    .objectDirs.add(stored.getAbsoluteFile().getParentFile());
+        }
+    }
+    /**
+     * Checkpoints a repository's journal, so that objects about to be
+     * deleted from its store are not written back from the journal by a
+     * later recovery. The open group's part in the repository is committed
+     * first, and the checkpoint waits for the groups of other processes to
+     * end.
+     * @param repoDir the repository's .gitlet directory
+     */
+    static synchronized void checkpoint(File repoDir) {
+        Journal part = OPEN.remove(repoDir.getAbsoluteFile().toPath()
+                .normalize());
+        if (part != null) {
+            part.commit();
+        }
+        File journalFile = new File(repoDir, JOURNAL.file().getName());
+        if (journalFile.length() == 0) {
+            return;
+        }
+        try (FileChannel journal = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = journal.lock(LIVE_LOCK, 1, false);
+            try {
+                checkpoint(repoDir, journal, true);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Gets the open group's part in a repository, recovering the
+     * repository and opening its journal the first time.
+     * @param repoDir the repository's .gitlet directory
+     * @return the repository's part of the group
+     */
+    private static Journal journalOf(Path repoDir) {
+        Journal journal = OPEN.get(repoDir);
+        if (journal == null) {
+            if (RECOVERED.add(repoDir)) {
+                recover(repoDir.toFile());
+            }
+            journal = new Journal(repoDir);
+            journal.open();
+            OPEN.put(repoDir, journal);
+        }
+        return journal;
+    }
+    /**
+     * Finds the .gitlet directory holding a file: the nearest directory
+     * above it with a Branches folder.
+     * @param target the file
+     * @return the directory, or null if the file is in none
+     */
+    private static Path repoDirOf(File target) {
+        for (File dir = target.getAbsoluteFile().getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            if (new File(dir, "Branches").isDirectory()) {
+                return dir.toPath().normalize();
+            }
+        }
+        return null;
+    }
+    /**
+     * Opens the journal for this group's first record in it, taking the shared
+     * lock that keeps other processes from recovering while this group is
+     * open. A journal created here has its directory synced, once.
+     */
+    private void open() {
+        try {
+            boolean created = !file.exists();
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            live = channel.lock(LIVE_LOCK, 1, true);
+            if (created && durable) {
+                syncDirectory(file.getParentFile());
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Appends a record at the end of the journal.
+     * @param type type of the record
+     * @param body body of the record
+     */
+    private void append(byte type, byte[] body) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length
+                + CRC_BYTES);
+        putHeader(record, type, group, body.length);
+        record.put(body);
+        record.putInt(crc(body, body.length));
+        record.flip();
+        try {
+            FileLock lock = channel.lock(APPEND_LOCK, 1, false);
+            try {
+                writeFully(record, channel.size());
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        numRecords += 1;
+        unsynced = true;
+    }
+    /**
+     * Syncs the directories objects were renamed into and then, if records
+     * were appended since it was last synced, the journal. Nothing is synced
+     * when durability is off.
+     */
+    private void sync() {
+        if (!durable) {
+            return;
+        }
+        for (File dir : objectDirs) {
+            syncDirectory(dir);
+        }
+        objectDirs.clear();
+        if (unsynced) {
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
+            }
+            unsynced = false;
+        }
+    }
+    /**
+     * Commits this group: appends its commit record, syncs the journal if
+     * durability is on, and checkpoints the journal if it grew past its
+     * size limit and no other group is open.
+     */
+    private void commit() {
+        try (FileChannel journal = channel) {
+            append(COMMIT_RECORD, ByteBuffer.allocate(4).putInt(numRecords)
+                    .array());
+            sync();
+            live.release();
+            if (journal.size() >= CHECKPOINT_BYTES) {
+                FileLock lock = journal.tryLock(LIVE_LOCK, 1, false);
+                if (lock != null) {
+                    try {
+                        checkpoint(root.toFile(), journal, true);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Looks through the journal of a repository if no other process has a
+     * group open, putting back what a crash lost or left half done.
+     * @param repoDir the repository's .gitlet directory
+     */
+    private static void recover(File repoDir) {
+        File journalFile = new File(repoDir, JOURNAL.file().getName());
+        if (journalFile.length() == 0) {
+            return;
+        }
+        try (FileChannel journal = FileChannel.open(journalFile.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock = journal.tryLock(LIVE_LOCK, 1, false);
+            if (lock == null) {
+                return;
+            }
+            try {
+                checkpoint(repoDir, journal, false);
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Reads the journal and, if a crash cut a group short or lost what a
+     * committed group wrote, or if asked to, checkpoints it. The caller holds
+     * the journal's lock exclusively.
+     * @param repoDir the repository's .gitlet directory
+     * @param journal the journal
+     * @param always whether to checkpoint even without a crash
+     * @throws IOException if the journal cannot be read
+     */
+    private static void checkpoint(File repoDir, FileChannel journal,
+                                   boolean always) throws IOException {
+        ArrayList<Record> records = read(journal);
+        HashSet<Long> committed = committedGroups(records);
+        boolean crashed = false;
+        LinkedHashMap<String, byte[]> redo = new LinkedHashMap<String,
+                byte[]>();
+        HashMap<String, byte[]> undo = new HashMap<String, byte[]>();
+        HashMap<String, byte[]> undone = new HashMap<String, byte[]>();
+        HashMap<String, ArrayList<byte[]>> journaled = new HashMap<String,
+                ArrayList<byte[]>>();
+        for (Record record : records) {
+            if (record.type != FILE_RECORD || !record.intact) {
+                crashed = crashed || !committed.contains(record.group);
+                continue;
+            }
+            ArrayList<byte[]> values = journaled.computeIfAbsent(record.path,
+                    path -> new ArrayList<byte[]>());
+            values.add(record.before);
+            values.add(record.after);
+            if (committed.contains(record.group)) {
+                redo.put(record.path, record.after);
+                undo.remove(record.path);
+            } else {
+                crashed = true;
+                if (!undo.containsKey(record.path)) {
+                    undo.put(record.path, record.before);
+                }
+                undone.put(record.path, record.after);
+            }
+        }
+        LinkedHashMap<String, byte[]> stale = new LinkedHashMap<String,
+                byte[]>();
+        for (Map.Entry<String, byte[]> entry : redo.entrySet()) {
+            if (!undo.containsKey(entry.getKey())) {
+                addIfStale(repoDir, entry.getKey(), entry.getValue(), stale);
+            }
+        }
+        for (Map.Entry<String, byte[]> entry : undo.entrySet()) {
+            byte[] current = contentsOf(new File(repoDir, entry.getKey()));
+            if (Arrays.equals(current, undone.get(entry.getKey()))
+                    || !holds(journaled.get(entry.getKey()), current)) {
+                addIfStale(repoDir, entry.getKey(), entry.getValue(), stale);
+            }
+        }
+        ObjectStore store = new ObjectStore(repoDir);
+        boolean lost = false;
+        for (Record record : records) {
+            if (record.type == OBJECT_RECORD && record.intact
+                    && committed.contains(record.group)
+                    && !store.containsPacked(record.hash)
+                    && store.looseFile(record.kind, record.hash).length()
+                    != record.objectLength()) {
+                lost = true;
+            }
+        }
+        crashed = crashed || lost || !stale.isEmpty();
+        if (!crashed && !always) {
+            return;
+        }
+        for (Map.Entry<String, byte[]> entry : stale.entrySet()) {
+            replace(new File(repoDir, entry.getKey()), entry.getValue());
+        }
+        TreeSet<File> synced = new TreeSet<File>();
+        checkpointObjects(store, journal, records, committed, crashed,
+                synced);
+        for (String path : redo.keySet()) {
+            synced.add(new File(repoDir, path));
+        }
+        for (String path : undo.keySet()) {
+            synced.add(new File(repoDir, path));
+        }
+        TreeSet<File> dirs = new TreeSet<File>();
+        for (File target : synced) {
+            if (target.isFile()) {
+                syncFile(target);
+            }
+            dirs.add(target.getParentFile());
+        }
+        for (File dir : dirs) {
+            syncDirectory(dir);
+        }
+        if (lost) {
+            for (Directories derived : DERIVED) {
+                new File(repoDir, derived.file().getName()).delete();
+            }
+        }
+        journal.truncate(0);
+        journal.force(true);
+    }
+    /**
+     * Makes the objects journaled by earlier builds' committed groups
+     * durable. Small objects are
+     * copied from the journal into one new pack, which is synced, and their
+     * loose files deleted, as repack would; large ones
+     * are synced where they are, after being written again from the journal
+     * if a crash damaged them. Objects of groups a crash cut short are
+     * deleted if they were left damaged.
+     * @param store the repository's object store
+     * @param journal the journal
+     * @param records the records of the journal
+     * @param committed the committed groups
+     * @param crashed whether a crash happened, so that large objects must be
+     * checked
+     * @param synced files to sync, to which large objects are added
+     * @throws IOException if the journal cannot be read
+     */
+    private static void checkpointObjects(ObjectStore store,
+                                          FileChannel journal,
+                                          ArrayList<Record> records,
+                                          HashSet<Long> committed,
+                                          boolean crashed,
+                                          TreeSet<File> synced)
+            throws IOException {
+        PackFile.Writer writer = null;
+        HashSet<String> seen = new HashSet<String>();
+        ArrayList<File> packed = new ArrayList<File>();
+        for (Record record : records) {
+            if (record.type != OBJECT_RECORD || !record.intact
+                    || store.containsPacked(record.hash)) {
+                continue;
+            }
+            File loose = store.looseFile(record.kind, record.hash);
+            if (!committed.contains(record.group)) {
+                if (crashed && loose.isFile()
+                        && !store.verify(record.kind, record.hash)) {
+                    loose.delete();
+                }
+            } else if (record.objectLength() >= LARGE_OBJECT_BYTES) {
+                if (crashed && !store.verify(record.kind, record.hash)) {
+                    File tmp = File.createTempFile("journal-", ".tmp",
+                            loose.getParentFile());
+                    try (FileChannel out = FileChannel.open(tmp.toPath(),
+                            StandardOpenOption.WRITE)) {
+                        journal.transferTo(record.bodyPos
+                                + OBJECT_PREFIX_BYTES, record.objectLength(),
+                                out);
+                    }
+                    replace(tmp, loose);
+                }
+                synced.add(loose);
+            } else if (seen.add(record.hash)) {
+                packed.add(loose);
+                if (writer == null) {
+                    store.packsDir().mkdir();
+                    writer = new PackFile.Writer(store.packsDir());
+                }
+                ByteBuffer contents = ByteBuffer.allocate(
+                        (int) record.objectLength());
+                readFully(journal, contents, record.bodyPos
+                        + OBJECT_PREFIX_BYTES);
+                writer.add(record.kind, record.hash, contents.array());
+            }
+        }
+        if (writer != null && writer.finish() != null) {
+            syncDirectory(store.packsDir());
+            for (File loose : packed) {
+                loose.delete();
+            }
+        }
+    }
+    /**
+     * Adds a file to those to write if its contents are not what the
+     * journal says they should be.
+     * @param repoDir the repository's .gitlet directory
+     * @param path path of the file in the repository
+     * @param contents contents the file should have, or null if it should
+     * not exist
+     * @param stale the files to write, with their contents
+     */
+    private static void addIfStale(File repoDir, String path, byte[] contents,
+                                   Map<String, byte[]> stale) {
+        if (!Arrays.equals(contentsOf(new File(repoDir, path)), contents)) {
+            stale.put(path, contents);
+        }
+    }
+    /**
+     * Checks whether a file holds one of the contents the journal gave it.
+     * A file holding none of them was torn: it was renamed into place by a
+     * group cut short before its contents reached the disk.
+     * @param values the contents journaled for the file, before and after
+     * each of its records, with null for a missing file
+     * @param contents the file's contents, or null if it is missing
+     * @return whether the contents are among the values
+     */
+    private static boolean holds(ArrayList<byte[]> values, byte[] contents) {
+        for (byte[] value : values) {
+            if (Arrays.equals(value, contents)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Reads every record of a journal. A record that was cut short or
+     * damaged is kept, marked as not intact, and reading goes on from the
+     * next whole record header after its start.
+     * @param journal the journal
+     * @return the records in the order they were appended
+     * @throws IOException if the journal cannot be read
+     */
+    private static ArrayList<Record> read(FileChannel journal)
+            throws IOException {
+        ArrayList<Record> result = new ArrayList<Record>();
+        long size = journal.size();
+        long pos = 0;
+        while (pos + HEADER_BYTES + CRC_BYTES <= size) {
+            Record record = readHeader(journal, pos);
+            if (record == null) {
+                pos = resync(journal, pos + 1, size);
+                continue;
+            }
+            record.intact = record.end() <= size
+                    && readBody(journal, record);
+            result.add(record);
+            pos = record.intact ? record.end()
+                    : resync(journal, pos + 1, size);
+        }
+        return result;
+    }
+    /**
+     * Reads the record header at a position of a journal.
+     * @param journal the journal
+     * @param pos position of the header
+     * @return the record, without its body, or null if there is no whole
+     * header there
+     * @throws IOException if the journal cannot be read
+     */
+    private static Record readHeader(FileChannel journal, long pos)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        if (!readFully(journal, header, pos)) {
+            return null;
+        }
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt(HEADER_BYTES
+                - CRC_BYTES) != crc(header.array(), HEADER_BYTES
+                - CRC_BYTES)) {
+            return null;
+        }
+        Record record = new Record();
+        record.type = header.get();
+        record.group = header.getLong();
+        record.bodyLength = header.getLong();
+        record.bodyPos = pos + HEADER_BYTES;
+        boolean fits = record.type == FILE_RECORD
+                ? record.bodyLength <= Integer.MAX_VALUE
+                : record.type == OBJECT_RECORD
+                ? record.bodyLength >= OBJECT_PREFIX_BYTES
+                : record.type == COMMIT_RECORD && record.bodyLength == 4;
+        return fits ? record : null;
+    }
+    /**
+     * Reads and checks the body of a record, decoding what recovery needs
+     * from it.
+     * @param journal the journal
+     * @param record the record, whose header was read
+     * @return whether the body matches its checksum
+     * @throws IOException if the journal cannot be read
+     */
+    private static boolean readBody(FileChannel journal, Record record)
+            throws IOException {
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE,
+                Math.max(record.bodyLength, OBJECT_PREFIX_BYTES)));
+        byte[] small = record.type == OBJECT_RECORD ? null
+                : new byte[(int) record.bodyLength];
+        long done = 0;
+        while (done < record.bodyLength) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(),
+                    record.bodyLength - done));
+            readFully(journal, buffer, record.bodyPos + done);
+            checksum.update(buffer.array(), 0, buffer.limit());
+            if (small != null) {
+                System.arraycopy(buffer.array(), 0, small, (int) done,
+                        buffer.limit());
+            } else if (done == 0) {
+                int kind = buffer.get(0);
+                record.kind = kind >= 0 && kind < ObjectStore.Kind.values()
+                        .length ? ObjectStore.Kind.values()[kind] : null;
+                record.hash = Utils.bytesToHex(buffer.array(), 1,
+                        Utils.UID_LENGTH / 2);
+            }
+            done += buffer.limit();
+        }
+        ByteBuffer crc = ByteBuffer.allocate(CRC_BYTES);
+        readFully(journal, crc, record.bodyPos + record.bodyLength);
+        if (crc.getInt(0) != (int) checksum.getValue()) {
+            return false;
+        } else if (record.type == OBJECT_RECORD) {
+            return record.kind != null;
+        }
+        if (record.type == COMMIT_RECORD) {
+            record.count = ByteBuffer.wrap(small).getInt();
+        } else if (record.type == FILE_RECORD) {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(small));
+            record.path = in.readUTF();
+            record.before = readContents(in);
+            record.after = readContents(in);
+        }
+        return true;
+    }
+    /**
+     * Finds the next whole record header at or after a position.
+     * @param journal the journal
+     * @param from position to start looking at
+     * @param size size of the journal
+     * @return position of the header, or the size if there is none
+     * @throws IOException if the journal cannot be read
+     */
+    private static long resync(FileChannel journal, long from, long size)
+            throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BUFFER_SIZE);
+        for (long start = from; start < size;
+             start += BUFFER_SIZE - 3) {
+            block.clear();
+            readFully(journal, block, start);
+            for (int i = 0; i + 4 <= block.position(); i += 1) {
+                if (block.getInt(i) == MAGIC
+                        && readHeader(journal, start + i) != null) {
+                    return start + i;
+                }
+            }
+            if (block.position() < BUFFER_SIZE) {
+                break;
+            }
+        }
+        return size;
+    }
+    /**
+     * Finds the groups that committed: those with a whole commit record,
+     * every one of whose other records is whole.
+     * @param records the records of the journal
+     * @return the committed groups
+     */
+    private static HashSet<Long> committedGroups(ArrayList<Record> records) {
+        HashMap<Long, Integer> counts = new HashMap<Long, Integer>();
+        HashSet<Long> damaged = new HashSet<Long>();
+        HashSet<Long> result = new HashSet<Long>();
+        for (Record record : records) {
+            if (!record.intact) {
+                damaged.add(record.group);
+            } else if (record.type == COMMIT_RECORD) {
+                if (record.count == counts.getOrDefault(record.group, 0)
+                        && !damaged.contains(record.group)) {
+                    result.add(record.group);
+                }
+            } else {
+                counts.merge(record.group, 1, Integer::sum);
+            }
+        }
+        return result;
+    }
+    /**
+     * Writes a record header into a buffer.
+     * @param buffer the buffer
+     * @param type type of the record
+     * @param groupId group of the record
+     * @param bodyLength length of the record's body
+     */
+    private static void putHeader(ByteBuffer buffer, byte type, long groupId,
+                                  long bodyLength) {
+        buffer.putInt(MAGIC);
+        buffer.put(type);
+        buffer.putLong(groupId);
+        buffer.putLong(bodyLength);
+        buffer.putInt(crc(buffer.array(), HEADER_BYTES - CRC_BYTES));
+    }
+    /**
+     * Computes the checksum of the start of an array.
+     * @param bytes the array
+     * @param length number of bytes to check
+     * @return the checksum
+     */
+    private static int crc(byte[] bytes, int length) {
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes, 0, length);
+        return (int) checksum.getValue();
+    }
+    /**
+     * Writes all of a buffer to this group's journal.
+     * @param buffer the buffer
+     * @param pos position to write it at
+     * @return the number of bytes written
+     * @throws IOException if the journal cannot be written
+     */
+    private long writeFully(ByteBuffer buffer, long pos) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, pos + written);
+        }
+        return written;
+    }
+    /**
+     * Reads a journal into a buffer until the buffer is full or the journal
+     * ends.
+     * @param journal the journal
+     * @param buffer the buffer
+     * @param pos position to read from
+     * @return whether the buffer was filled
+     * @throws IOException if the journal cannot be read
+     */
+    private static boolean readFully(FileChannel journal, ByteBuffer buffer,
+                                     long pos) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = journal.read(buffer, pos + buffer.position());
+            if (n < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Writes contents that may be missing, as a length of -1 if they are.
+     * @param out stream to write to
+     * @param contents the contents, or null
+     * @throws IOException if the stream fails
+     */
+    private static void writeContents(DataOutputStream out, byte[] contents)
+            throws IOException {
+        out.writeInt(contents == null ? -1 : contents.length);
+        if (contents != null) {
+            out.write(contents);
+        }
+    }
+    /**
+     * Reads contents written by writeContents.
+     * @param in stream to read from
+     * @return the contents, or null if they were missing
+     * @throws IOException if the stream fails
+     */
+    private static byte[] readContents(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] result = new byte[length];
+        in.readFully(result);
+        return result;
+    }
+    /**
+     * Checks whether the gitlet.durable system property leaves durability
+     * on.
+     * @return whether files and objects are synced
+     */
+    private static boolean durable() {
+        return !"false".equals(System.getProperty(DURABLE_PROPERTY));
+    }
+    /**
+     * Reads a file that may not exist.
+     * @param target the file
+     * @return its contents, or null if it does not exist
+     */
+    private static byte[] contentsOf(File target) {
+        return target.isFile() ? Utils.readContents(target) : null;
+    }
+    /**
+     * Replaces a file's contents, renaming a new file over it, or deletes
+     * it.
+     * @param target the file
+     * @param contents the new contents, or null to delete the file
+     */
+    private static void replace(File target, byte[] contents) {
+        if (contents == null) {
+            target.delete();
+            return;
+        }
+        target.getAbsoluteFile().getParentFile().mkdirs();
+        File tmp = new File(target.getPath() + ".journal");
+        Utils.writeContents(tmp, contents);
+        replace(tmp, target);
+    }
+    /**
+     * Renames a file over another.
+     * @param source the file to rename
+     * @param target the file to replace
+     */
+    private static void replace(File source, File target) {
+        try {
+            Files.move(source.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            source.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Syncs a file to disk.
+     * @param target the file
+     */
+    private static void syncFile(File target) {
+        try (FileChannel channel = FileChannel.open(target.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Syncs a directory to disk so that files renamed into it stay there.
+     * Systems that cannot open a directory are skipped.
+     * @param dir the directory
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(),
+                StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            return;
+        }
+    }
+}
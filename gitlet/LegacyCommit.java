@@ -0,0 +1,271 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Reads the commits written with Java serialization, before commits had an
+ * encoding of their own, so that they can be used and migrated. They were
+ * written in three forms, all under the class name gitlet.Commit and each
+ * with a different serialVersionUID: the first kept a flat map of its files
+ * and the set of its ancestors, the commit graph traded the ancestors for a
+ * time stamp, and trees traded the flat map for a tree hash. None of them
+ * matches the Commit class of today, so each is read into a class of its
+ * own with the same fields, picked by the fields the stream lists.
+ * <p>
+ * A commit with a flat map is given a tree built from it with Tree.update,
+ * and one without a time stamp gets it from its printed date. Either way
+ * the commit keeps the hash it is stored under.
+ * @author Connor Bernard
+ */
+class LegacyCommit {
+    /**
+     * Name of the class all the forms were serialized as.
+     */
+    private static final String STREAM_CLASS = "gitlet.Commit";
+    /**
+     * Format of the printed dates, read back for a time stamp.
+     */
+    private static final String DATE_FORMAT = "EEE MMM d HH:mm:ss yyyy Z";
+    /**
+     * The classes of the forms, oldest first.
+     */
+    private static final Class<?>[] FORMS = {
+        FlatCommit.class, StampedCommit.class, TreeCommit.class
+    };
+    /**
+     * A commit as first written, with a flat map of its files and the set of
+     * its ancestors.
+     */
+    private static class FlatCommit implements Serializable {
+        /**
+         * Serialization version the form was written with.
+         */
+        private static final long serialVersionUID = 7050473191194141648L;
+        /**
+         * The first parent's hash.
+         */
+        private String parentHash;
+        /**
+         * The second parent's hash, or null.
+         */
+        private String secondParentHash;
+        /**
+         * The message of the commit.
+         */
+        private String commitMessage;
+        /**
+         * The hash the commit had, if it was asked for before it was written.
+         */
+        private String hash;
+        /**
+         * The commit's printed date.
+         */
+        private String time;
+        /**
+         * Map from the name of each of the commit's files to its blob.
+         */
+        private HashMap<String, String> blobs;
+        /**
+         * The commit's branch.
+         */
+        private String branch;
+        /**
+         * The commit's ancestors, as far as they were ever filled in.
+         */
+        private TreeSet<String> ancestors;
+    }
+    /**
+     * A commit as written once the commit graph replaced the ancestors with a
+     * time stamp.
+     */
+    private static class StampedCommit implements Serializable {
+        /**
+         * Serialization version the form was written with.
+         */
+        private static final long serialVersionUID = -6215294494430709963L;
+        /**
+         * The first parent's hash.
+         */
+        private String parentHash;
+        /**
+         * The second parent's hash, or null.
+         */
+        private String secondParentHash;
+        /**
+         * The message of the commit.
+         */
+        private String commitMessage;
+        /**
+         * The hash the commit had, if it was asked for before it was written.
+         */
+        private String hash;
+        /**
+         * The commit's printed date.
+         */
+        private String time;
+        /**
+         * Map from the name of each of the commit's files to its blob.
+         */
+        private HashMap<String, String> blobs;
+        /**
+         * The commit's branch.
+         */
+        private String branch;
+        /**
+         * Milliseconds since the epoch at which the commit was made.
+         */
+        private long timestamp;
+    }
+    /**
+     * A commit as written once trees replaced the flat map.
+     */
+    private static class TreeCommit implements Serializable {
+        /**
+         * Serialization version the form was written with.
+         */
+        private static final long serialVersionUID = 3451000337649851662L;
+        /**
+         * The first parent's hash.
+         */
+        private String parentHash;
+        /**
+         * The second parent's hash, or null.
+         */
+        private String secondParentHash;
+        /**
+         * The message of the commit.
+         */
+        private String commitMessage;
+        /**
+         * The hash the commit had, if it was asked for before it was written.
+         */
+        private String hash;
+        /**
+         * The commit's printed date.
+         */
+        private String time;
+        /**
+         * Hash of the tree of the commit's files.
+         */
+        private String treeHash;
+        /**
+         * The commit's branch.
+         */
+        private String branch;
+        /**
+         * Milliseconds since the epoch at which the commit was made.
+         */
+        private long timestamp;
+    }
+    /**
+     * A stream of a serialized commit that reads it into the class of its
+     * form.
+     */
+    private static class FormStream extends ObjectInputStream {
+        /**
+         * Reads a serialized commit.
+         * @param in stream of the commit
+         * @throws IOException if the stream has no serialization header
+         */
+        FormStream(InputStream in) throws IOException {
+            super(in);
+        }
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass written = super.readClassDescriptor();
+            if (!written.getName().equals(STREAM_CLASS)) {
+                return written;
+            }
+            for (Class<?> form : FORMS) {
+                ObjectStreamClass local = ObjectStreamClass.lookup(form);
+                if (sameFields(written.getFields(), local.getFields())) {
+                    return local;
+                }
+            }
+            throw new InvalidClassException(STREAM_CLASS,
+                    "unknown commit form");
+        }
+    }
+    /**
+     * Reads a commit stored with Java serialization.
+     * @param contents stored contents of the commit
+     * @param storedHash hash the commit is stored under
+     * @param store store the commit is in, which a tree built for a commit
+     * with a flat map of its files is written to
+     * @return the commit
+     */
+    static Commit read(byte[] contents, String storedHash,
+                       ObjectStore store) {
+        Object form;
+        try (ObjectInputStream in = new FormStream(
+                new ByteArrayInputStream(contents))) {
+            form = in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        if (form instanceof FlatCommit) {
+            FlatCommit c = (FlatCommit) form;
+            return Commit.legacy(c.branch, c.commitMessage, c.parentHash,
+                    c.secondParentHash, Tree.update(store, Tree.EMPTY_HASH,
+                            c.blobs), parseTime(c.time), storedHash);
+        } else if (form instanceof StampedCommit) {
+            StampedCommit c = (StampedCommit) form;
+            return Commit.legacy(c.branch, c.commitMessage, c.parentHash,
+                    c.secondParentHash, Tree.update(store, Tree.EMPTY_HASH,
+                            c.blobs), c.timestamp, storedHash);
+        }
+        TreeCommit c = (TreeCommit) form;
+        return Commit.legacy(c.branch, c.commitMessage, c.parentHash,
+                c.secondParentHash, c.treeHash, c.timestamp, storedHash);
+    }
+    /**
+     * Checks whether two classes serialize the same fields in the same
+     * order.
+     * @param written fields of the class a stream was written with
+     * @param local fields of a local class
+     * @return whether the fields match by name and type
+     */
+    private static boolean sameFields(ObjectStreamField[] written,
+                                      ObjectStreamField[] local) {
+        if (written.length != local.length) {
+            return false;
+        }
+        for (int i = 0; i < written.length; i += 1) {
+            if (!written[i].getName().equals(local[i].getName())
+                    || written[i].getTypeCode() != local[i].getTypeCode()
+                    || written[i].getTypeCode() == 'L'
+                    && !written[i].getTypeString().equals(
+                            local[i].getTypeString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Gets the time stamp of a commit written before commits had one from
+     * its printed date.
+     * @param time the printed date
+     * @return milliseconds since the epoch, or zero if the date cannot be
+     * read
+     */
+    private static long parseTime(String time) {
+        try {
+            return new SimpleDateFormat(DATE_FORMAT, Locale.US).parse(time).getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,936 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A line diff of two texts. The lines are first interned: each is hashed as
+ * it is read and given a small id, the same for equal lines of every text
+ * read by one interner, so that the diff compares ints. Ids are exact: the
+ * 64-bit FNV-1a hash only finds candidates, and a line gets a candidate's id
+ * only if their bytes are equal, since FNV-1a collisions are easy to make
+ * and a collision would hide a change. The bytes of each distinct line are
+ * kept for this, in memory up to 16 MB and past that in a temporary file,
+ * so memory still grows with the number of lines and not their length. A
+ * line's newline is part of it, so a last line without one differs from the
+ * same line with one.
+ * <p>
+ * The diff strips the lines the two sides start and end with in common,
+ * then splits what is left at a run of common lines around the line that
+ * occurs least often in the first side, as histogram diff does, and goes on
+ * with the parts before and after the run. A part where every common line
+ * occurs too often to be a good split is diffed with Myers' algorithm, in
+ * linear space, over only the lines both sides have; a search that runs
+ * past a cost splits the part where it got furthest, so the diff of such a
+ * part may not be the shortest.
+ * @author Connor Bernard
+ */
+class LineDiff {
+    /**
+     * Number of times a line may occur in the first side of a part and
+     * still be used to split it.
+     */
+    private static final int MAX_CHAIN = 64;
+    /**
+     * Fewest edits Myers' algorithm searches through for a part before
+     * settling for an edit that may not be the shortest; parts of more
+     * lines search through up to the square root of their length.
+     */
+    private static final int MIN_COST = 256;
+    /**
+     * Ids of the lines of the first side.
+     */
+    private final int[] a;
+    /**
+     * Ids of the lines of the second side.
+     */
+    private final int[] b;
+    /**
+     * Number of times each id occurs in the first side of the part being
+     * split; zero outside of a split.
+     */
+    private final int[] count;
+    /**
+     * First position of each id in the first side of the part being split.
+     */
+    private final int[] head;
+    /**
+     * Next position of the same id in the first side of the part being
+     * split, or -1, by position.
+     */
+    private final int[] next;
+    /**
+     * The changed regions found so far, in order.
+     */
+    private final ArrayList<int[]> edits = new ArrayList<int[]>();
+    /**
+     * Reads texts as arrays of line ids, giving equal lines equal ids. A
+     * line is looked up by its hash, but is given the id of a line with the
+     * same hash only if their bytes are equal too, so that lines whose
+     * hashes merely collide are never taken for each other. For this the
+     * bytes of each distinct line are kept: the first 16 MB in memory and
+     * the rest in a temporary file, read back in blocks when a hash matches
+     * and deleted when the interner is closed.
+     */
+    static class Interner implements Closeable {
+        /**
+         * Number of bytes at the start of a text checked for a NUL byte,
+         * which marks the text as binary.
+         */
+        private static final int BINARY_CHECK_BYTES = 8000;
+        /**
+         * Size of the blocks texts are read in, and the kept bytes are
+         * written to and read from the temporary file in.
+         */
+        private static final int BUFFER_SIZE = 1 << 16;
+        /**
+         * Number of bytes of distinct lines kept in memory before the rest
+         * go to the temporary file.
+         */
+        private static final int MEMORY_BYTES = 1 << 24;
+        /**
+         * Offset basis of the FNV-1a hash lines are hashed with.
+         */
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        /**
+         * Prime of the FNV-1a hash lines are hashed with.
+         */
+        private static final long FNV_PRIME = 0x100000001b3L;
+        /**
+         * Log of the number of ids in each page of hashes and starts, which
+         * grow a page at a time so that no large array is ever copied.
+         */
+        private static final int PAGE_BITS = 12;
+        /**
+         * Low half of the mixed hash of the line with each id, which is all
+         * the table needs since matches are confirmed by the lines' bytes,
+         * in pages.
+         */
+        private int[][] hashes = new int[1 << 4][];
+        /**
+         * Position among the kept bytes of the line with each id, in pages;
+         * each line ends where the next id's starts.
+         */
+        private long[][] starts = new long[1 << 4][];
+        /**
+         * Id of the line in each slot of an open-addressed table, plus one;
+         * zero for an empty slot.
+         */
+        private int[] slots = new int[1 << 11];
+        /**
+         * Number of ids given out.
+         */
+        private int size;
+        /**
+         * Whether the last text read had a NUL byte near its start.
+         */
+        private boolean binary;
+        /**
+         * The kept bytes before MEMORY_BYTES.
+         */
+        private byte[] memory = new byte[1 << 12];
+        /**
+         * Number of bytes kept for lines with ids, which is where the line
+         * being read starts.
+         */
+        private long kept;
+        /**
+         * Number of bytes kept, counting the line being read.
+         */
+        private long end;
+        /**
+         * Temporary file of the kept bytes from MEMORY_BYTES on, or null
+         * until there are any.
+         */
+        private FileChannel spill;
+        /**
+         * Kept bytes from tailStart on, not yet written to the temporary
+         * file.
+         */
+        private byte[] tail;
+        /**
+         * Position among the kept bytes of the first byte of tail.
+         */
+        private long tailStart = MEMORY_BYTES;
+        /**
+         * Block of the temporary file read last.
+         */
+        private byte[] window;
+        /**
+         * Position among the kept bytes of the first byte of window.
+         */
+        private long windowStart;
+        /**
+         * Number of bytes in window.
+         */
+        private int windowLength;
+        /**
+         * Blocks of the two lines being compared, when either is in the
+         * temporary file.
+         */
+        private byte[] left;
+        /**
+         * Block of the second of the two lines being compared.
+         */
+        private byte[] right;
+        /**
+         * Gets the number of distinct lines read, which bounds every id.
+         * @return number of ids given out
+         */
+        int size() {
+            return size;
+        }
+        /**
+         * Tells whether the last text read looked binary.
+         * @return whether it had a NUL byte near its start
+         */
+        boolean binary() {
+            return binary;
+        }
+        /**
+         * Reads a text to its end.
+         * @param in stream of the text, which is not closed
+         * @return id of each line of the text
+         */
+        int[] lines(InputStream in) {
+            int[] result = new int[1 << 10];
+            int numLines = 0;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long hash = FNV_OFFSET;
+            long read = 0;
+            binary = false;
+            try {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    int lineStart = 0;
+                    for (int i = 0; i < n; i += 1) {
+                        byte c = buffer[i];
+                        binary = binary || c == 0
+                                && read + i < BINARY_CHECK_BYTES;
+                        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+                        if (c == '\n') {
+                            keep(buffer, lineStart, i + 1 - lineStart);
+                            if (numLines == result.length) {
+                                result = Arrays.copyOf(result, 2 * numLines);
+                            }
+                            result[numLines++] = intern(hash);
+                            hash = FNV_OFFSET;
+                            lineStart = i + 1;
+                        }
+                    }
+                    keep(buffer, lineStart, n - lineStart);
+                    read += n;
+                }
+                if (end > kept) {
+                    result = Arrays.copyOf(result, numLines + 1);
+                    result[numLines++] = intern(hash);
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            return Arrays.copyOf(result, numLines);
+        }
+        /**
+         * Gets the id of the line just kept, giving out a new id for a line
+         * not seen before and otherwise dropping its bytes again.
+         * @param lineHash hash of the line
+         * @return id of the line
+         * @throws IOException if the temporary file cannot be used
+         */
+        private int intern(long lineHash) throws IOException {
+            int h = (int) mix(lineHash);
+            long length = end - kept;
+            int mask = slots.length - 1;
+            int slot = h & mask;
+            while (slots[slot] != 0) {
+                int id = slots[slot] - 1;
+                if (hash(id) == h && length(id) == length
+                        && equal(start(id), kept, length)) {
+                    drop();
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+            int page = size >>> PAGE_BITS;
+            int index = size & ((1 << PAGE_BITS) - 1);
+            if (index == 0) {
+                if (page == hashes.length) {
+                    hashes = Arrays.copyOf(hashes, 2 * page);
+                    starts = Arrays.copyOf(starts, 2 * page);
+                }
+                hashes[page] = new int[1 << PAGE_BITS];
+                starts[page] = new long[1 << PAGE_BITS];
+            }
+            hashes[page][index] = h;
+            starts[page][index] = kept;
+            kept = end;
+            slots[slot] = ++size;
+            if (4 * size > 3 * slots.length) {
+                grow();
+            }
+            return size - 1;
+        }
+        /**
+         * Gets the number of bytes of the line with an id.
+         * @param id the id
+         * @return length of the line, with its newline
+         */
+        private long length(int id) {
+            return (id + 1 < size ? start(id + 1) : kept) - start(id);
+        }
+        /**
+         * Gets the low half of the mixed hash of the line with an id.
+         * @param id the id
+         * @return the hash
+         */
+        private int hash(int id) {
+            return hashes[id >>> PAGE_BITS][id & ((1 << PAGE_BITS) - 1)];
+        }
+        /**
+         * Gets the position among the kept bytes of the line with an id.
+         * @param id the id
+         * @return position of the line's first byte
+         */
+        private long start(int id) {
+            return starts[id >>> PAGE_BITS][id & ((1 << PAGE_BITS) - 1)];
+        }
+        /**
+         * Doubles the table, placing every id again.
+         */
+        private void grow() {
+            slots = new int[2 * slots.length];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; id += 1) {
+                int slot = hash(id) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = id + 1;
+            }
+        }
+        /**
+         * Keeps bytes of the line being read.
+         * @param bytes block holding the bytes
+         * @param offset position of the first byte in the block
+         * @param length number of bytes
+         * @throws IOException if the temporary file cannot be written
+         */
+        private void keep(byte[] bytes, int offset, int length)
+                throws IOException {
+            if (end < MEMORY_BYTES && length > 0) {
+                int n = (int) Math.min(length, MEMORY_BYTES - end);
+                if (end + n > memory.length) {
+                    memory = Arrays.copyOf(memory, (int) Math.min(
+                            MEMORY_BYTES, Math.max(2L * memory.length,
+                                    end + n)));
+                }
+                System.arraycopy(bytes, offset, memory, (int) end, n);
+                end += n;
+                offset += n;
+                length -= n;
+            }
+            while (length > 0) {
+                if (tail == null) {
+                    tail = new byte[BUFFER_SIZE];
+                } else if (end - tailStart == tail.length) {
+                    flush();
+                }
+                int used = (int) (end - tailStart);
+                int n = Math.min(length, tail.length - used);
+                System.arraycopy(bytes, offset, tail, used, n);
+                end += n;
+                offset += n;
+                length -= n;
+            }
+        }
+        /**
+         * Drops the bytes kept of the line being read.
+         */
+        private void drop() {
+            end = kept;
+            if (tailStart > end) {
+                tailStart = Math.max(end, MEMORY_BYTES);
+                if (windowStart + windowLength > tailStart) {
+                    windowLength = 0;
+                }
+            }
+        }
+        /**
+         * Writes the bytes in tail to the temporary file, creating it the
+         * first time.
+         * @throws IOException if the file cannot be written
+         */
+        private void flush() throws IOException {
+            if (spill == null) {
+                spill = FileChannel.open(Files.createTempFile("gitlet",
+                        ".lines"), StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer block = ByteBuffer.wrap(tail, 0,
+                    (int) (end - tailStart));
+            while (block.hasRemaining()) {
+                spill.write(block, tailStart - MEMORY_BYTES
+                        + block.position());
+            }
+            tailStart = end;
+        }
+        /**
+         * Compares two runs of kept bytes.
+         * @param first position of the first run
+         * @param second position of the second run, after the first
+         * @param length number of bytes in each run
+         * @return whether the runs are equal
+         * @throws IOException if the temporary file cannot be read
+         */
+        private boolean equal(long first, long second, long length)
+                throws IOException {
+            if (second + length <= MEMORY_BYTES) {
+                return Arrays.equals(memory, (int) first,
+                        (int) (first + length), memory, (int) second,
+                        (int) (second + length));
+            }
+            if (left == null) {
+                left = new byte[BUFFER_SIZE];
+                right = new byte[BUFFER_SIZE];
+            }
+            while (length > 0) {
+                int n = (int) Math.min(length, BUFFER_SIZE);
+                read(first, left, n);
+                read(second, right, n);
+                if (!Arrays.equals(left, 0, n, right, 0, n)) {
+                    return false;
+                }
+                first += n;
+                second += n;
+                length -= n;
+            }
+            return true;
+        }
+        /**
+         * Copies kept bytes, from memory, from tail or from the temporary
+         * file through window.
+         * @param pos position of the first byte
+         * @param dest array to copy to, from its start
+         * @param length number of bytes, all of them kept
+         * @throws IOException if the temporary file cannot be read
+         */
+        private void read(long pos, byte[] dest, int length)
+                throws IOException {
+            int done = 0;
+            while (done < length) {
+                long p = pos + done;
+                int n;
+                if (p < MEMORY_BYTES) {
+                    n = (int) Math.min(length - done, MEMORY_BYTES - p);
+                    System.arraycopy(memory, (int) p, dest, done, n);
+                } else if (p >= tailStart) {
+                    n = length - done;
+                    System.arraycopy(tail, (int) (p - tailStart), dest, done,
+                            n);
+                } else {
+                    if (p < windowStart || p >= windowStart + windowLength) {
+                        fill(p);
+                    }
+                    n = (int) Math.min(length - done,
+                            windowStart + windowLength - p);
+                    System.arraycopy(window, (int) (p - windowStart), dest,
+                            done, n);
+                }
+                done += n;
+            }
+        }
+        /**
+         * Reads a block of the temporary file into window.
+         * @param pos position among the kept bytes to read from, which is in
+         * the file
+         * @throws IOException if the file cannot be read
+         */
+        private void fill(long pos) throws IOException {
+            if (window == null) {
+                window = new byte[BUFFER_SIZE];
+            }
+            ByteBuffer block = ByteBuffer.wrap(window, 0,
+                    (int) Math.min(BUFFER_SIZE, tailStart - pos));
+            while (block.hasRemaining()) {
+                if (spill.read(block, pos - MEMORY_BYTES
+                        + block.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            windowStart = pos;
+            windowLength = block.limit();
+        }
+        /**
+         * Spreads the bits of a hash over all of it, so that its low bits
+         * pick table slots evenly.
+         * @param h the hash
+         * @return the mixed hash
+         */
+        private static long mix(long h) {
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            return h ^ (h >>> 33);
+        }
+        /**
+         * Deletes the temporary file, if there is one.
+         */
+        @Override
+        public void close() {
+            if (spill == null) {
+                return;
+            }
+            try {
+                spill.close();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+    }
+    /**
+     * A stream of a text read one line at a time, copying lines without
+     * decoding them.
+     */
+    static class Cursor implements Closeable {
+        /**
+         * The text.
+         */
+        private final InputStream in;
+        /**
+         * Bytes read from the text and not yet used.
+         */
+        private final byte[] buffer = new byte[Interner.BUFFER_SIZE];
+        /**
+         * Position of the next unused byte in the buffer.
+         */
+        private int pos;
+        /**
+         * Number of bytes in the buffer.
+         */
+        private int limit;
+        /**
+         * Index of the next line.
+         */
+        private int line;
+        /**
+         * Reads a text from its first line.
+         * @param text stream of the text, closed with this cursor
+         */
+        Cursor(InputStream text) {
+            in = text;
+        }
+        /**
+         * Gets the index of the line the cursor is at.
+         * @return index of the next line to be read
+         */
+        int line() {
+            return line;
+        }
+        /**
+         * Skips lines until the cursor is at a line.
+         * @param target index of the line, at or after the cursor
+         */
+        void skipTo(int target) {
+            while (line < target) {
+                copy(null);
+            }
+        }
+        /**
+         * Copies the next line, with its newline if it has one.
+         * @param out stream to copy to, or null to skip the line
+         * @return whether the line ended in a newline
+         */
+        boolean copy(OutputStream out) {
+            try {
+                while (true) {
+                    if (pos == limit) {
+                        limit = Math.max(in.read(buffer), 0);
+                        pos = 0;
+                        if (limit == 0) {
+                            line += 1;
+                            return false;
+                        }
+                    }
+                    int end = pos;
+                    while (end < limit && buffer[end] != '\n') {
+                        end += 1;
+                    }
+                    boolean newline = end < limit;
+                    int stop = newline ? end + 1 : end;
+                    if (out != null) {
+                        out.write(buffer, pos, stop - pos);
+                    }
+                    pos = stop;
+                    if (newline) {
+                        line += 1;
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        @Override
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+    }
+    /**
+     * Sets up a diff of two texts.
+     * @param first ids of the lines of the first text
+     * @param second ids of the lines of the second text
+     * @param numIds number of ids the interner gave out
+     */
+    private LineDiff(int[] first, int[] second, int numIds) {
+        a = first;
+        b = second;
+        count = new int[numIds];
+        head = new int[numIds];
+        next = new int[first.length];
+    }
+    /**
+     * Diffs two texts read by the same interner.
+     * @param first ids of the lines of the first text
+     * @param second ids of the lines of the second text
+     * @param numIds number of ids the interner gave out
+     * @return the changed regions, in order, each as the start and end of
+     * its lines in the first text followed by those in the second; ends
+     * are exclusive, and a region may be empty on one side
+     */
+    static List<int[]> diff(int[] first, int[] second, int numIds) {
+        LineDiff diff = new LineDiff(first, second, numIds);
+        ArrayDeque<int[]> parts = new ArrayDeque<int[]>();
+        parts.push(new int[] {0, first.length, 0, second.length});
+        while (!parts.isEmpty()) {
+            int[] part = parts.pop();
+            diff.split(part[0], part[1], part[2], part[3], parts);
+        }
+        return diff.edits;
+    }
+    /**
+     * Diffs a part of the texts, or splits it at a run of common lines and
+     * pushes the parts before and after the run, the one before on top.
+     * @param aLo start of the part in the first text
+     * @param aHi end of the part in the first text
+     * @param bLo start of the part in the second text
+     * @param bHi end of the part in the second text
+     * @param parts stack of parts left to diff
+     */
+    private void split(int aLo, int aHi, int bLo, int bHi,
+                       ArrayDeque<int[]> parts) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        for (int i = aHi - 1; i >= aLo; i -= 1) {
+            next[i] = count[a[i]] == 0 ? -1 : head[a[i]];
+            head[a[i]] = i;
+            count[a[i]] += 1;
+        }
+        int[] best = null;
+        int bestLow = MAX_CHAIN + 1;
+        boolean common = false;
+        for (int j = bLo; j < bHi;) {
+            int c = count[b[j]];
+            common = common || c > 0;
+            int nextJ = j + 1;
+            if (c > 0 && c <= Math.min(bestLow, MAX_CHAIN)) {
+                for (int i = head[b[j]]; i >= 0; i = next[i]) {
+                    int as = i;
+                    int bs = j;
+                    int ae = i + 1;
+                    int be = j + 1;
+                    int low = c;
+                    while (as > aLo && bs > bLo && a[as - 1] == b[bs - 1]) {
+                        as -= 1;
+                        bs -= 1;
+                        low = Math.min(low, count[a[as]]);
+                    }
+                    while (ae < aHi && be < bHi && a[ae] == b[be]) {
+                        low = Math.min(low, count[a[ae]]);
+                        ae += 1;
+                        be += 1;
+                    }
+                    if (low < bestLow || best != null && low == bestLow
+                            && ae - as > best[1] - best[0]) {
+                        best = new int[] {as, ae, bs, be};
+                        bestLow = low;
+                    }
+                    nextJ = Math.max(nextJ, be);
+                }
+            }
+            j = nextJ;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 0;
+        }
+        if (best != null) {
+            parts.push(new int[] {best[1], aHi, best[3], bHi});
+            parts.push(new int[] {aLo, best[0], bLo, best[2]});
+        } else if (common) {
+            myersOfCommon(aLo, aHi, bLo, bHi);
+        } else {
+            edit(aLo, aHi, bLo, bHi);
+        }
+    }
+    /**
+     * Diffs a part of the texts with Myers' algorithm after leaving out the
+     * lines of each side that the other side does not have, which can only
+     * be changed, then maps the lines found unchanged back to the part.
+     * @param aLo start of the part in the first text
+     * @param aHi end of the part in the first text
+     * @param bLo start of the part in the second text
+     * @param bHi end of the part in the second text
+     */
+    private void myersOfCommon(int aLo, int aHi, int bLo, int bHi) {
+        for (int j = bLo; j < bHi; j += 1) {
+            count[b[j]] = 1;
+        }
+        int[] aIndex = new int[aHi - aLo];
+        int numA = 0;
+        for (int i = aLo; i < aHi; i += 1) {
+            if (count[a[i]] != 0) {
+                aIndex[numA++] = i;
+            }
+        }
+        for (int j = bLo; j < bHi; j += 1) {
+            count[b[j]] = 0;
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 1;
+        }
+        int[] bIndex = new int[bHi - bLo];
+        int numB = 0;
+        for (int j = bLo; j < bHi; j += 1) {
+            if (count[b[j]] != 0) {
+                bIndex[numB++] = j;
+            }
+        }
+        for (int i = aLo; i < aHi; i += 1) {
+            count[a[i]] = 0;
+        }
+        int[] first = new int[numA];
+        int[] second = new int[numB];
+        for (int i = 0; i < numA; i += 1) {
+            first[i] = a[aIndex[i]];
+        }
+        for (int j = 0; j < numB; j += 1) {
+            second[j] = b[bIndex[j]];
+        }
+        LineDiff common = new LineDiff(first, second, count.length);
+        common.myers(0, numA, 0, numB);
+        int i = 0;
+        int j = 0;
+        int aFrom = aLo;
+        int bFrom = bLo;
+        common.edits.add(new int[] {numA, numA, numB, numB});
+        for (int[] edit : common.edits) {
+            for (; i < edit[0]; i += 1, j += 1) {
+                edit(aFrom, aIndex[i], bFrom, bIndex[j]);
+                aFrom = aIndex[i] + 1;
+                bFrom = bIndex[j] + 1;
+            }
+            i = edit[1];
+            j = edit[3];
+        }
+        edit(aFrom, aHi, bFrom, bHi);
+    }
+    /**
+     * Diffs a part of the texts with Myers' algorithm: finds where the
+     * forward and backward searches for the shortest edit meet and diffs
+     * the parts on either side of that point.
+     * @param aLo start of the part in the first text
+     * @param aHi end of the part in the first text
+     * @param bLo start of the part in the second text
+     * @param bHi end of the part in the second text
+     */
+    private void myers(int aLo, int aHi, int bLo, int bHi) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        int[] middle = middle(aLo, aHi, bLo, bHi);
+        if (middle == null || middle[0] == aLo && middle[1] == bLo
+                || middle[0] == aHi && middle[1] == bHi) {
+            edit(aLo, aHi, bLo, bHi);
+            return;
+        }
+        myers(aLo, middle[0], bLo, middle[1]);
+        myers(middle[0], aHi, middle[1], bHi);
+    }
+    /**
+     * Finds a point on a shortest edit of a part of the texts about halfway
+     * through the edit, searching forward from the start and backward from
+     * the end at once until the searches overlap.
+     * @param aLo start of the part in the first text
+     * @param aHi end of the part in the first text
+     * @param bLo start of the part in the second text
+     * @param bHi end of the part in the second text
+     * @return the point's position in the first text and in the second, or
+     * null if the part has no lines in common
+     */
+    private int[] middle(int aLo, int aHi, int bLo, int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int maxD = (n + m + 1) / 2;
+        int offset = maxD;
+        int[] forward = new int[2 * maxD + 2];
+        int[] backward = new int[2 * maxD + 2];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int fStart = 0;
+        int fEnd = 0;
+        int bStart = 0;
+        int bEnd = 0;
+        for (int d = 0; d < maxD; d += 1) {
+            for (int k = -d + fStart; k <= d - fEnd; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1]
+                        < forward[offset + k + 1] ? forward[offset + k + 1]
+                        : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    fEnd += 2;
+                } else if (y > m) {
+                    fStart += 2;
+                } else if (odd) {
+                    int k2 = offset + delta - k;
+                    if (k2 >= 0 && k2 < backward.length && backward[k2] != -1
+                            && x >= n - backward[k2]) {
+                        return new int[] {aLo + x, bLo + y};
+                    }
+                }
+            }
+            for (int k = -d + bStart; k <= d - bEnd; k += 2) {
+                int x = k == -d || k != d && backward[offset + k - 1]
+                        < backward[offset + k + 1] ? backward[offset + k + 1]
+                        : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m
+                        && a[aHi - x - 1] == b[bHi - y - 1]) {
+                    x += 1;
+                    y += 1;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    bEnd += 2;
+                } else if (y > m) {
+                    bStart += 2;
+                } else if (!odd) {
+                    int k1 = offset + delta - k;
+                    if (k1 >= 0 && k1 < forward.length && forward[k1] != -1) {
+                        int x1 = forward[k1];
+                        int y1 = offset + x1 - k1;
+                        if (x1 >= n - x) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+            }
+            if (d + 1 >= Math.max(MIN_COST, (int) Math.sqrt(n + m))) {
+                return furthest(forward, backward, offset, d, aLo, aHi,
+                        bLo, bHi);
+            }
+        }
+        return null;
+    }
+    /**
+     * Gives up on a shortest edit of a part whose searches took too long,
+     * as xdiff does: picks the point one of the searches got furthest
+     * along to, which still splits the part into two smaller ones.
+     * @param forward furthest position in the first text reached on each
+     * diagonal searching forward
+     * @param backward furthest distance from the end of the first text
+     * reached on each diagonal searching backward
+     * @param offset index of diagonal zero in both arrays
+     * @param d number of edits each search has made
+     * @param aLo start of the part in the first text
+     * @param aHi end of the part in the first text
+     * @param bLo start of the part in the second text
+     * @param bHi end of the part in the second text
+     * @return the point's position in the first text and in the second
+     */
+    private static int[] furthest(int[] forward, int[] backward, int offset,
+                                  int d, int aLo, int aHi, int bLo,
+                                  int bHi) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int[] result = null;
+        int best = -1;
+        for (int k = -d; k <= d; k += 2) {
+            int x = forward[offset + k];
+            int y = x - k;
+            if (x >= 0 && x <= n && y >= 0 && y <= m && x + y > best) {
+                best = x + y;
+                result = new int[] {aLo + x, bLo + y};
+            }
+            x = backward[offset + k];
+            y = x - k;
+            if (x >= 0 && x <= n && y >= 0 && y <= m && x + y > best) {
+                best = x + y;
+                result = new int[] {aHi - x, bHi - y};
+            }
+        }
+        return result;
+    }
+    /**
+     * Adds a changed region, joining it to the last one if they touch.
+     * Empty regions are left out.
+     * @param aLo start of the region in the first text
+     * @param aHi end of the region in the first text
+     * @param bLo start of the region in the second text
+     * @param bHi end of the region in the second text
+     */
+    private void edit(int aLo, int aHi, int bLo, int bHi) {
+        if (aLo == aHi && bLo == bHi) {
+            return;
+        }
+        int[] last = edits.isEmpty() ? null : edits.get(edits.size() - 1);
+        if (last != null && last[1] == aLo && last[3] == bLo) {
+            last[1] = aHi;
+            last[3] = bHi;
+        } else {
+            edits.add(new int[] {aLo, aHi, bLo, bHi});
+        }
+    }
+}
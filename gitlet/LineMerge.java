@@ -0,0 +1,159 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * A three-way merge of two versions of a text against the version they
+ * both came from, line by line, as diff3 does. Each version's changes from
+ * the base are found with LineDiff. A change only one side made is taken
+ * as it is; changes of both sides that overlap or touch form one region,
+ * which is taken once if both sides made it the same way and is otherwise
+ * written between conflict markers, the current side first.
+ * <p>
+ * The versions are read as streams twice, once to intern their lines and
+ * once to copy them to the result, so memory grows with the number of
+ * lines rather than their length, and the result is streamed out.
+ * @author Connor Bernard
+ */
+class LineMerge {
+    /**
+     * Marker starting a conflict, before the current side's lines.
+     */
+    private static final String OURS_MARKER = "<<<<<<< HEAD\n";
+    /**
+     * Marker between the two sides of a conflict.
+     */
+    private static final String SEPARATOR = "=======\n";
+    /**
+     * Marker ending a conflict, after the given side's lines.
+     */
+    private static final String THEIRS_MARKER = ">>>>>>>\n";
+    /**
+     * Merges two versions of a text.
+     * @param base opens the version both sides came from
+     * @param ours opens the current side
+     * @param theirs opens the given side
+     * @param out stream to write the merged text to
+     * @return whether any region conflicted
+     */
+    static boolean merge(Supplier<InputStream> base,
+                         Supplier<InputStream> ours,
+                         Supplier<InputStream> theirs, OutputStream out) {
+        int[] o;
+        int[] a;
+        int[] b;
+        int numIds;
+        try (LineDiff.Interner interner = new LineDiff.Interner()) {
+            o = lines(interner, base);
+            a = lines(interner, ours);
+            b = lines(interner, theirs);
+            numIds = interner.size();
+        }
+        List<int[]> aEdits = LineDiff.diff(o, a, numIds);
+        List<int[]> bEdits = LineDiff.diff(o, b, numIds);
+        boolean conflicted = false;
+        try (LineDiff.Cursor oCursor = new LineDiff.Cursor(base.get());
+             LineDiff.Cursor aCursor = new LineDiff.Cursor(ours.get());
+             LineDiff.Cursor bCursor = new LineDiff.Cursor(theirs.get())) {
+            int i = 0;
+            int j = 0;
+            int aShift = 0;
+            int bShift = 0;
+            while (i < aEdits.size() || j < bEdits.size()) {
+                int lo = j == bEdits.size() || i < aEdits.size()
+                        && aEdits.get(i)[0] <= bEdits.get(j)[0]
+                        ? aEdits.get(i)[0] : bEdits.get(j)[0];
+                int hi = lo;
+                int aLo = lo + aShift;
+                int bLo = lo + bShift;
+                boolean changedA = false;
+                boolean changedB = false;
+                while (true) {
+                    if (i < aEdits.size() && aEdits.get(i)[0] <= hi) {
+                        int[] edit = aEdits.get(i++);
+                        hi = Math.max(hi, edit[1]);
+                        aShift += edit[3] - edit[2] - (edit[1] - edit[0]);
+                        changedA = true;
+                    } else if (j < bEdits.size() && bEdits.get(j)[0] <= hi) {
+                        int[] edit = bEdits.get(j++);
+                        hi = Math.max(hi, edit[1]);
+                        bShift += edit[3] - edit[2] - (edit[1] - edit[0]);
+                        changedB = true;
+                    } else {
+                        break;
+                    }
+                }
+                int aHi = hi + aShift;
+                int bHi = hi + bShift;
+                copy(out, oCursor, lo, false);
+                aCursor.skipTo(aLo);
+                bCursor.skipTo(bLo);
+                oCursor.skipTo(hi);
+                if (!changedB || changedA && Arrays.equals(a, aLo, aHi,
+                        b, bLo, bHi)) {
+                    copy(out, aCursor, aHi, false);
+                } else if (!changedA) {
+                    copy(out, bCursor, bHi, false);
+                } else {
+                    conflicted = true;
+                    write(out, OURS_MARKER);
+                    copy(out, aCursor, aHi, true);
+                    write(out, SEPARATOR);
+                    copy(out, bCursor, bHi, true);
+                    write(out, THEIRS_MARKER);
+                }
+            }
+            copy(out, oCursor, o.length, false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return conflicted;
+    }
+    /**
+     * Interns the lines of one version.
+     * @param interner interner shared by all three versions
+     * @param version opens the version
+     * @return ids of the lines
+     */
+    private static int[] lines(LineDiff.Interner interner,
+                               Supplier<InputStream> version) {
+        try (InputStream in = version.get()) {
+            return interner.lines(in);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Copies a version's lines up to a line.
+     * @param out stream to copy to
+     * @param from cursor of the version
+     * @param end line to stop before
+     * @param marked whether a conflict marker follows, so that a last line
+     * without a newline is given one
+     * @throws IOException if writing fails
+     */
+    private static void copy(OutputStream out, LineDiff.Cursor from, int end,
+                             boolean marked) throws IOException {
+        while (from.line() < end) {
+            if (!from.copy(out) && marked) {
+                out.write('\n');
+            }
+        }
+    }
+    /**
+     * Writes a marker as UTF-8.
+     * @param out stream to write to
+     * @param marker the marker
+     * @throws IOException if writing fails
+     */
+    private static void write(OutputStream out, String marker)
+            throws IOException {
+        out.write(marker.getBytes(StandardCharsets.UTF_8));
+    }
+}
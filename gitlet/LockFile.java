@@ -0,0 +1,166 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * An exclusive lock on a file of the repository, held by creating the file
+ * of the same name with .lock added. Creating it fails if it exists, so only
+ * one command, in any thread or process, holds the lock at a time. The new
+ * contents of the file are written to the lock file, which is then renamed
+ * over the file in one step, so a reader sees either the old contents or the
+ * new. Closing the lock without committing leaves the file as it was.
+ * Files of a repository are recorded in its journal, and the record synced,
+ * before they are replaced or deleted, so that a crash never leaves one
+ * half written or naming objects that did not reach the disk.
+ * <p>
+ * A command waiting for a lock retries with growing pauses, for up to the
+ * number of milliseconds in the gitlet.lock.timeout system property. A lock
+ * file left behind by a command that died must be deleted by hand.
+ * @author Connor Bernard
+ */
+public class LockFile implements AutoCloseable {
+    /**
+     * Name of the system property giving the number of milliseconds to wait
+     * for a lock.
+     */
+    private static final String TIMEOUT_PROPERTY = "gitlet.lock.timeout";
+    /**
+     * Number of milliseconds to wait for a lock by default.
+     */
+    private static final long DEFAULT_TIMEOUT_MILLIS = 10000;
+    /**
+     * Longest pause between attempts to take a lock, in milliseconds.
+     */
+    private static final long MAX_PAUSE_MILLIS = 64;
+    /**
+     * The file locked.
+     */
+    private final File file;
+    /**
+     * The lock file.
+     */
+    private final File lock;
+    /**
+     * Whether the lock was committed or released.
+     */
+    private boolean done;
+    /**
+     * Creates a held lock.
+     * @param locked the file locked
+     * @param lockFile the lock file, which this process created
+     */
+    private LockFile(File locked, File lockFile) {
+        file = locked;
+        lock = lockFile;
+    }
+    /**
+     * Takes the lock on a file, waiting for another command holding it.
+     * @param file the file to lock, which need not exist
+     * @return the lock
+     */
+    public static LockFile acquire(File file) {
+        File lockFile = new File(file.getPath() + ".lock");
+        lockFile.getAbsoluteFile().getParentFile().mkdirs();
+        long deadline = System.currentTimeMillis() + timeout();
+        long pause = 1;
+        while (true) {
+            try {
+                Files.createFile(lockFile.toPath());
+                return new LockFile(file, lockFile);
+            } catch (FileAlreadyExistsException e) {
+                if (System.currentTimeMillis() >= deadline) {
+                    throw new GitletException(ERROR_COLOR + "Unable to lock "
+                            + file.getName() + "; if no other gitlet command"
+                            + " is running, delete " + lockFile.getPath()
+                            + "." + RESET_COLOR);
+                }
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
+            }
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(pause)
+                        + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
+            }
+            pause = Math.min(MAX_PAUSE_MILLIS, 2 * pause);
+        }
+    }
+    /**
+     * Gets the file this lock is on.
+     * @return the locked file
+     */
+    public File file() {
+        return file;
+    }
+    /**
+     * Replaces the locked file's contents and releases the lock.
+     * @param contents the new contents, as strings or byte arrays
+     */
+    public void commit(Object... contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Object obj : contents) {
+            bytes.writeBytes(obj instanceof byte[] ? (byte[]) obj
+                    : ((String) obj).getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] after = bytes.toByteArray();
+        Journal.recordFile(file, after);
+        Utils.writeContents(lock, after);
+        try {
+            Files.move(lock.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        done = true;
+    }
+    /**
+     * Deletes the locked file and releases the lock.
+     */
+    public void delete() {
+        Journal.recordFile(file, null);
+        file.delete();
+        close();
+    }
+    /**
+     * Releases the lock, leaving the file as it was if the lock was not
+     * committed.
+     */
+    @Override
+    public void close() {
+        if (!done) {
+            lock.delete();
+            done = true;
+        }
+    }
+    /**
+     * Gets the number of milliseconds to wait for a lock.
+     * @return the timeout
+     */
+    private static long timeout() {
+        String property = System.getProperty(TIMEOUT_PROPERTY);
+        if (property != null) {
+            try {
+                return Math.max(0, Long.parseLong(property));
+            } catch (NumberFormatException e) {
+                return DEFAULT_TIMEOUT_MILLIS;
+            }
+        }
+        return DEFAULT_TIMEOUT_MILLIS;
+    }
+}
@@ -1,5 +1,12 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
 import static gitlet.Directories.REPO_DIR;
 import static gitlet.Directories.STAGING_FILE;
 import static gitlet.TextColors.*;
@@ -10,32 +17,71 @@ import static gitlet.TextColors.*;
  * @author Connor Bernard
  */
 public class Main {
+    /**
+     * Grace period of gc when none is given: two weeks, in seconds.
+     */
+    private static final long DEFAULT_GRACE_SECONDS = 14 * 24 * 60 * 60;
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND> ....
      */
     public static void main(String... args) {
+        try {
+            run(args);
+        } catch (GitletException e) {
+            if (e.getMessage() != null) {
+                System.out.println(e.getMessage());
+            }
+        }
+    }
+    /**
+     * Runs one command. A command that fails throws a GitletException
+     * holding the message to print rather than exiting, so that many
+     * commands can run in one process.
+     * <p>
+     * The writes of the command are one journal group, made durable once
+     * when it ends; a batch's commands join the batch's group. The daemon
+     * and server run each command or connection as a group of its own.
+     * @param args the command and its operands
+     */
+    public static void run(String... args) {
+        if (args.length > 0 && (args[0].equals("daemon")
+                || args[0].equals("serve"))) {
+            runCommand(args);
+            return;
+        }
+        Journal.begin(REPO_DIR.file());
+        try {
+            runCommand(args);
+        } finally {
+            Journal.end();
+        }
+    }
+    /**
+     * Runs one command inside the journal group run opened for it.
+     * @param args the command and its operands
+     */
+    private static void runCommand(String... args) {
         Repo repo;
         if (args.length < 1) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw new GitletException("Please enter a command.");
         }
         repo = new Repo();
-        if (!hasBeenInitialized() && !args[0].equals("init")) {
-            System.out.println(ERROR_COLOR
+        boolean needsRepo = !args[0].equals("init")
+                && !args[0].equals("batch") && !args[0].equals("serve");
+        if (!hasBeenInitialized() && needsRepo) {
+            throw new GitletException(ERROR_COLOR
                     + "Not in an initialized Gitlet directory." + RESET_COLOR);
-            System.exit(0);
-        } else if (!args[0].equals("init")) {
+        } else if (needsRepo) {
             repo.setStage(Utils.readObject(STAGING_FILE.file(),
                     StagingArea.class));
         }
         switch (args[0]) {
         case "init":
             if (hasBeenInitialized()) {
-                System.out.println(WARNING_COLOR + "A Gitlet"
+                throw new GitletException(WARNING_COLOR + "A Gitlet"
                         + " version-control system already exists in the"
                         + " current directory." + RESET_COLOR);
-                System.exit(0);
             }
             repo.init();
             break;
@@ -45,9 +91,8 @@ public class Main {
             break;
         case "commit":
             if (args.length == 1) {
-                System.out.println(WARNING_COLOR + "Please enter a commit"
-                        + " message." + RESET_COLOR);
-                System.exit(0);
+                throw new GitletException(WARNING_COLOR + "Please enter a"
+                        + " commit message." + RESET_COLOR);
             }
             checkOperands(args.length, 2);
             repo.commit(args[1]);
@@ -64,7 +109,7 @@ public class Main {
             break;
         case "find":
             checkOperands(args.length, 2);
-            repo.find(args[1]);
+            repo.find(parseFind(args));
             break;
         case "status":
             repo.status();
@@ -91,9 +136,8 @@ public class Main {
             } else if (args[2].equals("--")) {
                 repo.checkoutFileFromCommit(args[1], args[3]);
             } else {
-                System.out.println(ERROR_COLOR + "Incorrect operands"
+                throw new GitletException(ERROR_COLOR + "Incorrect operands"
                         + RESET_COLOR);
-                System.exit(0);
             }
             break;
         case "branch":
@@ -104,6 +148,9 @@ public class Main {
             checkOperands(args.length, 2);
             repo.rmBranch(args[1]);
             break;
+        case "branches":
+            repo.branches(args.length > 1 ? args[1] : "");
+            break;
         case "reset":
             checkOperands(args.length, 2);
             repo.reset(args[1]);
@@ -125,17 +172,245 @@ public class Main {
             repo.push(args[1], args[2]);
             break;
         case "fetch":
-            checkOperands(args.length, 3);
-            repo.fetch(args[1], args[2]);
+            if (args.length > 1 && args[1].equals("--depth")) {
+                checkOperands(args.length, 5);
+                repo.fetch(args[3], args[4], parseDepth(args[2]));
+            } else {
+                checkOperands(args.length, 3);
+                repo.fetch(args[1], args[2]);
+            }
             break;
         case "pull":
             checkOperands(args.length, 3);
             repo.pull(args[1], args[2]);
             break;
+        case "rebuild-catalog":
+            repo.rebuildCatalog();
+            break;
+        case "grep":
+            parseGrep(repo, args);
+            break;
+        case "diff":
+            parseDiff(repo, args);
+            break;
+        case "index-blobs":
+            repo.indexBlobs();
+            break;
+        case "repack":
+            repo.repack();
+            break;
+        case "pack-refs":
+            repo.packRefs();
+            break;
+        case "gc":
+            repo.gc(parseGrace(args));
+            break;
+        case "count-objects":
+            repo.countObjects();
+            break;
+        case "migrate":
+            repo.migrate();
+            break;
+        case "daemon":
+            Daemon.serve();
+            break;
+        case "serve":
+            Server.serve(args.length > 1 ? args[1] : null);
+            break;
+        case "batch":
+            Batch.run(args.length > 1 ? args[1] : null);
+            break;
+        case "fast-import":
+            FastImport.run(args.length > 1 ? args[1] : null);
+            break;
         default:
-            System.out.println(ERROR_COLOR + "No command with that name"
-                    + " exists." + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR + "No command with that"
+                    + " name exists." + RESET_COLOR);
+        }
+    }
+    /**
+     * Parses the depth given to fetch --depth.
+     *
+     * @param depth the depth operand
+     * @return the depth, which is positive
+     */
+    private static int parseDepth(String depth) {
+        int result = 0;
+        try {
+            result = Integer.parseInt(depth);
+        } catch (NumberFormatException e) {
+            result = 0;
+        }
+        if (result > 0) {
+            return result;
+        }
+        throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                + RESET_COLOR);
+    }
+    /**
+     * Parses the grace period given to gc --grace, in seconds.
+     *
+     * @param args the gc command and its operands
+     * @return the grace period, or the default of two weeks if none is
+     * given
+     */
+    private static long parseGrace(String... args) {
+        if (args.length == 1) {
+            return DEFAULT_GRACE_SECONDS;
+        }
+        long result = -1;
+        if (args.length == 3 && args[1].equals("--grace")) {
+            try {
+                result = Long.parseLong(args[2]);
+            } catch (NumberFormatException e) {
+                result = -1;
+            }
+        }
+        if (result >= 0) {
+            return result;
+        }
+        throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                + RESET_COLOR);
+    }
+    /**
+     * Parses the operands of find: either a whole message, or any of
+     * --substring TEXT or --regex PATTERN along with --since TIME and
+     * --until TIME.
+     *
+     * @param args the find command and its operands
+     * @return the query they describe
+     */
+    private static CommitCatalog.Query parseFind(String... args) {
+        CommitCatalog.Query query = new CommitCatalog.Query();
+        if (args.length == 2) {
+            return query.exact(args[1]);
+        }
+        for (int i = 1; i < args.length; i += 2) {
+            checkOperands(args.length, i + 2);
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--substring":
+                query.substring(value);
+                break;
+            case "--regex":
+                try {
+                    query.regex(Pattern.compile(value));
+                } catch (PatternSyntaxException e) {
+                    throw new GitletException(ERROR_COLOR + "Invalid regular"
+                            + " expression." + RESET_COLOR);
+                }
+                break;
+            case "--since":
+                query.between(parseTime(value, false), Long.MAX_VALUE);
+                break;
+            case "--until":
+                query.between(Long.MIN_VALUE, parseTime(value, true));
+                break;
+            default:
+                throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                        + RESET_COLOR);
+            }
+        }
+        return query;
+    }
+    /**
+     * Parses the operands of grep and runs it: any of -i, -l, -n and
+     * --regex, then the text to search for, then either a commit id or
+     * --all.
+     *
+     * @param repo repo to search
+     * @param args the grep command and its operands
+     */
+    private static void parseGrep(Repo repo, String... args) {
+        Grep grep = new Grep();
+        int i = 1;
+        for (; i < args.length - 1 && args[i].startsWith("-"); i += 1) {
+            switch (args[i]) {
+            case "-i":
+                grep.ignoreCase();
+                break;
+            case "-l":
+                grep.filesOnly();
+                break;
+            case "-n":
+                grep.lineNumbers();
+                break;
+            case "--regex":
+                grep.regex();
+                break;
+            default:
+                throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                        + RESET_COLOR);
+            }
+        }
+        if (i == args.length || args.length > i + 2) {
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                    + RESET_COLOR);
+        }
+        grep.text(args[i]);
+        String target = args.length == i + 2 ? args[i + 1] : null;
+        boolean all = "--all".equals(target);
+        repo.grep(grep, all ? null : target, all);
+    }
+    /**
+     * Parses the options and commits of diff and runs it: with no commits
+     * it compares the working files with the staging area, or with
+     * --staged the staging area with the current commit, and with two
+     * commits the first with the second.
+     *
+     * @param repo the repository
+     * @param args the command and its operands
+     */
+    private static void parseDiff(Repo repo, String... args) {
+        Diff diff = new Diff();
+        boolean staged = false;
+        int i = 1;
+        for (; i < args.length && args[i].startsWith("--"); i += 1) {
+            switch (args[i]) {
+            case "--stat":
+                diff.stat();
+                break;
+            case "--staged":
+                staged = true;
+                break;
+            default:
+                throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                        + RESET_COLOR);
+            }
+        }
+        int numCommits = args.length - i;
+        if (numCommits != 0 && (numCommits != 2 || staged)) {
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                    + RESET_COLOR);
+        }
+        repo.diff(diff, staged, numCommits == 2 ? args[i] : null,
+                numCommits == 2 ? args[i + 1] : null);
+    }
+    /**
+     * Parses a time given to find: milliseconds since the epoch, or a local
+     * date (2024-01-31) or date and time (2024-01-31T12:00).
+     *
+     * @param time the time operand
+     * @param end whether the time ends a range, so that a date stands for
+     * the end of that day rather than its start
+     * @return milliseconds since the epoch, as an exclusive bound when end
+     * is true
+     */
+    private static long parseTime(String time, boolean end) {
+        try {
+            if (time.chars().allMatch(Character::isDigit)) {
+                return Long.parseLong(time) + (end ? 1 : 0);
+            } else if (time.contains("T")) {
+                return LocalDateTime.parse(time).atZone(ZoneId.systemDefault())
+                        .toInstant().toEpochMilli() + (end ? 1 : 0);
+            }
+            LocalDate date = LocalDate.parse(time);
+            return (end ? date.plusDays(1) : date)
+                    .atStartOfDay(ZoneId.systemDefault()).toInstant()
+                    .toEpochMilli();
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                    + RESET_COLOR);
         }
     }
     /**
@@ -155,9 +430,8 @@ public class Main {
     public static void checkOperands(int numGivenOperands,
                                      int numRequiredOperands) {
         if (numGivenOperands < numRequiredOperands) {
-            System.out.println(ERROR_COLOR + "Incorrect operands"
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
                     + RESET_COLOR);
-            System.exit(0);
         }
     }
 }
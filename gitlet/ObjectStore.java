@@ -0,0 +1,729 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiPredicate;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.Directories.REPO_DIR;
+
+/**
+ * The blobs, commits and trees of a repository. Objects are first written as
+ * loose files, one per object, and may later be moved into pack files by
+ * repack. Reads look in the packs first and fall back to the loose files.
+ * Blobs are stored compressed and streamed in and out of the store. A new
+ * loose object is recorded in the repository's journal before it is named.
+ * @author Connor Bernard
+ */
+public class ObjectStore {
+    /**
+     * The kinds of object in a store, each with the folder its loose objects
+     * are kept in.
+     */
+    public enum Kind {
+        /**
+         * All kinds of object.
+         */
+        BLOB("Blobs"),
+        COMMIT("Commits"),
+        TREE("Trees");
+        /**
+         * Name of the folder holding loose objects of this kind.
+         */
+        private final String dirName;
+        /**
+         * Basic constructor for a kind of object.
+         * @param name name of the folder holding loose objects of this kind
+         */
+        Kind(String name) {
+            dirName = name;
+        }
+        /**
+         * Gets the name of the folder holding loose objects of this kind.
+         * @return folder name
+         */
+        public String dirName() {
+            return dirName;
+        }
+    }
+    /**
+     * Size of the buffers used to stream object contents.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * First two bytes of a stream written by a Deflater with the default
+     * settings, which mark a compressed blob.
+     */
+    private static final int[] ZLIB_HEADER = {0x78, 0x9c};
+    /**
+     * Largest number of bytes written to one pack before starting another.
+     */
+    private static final long MAX_PACK_BYTES = 1L << 30;
+    /**
+     * The store of the repository in the current directory.
+     */
+    private static ObjectStore local;
+    /**
+     * The .gitlet directory of the repository this store belongs to.
+     */
+    private final File repoDir;
+    /**
+     * The packs of this store as last read.
+     */
+    private volatile ArrayList<PackFile> packs;
+    /**
+     * Modification time of the packs folder when the packs were read.
+     */
+    private volatile long packsStamp;
+    /**
+     * Pack new objects are written into instead of loose files, or null
+     * when objects are written loose.
+     */
+    private PackFile.Writer bulk;
+    /**
+     * Creates the object store of a repository.
+     * @param repositoryDir the .gitlet directory of the repository
+     */
+    public ObjectStore(File repositoryDir) {
+        repoDir = repositoryDir;
+    }
+    /**
+     * Gets the object store of the repository in the current directory.
+     * @return the local object store
+     */
+    public static ObjectStore local() {
+        if (local == null) {
+            local = new ObjectStore(REPO_DIR.file());
+        }
+        return local;
+    }
+    /**
+     * Gets the .gitlet directory of the repository this store belongs to.
+     * @return the repository directory
+     */
+    public File repoDir() {
+        return repoDir;
+    }
+    /**
+     * Gets the folder holding the packs of this store.
+     * @return the packs folder
+     */
+    public File packsDir() {
+        return new File(repoDir, "Packs");
+    }
+    /**
+     * Gets the loose file an object is or would be stored in.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return loose file of the object
+     */
+    public File looseFile(Kind kind, String hash) {
+        return new File(repoDir, kind.dirName() + "/" + hash);
+    }
+    /**
+     * Checks whether this store has an object.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return whether the object is packed or loose in this store
+     */
+    public boolean contains(Kind kind, String hash) {
+        if (bulk != null && bulk.kindOf(hash) == kind) {
+            return true;
+        }
+        for (PackFile pack : packs()) {
+            long offset = pack.find(hash);
+            if (offset >= 0 && pack.kindAt(offset) == kind) {
+                return true;
+            }
+        }
+        return looseFile(kind, hash).isFile();
+    }
+    /**
+     * Reads the stored contents of an object, which for blobs are
+     * compressed.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return stored contents of the object, or null if it is not in this
+     * store
+     */
+    public byte[] read(Kind kind, String hash) {
+        if (bulk != null && bulk.kindOf(hash) == kind) {
+            return bulk.read(hash);
+        }
+        for (PackFile pack : packs()) {
+            long offset = pack.find(hash);
+            if (offset >= 0 && pack.kindAt(offset) == kind) {
+                return pack.read(offset);
+            }
+        }
+        File loose = looseFile(kind, hash);
+        if (!loose.isFile()) {
+            return null;
+        }
+        return Utils.readContents(loose);
+    }
+    /**
+     * Opens a stream over the contents of an object. Blobs are inflated as
+     * they are read; blobs written before blobs were compressed are read as
+     * they are.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return stream of the contents of the object, or null if it is not in
+     * this store
+     */
+    public InputStream open(Kind kind, String hash) {
+        InputStream stored = openStored(kind, hash);
+        return stored == null ? null : inflate(kind, stored);
+    }
+    /**
+     * Wraps a stream of the stored contents of an object so that blobs are
+     * inflated as they are read, unless they were written before blobs were
+     * compressed.
+     * @param kind kind of the object
+     * @param stored stream of the stored contents of the object
+     * @return stream of the contents of the object
+     */
+    private static InputStream inflate(Kind kind, InputStream stored) {
+        if (kind != Kind.BLOB) {
+            return stored;
+        }
+        try {
+            BufferedInputStream in = new BufferedInputStream(stored,
+                    BUFFER_SIZE);
+            in.mark(2);
+            boolean compressed = in.read() == ZLIB_HEADER[0]
+                    && in.read() == ZLIB_HEADER[1];
+            in.reset();
+            return compressed ? new InflaterInputStream(in) : in;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Writes the contents of a blob to a file, streaming them so that the
+     * whole blob is never in memory at once. Missing parent directories of
+     * the file are created.
+     * @param hash full hash of the blob
+     * @param dest file to write to
+     * @return whether the blob was found
+     */
+    public boolean readBlobTo(String hash, File dest) {
+        try (InputStream in = open(Kind.BLOB, hash)) {
+            if (in == null) {
+                return false;
+            }
+            File parent = dest.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            try (OutputStream out = Files.newOutputStream(dest.toPath())) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Starts writing new objects into one new pack rather than loose files,
+     * so that a bulk write syncs to disk once instead of leaving thousands of
+     * loose files behind. Objects in the pack can be read before it is
+     * finished, but only by this store.
+     */
+    public void beginPack() {
+        packsDir().mkdir();
+        bulk = new PackFile.Writer(packsDir());
+    }
+    /**
+     * Finishes the pack started by beginPack, making its objects visible to
+     * every process, and goes back to writing loose objects.
+     */
+    public void finishPack() {
+        syncPack(bulk.finish());
+        bulk = null;
+        packs = null;
+    }
+    /**
+     * Has a pack written by beginPack, and its directory, synced before the
+     * journal's next file record, so that no ref names its objects before
+     * they are on disk.
+     * @param pack the pack, or null if nothing was written to it
+     */
+    private void syncPack(File pack) {
+        if (pack != null) {
+            Journal.syncObject(repoDir, pack);
+        }
+    }
+    /**
+     * Stores an object unless it is already in this store. Objects are
+     * written to the pack started by beginPack if there is one, and as loose
+     * files otherwise. A loose file is written and synced under a temporary
+     * name and then renamed, so a loose object is never seen half written,
+     * even after a crash.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @param contents stored contents of the object
+     */
+    public void write(Kind kind, String hash, byte[] contents) {
+        if (contains(kind, hash)) {
+            return;
+        }
+        if (bulk != null) {
+            if (bulk.length() >= MAX_PACK_BYTES) {
+                syncPack(bulk.finish());
+                packs = null;
+                bulk = new PackFile.Writer(packsDir());
+            }
+            bulk.add(kind, hash, contents);
+            return;
+        }
+        File looseDir = new File(repoDir, kind.dirName());
+        looseDir.mkdir();
+        try {
+            File tmp = File.createTempFile(kind.dirName(), ".tmp", looseDir);
+            Files.write(tmp.toPath(), contents);
+            Journal.syncObject(repoDir, tmp);
+            if (!tmp.renameTo(looseFile(kind, hash))) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Stores the contents of a file as a loose blob, hashing and compressing
+     * them in a single pass over the file. Nothing is written if the blob is
+     * already in this store.
+     * @param source file to store
+     * @return hash of the file's contents
+     */
+    public String writeBlob(File source) {
+        File blobsDir = new File(repoDir, Kind.BLOB.dirName());
+        MessageDigest md = sha1Digest();
+        File tmp;
+        try {
+            tmp = File.createTempFile("blob-", ".tmp", blobsDir);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ);
+             OutputStream out = new DeflaterOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(tmp),
+                             BUFFER_SIZE))) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                md.update(buffer.array(), 0, buffer.position());
+                out.write(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        String hash = Utils.bytesToHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+        if (contains(Kind.BLOB, hash)) {
+            tmp.delete();
+            return hash;
+        }
+        Journal.syncObject(repoDir, tmp);
+        if (!tmp.renameTo(looseFile(Kind.BLOB, hash))) {
+            tmp.delete();
+        }
+        return hash;
+    }
+    /**
+     * Stores contents already in memory as a blob.
+     * @param contents contents of the blob
+     * @return hash of the contents
+     */
+    public String writeBlob(byte[] contents) {
+        String hash = Utils.sha1(contents);
+        if (contains(Kind.BLOB, hash)) {
+            return hash;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(contents);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        write(Kind.BLOB, hash, compressed.toByteArray());
+        return hash;
+    }
+    /**
+     * Computes the hash a file would have as a blob, reading it in chunks.
+     * @param file file to hash
+     * @return SHA-1 hash of the file's contents
+     */
+    public static String hash(File file) {
+        MessageDigest md = sha1Digest();
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (in.read(buffer) >= 0) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return Utils.bytesToHex(md.digest(), 0, Utils.UID_LENGTH / 2);
+    }
+    /**
+     * Checks that an object in this store has the hash it is stored under,
+     * reading it back in chunks. Blobs are hashed as their inflated contents
+     * and other objects as their encoding.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return whether the object is in this store and matches its hash
+     */
+    public boolean verify(Kind kind, String hash) {
+        return matches(hash, open(kind, hash));
+    }
+    /**
+     * Checks that the stored contents of an object have the object's hash,
+     * before they are written to any store.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @param stored stored contents of the object, which for blobs are
+     * compressed
+     * @return whether the contents match the hash
+     */
+    public static boolean matches(Kind kind, String hash, byte[] stored) {
+        return matches(hash, inflate(kind, new ByteArrayInputStream(stored)));
+    }
+    /**
+     * Hashes a stream of the contents of an object in chunks, closing it, and
+     * compares the result with the object's hash.
+     * @param hash full hash of the object
+     * @param in stream of the object's contents, or null if it is missing
+     * @return whether the stream was given and matches the hash
+     */
+    private static boolean matches(String hash, InputStream in) {
+        if (in == null) {
+            return false;
+        }
+        MessageDigest md = sha1Digest();
+        try (in) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                md.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return hash.equals(Utils.bytesToHex(md.digest(), 0,
+                Utils.UID_LENGTH / 2));
+    }
+    /**
+     * Reads a commit, in either the current commit format or any form of
+     * the Java serialization used before it. A serialized commit with a flat
+     * map of its files has a tree built for it in this store.
+     * @param hash full hash of the commit
+     * @return the commit, or null if it is not in this store
+     */
+    public Commit readCommit(String hash) {
+        byte[] contents = read(Kind.COMMIT, hash);
+        if (contents == null) {
+            return null;
+        }
+        if (Commit.isEncoded(contents)) {
+            return Commit.decode(contents, hash);
+        }
+        return LegacyCommit.read(contents, hash, this);
+    }
+    /**
+     * Writes a commit in the current commit format.
+     * @param commit commit to write
+     * @return hash of the commit
+     */
+    public String writeCommit(Commit commit) {
+        String hash = commit.getHash();
+        write(Kind.COMMIT, hash, commit.encode());
+        return hash;
+    }
+    /**
+     * Gets the hashes of every object of a kind, packed or loose.
+     * @param kind kind of object to list
+     * @return sorted hashes of every object of that kind
+     */
+    public List<String> list(Kind kind) {
+        TreeSet<String> result = new TreeSet<String>();
+        for (PackFile pack : packs()) {
+            result.addAll(pack.hashes(kind));
+        }
+        for (String name : Utils.plainFilenamesIn(
+                new File(repoDir, kind.dirName()))) {
+            if (name.length() == Utils.UID_LENGTH) {
+                result.add(name);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+    /**
+     * Moves every loose object into new packs, then deletes the loose files.
+     * @return the number of objects packed
+     */
+    public int repack() {
+        File packsDir = packsDir();
+        packsDir.mkdir();
+        ArrayList<File> packed = new ArrayList<File>();
+        PackFile.Writer writer = new PackFile.Writer(packsDir);
+        for (Kind kind : Kind.values()) {
+            File looseDir = new File(repoDir, kind.dirName());
+            for (String hash : Utils.plainFilenamesIn(looseDir)) {
+                if (hash.length() != Utils.UID_LENGTH) {
+                    continue;
+                }
+                File loose = looseFile(kind, hash);
+                if (!containsPacked(hash)) {
+                    if (writer.length() >= MAX_PACK_BYTES) {
+                        writer.finish();
+                        writer = new PackFile.Writer(packsDir);
+                    }
+                    try (InputStream in = new FileInputStream(loose)) {
+                        writer.add(kind, hash, in, loose.length());
+                    } catch (IOException e) {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                }
+                packed.add(loose);
+            }
+        }
+        writer.finish();
+        packs = null;
+        for (File loose : packed) {
+            loose.delete();
+        }
+        return packed.size();
+    }
+    /**
+     * Deletes objects from this store, both loose and packed. Every pack
+     * holding one of them is rewritten without it. The journal is
+     * checkpointed first so that recovery does not write them back.
+     * @param kind kind of the objects
+     * @param hashes full hashes of the objects to delete
+     */
+    public void delete(Kind kind, Set<String> hashes) {
+        Journal.checkpoint(repoDir);
+        for (String hash : hashes) {
+            looseFile(kind, hash).delete();
+        }
+        for (PackFile pack : new ArrayList<PackFile>(packs())) {
+            boolean affected = false;
+            for (String hash : pack.hashes(kind)) {
+                if (hashes.contains(hash)) {
+                    affected = true;
+                    break;
+                }
+            }
+            if (affected) {
+                EnumMap<Kind, Set<String>> dropped =
+                        new EnumMap<Kind, Set<String>>(Kind.class);
+                dropped.put(kind, hashes);
+                rewrite(pack, dropped);
+            }
+        }
+        packs = null;
+    }
+    /**
+     * Deletes the objects a test picks among those written before a time,
+     * both loose and packed. The objects of a pack count as written when the
+     * pack was, so a pack written since the time is kept whole. Every other
+     * pack holding a picked object is rewritten without it, one pack at a
+     * time, and keeps the old pack's time.
+     * @param cutoff time in milliseconds before which an object must have
+     * been written to be deleted
+     * @param garbage test picking the objects to delete by kind and hash,
+     * asked once about each object written before the time
+     * @return the number of bytes freed
+     */
+    public long prune(long cutoff, BiPredicate<Kind, String> garbage) {
+        long freed = 0;
+        for (Kind kind : Kind.values()) {
+            for (String hash : Utils.plainFilenamesIn(
+                    new File(repoDir, kind.dirName()))) {
+                File loose = looseFile(kind, hash);
+                long length = loose.length();
+                if (hash.length() == Utils.UID_LENGTH
+                        && loose.lastModified() < cutoff
+                        && garbage.test(kind, hash) && loose.delete()) {
+                    freed += length;
+                }
+            }
+        }
+        for (PackFile pack : new ArrayList<PackFile>(packs())) {
+            long written = pack.file().lastModified();
+            if (written >= cutoff) {
+                continue;
+            }
+            EnumMap<Kind, Set<String>> dropped =
+                    new EnumMap<Kind, Set<String>>(Kind.class);
+            boolean affected = false;
+            for (Kind kind : Kind.values()) {
+                HashSet<String> picked = new HashSet<String>();
+                for (String hash : pack.hashes(kind)) {
+                    if (garbage.test(kind, hash)) {
+                        picked.add(hash);
+                    }
+                }
+                affected = affected || !picked.isEmpty();
+                dropped.put(kind, picked);
+            }
+            if (!affected) {
+                continue;
+            }
+            long before = pack.file().length()
+                    + PackFile.indexFileOf(pack.file()).length();
+            File rewritten = rewrite(pack, dropped);
+            if (rewritten != null) {
+                freed -= rewritten.length()
+                        + PackFile.indexFileOf(rewritten).length();
+                rewritten.setLastModified(written);
+            }
+            freed += before;
+        }
+        packs = null;
+        return freed;
+    }
+    /**
+     * Rewrites a pack without some of its objects, deleting the old pack.
+     * @param pack the pack
+     * @param dropped hashes of the objects to leave out, by kind
+     * @return the new pack, or null if no objects were left in it
+     */
+    private File rewrite(PackFile pack, Map<Kind, Set<String>> dropped) {
+        PackFile.Writer writer = new PackFile.Writer(packsDir());
+        for (Kind kind : Kind.values()) {
+            Set<String> left = dropped.get(kind);
+            for (String hash : pack.hashes(kind)) {
+                if (left == null || !left.contains(hash)) {
+                    writer.add(kind, hash, pack.read(pack.find(hash)));
+                }
+            }
+        }
+        File rewritten = writer.finish();
+        if (!pack.file().equals(rewritten)) {
+            PackFile.indexFileOf(pack.file()).delete();
+            pack.file().delete();
+        }
+        return rewritten;
+    }
+    /**
+     * Opens a stream over the stored contents of an object, which for blobs
+     * are compressed.
+     * @param kind kind of the object
+     * @param hash full hash of the object
+     * @return stream of the stored contents, or null if the object is not in
+     * this store
+     */
+    private InputStream openStored(Kind kind, String hash) {
+        if (bulk != null && bulk.kindOf(hash) == kind) {
+            return new ByteArrayInputStream(bulk.read(hash));
+        }
+        for (PackFile pack : packs()) {
+            long offset = pack.find(hash);
+            if (offset >= 0 && pack.kindAt(offset) == kind) {
+                return pack.open(offset);
+            }
+        }
+        File loose = looseFile(kind, hash);
+        if (!loose.isFile()) {
+            return null;
+        }
+        try {
+            return new FileInputStream(loose);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Gets a new SHA-1 message digest.
+     * @return SHA-1 message digest
+     */
+    private static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(
+                    "System does not support SHA-1");
+        }
+    }
+    /**
+     * Checks whether any pack of this store has an object.
+     * @param hash full hash of the object
+     * @return whether the object is packed
+     */
+    public boolean containsPacked(String hash) {
+        for (PackFile pack : packs()) {
+            if (pack.find(hash) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Gets the packs of this store, reading the packs folder again if it
+     * changed since it was last read. Threads may call this at once; only
+     * reading the folder again is done under a lock.
+     * @return the packs of this store
+     */
+    private List<PackFile> packs() {
+        ArrayList<PackFile> current = packs;
+        if (current != null && packsStamp == packsDir().lastModified()) {
+            return current;
+        }
+        return readPacks();
+    }
+    /**
+     * Reads the packs folder again unless another thread just did.
+     * @return the packs of this store
+     */
+    private synchronized List<PackFile> readPacks() {
+        File packsDir = packsDir();
+        if (packs != null && packsStamp == packsDir.lastModified()) {
+            return packs;
+        }
+        ArrayList<PackFile> found = new ArrayList<PackFile>();
+        long stamp = packsDir.lastModified();
+        List<String> names = Utils.plainFilenamesIn(packsDir);
+        if (names != null) {
+            for (String name : names) {
+                File packFile = new File(packsDir, name);
+                if (name.endsWith(".pack")
+                        && PackFile.indexFileOf(packFile).isFile()) {
+                    found.add(new PackFile(packFile));
+                }
+            }
+        }
+        packs = found;
+        packsStamp = stamp;
+        return found;
+    }
+}
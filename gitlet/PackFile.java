@@ -0,0 +1,428 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A pack of objects stored back to back in a single file, together with a
+ * sorted index mapping each object's hash to its offset in the pack. Packs
+ * are written once and never modified afterwards.
+ * <p>
+ * The pack file holds, for each object, a one byte object kind, a four byte
+ * length and the object's contents. The index file holds a fan-out table of
+ * 256 cumulative counts of hashes by first byte, then the sorted raw hashes,
+ * then the eight byte pack offset of each hash in the same order.
+ * @author Connor Bernard
+ */
+public class PackFile {
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of entries in the fan-out table.
+     */
+    private static final int FAN_OUT = 256;
+    /**
+     * Number of bytes preceding the contents of each object in a pack.
+     */
+    private static final int ENTRY_HEADER_BYTES = 1 + Integer.BYTES;
+    /**
+     * The pack file.
+     */
+    private final File packFile;
+    /**
+     * The index of the pack, mapped into memory.
+     */
+    private final MappedByteBuffer index;
+    /**
+     * The pack, mapped into memory.
+     */
+    private final MappedByteBuffer pack;
+    /**
+     * Number of objects in this pack.
+     */
+    private final int size;
+    /**
+     * Opens the pack with the given pack file, whose index has the same name
+     * with the extension .idx.
+     * @param file the pack file
+     */
+    public PackFile(File file) {
+        packFile = file;
+        index = map(indexFileOf(file));
+        pack = map(file);
+        size = index.getInt((FAN_OUT - 1) * Integer.BYTES);
+    }
+    /**
+     * Gets the index file belonging to a pack file.
+     * @param file the pack file
+     * @return the index file of the pack
+     */
+    public static File indexFileOf(File file) {
+        String name = file.getName();
+        return new File(file.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+    /**
+     * Gets the number of objects in this pack.
+     * @return number of objects
+     */
+    public int size() {
+        return size;
+    }
+    /**
+     * Gets the pack file of this pack.
+     * @return the pack file
+     */
+    public File file() {
+        return packFile;
+    }
+    /**
+     * Looks up the offset of an object in this pack.
+     * @param hash full hash of the object
+     * @return offset of the object in the pack, or -1 if it is not there
+     */
+    public long find(String hash) {
+        byte[] key = Utils.hexToBytes(hash);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : index.getInt((first - 1) * Integer.BYTES);
+        int hi = index.getInt(first * Integer.BYTES);
+        int hashStart = FAN_OUT * Integer.BYTES;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(hashStart + mid * HASH_BYTES, key);
+            if (cmp == 0) {
+                return index.getLong(hashStart + size * HASH_BYTES
+                        + mid * Long.BYTES);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Gets the kind of the object at an offset in this pack.
+     * @param offset offset of the object, as returned by find
+     * @return kind of the object
+     */
+    public ObjectStore.Kind kindAt(long offset) {
+        return ObjectStore.Kind.values()[pack.get((int) offset)];
+    }
+    /**
+     * Reads the contents of the object at an offset in this pack.
+     * @param offset offset of the object, as returned by find
+     * @return contents of the object
+     */
+    public byte[] read(long offset) {
+        int length = pack.getInt((int) offset + 1);
+        byte[] result = new byte[length];
+        pack.get((int) offset + ENTRY_HEADER_BYTES, result);
+        return result;
+    }
+    /**
+     * Opens a stream over the contents of the object at an offset in this
+     * pack, without copying them out of the mapped pack.
+     * @param offset offset of the object, as returned by find
+     * @return stream of the contents of the object
+     */
+    public InputStream open(long offset) {
+        int length = pack.getInt((int) offset + 1);
+        ByteBuffer contents = pack.duplicate();
+        contents.position((int) offset + ENTRY_HEADER_BYTES);
+        contents.limit((int) offset + ENTRY_HEADER_BYTES + length);
+        return new InputStream() {
+            @Override
+            public int read() {
+                return contents.hasRemaining() ? contents.get() & 0xff : -1;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!contents.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, contents.remaining());
+                contents.get(b, off, len);
+                return len;
+            }
+        };
+    }
+    /**
+     * Gets the hashes of every object of a kind in this pack.
+     * @param kind kind of object to list
+     * @return sorted hashes of the objects of that kind
+     */
+    public List<String> hashes(ObjectStore.Kind kind) {
+        ArrayList<String> result = new ArrayList<String>();
+        byte[] hash = new byte[HASH_BYTES];
+        int hashStart = FAN_OUT * Integer.BYTES;
+        for (int i = 0; i < size; i += 1) {
+            long offset = index.getLong(hashStart + size * HASH_BYTES
+                    + i * Long.BYTES);
+            if (kindAt(offset) == kind) {
+                index.get(hashStart + i * HASH_BYTES, hash);
+                result.add(Utils.bytesToHex(hash, 0, HASH_BYTES));
+            }
+        }
+        return result;
+    }
+    /**
+     * Writes a new pack into a directory one object at a time, then writes
+     * its index. The index is written last, so a pack without an index is an
+     * incomplete write and is ignored. Both files are synced to disk once,
+     * when the pack is finished. Objects already written can be read back
+     * before then.
+     */
+    public static class Writer {
+        /**
+         * Directory the pack is written into.
+         */
+        private final File dir;
+        /**
+         * Temporary file the pack is written to until it is named.
+         */
+        private final File tmpPack;
+        /**
+         * The temporary pack file's stream, used to sync it to disk.
+         */
+        private final FileOutputStream fileOut;
+        /**
+         * Stream writing the temporary pack file.
+         */
+        private final DataOutputStream out;
+        /**
+         * Position in hashes of each object written so far.
+         */
+        private final HashMap<String, Integer> positions =
+                new HashMap<String, Integer>();
+        /**
+         * Kind of each object written so far.
+         */
+        private final ArrayList<ObjectStore.Kind> kinds =
+                new ArrayList<ObjectStore.Kind>();
+        /**
+         * The temporary pack file opened for reading objects back, or null
+         * if none were read yet.
+         */
+        private RandomAccessFile reader;
+        /**
+         * Hash of each object written so far.
+         */
+        private final ArrayList<String> hashes = new ArrayList<String>();
+        /**
+         * Offset of each object written so far.
+         */
+        private final ArrayList<Long> offsets = new ArrayList<Long>();
+        /**
+         * Number of bytes written to the pack so far.
+         */
+        private long length;
+        /**
+         * Starts a new pack in a directory.
+         * @param packDir directory to write the pack into
+         */
+        public Writer(File packDir) {
+            dir = packDir;
+            try {
+                tmpPack = File.createTempFile("pack-", ".tmp", dir);
+                fileOut = new FileOutputStream(tmpPack);
+                out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        /**
+         * Gets the number of bytes written to the pack so far.
+         * @return length of the pack
+         */
+        public long length() {
+            return length;
+        }
+        /**
+         * Gets the number of objects written to the pack so far.
+         * @return number of objects
+         */
+        public int size() {
+            return hashes.size();
+        }
+        /**
+         * Appends an object to the pack.
+         * @param kind kind of the object
+         * @param hash full hash of the object
+         * @param contents stored contents of the object
+         */
+        public void add(ObjectStore.Kind kind, String hash, byte[] contents) {
+            add(kind, hash, new ByteArrayInputStream(contents),
+                    contents.length);
+        }
+        /**
+         * Appends an object to the pack, copying its stored contents from a
+         * stream.
+         * @param kind kind of the object
+         * @param hash full hash of the object
+         * @param contents stream of the stored contents of the object
+         * @param size number of bytes in contents
+         */
+        public void add(ObjectStore.Kind kind, String hash,
+                        InputStream contents, long size) {
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("object too large to pack");
+            }
+            try {
+                out.writeByte(kind.ordinal());
+                out.writeInt((int) size);
+                if (contents.transferTo(out) != size) {
+                    throw new IllegalArgumentException("object changed size");
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            positions.put(hash, hashes.size());
+            hashes.add(hash);
+            kinds.add(kind);
+            offsets.add(length);
+            length += ENTRY_HEADER_BYTES + size;
+        }
+        /**
+         * Gets the kind of an object written to this pack.
+         * @param hash full hash of the object
+         * @return kind of the object, or null if it was not written here
+         */
+        public ObjectStore.Kind kindOf(String hash) {
+            Integer position = positions.get(hash);
+            return position == null ? null : kinds.get(position);
+        }
+        /**
+         * Reads back the contents of an object written to this pack.
+         * @param hash full hash of the object
+         * @return contents of the object, or null if it was not written here
+         */
+        public byte[] read(String hash) {
+            Integer position = positions.get(hash);
+            if (position == null) {
+                return null;
+            }
+            try {
+                out.flush();
+                if (reader == null) {
+                    reader = new RandomAccessFile(tmpPack, "r");
+                }
+                reader.seek(offsets.get(position) + 1);
+                byte[] result = new byte[reader.readInt()];
+                reader.readFully(result);
+                return result;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        /**
+         * Finishes the pack, naming it after the hashes it contains and
+         * writing its index.
+         * @return the new pack file, or null if no objects were added
+         */
+        public File finish() {
+            try {
+                out.flush();
+                fileOut.getFD().sync();
+                out.close();
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            if (hashes.isEmpty()) {
+                tmpPack.delete();
+                return null;
+            }
+            ArrayList<Integer> order = new ArrayList<Integer>();
+            for (int i = 0; i < hashes.size(); i += 1) {
+                order.add(i);
+            }
+            Collections.sort(order, (a, b) -> hashes.get(a)
+                    .compareTo(hashes.get(b)));
+            ArrayList<Object> sortedHashes = new ArrayList<Object>();
+            for (int i : order) {
+                sortedHashes.add(hashes.get(i));
+            }
+            String name = "pack-" + Utils.sha1(sortedHashes);
+            File packFile = new File(dir, name + ".pack");
+            File tmpIndex = new File(dir, name + ".idx.tmp");
+            if (!tmpPack.renameTo(packFile)) {
+                throw new IllegalArgumentException("could not write pack");
+            }
+            try (FileOutputStream idxOut = new FileOutputStream(tmpIndex);
+                 DataOutputStream idx = new DataOutputStream(
+                         new BufferedOutputStream(idxOut))) {
+                int[] fanOut = new int[FAN_OUT];
+                for (String hash : hashes) {
+                    fanOut[Integer.parseInt(hash.substring(0, 2), 16)] += 1;
+                }
+                int total = 0;
+                for (int count : fanOut) {
+                    total += count;
+                    idx.writeInt(total);
+                }
+                for (int i : order) {
+                    idx.write(Utils.hexToBytes(hashes.get(i)));
+                }
+                for (int i : order) {
+                    idx.writeLong(offsets.get(i));
+                }
+                idx.flush();
+                idxOut.getFD().sync();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            if (!tmpIndex.renameTo(indexFileOf(packFile))) {
+                throw new IllegalArgumentException(
+                        "could not write pack index");
+            }
+            return packFile;
+        }
+    }
+    /**
+     * Compares the raw hash at a position in the index with a key.
+     * @param pos position of the hash in the index
+     * @param key raw hash to compare with
+     * @return negative, zero or positive as the hash at pos is less than,
+     * equal to or greater than key
+     */
+    private int compare(int pos, byte[] key) {
+        for (int i = 0; i < HASH_BYTES; i += 1) {
+            int diff = (index.get(pos + i) & 0xff) - (key[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+    /**
+     * Maps a whole file into memory for reading.
+     * @param file file to map
+     * @return buffer holding the contents of file
+     */
+    private static MappedByteBuffer map(File file) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
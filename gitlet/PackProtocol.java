@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * The protocol spoken between gitlet serve and a repository with a
+ * gitlet:// remote. Every number is written big-endian, every string as
+ * modified UTF-8, and every hash as its 20 raw bytes.
+ * <p>
+ * The client opens a connection with the protocol version, the command
+ * ("fetch" or "push") and the path of the repository on the server. The
+ * server answers with a status byte, followed for OK by its refs: the
+ * number of branches, then each branch's name and hash, then the name of
+ * its current branch and its list of shallow commits. A list of hashes is
+ * written as its length followed by the hashes.
+ * <p>
+ * For a fetch, the client sends the branch, the depth and its shallow
+ * commits. For a push, it sends the branch and the hash the branch had in
+ * the refs it was sent (empty if there was none), and the server answers
+ * with a status byte. The sending side then asks the receiving side which
+ * objects it has with QUERY messages, each a kind, a list of hashes, and an
+ * answer of one byte per hash, until it sends a PACK message: the hash of
+ * the commit sent, the number of objects, each object as its kind, hash,
+ * length and stored contents, an END byte, and the receiver's new shallow
+ * commits. The server ends a push with a status byte. Either side may send
+ * ERROR and a message in place of any message, after which the connection
+ * is closed.
+ * @author Connor Bernard
+ */
+public class PackProtocol {
+    /**
+     * Version sent at the start of every connection.
+     */
+    static final String VERSION = "gitlet-pack 1";
+    /**
+     * Port gitlet serve listens on when none is given.
+     */
+    static final int DEFAULT_PORT = 9418;
+    /**
+     * Command fetching a branch from the server.
+     */
+    static final String FETCH = "fetch";
+    /**
+     * Command pushing a branch to the server.
+     */
+    static final String PUSH = "push";
+    /**
+     * Status of a request that succeeded.
+     */
+    static final int OK = 0;
+    /**
+     * Message asking which objects the receiving side has.
+     */
+    static final int QUERY = 1;
+    /**
+     * Message holding the missing objects.
+     */
+    static final int PACK = 2;
+    /**
+     * Message reporting an error.
+     */
+    static final int ERROR = 3;
+    /**
+     * Kind byte ending the objects of a pack.
+     */
+    static final int END = 0xff;
+    /**
+     * Number of raw bytes in a hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Least number of milliseconds between progress updates.
+     */
+    private static final long PROGRESS_MILLIS = 100;
+    /**
+     * The other end of a connection, answering which objects it has.
+     */
+    static class Peer implements Transfer.Receiver {
+        /**
+         * Stream from the other end.
+         */
+        private final DataInputStream in;
+        /**
+         * Stream to the other end.
+         */
+        private final DataOutputStream out;
+        /**
+         * Shallow commits of the other end.
+         */
+        private final Set<String> shallow;
+        /**
+         * Tips of the other end's branches that this end knows of.
+         */
+        private final Collection<String> tips;
+        /**
+         * Creates the other end of a connection.
+         * @param input stream from the other end
+         * @param output stream to the other end
+         * @param shallowCommits shallow commits of the other end
+         * @param branchTips tips of the other end's branches that this end
+         * knows of
+         */
+        Peer(DataInputStream input, DataOutputStream output,
+             Set<String> shallowCommits, Collection<String> branchTips) {
+            in = input;
+            out = output;
+            shallow = shallowCommits;
+            tips = branchTips;
+        }
+        /**
+         * Asks the other end which of some objects it has.
+         * @param kind kind of the objects
+         * @param hashes hashes of the objects
+         * @return whether the other end has each object, in the same order
+         */
+        @Override
+        public boolean[] has(ObjectStore.Kind kind, List<String> hashes) {
+            boolean[] result = new boolean[hashes.size()];
+            try {
+                out.writeByte(QUERY);
+                out.writeByte(kind.ordinal());
+                writeHashes(out, hashes);
+                out.flush();
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = in.readBoolean();
+                }
+            } catch (IOException e) {
+                throw lost(e);
+            }
+            return result;
+        }
+        /**
+         * Gets the shallow commits of the other end.
+         * @return hashes of the shallow commits
+         */
+        @Override
+        public Set<String> shallow() {
+            return shallow;
+        }
+        /**
+         * Gets the tips of the other end's branches that this end knows of.
+         * @return hashes of the tips
+         */
+        @Override
+        public Collection<String> tips() {
+            return tips;
+        }
+    }
+    /**
+     * Answers the other end's questions about which objects a store has,
+     * until it sends its pack.
+     * @param in stream from the other end
+     * @param out stream to the other end
+     * @param store the store asked about
+     * @throws IOException if the connection fails
+     */
+    static void answer(DataInputStream in, DataOutputStream out,
+                       ObjectStore store) throws IOException {
+        for (int message = in.readUnsignedByte(); message != PACK;
+             message = in.readUnsignedByte()) {
+            if (message == ERROR) {
+                throw new GitletException(in.readUTF());
+            } else if (message != QUERY) {
+                throw badMessage();
+            }
+            ObjectStore.Kind kind = readKind(in);
+            for (String hash : readHashes(in)) {
+                out.writeBoolean(store.contains(kind, hash));
+            }
+            out.flush();
+        }
+    }
+    /**
+     * Receives the objects of a pack, once its PACK byte and commit hash are
+     * read, into a single new pack of a store. Each object is checked
+     * against its hash before it is written, and progress is shown on
+     * standard error if asked for and gitlet runs in a terminal.
+     * @param in stream from the other end
+     * @param store store to write the objects to
+     * @param progress whether to show progress
+     * @return the store's new shallow commits, sent after the objects
+     * @throws IOException if the connection fails
+     */
+    static TreeSet<String> receive(DataInputStream in, ObjectStore store,
+                                   boolean progress) throws IOException {
+        int count = in.readInt();
+        boolean showsProgress = progress && System.console() != null;
+        long lastProgress = 0;
+        int done = 0;
+        store.beginPack();
+        try {
+            for (int kindByte = in.readUnsignedByte(); kindByte != END;
+                 kindByte = in.readUnsignedByte()) {
+                ObjectStore.Kind kind = kind(kindByte);
+                String hash = readHash(in);
+                byte[] contents = new byte[in.readInt()];
+                in.readFully(contents);
+                if (!ObjectStore.matches(kind, hash, contents)) {
+                    throw new GitletException(ERROR_COLOR + "Received "
+                            + kind.name().toLowerCase() + " " + hash
+                            + " does not match its hash." + RESET_COLOR);
+                }
+                store.write(kind, hash, contents);
+                done += 1;
+                long now = System.currentTimeMillis();
+                if (showsProgress && now - lastProgress >= PROGRESS_MILLIS) {
+                    lastProgress = now;
+                    System.err.print("\rReceiving objects: "
+                            + (100L * done / Math.max(1, count)) + "% ("
+                            + done + "/" + count + ")");
+                    System.err.flush();
+                }
+            }
+        } finally {
+            store.finishPack();
+        }
+        if (showsProgress && count > 0) {
+            System.err.println("\rReceiving objects: 100% (" + count + "/"
+                    + count + "), done.");
+        }
+        return new TreeSet<String>(readHashes(in));
+    }
+    /**
+     * Sends an error message to the other end.
+     * @param out stream to the other end
+     * @param message the message, as it is to be printed
+     * @throws IOException if the connection fails
+     */
+    static void sendError(DataOutputStream out, String message)
+            throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message);
+        out.flush();
+    }
+    /**
+     * Reads a status byte, throwing the error the other end sent in place
+     * of OK.
+     * @param in stream from the other end
+     * @throws IOException if the connection fails
+     */
+    static void readStatus(DataInputStream in) throws IOException {
+        int status = in.readUnsignedByte();
+        if (status == ERROR) {
+            throw new GitletException(in.readUTF());
+        } else if (status != OK) {
+            throw badMessage();
+        }
+    }
+    /**
+     * Writes a hash as its raw bytes.
+     * @param out stream to write to
+     * @param hash the hash
+     * @throws IOException if the connection fails
+     */
+    static void writeHash(DataOutputStream out, String hash)
+            throws IOException {
+        out.write(Utils.hexToBytes(hash));
+    }
+    /**
+     * Reads a hash written by writeHash.
+     * @param in stream to read from
+     * @return the hash
+     * @throws IOException if the connection fails
+     */
+    static String readHash(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[HASH_BYTES];
+        in.readFully(bytes);
+        return Utils.bytesToHex(bytes, 0, HASH_BYTES);
+    }
+    /**
+     * Writes a list of hashes.
+     * @param out stream to write to
+     * @param hashes the hashes
+     * @throws IOException if the connection fails
+     */
+    static void writeHashes(DataOutputStream out, Collection<String> hashes)
+            throws IOException {
+        out.writeInt(hashes.size());
+        for (String hash : hashes) {
+            writeHash(out, hash);
+        }
+    }
+    /**
+     * Reads a list of hashes written by writeHashes.
+     * @param in stream to read from
+     * @return the hashes
+     * @throws IOException if the connection fails
+     */
+    static ArrayList<String> readHashes(DataInputStream in)
+            throws IOException {
+        int size = in.readInt();
+        ArrayList<String> result = new ArrayList<String>();
+        for (int i = 0; i < size; i += 1) {
+            result.add(readHash(in));
+        }
+        return result;
+    }
+    /**
+     * Reads the kind of some objects.
+     * @param in stream to read from
+     * @return the kind
+     * @throws IOException if the connection fails
+     */
+    private static ObjectStore.Kind readKind(DataInputStream in)
+            throws IOException {
+        return kind(in.readUnsignedByte());
+    }
+    /**
+     * Gets the kind of objects a kind byte stands for.
+     * @param kindByte the byte
+     * @return the kind
+     */
+    private static ObjectStore.Kind kind(int kindByte) {
+        ObjectStore.Kind[] kinds = ObjectStore.Kind.values();
+        if (kindByte >= kinds.length) {
+            throw badMessage();
+        }
+        return kinds[kindByte];
+    }
+    /**
+     * Makes the exception reporting a message this protocol does not have.
+     * @return the exception to throw
+     */
+    static GitletException badMessage() {
+        return new GitletException(ERROR_COLOR
+                + "Remote sent a bad message." + RESET_COLOR);
+    }
+    /**
+     * Makes the exception reporting a failed connection.
+     * @param e the failure
+     * @return the exception to throw
+     */
+    static GitletException lost(IOException e) {
+        return new GitletException(ERROR_COLOR + "Connection to remote"
+                + " failed: " + e.getMessage() + RESET_COLOR);
+    }
+}
@@ -0,0 +1,324 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * The branches of a repository packed into one file, .gitlet/PackedRefs,
+ * so a repository with many branches does not need a file for each. Every
+ * line of the file is a commit hash, a space and a branch name, and the
+ * lines are sorted by name, so one branch is found by binary search over
+ * the mapped file and the branches starting with a prefix are read as one
+ * run of lines.
+ * <p>
+ * A branch file in .gitlet/Branches overrides the packed line of the same
+ * name: updates write branch files as before, and pack-refs moves them
+ * into the packed file. Deleting a branch removes its packed line too.
+ * @author Connor Bernard
+ */
+public class PackedRefs {
+    /**
+     * Name of the packed refs file in a repository's .gitlet directory.
+     */
+    static final String FILE_NAME = "PackedRefs";
+    /**
+     * Number of bytes before the name on each line: a hash and a space.
+     */
+    private static final int NAME_OFFSET = Utils.UID_LENGTH + 1;
+    /**
+     * The contents of the packed refs file.
+     */
+    private final ByteBuffer lines;
+    /**
+     * Creates the packed refs of a file's contents.
+     * @param contents the contents
+     */
+    private PackedRefs(ByteBuffer contents) {
+        lines = contents;
+    }
+    /**
+     * Reads the packed refs of a repository.
+     * @param repoDir the repository's .gitlet directory
+     * @return the packed refs, which are empty if it has no packed file
+     */
+    public static PackedRefs read(File repoDir) {
+        File file = new File(repoDir, FILE_NAME);
+        if (!file.isFile()) {
+            return new PackedRefs(ByteBuffer.allocate(0));
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            return new PackedRefs(raf.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Gets the commit of a packed branch.
+     * @param name name of the branch
+     * @return hash of its commit, or null if it is not packed
+     */
+    public String get(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int at = find(key);
+        if (at < lines.limit() && compare(at, key) == 0) {
+            return hashAt(at);
+        }
+        return null;
+    }
+    /**
+     * Gets the packed branches whose names start with a prefix.
+     * @param prefix the prefix
+     * @return the commit of each branch, by name
+     */
+    public TreeMap<String, String> list(String prefix) {
+        TreeMap<String, String> result = new TreeMap<String, String>();
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        for (int at = find(key); at < lines.limit(); at = lineEnd(at)) {
+            String name = nameAt(at);
+            if (!name.startsWith(prefix)) {
+                break;
+            }
+            result.put(name, hashAt(at));
+        }
+        return result;
+    }
+    /**
+     * Gets the commit of a branch, from its branch file if it has one and
+     * from the packed refs otherwise.
+     * @param repoDir the repository's .gitlet directory
+     * @param name name of the branch
+     * @return hash of its commit, or null if there is no such branch
+     */
+    public static String branch(File repoDir, String name) {
+        File file = new File(repoDir, "Branches/" + name);
+        if (file.isFile()) {
+            return Utils.readContentsAsString(file);
+        }
+        return read(repoDir).get(name);
+    }
+    /**
+     * Gets the branches of a repository whose names start with a prefix,
+     * both packed and not. Only the branch files and directories whose
+     * names could start with the prefix are looked at, so listing a few
+     * branches does not stat every branch file.
+     * @param repoDir the repository's .gitlet directory
+     * @param prefix the prefix, which is empty to list every branch
+     * @return the commit of each branch, by name
+     */
+    public static TreeMap<String, String> branches(File repoDir,
+                                                   String prefix) {
+        TreeMap<String, String> result = read(repoDir).list(prefix);
+        loose(new File(repoDir, "Branches"), "", prefix, result);
+        return result;
+    }
+    /**
+     * Packs every branch of a repository into its packed refs file, then
+     * deletes each branch file still holding the commit packed for it.
+     * @param repoDir the repository's .gitlet directory
+     * @return number of branches packed
+     */
+    public static int pack(File repoDir) {
+        TreeMap<String, String> packed;
+        try (LockFile lock = LockFile.acquire(new File(repoDir, FILE_NAME))) {
+            packed = branches(repoDir, "");
+            lock.commit(encode(packed));
+        }
+        TreeMap<String, String> loose = new TreeMap<String, String>();
+        loose(new File(repoDir, "Branches"), "", "", loose);
+        for (String name : loose.keySet()) {
+            File file = new File(repoDir, "Branches/" + name);
+            try (LockFile lock = LockFile.acquire(file)) {
+                if (file.isFile() && Utils.readContentsAsString(file)
+                        .equals(packed.get(name))) {
+                    lock.delete();
+                }
+            }
+        }
+        return packed.size();
+    }
+    /**
+     * Removes branches from a repository's packed refs file, if they are in
+     * it. The caller holds the locks of the branches' files.
+     * @param repoDir the repository's .gitlet directory
+     * @param names names of the branches
+     */
+    static void remove(File repoDir, Collection<String> names) {
+        try (LockFile lock = LockFile.acquire(new File(repoDir, FILE_NAME))) {
+            TreeMap<String, String> packed = read(repoDir).list("");
+            if (packed.keySet().removeAll(names)) {
+                lock.commit(encode(packed));
+            }
+        }
+    }
+    /**
+     * Gets the .gitlet directory of the repository a branch file is in.
+     * @param ref the branch file, which need not exist
+     * @return the repository's .gitlet directory, or null if the file is
+     * not a branch file
+     */
+    static File repoDirOf(File ref) {
+        for (File dir = ref.getAbsoluteFile().getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            if (dir.getName().equals("Branches")
+                    && new File(dir.getParentFile(), "HEAD").isFile()) {
+                return dir.getParentFile();
+            }
+        }
+        return null;
+    }
+    /**
+     * Gets the name of the branch of a branch file.
+     * @param repoDir the .gitlet directory of the file's repository
+     * @param ref the branch file
+     * @return the branch's name
+     */
+    static String nameOf(File repoDir, File ref) {
+        return new File(repoDir, "Branches").toPath().relativize(
+                ref.getAbsoluteFile().toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+    /**
+     * Adds the branch files in a directory whose names start with a prefix,
+     * looking into the directories of remotes that could hold such names.
+     * @param dir the directory
+     * @param path name of the directory as a prefix of branch names
+     * @param prefix the prefix
+     * @param result map of branch names to commits to add to
+     */
+    private static void loose(File dir, String path, String prefix,
+                              Map<String, String> result) {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            String full = path + name;
+            if (name.endsWith(".lock") || !(full.startsWith(prefix)
+                    || prefix.startsWith(full + "/"))) {
+                continue;
+            }
+            File file = new File(dir, name);
+            if (file.isDirectory()) {
+                loose(file, full + "/", prefix, result);
+            } else if (file.isFile()) {
+                result.put(full, Utils.readContentsAsString(file));
+            }
+        }
+    }
+    /**
+     * Encodes branches as the lines of a packed refs file.
+     * @param refs the commit of each branch, by name
+     * @return the file's contents
+     */
+    private static byte[] encode(TreeMap<String, String> refs) {
+        TreeMap<byte[], String> sorted = new TreeMap<byte[], String>(
+                Arrays::compareUnsigned);
+        for (Map.Entry<String, String> ref : refs.entrySet()) {
+            sorted.put(ref.getKey().getBytes(StandardCharsets.UTF_8),
+                    ref.getValue());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (Map.Entry<byte[], String> ref : sorted.entrySet()) {
+            out.writeBytes(ref.getValue().getBytes(StandardCharsets.UTF_8));
+            out.write(' ');
+            out.writeBytes(ref.getKey());
+            out.write('\n');
+        }
+        return out.toByteArray();
+    }
+    /**
+     * Finds the first line whose name is not less than a key, by binary
+     * search over the bytes of the file: each probe backs up from the middle
+     * of the range to the start of its line.
+     * @param key the key, in UTF-8
+     * @return offset of the line, or the file's length if there is none
+     */
+    private int find(byte[] key) {
+        int lo = 0;
+        int hi = lines.limit();
+        while (lo < hi) {
+            int start = (lo + hi) >>> 1;
+            while (start > lo && lines.get(start - 1) != '\n') {
+                start -= 1;
+            }
+            if (compare(start, key) < 0) {
+                lo = lineEnd(start);
+            } else {
+                hi = start;
+            }
+        }
+        return lo;
+    }
+    /**
+     * Compares the name on a line with a key, as unsigned bytes.
+     * @param start offset of the line
+     * @param key the key, in UTF-8
+     * @return a negative number, zero or a positive number as the name is
+     * less than, equal to or greater than the key
+     */
+    private int compare(int start, byte[] key) {
+        int at = start + NAME_OFFSET;
+        for (int i = 0; i < key.length; i += 1, at += 1) {
+            if (at >= lines.limit() || lines.get(at) == '\n') {
+                return -1;
+            }
+            int diff = Byte.toUnsignedInt(lines.get(at))
+                    - Byte.toUnsignedInt(key[i]);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return at < lines.limit() && lines.get(at) != '\n' ? 1 : 0;
+    }
+    /**
+     * Gets the offset just past a line.
+     * @param start offset of the line
+     * @return offset of the next line
+     */
+    private int lineEnd(int start) {
+        int at = start;
+        while (at < lines.limit() && lines.get(at) != '\n') {
+            at += 1;
+        }
+        return Math.min(at + 1, lines.limit());
+    }
+    /**
+     * Gets the hash on a line.
+     * @param start offset of the line
+     * @return the hash
+     */
+    private String hashAt(int start) {
+        byte[] hash = new byte[Utils.UID_LENGTH];
+        lines.get(start, hash);
+        return new String(hash, StandardCharsets.US_ASCII);
+    }
+    /**
+     * Gets the name on a line.
+     * @param start offset of the line
+     * @return the name
+     */
+    private String nameAt(int start) {
+        int end = lineEnd(start);
+        int length = end - start - NAME_OFFSET;
+        if (lines.get(end - 1) == '\n') {
+            length -= 1;
+        }
+        byte[] name = new byte[length];
+        lines.get(start + NAME_OFFSET, name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+}
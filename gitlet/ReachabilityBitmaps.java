@@ -0,0 +1,554 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * The objects reachable from selected commits of a store, kept as one
+ * compressed bitmap per commit over a table giving every object a position.
+ * The set of objects reachable from any commits is then the union of the
+ * bitmaps of the nearest selected commits behind them, plus whatever a walk
+ * from the commits finds before reaching those. Set operations between such
+ * sets, such as the objects one side has that another lacks, work on the
+ * bitmaps without listing any objects.
+ * <p>
+ * The file is rewritten by repack. It lists the objects in the order the
+ * build first reached them, oldest history first, so that the objects of
+ * related commits sit close together and their bitmaps compress well, then
+ * the positions again sorted by hash and kind, for binary search, and then
+ * the bitmap of each selected commit. Objects written since are given
+ * positions after the file's in memory. Since a commit's history never
+ * changes, a bitmap stays correct until objects are deleted.
+ * @author Connor Bernard
+ */
+public class ReachabilityBitmaps {
+    /**
+     * Name of the bitmaps file in a .gitlet directory.
+     */
+    private static final String FILE_NAME = "Bitmaps";
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of bytes in an entry of the object table: a raw hash followed
+     * by the kind's ordinal.
+     */
+    private static final int ENTRY_BYTES = HASH_BYTES + 1;
+    /**
+     * Number of bytes before the object table: the number of objects and
+     * the number of bitmaps.
+     */
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+    /**
+     * Least number of commits, along the build order, between selected
+     * commits.
+     */
+    private static final int BITMAP_INTERVAL = 100;
+    /**
+     * Number of commits selected at regular intervals beyond which the
+     * interval grows, besides the tips, which are always selected.
+     */
+    private static final int MAX_BITMAPS = 256;
+    /**
+     * Number of trees a walk reads at once.
+     */
+    private static final int TREE_BATCH = 64;
+    /**
+     * Store the objects are in.
+     */
+    private final ObjectStore store;
+    /**
+     * Shallow commits of the store, which walks do not go past.
+     */
+    private final Set<String> shallow;
+    /**
+     * Contents of the bitmaps file.
+     */
+    private final ByteBuffer contents;
+    /**
+     * Number of objects in the file's table.
+     */
+    private final int numObjects;
+    /**
+     * Offset in the file of each bitmap, by its commit's position.
+     */
+    private final HashMap<Integer, Integer> offsets =
+            new HashMap<Integer, Integer>();
+    /**
+     * Bitmaps built by this process, by their commit's position.
+     */
+    private final HashMap<Integer, RoaringBitmap> built =
+            new HashMap<Integer, RoaringBitmap>();
+    /**
+     * Positions given to objects not in the file, by kind and hash. Objects
+     * in the file are looked up there each time, so that memory grows only
+     * with the objects written since the file.
+     */
+    private final EnumMap<ObjectStore.Kind, HashMap<String, Integer>>
+            added = new EnumMap<ObjectStore.Kind, HashMap<String, Integer>>(
+                    ObjectStore.Kind.class);
+    /**
+     * Kind of each object not in the file, in position order after the
+     * file's objects.
+     */
+    private final ArrayList<ObjectStore.Kind> addedKinds =
+            new ArrayList<ObjectStore.Kind>();
+    /**
+     * Hash of each object not in the file, in position order after the
+     * file's objects.
+     */
+    private final ArrayList<String> addedHashes = new ArrayList<String>();
+    /**
+     * Reads the bitmaps of a store.
+     * @param objectStore the store
+     * @param bitmapsFile the bitmaps file, or null to start without one
+     */
+    private ReachabilityBitmaps(ObjectStore objectStore, File bitmapsFile) {
+        store = objectStore;
+        shallow = Shallow.read(objectStore.repoDir());
+        for (ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            added.put(kind, new HashMap<String, Integer>());
+        }
+        if (bitmapsFile == null || !bitmapsFile.isFile()) {
+            contents = ByteBuffer.allocate(HEADER_BYTES);
+        } else {
+            try (FileChannel channel = FileChannel.open(bitmapsFile.toPath(),
+                    StandardOpenOption.READ)) {
+                contents = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        numObjects = contents.getInt(0);
+        int numBitmaps = contents.getInt(Integer.BYTES);
+        int offset = HEADER_BYTES + numObjects * (ENTRY_BYTES + Integer.BYTES);
+        for (int i = 0; i < numBitmaps; i += 1) {
+            offsets.put(contents.getInt(offset), offset + 2 * Integer.BYTES);
+            offset += 2 * Integer.BYTES + contents.getInt(offset
+                    + Integer.BYTES);
+        }
+    }
+    /**
+     * Opens the bitmaps of a store. A store without a bitmaps file gets
+     * bitmaps with no selected commits, whose queries walk the whole
+     * history.
+     * @param store the store
+     * @return its bitmaps
+     */
+    public static ReachabilityBitmaps open(ObjectStore store) {
+        return new ReachabilityBitmaps(store,
+                new File(store.repoDir(), FILE_NAME));
+    }
+    /**
+     * Checks whether any commit has a bitmap, so that queries do not walk
+     * the whole history.
+     * @return whether the store had a bitmaps file with bitmaps in it
+     */
+    public boolean hasBitmaps() {
+        return !offsets.isEmpty() || !built.isEmpty();
+    }
+    /**
+     * Gets the tips of every branch of a repository, including the branches
+     * fetched from remotes, and its current commit.
+     * @param repoDir the repository's .gitlet directory
+     * @return the distinct hashes of the tips
+     */
+    public static List<String> tips(File repoDir) {
+        LinkedHashSet<String> result = new LinkedHashSet<String>(
+                PackedRefs.branches(repoDir, "").values());
+        File current = new File(repoDir, "CurrentCommit");
+        if (current.isFile()) {
+            result.add(Utils.readContentsAsString(current));
+        }
+        return new ArrayList<String>(result);
+    }
+    /**
+     * Gets the position of an object, giving it a new one if it has none.
+     * @param kind kind of the object
+     * @param hash hash of the object
+     * @return its position
+     */
+    public int position(ObjectStore.Kind kind, String hash) {
+        HashMap<String, Integer> known = added.get(kind);
+        Integer result = known.get(hash);
+        if (result != null) {
+            return result;
+        }
+        int found = find(kind, hash);
+        if (found >= 0) {
+            return found;
+        }
+        result = numObjects + addedHashes.size();
+        addedKinds.add(kind);
+        addedHashes.add(hash);
+        known.put(hash, result);
+        return result;
+    }
+    /**
+     * Gets the number of objects given positions so far.
+     * @return one more than the largest position
+     */
+    public int size() {
+        return numObjects + addedHashes.size();
+    }
+    /**
+     * Gets the kind of the object at a position.
+     * @param position the position
+     * @return the object's kind
+     */
+    public ObjectStore.Kind kind(int position) {
+        if (position >= numObjects) {
+            return addedKinds.get(position - numObjects);
+        }
+        return ObjectStore.Kind.values()[contents.get(HEADER_BYTES
+                + position * ENTRY_BYTES + HASH_BYTES)];
+    }
+    /**
+     * Gets the hash of the object at a position.
+     * @param position the position
+     * @return the object's hash
+     */
+    public String hash(int position) {
+        if (position >= numObjects) {
+            return addedHashes.get(position - numObjects);
+        }
+        byte[] raw = new byte[HASH_BYTES];
+        contents.get(HEADER_BYTES + position * ENTRY_BYTES, raw);
+        return Utils.bytesToHex(raw, 0, HASH_BYTES);
+    }
+    /**
+     * Gets the hashes of the objects of one kind in a set.
+     * @param objects positions of the objects
+     * @param kind the kind
+     * @return the hashes of the objects of that kind, sorted
+     */
+    public List<String> hashes(RoaringBitmap objects, ObjectStore.Kind kind) {
+        ArrayList<String> result = new ArrayList<String>();
+        objects.forEach(position -> {
+            if (kind(position) == kind) {
+                result.add(hash(position));
+            }
+        });
+        result.sort(null);
+        return result;
+    }
+    /**
+     * Gets the objects reachable from some commits: the commits, their
+     * ancestors and every tree and blob of any of them. Commits the store
+     * does not have are left out. The walk goes back from the commits,
+     * newest first, until it reaches selected commits, whose bitmaps are
+     * added whole, and then reads the trees of only the commits it walked,
+     * skipping every tree already in the set along with all below it.
+     * @param commits hashes of the commits
+     * @return positions of the reachable objects
+     */
+    public RoaringBitmap reachable(Collection<String> commits) {
+        RoaringBitmap result = new RoaringBitmap();
+        HashSet<String> seen = new HashSet<String>();
+        HashMap<String, Commit> queued = new HashMap<String, Commit>();
+        PriorityQueue<String> pending = new PriorityQueue<String>((a, b) ->
+                Long.compare(queued.get(b).getTimestamp(),
+                        queued.get(a).getTimestamp()));
+        for (String hash : commits) {
+            if (store.contains(ObjectStore.Kind.COMMIT, hash)
+                    && seen.add(hash)) {
+                queued.put(hash, store.readCommit(hash));
+                pending.add(hash);
+            }
+        }
+        ArrayList<String> roots = new ArrayList<String>();
+        while (!pending.isEmpty()) {
+            String hash = pending.poll();
+            Commit commit = queued.remove(hash);
+            int position = position(ObjectStore.Kind.COMMIT, hash);
+            if (result.contains(position)) {
+                continue;
+            }
+            RoaringBitmap bitmap = bitmap(position);
+            if (bitmap != null) {
+                result.or(bitmap);
+                continue;
+            }
+            result.add(position);
+            if (commit.getTreeHash() != null) {
+                roots.add(commit.getTreeHash());
+            } else {
+                for (String blob : commit.getBlobs().values()) {
+                    result.add(position(ObjectStore.Kind.BLOB, blob));
+                }
+            }
+            for (String parent : Shallow.parents(commit, shallow)) {
+                if (parent != null && seen.add(parent)) {
+                    queued.put(parent, store.readCommit(parent));
+                    pending.add(parent);
+                }
+            }
+        }
+        addTrees(result, roots);
+        return result;
+    }
+    /**
+     * Rebuilds the bitmaps file of a store. Every commit reachable from the
+     * tips is given its position oldest first, followed by the trees and
+     * blobs it is the first to reach. The tips and commits at regular
+     * intervals in that order are selected, and their bitmaps are built
+     * oldest first, so that each build walks back only to the commits
+     * selected before it.
+     * @param store the store
+     * @param tips hashes of the commits to keep bitmaps for, usually every
+     * branch tip
+     * @return the number of bitmaps written
+     */
+    public static int write(ObjectStore store, Collection<String> tips) {
+        ReachabilityBitmaps bitmaps = new ReachabilityBitmaps(store, null);
+        List<String> order = bitmaps.order(tips);
+        HashSet<String> selected = new HashSet<String>(tips);
+        int interval = Math.max(BITMAP_INTERVAL, order.size() / MAX_BITMAPS
+                + 1);
+        for (int i = 0; i < order.size(); i += 1) {
+            String hash = order.get(i);
+            if ((i + 1) % interval == 0 || selected.contains(hash)) {
+                bitmaps.built.put(bitmaps.position(ObjectStore.Kind.COMMIT,
+                        hash), bitmaps.reachable(List.of(hash)));
+            }
+        }
+        int size = bitmaps.size();
+        Integer[] byHash = new Integer[size];
+        for (int i = 0; i < size; i += 1) {
+            byHash[i] = i;
+        }
+        Arrays.sort(byHash, (a, b) -> {
+            int cmp = bitmaps.addedHashes.get(a).compareTo(
+                    bitmaps.addedHashes.get(b));
+            return cmp != 0 ? cmp : bitmaps.addedKinds.get(a).compareTo(
+                    bitmaps.addedKinds.get(b));
+        });
+        File file = new File(store.repoDir(), FILE_NAME);
+        File tmp = new File(file.getPath() + ".lock");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(size);
+            out.writeInt(bitmaps.built.size());
+            for (int i = 0; i < size; i += 1) {
+                out.write(Utils.hexToBytes(bitmaps.hash(i)));
+                out.writeByte(bitmaps.kind(i).ordinal());
+            }
+            for (int position : byHash) {
+                out.writeInt(position);
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int i = 0; i < size; i += 1) {
+                RoaringBitmap bitmap = bitmaps.built.get(i);
+                if (bitmap != null) {
+                    bytes.reset();
+                    bitmap.write(new DataOutputStream(bytes));
+                    out.writeInt(i);
+                    out.writeInt(bytes.size());
+                    bytes.writeTo(out);
+                }
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        return bitmaps.built.size();
+    }
+    /**
+     * Deletes the bitmaps file of a store, for when objects were deleted
+     * from it and the bitmaps may name them.
+     * @param store the store
+     */
+    public static void delete(ObjectStore store) {
+        new File(store.repoDir(), FILE_NAME).delete();
+    }
+    /**
+     * Lists the commits reachable from some commits with each commit after
+     * its parents, giving each its position when it is listed, followed by
+     * positions for the trees and blobs it is the first to reach.
+     * @param tips hashes of the commits to start from
+     * @return the hashes of the commits, parents first
+     */
+    private List<String> order(Collection<String> tips) {
+        ArrayList<String> result = new ArrayList<String>();
+        HashSet<String> listed = new HashSet<String>();
+        HashMap<String, Commit> read = new HashMap<String, Commit>();
+        RoaringBitmap positioned = new RoaringBitmap();
+        ArrayDeque<String> pending = new ArrayDeque<String>();
+        for (String tip : tips) {
+            if (store.contains(ObjectStore.Kind.COMMIT, tip)) {
+                pending.push(tip);
+            }
+        }
+        while (!pending.isEmpty()) {
+            String hash = pending.peek();
+            if (listed.contains(hash)) {
+                pending.pop();
+                continue;
+            }
+            Commit commit = read.get(hash);
+            if (commit == null) {
+                commit = store.readCommit(hash);
+                read.put(hash, commit);
+            }
+            boolean ready = true;
+            for (String parent : Shallow.parents(commit, shallow)) {
+                if (parent != null && !listed.contains(parent)) {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (!ready) {
+                continue;
+            }
+            pending.pop();
+            read.remove(hash);
+            listed.add(hash);
+            result.add(hash);
+            positioned.add(position(ObjectStore.Kind.COMMIT, hash));
+            if (commit.getTreeHash() != null) {
+                addTrees(positioned, List.of(commit.getTreeHash()));
+            } else {
+                for (String blob : commit.getBlobs().values()) {
+                    position(ObjectStore.Kind.BLOB, blob);
+                }
+            }
+        }
+        return result;
+    }
+    /**
+     * Finds an object in the file's table by binary search.
+     * @param kind kind of the object
+     * @param hash hash of the object
+     * @return its position, or -1 if the file does not list it
+     */
+    private int find(ObjectStore.Kind kind, String hash) {
+        if (numObjects == 0) {
+            return -1;
+        }
+        byte[] key = Arrays.copyOf(Utils.hexToBytes(hash), ENTRY_BYTES);
+        key[HASH_BYTES] = (byte) kind.ordinal();
+        int sortedStart = HEADER_BYTES + numObjects * ENTRY_BYTES;
+        byte[] entry = new byte[ENTRY_BYTES];
+        int low = 0;
+        int high = numObjects - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int found = contents.getInt(sortedStart + mid * Integer.BYTES);
+            contents.get(HEADER_BYTES + found * ENTRY_BYTES, entry);
+            int cmp = Arrays.compareUnsigned(entry, key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return found;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Gets the bitmap of a selected commit.
+     * @param position position of the commit
+     * @return its bitmap, or null if it is not selected
+     */
+    private RoaringBitmap bitmap(int position) {
+        RoaringBitmap result = built.get(position);
+        Integer offset = offsets.get(position);
+        if (result == null && offset != null) {
+            ByteBuffer in = contents.duplicate();
+            in.position(offset);
+            result = RoaringBitmap.read(in);
+        }
+        return result;
+    }
+    /**
+     * Adds trees and everything below them to a set, skipping the trees
+     * already in it. The trees are read in batches of TREE_BATCH, each batch
+     * in parallel on the working tree pool, while positions are given out in
+     * the order the trees were listed. Batches bound the memory the walk
+     * takes however many trees are pending.
+     * @param objects the set
+     * @param roots hashes of the trees
+     */
+    private void addTrees(RoaringBitmap objects, List<String> roots) {
+        ArrayDeque<String> pending = new ArrayDeque<String>();
+        for (String root : roots) {
+            queueTree(objects, root, pending);
+        }
+        while (!pending.isEmpty()) {
+            ArrayList<String> batch = new ArrayList<String>();
+            while (!pending.isEmpty() && batch.size() < TREE_BATCH) {
+                batch.add(pending.pop());
+            }
+            List<List<List<String>>> entries = WorkingTree.run(() ->
+                    batch.parallelStream().map(hash -> {
+                        ArrayList<String> subtrees = new ArrayList<String>();
+                        ArrayList<String> blobs = new ArrayList<String>();
+                        Tree.hashes(store, hash, subtrees, blobs);
+                        return List.<List<String>>of(subtrees, blobs);
+                    }).collect(Collectors.toList()));
+            for (List<List<String>> tree : entries) {
+                for (String blob : tree.get(1)) {
+                    objects.add(position(ObjectStore.Kind.BLOB, blob));
+                }
+                for (String subtree : tree.get(0)) {
+                    queueTree(objects, subtree, pending);
+                }
+            }
+        }
+    }
+    /**
+     * Adds a tree to a set and queues it to be read, unless it is empty or
+     * already in the set.
+     * @param objects the set
+     * @param hash hash of the tree
+     * @param pending the trees to read
+     */
+    private void queueTree(RoaringBitmap objects, String hash,
+                           ArrayDeque<String> pending) {
+        if (hash.equals(Tree.EMPTY_HASH)) {
+            return;
+        }
+        int position = position(ObjectStore.Kind.TREE, hash);
+        if (!objects.contains(position)) {
+            objects.add(position);
+            pending.push(hash);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * Updates to refs, such as branches and the current commit, made together
+ * with compare-and-swap checks. Committing takes the lock of every ref in
+ * path order, so two transactions never wait on each other in a cycle, then
+ * checks that each ref still has the value its update expects, and only if
+ * all do, writes them. A transaction whose refs another command moved since
+ * they were read fails without writing anything. Transactions on different
+ * refs do not wait on each other.
+ * @author Connor Bernard
+ */
+public class RefTransaction {
+    /**
+     * The expected and new value of each ref, sorted by path.
+     */
+    private final TreeMap<File, String[]> updates =
+            new TreeMap<File, String[]>();
+    /**
+     * Adds the update of a ref to this transaction.
+     * @param ref the ref's file
+     * @param expected value the ref must have, an empty string if it must
+     * not exist, or null if it may have any value
+     * @param value new value of the ref, or null to delete it
+     * @return this transaction
+     */
+    public RefTransaction update(File ref, String expected, String value) {
+        updates.put(ref.getAbsoluteFile(), new String[] {expected, value});
+        return this;
+    }
+    /**
+     * Locks, checks and writes every ref of this transaction.
+     */
+    public void commit() {
+        ArrayList<LockFile> locks = new ArrayList<LockFile>();
+        try {
+            for (Map.Entry<File, String[]> update : updates.entrySet()) {
+                locks.add(LockFile.acquire(update.getKey()));
+                String expected = update.getValue()[0];
+                if (expected != null && !expected.equals(read(
+                        update.getKey()))) {
+                    throw new GitletException(ERROR_COLOR + "Could not update "
+                            + update.getKey().getName() + ": another command"
+                            + " changed it." + RESET_COLOR);
+                }
+            }
+            removePacked();
+            int i = 0;
+            for (String[] update : updates.values()) {
+                if (update[1] == null) {
+                    locks.get(i).delete();
+                } else {
+                    locks.get(i).commit(update[1]);
+                }
+                i += 1;
+            }
+        } finally {
+            for (LockFile lock : locks) {
+                lock.close();
+            }
+        }
+    }
+    /**
+     * Removes the branches this transaction deletes from their repository's
+     * packed refs, before their branch files are deleted, so that the packed
+     * commits never show through.
+     */
+    private void removePacked() {
+        TreeMap<File, ArrayList<String>> deleted =
+                new TreeMap<File, ArrayList<String>>();
+        for (Map.Entry<File, String[]> update : updates.entrySet()) {
+            File repoDir = PackedRefs.repoDirOf(update.getKey());
+            if (update.getValue()[1] == null && repoDir != null) {
+                deleted.computeIfAbsent(repoDir,
+                        k -> new ArrayList<String>()).add(
+                                PackedRefs.nameOf(repoDir, update.getKey()));
+            }
+        }
+        for (Map.Entry<File, ArrayList<String>> entry : deleted.entrySet()) {
+            PackedRefs.remove(entry.getKey(), entry.getValue());
+        }
+    }
+    /**
+     * Reads a ref. A branch without a branch file is looked up in its
+     * repository's packed refs.
+     * @param ref the ref's file
+     * @return the ref's value, or an empty string if it does not exist
+     */
+    public static String read(File ref) {
+        if (ref.isFile()) {
+            return Utils.readContentsAsString(ref);
+        }
+        File repoDir = PackedRefs.repoDirOf(ref);
+        String packed = repoDir == null ? null
+                : PackedRefs.read(repoDir).get(PackedRefs.nameOf(repoDir,
+                        ref));
+        return packed == null ? "" : packed;
+    }
+}
@@ -0,0 +1,193 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.TreeSet;
+
+import static gitlet.Directories.REPO_DIR;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * A connection to a repository served by gitlet serve, named by a remote of
+ * the form gitlet://HOST:PORT/PATH. Opening a connection reads the remote's
+ * refs; each connection then carries one fetch or one push.
+ * @author Connor Bernard
+ */
+public class RemoteClient implements Closeable {
+    /**
+     * Start of every remote served over the network.
+     */
+    private static final String SCHEME = "gitlet://";
+    /**
+     * Number of milliseconds to wait for a connection to be accepted.
+     */
+    private static final int CONNECT_MILLIS = 10 * 1000;
+    /**
+     * The connection.
+     */
+    private final Socket socket;
+    /**
+     * Stream from the server.
+     */
+    private final DataInputStream in;
+    /**
+     * Stream to the server.
+     */
+    private final DataOutputStream out;
+    /**
+     * Commit of each branch of the remote.
+     */
+    private final HashMap<String, String> refs =
+            new HashMap<String, String>();
+    /**
+     * Shallow commits of the remote.
+     */
+    private final TreeSet<String> shallow;
+    /**
+     * Opens a connection and reads the remote's refs.
+     * @param url the remote's URL
+     * @param command PackProtocol.FETCH or PackProtocol.PUSH
+     * @throws IOException if the connection fails
+     */
+    private RemoteClient(URI url, String command) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(url.getHost(),
+                    url.getPort() < 0 ? PackProtocol.DEFAULT_PORT
+                            : url.getPort()), CONNECT_MILLIS);
+            socket.setSoTimeout(Server.TIMEOUT_MILLIS);
+            in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream(), Server.BUFFER_SIZE));
+            out = new DataOutputStream(new BufferedOutputStream(
+                    socket.getOutputStream(), Server.BUFFER_SIZE));
+            out.writeUTF(PackProtocol.VERSION);
+            out.writeUTF(command);
+            out.writeUTF(url.getPath());
+            out.flush();
+            PackProtocol.readStatus(in);
+            int numRefs = in.readInt();
+            for (int i = 0; i < numRefs; i += 1) {
+                refs.put(in.readUTF(), PackProtocol.readHash(in));
+            }
+            in.readUTF();
+            shallow = new TreeSet<String>(PackProtocol.readHashes(in));
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    /**
+     * Checks whether a remote is served over the network.
+     * @param location the remote's directory or URL
+     * @return whether it is a gitlet:// URL
+     */
+    public static boolean isUrl(String location) {
+        return location != null && location.startsWith(SCHEME);
+    }
+    /**
+     * Connects to a remote served over the network.
+     * @param location the remote's URL
+     * @param command PackProtocol.FETCH or PackProtocol.PUSH
+     * @return the connection, with the remote's refs read
+     */
+    public static RemoteClient connect(String location, String command) {
+        URI url;
+        try {
+            url = new URI(location);
+        } catch (URISyntaxException e) {
+            url = null;
+        }
+        if (url == null || url.getHost() == null) {
+            throw new GitletException(ERROR_COLOR
+                    + "Remote directory not found." + RESET_COLOR);
+        }
+        try {
+            return new RemoteClient(url, command);
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR + "Could not connect to "
+                    + location + ": " + e.getMessage() + RESET_COLOR);
+        }
+    }
+    /**
+     * Gets the commit of one of the remote's branches.
+     * @param branch name of the branch
+     * @return hash of the branch's commit, or null if the remote has no such
+     * branch
+     */
+    public String ref(String branch) {
+        return refs.get(branch);
+    }
+    /**
+     * Fetches a branch of the remote into this repository's store, along
+     * with as much of its history as this repository is missing, and
+     * updates this repository's shallow commits and commit index. No branch
+     * is moved.
+     * @param branch branch to fetch
+     * @param depth number of commits to fetch along each path back from the
+     * branch's commit, or 0 to fetch the whole history
+     * @return hash of the commit fetched
+     */
+    public String fetch(String branch, int depth) {
+        ObjectStore store = ObjectStore.local();
+        try {
+            TreeSet<String> before = Shallow.read(REPO_DIR.file());
+            out.writeUTF(branch);
+            out.writeInt(depth);
+            PackProtocol.writeHashes(out, before);
+            out.flush();
+            PackProtocol.answer(in, out, store);
+            String tip = PackProtocol.readHash(in);
+            TreeSet<String> after = PackProtocol.receive(in, store, true);
+            Shallow.write(REPO_DIR.file(), before, after);
+            if (!CommitIndex.get().contains(tip)) {
+                CommitIndex.rebuild();
+            }
+            return tip;
+        } catch (IOException e) {
+            throw PackProtocol.lost(e);
+        }
+    }
+    /**
+     * Sends a commit and the history the remote is missing, and has the
+     * remote move a branch to it if the branch still has the commit it had
+     * when this connection was opened.
+     * @param branch branch to move
+     * @param tip hash of the commit to send
+     */
+    public void push(String branch, String tip) {
+        try {
+            String expected = refs.get(branch);
+            out.writeUTF(branch);
+            out.writeUTF(expected == null ? "" : expected);
+            out.flush();
+            PackProtocol.readStatus(in);
+            Transfer transfer = Transfer.negotiate(ObjectStore.local(),
+                    new PackProtocol.Peer(in, out, shallow, refs.values()),
+                    tip, 0);
+            out.writeByte(PackProtocol.PACK);
+            PackProtocol.writeHash(out, tip);
+            transfer.send(out);
+            PackProtocol.readStatus(in);
+        } catch (IOException e) {
+            throw PackProtocol.lost(e);
+        }
+    }
+    /**
+     * Closes the connection.
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -1,15 +1,23 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.HashSet;
 import java.util.HashMap;
-import java.util.TreeSet;
 import java.util.TreeMap;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import static gitlet.Directories.*;
 import static gitlet.TextColors.RESET_COLOR;
@@ -43,32 +51,26 @@ public class Repo {
         REPO_DIR.file().mkdir();
         BLOBS_DIR.file().mkdir();
         COMMITS_DIR.file().mkdir();
+        TREES_DIR.file().mkdir();
+        PACKS_DIR.file().mkdir();
         BRANCHES_DIR.file().mkdir();
         REMOTE_DIR.file().mkdir();
         try {
             STAGING_FILE.file().createNewFile();
         } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR.toString() + e + RESET_COLOR);
         }
         Commit initialCommit = new Commit();
-        String head = initialCommit.getHash();
+        String head = ObjectStore.local().writeCommit(initialCommit);
         File headFile = HEAD_FILE.file();
         File master = new File(BRANCHES_DIR + "/master");
-        File initialCommitFile = new File(COMMITS_DIR + "/" + head);
         File currentCommit = CURRENT_COMMIT.file();
-        Utils.writeContents(currentCommit, head);
-        Utils.writeContents(headFile, "master");
-        Utils.writeContents(master, head);
-        Utils.writeContents(initialCommitFile, Utils.serialize(initialCommit));
-        try {
-            master.createNewFile();
-            initialCommitFile.createNewFile();
-            currentCommit.createNewFile();
-        } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
-        }
+        new RefTransaction().update(currentCommit, "", head)
+                .update(headFile, "", "master").update(master, "", head)
+                .commit();
+        CommitIndex.rebuild();
+        CommitCatalog.record(head, initialCommit);
+        CommitGraph.rebuild();
         stage.write();
     }
     /**
@@ -80,96 +82,98 @@ public class Repo {
         File fileToAdd = new File(fileName);
         if (!fileToAdd.exists()) {
             if (!currCommit.getBlobs().containsKey(fileName)) {
-                System.out.println(ERROR_COLOR + "File does not exist."
+                throw new GitletException(ERROR_COLOR + "File does not exist."
                         + RESET_COLOR);
-            } else {
-                stage.removeFromMarkedForRemoval(fileName);
-                File addBack = new File(USER_DIR + "/" + fileName);
-                Utils.writeContents(addBack, Utils.readContentsAsString(
-                        new File(BLOBS_DIR + "/"
-                                + currCommit.getBlobs().get(fileName))));
-                try {
-                    addBack.createNewFile();
-                } catch (IOException e) {
-                    System.out.println(ERROR_COLOR.toString() + e
-                            + RESET_COLOR);
-                    System.exit(0);
-                }
-                stage.write();
             }
-            System.exit(0);
-        }
-        String fileHash = Utils.sha1(Utils.readContentsAsString(fileToAdd));
-        stage.removeFromMarkedForRemoval(fileName);
-        if (!currCommit.containsFile(fileName)
-                || !currCommit.getBlobs().get(fileName).equals(fileHash)) {
+            File addBack = new File(USER_DIR + "/" + fileName);
+            ObjectStore.local().readBlobTo(
+                    currCommit.getBlobs().get(fileName), addBack);
             try {
-                File blob = new File(BLOBS_DIR + "/" + fileHash);
-                Utils.writeContents(blob,
-                        Utils.readContentsAsString(fileToAdd));
-                blob.createNewFile();
+                addBack.createNewFile();
             } catch (IOException e) {
-                System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-                System.exit(0);
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
             }
-            stage.markForAddition(fileName, fileHash);
-        }
-        stage.write();
+            stage.update(() -> stage.removeFromMarkedForRemoval(fileName));
+            return;
+        }
+        StatCache cache = StatCache.read();
+        StatCache.Entry statBefore = StatCache.stat(fileToAdd);
+        String fileHash = ObjectStore.local().writeBlob(fileToAdd);
+        TrigramIndex.record(fileHash, fileToAdd);
+        cache.record(fileName, statBefore, fileHash);
+        cache.write();
+        stage.update(() -> {
+            stage.removeFromMarkedForRemoval(fileName);
+            if (!currCommit.containsFile(fileName)
+                    || !currCommit.getBlobs().get(fileName).equals(fileHash)) {
+                stage.markForAddition(fileName, fileHash);
+            }
+        });
     }
     /**
-     * Makes a new commit with a given commit message.
+     * Makes a new commit with a given commit message. The staging area is
+     * locked from when it is read until it is cleared, and the branch and
+     * current commit are only moved if no other command moved them first.
      * @param commitMessage commit message
      */
     public void commit(String commitMessage) {
-        if (stage.getMarkedForAddition().isEmpty()
-                && stage.getMarkedForRemoval().isEmpty()) {
-            System.out.println(WARNING_COLOR + "No changes added to the commit."
-                    + RESET_COLOR);
-            System.exit(0);
-        }
-        if (commitMessage.isEmpty()) {
-            System.out.println(WARNING_COLOR + "Please enter a commit message."
-                    + RESET_COLOR);
-            System.exit(0);
-        }
-        Commit currCommit = getCurrCommit();
-        if (!currCommit.getHash()
-                .equals(Utils.readContentsAsString(CURRENT_COMMIT.file()))) {
-            System.out.println(ERROR_COLOR + "Currently at a detached pointer"
-                    + "state." + RESET_COLOR);
-        }
-        HashMap<String, String> newBlobs = new HashMap<String, String>();
-        for (String fileName : currCommit.getBlobs().keySet()) {
-            newBlobs.put(fileName, currCommit.getBlobs().get(fileName));
-        }
-        HashMap<String, String> markedForAddition =
-                stage.getMarkedForAddition();
-        HashSet<String> markedForRemoval = stage.getMarkedForRemoval();
-        for (String fileName : markedForAddition.keySet()) {
-            newBlobs.put(fileName, markedForAddition.get(fileName));
-        }
-        for (String fileName : markedForRemoval) {
-            newBlobs.remove(fileName);
-        }
-        Commit thisCommit = new Commit(
-                Utils.readContentsAsString(HEAD_FILE.file()), commitMessage,
-                currCommit.getHash(), newBlobs);
-        String thisCommitHash = thisCommit.getHash();
-        File thisCommitFile = new File(COMMITS_DIR + "/"
-                + thisCommitHash);
-        Utils.writeContents(new File(BRANCHES_DIR + "/"
-                        + Utils.readContentsAsString(HEAD_FILE.file())),
-                thisCommit.getHash());
-        Utils.writeContents(CURRENT_COMMIT.file(), thisCommitHash);
-        Utils.writeObject(thisCommitFile, thisCommit);
-        try {
-            thisCommitFile.createNewFile();
-        } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
+        try (LockFile stageLock = StagingArea.lock()) {
+            stage.read();
+            if (stage.getMarkedForAddition().isEmpty()
+                    && stage.getMarkedForRemoval().isEmpty()) {
+                throw new GitletException(WARNING_COLOR
+                        + "No changes added to the commit." + RESET_COLOR);
+            }
+            if (commitMessage.isEmpty()) {
+                throw new GitletException(WARNING_COLOR
+                        + "Please enter a commit message." + RESET_COLOR);
+            }
+            Commit currCommit = getCurrCommit();
+            if (!currCommit.getHash().equals(Utils.readContentsAsString(
+                    CURRENT_COMMIT.file()))) {
+                System.out.println(ERROR_COLOR + "Currently at a detached"
+                        + " pointerstate." + RESET_COLOR);
+            }
+            String branch = Utils.readContentsAsString(HEAD_FILE.file());
+            String branchTip = RefTransaction.read(new File(BRANCHES_DIR
+                    + "/" + branch));
+            String newTree = stagedTree(currCommit);
+            Commit thisCommit = new Commit(branch, commitMessage,
+                    currCommit.getHash(), newTree);
+            recordCommit(thisCommit, branchTip, currCommit, null, stageLock);
         }
+    }
+    /**
+     * Writes a new commit, moves its branch and the current commit to it,
+     * and clears the staging area. The refs are moved together, and only if
+     * the branch is still at the commit it was read at and the current
+     * commit is still the new commit's parent.
+     * @param thisCommit the new commit
+     * @param branchTip hash of the commit the branch was at, or an empty
+     * string if the branch did not exist
+     * @param parent the commit that was current
+     * @param head branch to write to the HEAD file, or null to leave it
+     * @param stageLock the lock on the staging area, which is released
+     */
+    private void recordCommit(Commit thisCommit, String branchTip,
+                              Commit parent, String head,
+                              LockFile stageLock) {
+        String thisCommitHash = ObjectStore.local().writeCommit(thisCommit);
+        RefTransaction refs = new RefTransaction()
+                .update(new File(BRANCHES_DIR + "/" + thisCommit.getBranch()),
+                        branchTip, thisCommitHash)
+                .update(CURRENT_COMMIT.file(), parent.getHash(),
+                        thisCommitHash);
+        if (head != null) {
+            refs.update(HEAD_FILE.file(), null, head);
+        }
+        refs.commit();
+        CommitIndex.record(thisCommitHash);
+        CommitCatalog.record(thisCommitHash, thisCommit);
+        CommitGraph.record(thisCommit);
         stage.clear();
-        stage.write();
+        stage.write(stageLock);
     }
     /**
      * Privatized version of the commit class for merge implementation.
@@ -179,48 +183,44 @@ public class Repo {
      */
     private void commit(String commitMessage, String firstParentHash,
                         String secondParentHash) {
-        Commit currCommit = getCurrCommit();
-        if (!currCommit.getHash().equals(Utils.
-                readContentsAsString(CURRENT_COMMIT.file()))) {
-            System.out.println(ERROR_COLOR + "Currently at a detached pointer"
-                    + "state." + RESET_COLOR);
-        }
-        HashMap<String, String> newBlobs = new HashMap<String, String>();
-        for (String fileName : currCommit.getBlobs().keySet()) {
-            newBlobs.put(fileName, currCommit.getBlobs().get(fileName));
-        }
-        HashMap<String, String> markedForAddition =
-                stage.getMarkedForAddition();
-        HashSet<String> markedForRemoval = stage.getMarkedForRemoval();
-        for (String fileName : markedForAddition.keySet()) {
-            newBlobs.put(fileName, markedForAddition.get(fileName));
+        try (LockFile stageLock = StagingArea.lock()) {
+            stage.read();
+            Commit currCommit = getCurrCommit();
+            if (!currCommit.getHash().equals(Utils.
+                    readContentsAsString(CURRENT_COMMIT.file()))) {
+                System.out.println(ERROR_COLOR + "Currently at a detached"
+                        + " pointerstate." + RESET_COLOR);
+            }
+            String branch = Utils.readContentsAsString(HEAD_FILE.file());
+            String branchTip = RefTransaction.read(new File(BRANCHES_DIR
+                    + "/" + branch));
+            String newTree = stagedTree(currCommit);
+            Commit thisCommit = new Commit(branch, commitMessage,
+                    firstParentHash, secondParentHash, newTree);
+            recordCommit(thisCommit, branchTip, currCommit,
+                    currCommit.getBranch(), stageLock);
         }
-        for (String fileName : markedForRemoval) {
-            newBlobs.remove(fileName);
-        }
-        Commit thisCommit = new Commit(Utils.
-                readContentsAsString(HEAD_FILE.file()), commitMessage,
-                firstParentHash, secondParentHash, newBlobs);
-        String thisCommitHash = thisCommit.getHash();
-        File thisCommitFile = new File(COMMITS_DIR + "/"
-                + thisCommitHash);
-        Utils.writeContents(new File(BRANCHES_DIR + "/"
-                        + Utils.readContentsAsString(HEAD_FILE.file())),
-                thisCommit.getHash());
-        Utils.writeContents(CURRENT_COMMIT.file(), thisCommitHash);
-        Utils.writeObject(thisCommitFile, thisCommit);
-        Utils.writeContents(HEAD_FILE.file(), currCommit.getBranch());
-        try {
-            thisCommitFile.createNewFile();
-        } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
+    }
+    /**
+     * Builds the tree of the next commit by applying the staged changes to
+     * the current commit's tree. Only the directories holding staged files
+     * get new trees; every other subtree is shared with the current commit.
+     * @param currCommit the current commit
+     * @return hash of the new tree
+     */
+    private String stagedTree(Commit currCommit) {
+        TreeMap<String, String> changes = new TreeMap<String, String>(
+                stage.getMarkedForAddition());
+        for (String fileName : stage.getMarkedForRemoval()) {
+            changes.put(fileName, null);
         }
-        stage.clear();
-        stage.write();
+        return Tree.update(ObjectStore.local(), currCommit.getTreeHash(),
+                changes);
     }
     /**
-     * Stages a file for removal.
+     * Stages a file for removal. A tracked working file is deleted only once
+     * the stage marking it is written, so that a failed write never leaves
+     * the file gone without its removal staged.
      * @param fileName file to stage for removal
      */
     public void rm(String fileName) {
@@ -228,64 +228,207 @@ public class Repo {
         File fileToRemove = new File(fileName);
         if (!fileToRemove.exists()) {
             if (currCommit.getBlobs().containsKey(fileName)) {
-                stage.markForRemoval(fileName);
-                stage.write();
-                System.exit(0);
+                stage.update(() -> stage.markForRemoval(fileName));
+                return;
             }
-            System.out.println(ERROR_COLOR + "Specified file does not exist"
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR
+                    + "Specified file does not exist" + RESET_COLOR);
         }
         if (currCommit.getBlobs().containsKey(fileName)) {
-            Utils.restrictedDelete(USER_DIR + "/" + fileName);
-            stage.markForRemoval(fileName);
-        } else if (stage.getMarkedForAddition().containsKey(fileName)) {
+            stage.update(() -> stage.markForRemoval(fileName));
+            WorkingTree.delete(fileName);
+            return;
+        }
+        stage.update(() -> {
+            if (!stage.getMarkedForAddition().containsKey(fileName)) {
+                throw new GitletException(WARNING_COLOR
+                        + "No reason to remove the file." + RESET_COLOR);
+            }
             stage.removeFromMarkedForAddition(fileName);
-        } else {
-            System.out.println(WARNING_COLOR + "No reason to remove the file."
-                    + RESET_COLOR);
-            System.exit(0);
-        }
-        stage.write();
+        });
     }
     /**
-     * Prints the log of commits.
+     * Prints the log of commits. Parent hashes are always full hashes, so
+     * each parent is read straight from the store, and only the commit
+     * headers are decoded.
      */
     public void log() {
+        ObjectStore store = ObjectStore.local();
+        PrintWriter out = new PrintWriter(System.out);
+        TreeSet<String> shallow = Shallow.read(REPO_DIR.file());
         Commit currCommit = getCurrCommit();
         while (currCommit != null) {
-            System.out.println(currCommit);
-            currCommit = readCommitFromHash(currCommit.getParentHash());
+            out.println(currCommit);
+            String parent = Shallow.parents(currCommit, shallow)[0];
+            currCommit = parent == null ? null : store.readCommit(parent);
         }
+        out.flush();
     }
     /**
-     * Displays info about all commits ever made.
+     * Displays info about all commits ever made, read from the commit
+     * catalog.
      */
     public void globalLog() {
-        for (String hash : Utils.plainFilenamesIn(COMMITS_DIR.file())) {
-            Commit thisCommit = Utils.readObject(new File(COMMITS_DIR
-                    + "/" + hash), Commit.class);
-            System.out.println(thisCommit);
+        PrintWriter out = new PrintWriter(System.out);
+        for (CommitCatalog.Entry entry : CommitCatalog.get().all()) {
+            out.println(entry);
         }
+        out.flush();
     }
     /**
      * Prints out the ids of all commits that have the given commit message.
      * @param commitMessage message to check for instances of
      */
     public void find(String commitMessage) {
-        List<String> allCommits = Utils.plainFilenamesIn(COMMITS_DIR.file());
+        find(new CommitCatalog.Query().exact(commitMessage));
+    }
+    /**
+     * Prints out the ids of all commits matching a query of the commit
+     * catalog, in the order of their ids.
+     * @param query the query
+     */
+    public void find(CommitCatalog.Query query) {
+        PrintWriter out = new PrintWriter(System.out);
+        List<CommitCatalog.Entry> found = CommitCatalog.get().find(query);
+        for (CommitCatalog.Entry entry : found) {
+            out.println(entry.getHash());
+        }
+        out.flush();
+        if (found.isEmpty()) {
+            System.out.println(ERROR_COLOR + "Found no commit with that "
+                    + "message." + RESET_COLOR);
+        }
+    }
+    /**
+     * Regenerates the commit catalog and its token index from the commits.
+     */
+    public void rebuildCatalog() {
+        int numCommits = CommitCatalog.rebuild().size();
+        System.out.println(COMPLETION_COLOR + "Cataloged " + numCommits
+                + " commits." + RESET_COLOR);
+    }
+    /**
+     * Searches the contents of the files of one commit, or of every commit,
+     * and prints each matching line after the name of its file. Files are
+     * printed in path order, and with every commit, by commit id and then
+     * path.
+     * @param grep the search
+     * @param commitId id of the commit to search, or null for the current
+     * commit
+     * @param all whether to search every commit instead
+     */
+    public void grep(Grep grep, String commitId, boolean all) {
+        ObjectStore store = ObjectStore.local();
+        PrintWriter out = new PrintWriter(System.out);
         boolean found = false;
-        for (String hash : allCommits) {
-            if (Utils.readObject(new File(COMMITS_DIR + "/" + hash),
-                    Commit.class).getCommitMessage().equals(commitMessage)) {
-                System.out.println(hash);
-                found = true;
+        if (all) {
+            Map<String, Grep.Match> matches = grep.search(
+                    store.list(ObjectStore.Kind.BLOB));
+            HashMap<String, Map<String, String>> searched =
+                    new HashMap<String, Map<String, String>>();
+            for (String hash : matches.isEmpty() ? new ArrayList<String>()
+                    : CommitIndex.get().hashes()) {
+                TreeMap<String, String> files = new TreeMap<String, String>(
+                        Tree.find(store, store.readCommit(hash).getTreeHash(),
+                                matches.keySet(), searched));
+                for (Map.Entry<String, String> file : files.entrySet()) {
+                    grep.print(out, hash + ":" + file.getKey(),
+                            matches.get(file.getValue()));
+                    found = true;
+                }
+            }
+        } else {
+            Commit commit = commitId == null ? getCurrCommit()
+                    : readCommitFromHash(commitId);
+            if (commit == null) {
+                throw new GitletException(ERROR_COLOR
+                        + "No commit with that id exists." + RESET_COLOR);
+            }
+            TreeMap<String, String> files = new TreeMap<String, String>(
+                    commit.getBlobs());
+            Map<String, Grep.Match> matches = grep.search(
+                    new HashSet<String>(files.values()));
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                Grep.Match match = matches.get(file.getValue());
+                if (match != null) {
+                    grep.print(out, file.getKey(), match);
+                    found = true;
+                }
             }
         }
+        out.flush();
         if (!found) {
-            System.out.println(ERROR_COLOR + "Found no commit with that "
-                    + "message." + RESET_COLOR);
+            System.out.println(ERROR_COLOR + "Found no matches."
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Prints how files changed: the working files against the versions
+     * staged or, for files not staged, committed; the staged versions
+     * against the current commit; or one commit against another. Working
+     * files are only read if their stat data or hash shows a change, and
+     * two commits are compared through their trees, skipping every subtree
+     * and blob they share.
+     * @param diff how to print the changes
+     * @param staged whether to compare the staging area with the current
+     * commit
+     * @param fromId id of the commit to compare from, or null
+     * @param toId id of the commit to compare to, or null
+     */
+    public void diff(Diff diff, boolean staged, String fromId, String toId) {
+        Commit currCommit = getCurrCommit();
+        TreeMap<String, String[]> changes = new TreeMap<String, String[]>();
+        if (fromId != null) {
+            Commit from = readCommitFromHash(fromId);
+            Commit to = readCommitFromHash(toId);
+            if (from == null || to == null) {
+                throw new GitletException(ERROR_COLOR
+                        + "No commit with that id exists." + RESET_COLOR);
+            }
+            changes = Tree.diff(ObjectStore.local(), from.getTreeHash(),
+                    to.getTreeHash());
+        } else if (staged) {
+            for (Map.Entry<String, String> e
+                    : stage.getMarkedForAddition().entrySet()) {
+                String committed = currCommit.getBlobs().get(e.getKey());
+                if (!e.getValue().equals(committed)) {
+                    changes.put(e.getKey(), new String[] {committed,
+                        e.getValue()});
+                }
+            }
+            for (String fileName : stage.getMarkedForRemoval()) {
+                String committed = currCommit.getBlobs().get(fileName);
+                if (committed != null) {
+                    changes.put(fileName, new String[] {committed, null});
+                }
+            }
+        } else {
+            TreeMap<String, String> index = new TreeMap<String, String>(
+                    currCommit.getBlobs());
+            index.putAll(stage.getMarkedForAddition());
+            index.keySet().removeAll(stage.getMarkedForRemoval());
+            StatCache cache = StatCache.read();
+            TreeMap<String, String> hashes = WorkingTree.hashes(
+                    new ArrayList<String>(index.keySet()), cache);
+            cache.write();
+            for (Map.Entry<String, String> e : index.entrySet()) {
+                String working = hashes.get(e.getKey());
+                if (!e.getValue().equals(working)) {
+                    changes.put(e.getKey(), new String[] {e.getValue(),
+                        working});
+                }
+            }
         }
+        diff.print(changes, fromId == null && !staged);
+    }
+    /**
+     * Creates the trigram index grep uses, or indexes the blobs it is
+     * missing.
+     */
+    public void indexBlobs() {
+        int numBlobs = TrigramIndex.build();
+        System.out.println(COMPLETION_COLOR + "Indexed " + numBlobs
+                + " blobs." + RESET_COLOR);
     }
     /**
      * Displays status of current directory i.e. branches, staged files, removed
@@ -294,11 +437,11 @@ public class Repo {
     public void status() {
         Commit currCommit = getCurrCommit();
         String currBranch = Utils.readContentsAsString(HEAD_FILE.file());
-        List<String> allFiles = Utils.plainFilenamesIn(USER_DIR.file());
+        List<String> allFiles = WorkingTree.files();
         Set<String> markedForRemoval = stage.getMarkedForRemoval();
         Set<String> markedForAddition = stage.getMarkedForAddition().keySet();
         HashSet<String> trackedFiles = new HashSet<String>();
-        List<String> branches = Utils.plainFilenamesIn(BRANCHES_DIR.file());
+        List<String> branches = localBranchNames();
         trackedFiles.addAll(markedForAddition);
         trackedFiles.addAll(markedForRemoval);
         trackedFiles.addAll(currCommit.getBlobs().keySet());
@@ -325,7 +468,7 @@ public class Repo {
         System.out.println(RESET_COLOR);
         System.out.println("=== Modifications Not Staged For Commit ===");
         System.out.print(WARNING_COLOR);
-        printModificationNotStageForCommit(currCommit);
+        printModificationNotStageForCommit(currCommit, allFiles);
         for (String fileName : currCommit.getBlobs().keySet()) {
             if (!new File(USER_DIR + "/" + fileName).exists()
                     && !stage.getMarkedForRemoval().contains(fileName)) {
@@ -335,9 +478,8 @@ public class Repo {
         System.out.println(RESET_COLOR);
         System.out.println("=== Untracked Files ===");
         System.out.print(WARNING_COLOR);
-        for (String fileName : Utils.plainFilenamesIn(USER_DIR.file())) {
-            if (fileName.length() > 4 && fileName.endsWith(".txt")
-                    && !currCommit.containsFile(fileName)
+        for (String fileName : allFiles) {
+            if (!currCommit.containsFile(fileName)
                     && !stage.getMarkedForAddition().containsKey(fileName)
                     && !stage.getMarkedForRemoval().contains(fileName)) {
                 System.out.println(fileName);
@@ -346,24 +488,32 @@ public class Repo {
         System.out.println(RESET_COLOR);
     }
     /**
-     * Prints the modifications not yet staged for commit.
+     * Prints the modifications not yet staged for commit. Files are only
+     * hashed again if their stat data changed since they were last hashed,
+     * and those are hashed in parallel.
      * @param currCommit the current commit being used in the status method
+     * @param allFiles sorted names of the working files
      */
-    private void printModificationNotStageForCommit(Commit currCommit) {
+    private void printModificationNotStageForCommit(Commit currCommit,
+                                                    List<String> allFiles) {
         stage.read();
-        HashSet<String> currBlobs = new HashSet<String>(
-                Utils.plainFilenamesIn(BLOBS_DIR.file()));
-        for (String fileName : Utils.plainFilenamesIn(USER_DIR.file())) {
-            if (fileName.length() > 4 && fileName.endsWith(".txt")
-                    && currCommit.containsFile(fileName)
+        StatCache cache = StatCache.read();
+        ArrayList<String> tracked = new ArrayList<String>();
+        for (String fileName : allFiles) {
+            if (currCommit.containsFile(fileName)
                     && !stage.getMarkedForAddition().containsKey(fileName)
                     && !stage.getMarkedForRemoval().contains(fileName)) {
-                if (!currBlobs.contains(Utils.sha1(Utils.readContentsAsString(
-                        new File(USER_DIR + "/" + fileName))))) {
-                    System.out.println(fileName + " (modified)");
-                }
+                tracked.add(fileName);
             }
         }
+        TreeMap<String, String> hashes = WorkingTree.hashes(tracked, cache);
+        for (String fileName : hashes.keySet()) {
+            if (!hashes.get(fileName).equals(
+                    currCommit.getBlobs().get(fileName))) {
+                System.out.println(fileName + " (modified)");
+            }
+        }
+        cache.write();
     }
     /**
      * Checks out a given branch.
@@ -372,40 +522,52 @@ public class Repo {
     public void checkoutBranch(String branchName) {
         Commit currCommit = getCurrCommit();
         checkoutBranchFailureCaseChecker(branchName, currCommit);
-        Utils.writeContents(HEAD_FILE.file(), branchName);
-        Commit commitToCheckout = readCommitFromHash(Utils.readContentsAsString(
+        Commit commitToCheckout = readCommitFromHash(RefTransaction.read(
                 new File(BRANCHES_DIR + "/" + branchName)));
-        Utils.writeContents(CURRENT_COMMIT.file(), commitToCheckout.getHash());
-        HashMap<String, String> checkedOutBlobs = commitToCheckout.getBlobs();
-        for (String fileName : currCommit.getBlobs().keySet()) {
-            if (checkedOutBlobs.get(fileName) != null) {
-                Utils.writeContents(new File(fileName), Utils.
-                        readContentsAsString(new File(BLOBS_DIR + "/"
-                                + checkedOutBlobs.get(fileName))));
-            } else {
-                Utils.restrictedDelete(fileName);
+        new RefTransaction().update(HEAD_FILE.file(), null, branchName)
+                .update(CURRENT_COMMIT.file(), currCommit.getHash(),
+                        commitToCheckout.getHash())
+                .commit();
+        checkoutTree(currCommit, commitToCheckout);
+        stage.write();
+    }
+    /**
+     * Replaces the files of one commit in the working directory with those of
+     * another. Only files that differ between the two commits' trees are
+     * written or deleted, and subtrees the commits share are never read.
+     * A file in both commits is still restored if the working copy was
+     * deleted or changed.
+     * @param from the commit whose files are in the working directory
+     * @param to the commit to check out
+     */
+    private void checkoutTree(Commit from, Commit to) {
+        ObjectStore store = ObjectStore.local();
+        TreeMap<String, String[]> changed = Tree.diff(store,
+                from.getTreeHash(), to.getTreeHash());
+        for (Map.Entry<String, String[]> e : changed.entrySet()) {
+            String newBlob = e.getValue()[1];
+            if (newBlob == null) {
+                WorkingTree.delete(e.getKey());
+            } else if (e.getValue()[0] != null
+                    || store.contains(ObjectStore.Kind.BLOB, newBlob)) {
+                store.readBlobTo(newBlob, new File(e.getKey()));
             }
         }
-        for (String fileName : checkedOutBlobs.keySet()) {
-            if (!currCommit.containsFile(fileName)
-                    && new File(BLOBS_DIR + "/" + checkedOutBlobs.
-                    get(fileName)).exists()) {
-                File newFile = new File(fileName);
-                Utils.writeContents(newFile, Utils.readContentsAsString(
-                        new File(BLOBS_DIR + "/"
-                                + checkedOutBlobs.get(fileName))));
-                try {
-                    newFile.createNewFile();
-                } catch (IOException e) {
-                    System.out.println(ERROR_COLOR.toString() + e
-                            + RESET_COLOR);
-                    System.exit(0);
-                }
+        StatCache cache = StatCache.read();
+        ArrayList<String> kept = new ArrayList<String>();
+        for (String fileName : from.getBlobs().keySet()) {
+            if (!changed.containsKey(fileName)) {
+                kept.add(fileName);
             }
         }
-        Utils.writeContents(HEAD_FILE.file(), branchName);
-        Utils.writeContents(CURRENT_COMMIT.file(), commitToCheckout.getHash());
-        stage.write();
+        TreeMap<String, String> hashes = WorkingTree.hashes(kept, cache);
+        for (String fileName : kept) {
+            String blob = from.getBlobs().get(fileName);
+            if (!blob.equals(hashes.get(fileName))) {
+                store.readBlobTo(blob, new File(fileName));
+            }
+        }
+        cache.write();
     }
     /**
      * Checks for failure cases needed for checkoutBranch.
@@ -416,27 +578,24 @@ public class Repo {
                                                   Commit currCommit) {
         if (stage.getMarkedForAddition().size() > 0
                 || stage.getMarkedForRemoval().size() > 0) {
-            System.out.println(WARNING_COLOR + "Uncommitted changes."
+            throw new GitletException(WARNING_COLOR + "Uncommitted changes."
                     + RESET_COLOR);
-            System.exit(0);
         }
-        if (!new File(BRANCHES_DIR + "/" + branchName).exists()) {
-            System.out.println(ERROR_COLOR + "No such branch exists."
+        if (RefTransaction.read(new File(BRANCHES_DIR + "/" + branchName))
+                .isEmpty()) {
+            throw new GitletException(ERROR_COLOR + "No such branch exists."
                     + RESET_COLOR);
-            System.exit(0);
         }
         if (Utils.readContentsAsString(HEAD_FILE.file()).equals(branchName)) {
-            System.out.println(WARNING_COLOR
+            throw new GitletException(WARNING_COLOR
                     + "No need to checkout the current branch." + RESET_COLOR);
-            System.exit(0);
         }
-        for (String fileName : Utils.plainFilenamesIn(USER_DIR.file())) {
-            if (fileName.length() > 4 && fileName.endsWith(".txt")
-                    && !currCommit.containsFile(fileName)) {
-                System.out.println(WARNING_COLOR + "There is an untracked file"
+        for (String fileName : WorkingTree.files()) {
+            if (!currCommit.containsFile(fileName)) {
+                throw new GitletException(WARNING_COLOR
+                        + "There is an untracked file"
                         + "in the way; delete it, or add and commit it first."
                         + RESET_COLOR);
-                System.exit(0);
             }
         }
     }
@@ -457,36 +616,24 @@ public class Repo {
         Commit currCommit = getCurrCommit();
         if (stage.getMarkedForAddition().size() > 0
                 || stage.getMarkedForRemoval().size() > 0) {
-            System.out.println(WARNING_COLOR + "Uncommitted changes."
+            throw new GitletException(WARNING_COLOR + "Uncommitted changes."
                     + RESET_COLOR);
-            System.exit(0);
         }
         Commit commitToCheckout = readCommitFromHash(commitID);
         if (commitToCheckout == null) {
-            System.out.println(ERROR_COLOR + "No commit with that id exists."
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR
+                    + "No commit with that id exists." + RESET_COLOR);
         }
         HashMap<String, String> checkedOutBlobs = commitToCheckout.getBlobs();
         if (checkedOutBlobs.containsKey(fileName)) {
             File file = new File(USER_DIR + "/" + fileName);
-            File blobFile = new File(BLOBS_DIR + "/"
-                    + checkedOutBlobs.get(fileName));
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                    System.exit(0);
-                }
-            }
-            if (!blobFile.exists()) {
-                System.exit(0);
+            String blobHash = checkedOutBlobs.get(fileName);
+            if (!ObjectStore.local().readBlobTo(blobHash, file)) {
+                throw new GitletException();
             }
-            Utils.writeContents(file, Utils.readContentsAsString(blobFile));
         } else {
-            System.out.println(ERROR_COLOR
+            throw new GitletException(ERROR_COLOR
                     + "File does not exist in that commit." + RESET_COLOR);
-            System.exit(0);
         }
     }
     /**
@@ -498,30 +645,19 @@ public class Repo {
         Commit currCommit = getCurrCommit();
         Commit commitToCheckout = readCommitFromHash(commitID);
         if (commitToCheckout == null) {
-            System.out.println(ERROR_COLOR + "No commit with that id exists."
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR
+                    + "No commit with that id exists." + RESET_COLOR);
         }
         HashMap<String, String> checkedOutBlobs = commitToCheckout.getBlobs();
         if (checkedOutBlobs.containsKey(fileName)) {
             File file = new File(USER_DIR + "/" + fileName);
-            File blobFile = new File(BLOBS_DIR + "/"
-                    + checkedOutBlobs.get(fileName));
-            if (!file.exists()) {
-                try {
-                    file.createNewFile();
-                } catch (IOException e) {
-                    System.exit(0);
-                }
-            }
-            if (!blobFile.exists()) {
-                System.exit(0);
+            String blobHash = checkedOutBlobs.get(fileName);
+            if (!ObjectStore.local().readBlobTo(blobHash, file)) {
+                throw new GitletException();
             }
-            Utils.writeContents(file, Utils.readContentsAsString(blobFile));
         } else {
-            System.out.println(ERROR_COLOR
+            throw new GitletException(ERROR_COLOR
                     + "File does not exist in that commit." + RESET_COLOR);
-            System.exit(0);
         }
     }
     /**
@@ -531,40 +667,38 @@ public class Repo {
     public void branch(String branchName) {
         Commit currCommit = getCurrCommit();
         File newBranch = new File(BRANCHES_DIR + "/" + branchName);
-        if (newBranch.exists()) {
-            System.out.println(ERROR_COLOR
+        if (branchName.endsWith(".lock")) {
+            throw new GitletException(ERROR_COLOR
+                    + "A branch name cannot end in .lock." + RESET_COLOR);
+        }
+        if (newBranch.exists() || !RefTransaction.read(newBranch).isEmpty()) {
+            throw new GitletException(ERROR_COLOR
                     + "A branch with that name already exists." + RESET_COLOR);
-            System.exit(0);
         }
         if (branchName.equals(Utils.readContentsAsString(HEAD_FILE.file()))) {
-            System.out.println(WARNING_COLOR
+            throw new GitletException(WARNING_COLOR
                     + "No need to checkout the current branch." + RESET_COLOR);
-            System.exit(0);
-        }
-        Utils.writeContents(newBranch, currCommit.getHash());
-        try {
-            new File(BRANCHES_DIR + "/" + branchName).createNewFile();
-        } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
         }
+        new RefTransaction().update(newBranch, "", currCommit.getHash())
+                .commit();
     }
     /**
      * Deletes the branch with the given name.
      * @param branchName name of branch to remove
      */
     public void rmBranch(String branchName) {
-        if (!new File(BRANCHES_DIR + "/" + branchName).exists()) {
-            System.out.println(ERROR_COLOR
+        if (RefTransaction.read(new File(BRANCHES_DIR + "/" + branchName))
+                .isEmpty()) {
+            throw new GitletException(ERROR_COLOR
                     + "A branch with that name does not exist." + RESET_COLOR);
-            System.exit(0);
         }
         if (Utils.readContentsAsString(HEAD_FILE.file()).equals(branchName)) {
-            System.out.println(ERROR_COLOR + "Cannot remove the current branch."
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR
+                    + "Cannot remove the current branch." + RESET_COLOR);
         }
-        new File(BRANCHES_DIR + "/" + branchName).delete();
+        File branch = new File(BRANCHES_DIR + "/" + branchName);
+        new RefTransaction().update(branch, RefTransaction.read(branch), null)
+                .commit();
     }
     /**
      * Sets the current commit to the commit at the given commit ID.
@@ -572,73 +706,76 @@ public class Repo {
      */
     public void reset(String commitID) {
         if (readCommitFromHash(commitID) == null) {
-            System.out.println(ERROR_COLOR + "No commit with that id exists."
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR
+                    + "No commit with that id exists." + RESET_COLOR);
         }
         Commit currCommit = getCurrCommit();
         Commit commitToResetTo = readCommitFromHash(commitID);
-        for (String fileName : Utils.plainFilenamesIn(USER_DIR.file())) {
-            if (fileName.length() > 4 && fileName.endsWith(".txt")
-                    && !(currCommit.containsFile(fileName)
+        for (String fileName : WorkingTree.files()) {
+            if (!(currCommit.containsFile(fileName)
                     || stage.getMarkedForAddition().containsKey(fileName)
                     || stage.getMarkedForRemoval().contains(fileName))) {
-                System.out.println(WARNING_COLOR + "There is an untracked"
+                throw new GitletException(WARNING_COLOR
+                        + "There is an untracked"
                         + " file in the way; delete it, or add and commit"
                         + " it first." + RESET_COLOR);
-                System.exit(0);
             }
         }
-        for (String fileName : stage.getMarkedForRemoval()) {
-            Utils.restrictedDelete(USER_DIR + "/" + fileName);
-        }
         for (String fileName : stage.getMarkedForAddition().keySet()) {
-            Utils.restrictedDelete(USER_DIR + "/" + fileName);
-        }
-        for (String fileName : currCommit.getBlobs().keySet()) {
-            Utils.restrictedDelete(USER_DIR + "/" + fileName);
+            WorkingTree.delete(fileName);
         }
         stage.clear();
         stage.write();
-        Utils.writeContents(HEAD_FILE.file(), commitToResetTo.getBranch());
-        Utils.writeContents(CURRENT_COMMIT.file(), commitToResetTo.getHash());
-        Utils.writeContents(new File(BRANCHES_DIR + "/"
-                + commitToResetTo.getBranch()), commitToResetTo.getHash());
-        HashMap<String, String> checkOutBlobs = commitToResetTo.getBlobs();
-        for (String fileName : checkOutBlobs.keySet()) {
-            checkoutFileFromCommit(commitID, fileName);
-        }
+        new RefTransaction()
+                .update(HEAD_FILE.file(), null, commitToResetTo.getBranch())
+                .update(CURRENT_COMMIT.file(), currCommit.getHash(),
+                        commitToResetTo.getHash())
+                .update(new File(BRANCHES_DIR + "/"
+                        + commitToResetTo.getBranch()), null,
+                        commitToResetTo.getHash())
+                .commit();
+        checkoutTree(currCommit, commitToResetTo);
     }
     /**
      * Merges the current branch with the given branch.
      * @param branchName branch to merge with current branch.
      */
     public void merge(String branchName) {
-        if (!Utils.plainFilenamesIn(BRANCHES_DIR.file()).contains(branchName)) {
-            System.out.println(WARNING_COLOR
+        String givenHead = RefTransaction.read(new File(BRANCHES_DIR + "/"
+                + branchName));
+        if (givenHead.isEmpty()) {
+            throw new GitletException(WARNING_COLOR
                     + "A branch with that name does not exist." + RESET_COLOR);
-            System.exit(0);
         }
-        Commit givenCommit = readCommitFromHash(Utils.readContentsAsString(
-                new File(BRANCHES_DIR + "/" + branchName)));
+        Commit givenCommit = readCommitFromHash(givenHead);
         Commit currCommit = getCurrCommit();
-        Utils.writeContents(new File(BRANCHES_DIR + "/"
-                + currCommit.getBranch()), currCommit.getHash());
+        new RefTransaction().update(new File(BRANCHES_DIR + "/"
+                + currCommit.getBranch()), null, currCommit.getHash())
+                .commit();
         Commit splitPoint = getSplit(givenCommit);
-        HashMap<String, String> currBlobs = currCommit.getBlobs();
-        HashMap<String, String> givenBlobs = givenCommit.getBlobs();
-        HashMap<String, String> splitBlobs = splitPoint.getBlobs();
-        HashSet<String> allFileNames = new HashSet<String>(currBlobs.keySet());
-        allFileNames.addAll(givenBlobs.keySet());
-        allFileNames.addAll(splitBlobs.keySet());
-        mergeFailureCaseChecker(branchName, currCommit, givenCommit,
-                splitPoint);
+        ObjectStore store = ObjectStore.local();
+        TreeSet<String> allFileNames = new TreeSet<String>(Tree.diff(store,
+                splitPoint.getTreeHash(), currCommit.getTreeHash()).keySet());
+        allFileNames.addAll(Tree.diff(store, splitPoint.getTreeHash(),
+                givenCommit.getTreeHash()).keySet());
+        HashMap<String, String> currBlobs = Tree.select(store,
+                currCommit.getTreeHash(), allFileNames);
+        HashMap<String, String> givenBlobs = Tree.select(store,
+                givenCommit.getTreeHash(), allFileNames);
+        HashMap<String, String> splitBlobs = Tree.select(store,
+                splitPoint.getTreeHash(), allFileNames);
+        if (mergeFailureCaseChecker(branchName, currCommit, givenCommit)) {
+            return;
+        }
         secondaryFailureCaseChecker(allFileNames, givenBlobs, currBlobs,
                 splitBlobs, currCommit, givenCommit);
         String givenBranch = givenCommit.getBranch();
         String currBranch = currCommit.getBranch();
-        Utils.writeContents(CURRENT_COMMIT.file(), currCommit.getHash());
-        Utils.writeContents(HEAD_FILE.file(), currCommit.getBranch());
+        new RefTransaction()
+                .update(CURRENT_COMMIT.file(), currCommit.getHash(),
+                        currCommit.getHash())
+                .update(HEAD_FILE.file(), null, currCommit.getBranch())
+                .commit();
         commit("Merged " + givenBranch + " into " + currBranch
                 + ".", getCurrCommit().getHash(), givenCommit.getHash());
     }
@@ -647,65 +784,56 @@ public class Repo {
      * @param branchName name of branch being merged
      * @param currCommit commit of current branch
      * @param givenCommit commit of branch being merged
-     * @param splitPoint most recent common ancestor
+     * @return whether the current branch was fast-forwarded to the given
+     * branch, which leaves nothing to merge
      */
-    private void mergeFailureCaseChecker(String branchName, Commit currCommit,
-                                         Commit givenCommit,
-                                         Commit splitPoint) {
+    private boolean mergeFailureCaseChecker(String branchName,
+                                            Commit currCommit,
+                                            Commit givenCommit) {
+        CommitGraph graph = CommitGraph.get();
         if (Utils.readContentsAsString(HEAD_FILE.file()).equals(branchName)) {
-            System.out.println(WARNING_COLOR
+            throw new GitletException(WARNING_COLOR
                     + "Cannot merge a branch with itself." + RESET_COLOR);
-            System.exit(0);
         }
-        if (currCommit.getBranch().equals(givenCommit.getBranch())
-                && currCommit.getBranch().equals(Utils.readContentsAsString(
-                HEAD_FILE.file()))) {
-            System.out.println(WARNING_COLOR
+        if (graph.isAncestor(givenCommit.getHash(), currCommit.getHash())) {
+            throw new GitletException(WARNING_COLOR
                     + "Given branch is an ancestor of the current branch."
                     + RESET_COLOR);
-            System.exit(0);
         }
         if (stage.getMarkedForAddition().size() > 0
                 || stage.getMarkedForRemoval().size() > 0) {
-            System.out.println(WARNING_COLOR + "You have uncommitted changes."
-                    + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(WARNING_COLOR
+                    + "You have uncommitted changes." + RESET_COLOR);
         }
-        for (String fileName : Utils.plainFilenamesIn(USER_DIR.file())) {
-            if (fileName.length() > 4 && fileName.endsWith(".txt")
-                    && !currCommit.containsFile(fileName)) {
-                System.out.println(WARNING_COLOR + "There is an untracked "
+        for (String fileName : WorkingTree.files()) {
+            if (!currCommit.containsFile(fileName)) {
+                throw new GitletException(WARNING_COLOR
+                        + "There is an untracked "
                         + "file in the way; delete it, or add and commit it"
                         + " first." + RESET_COLOR);
-                System.exit(0);
             }
         }
         if (givenCommit == null) {
-            System.out.println("Specified branch does not exist.");
-            System.exit(0);
-        }
-        if (getCurrCommit() == givenCommit) {
-            System.out.println("Given branch is an ancestor of the current"
-                    + " branch.");
-            System.exit(0);
+            throw new GitletException("Specified branch does not exist.");
         }
-        if (splitPoint.getHash().equals(currCommit.getHash())) {
+        if (graph.isAncestor(currCommit.getHash(), givenCommit.getHash())) {
             reset(givenCommit.getHash());
             System.out.println("Current branch fast-forwarded.");
-            System.exit(0);
+            return true;
         }
+        return false;
     }
     /**
      * Checks some other failure cases for each file being iterated through in
      * the commit in Merge.
-     * @param allFileNames list of all file names being used
+     * @param allFileNames files that changed on either side since the split
      * @param givenBlobs the blobs of the given commit
      * @param currBlobs the blobs of the current commit
      * @param splitBlobs the blobs of the split commit
      * @param currCommit the commit of the current branch
      * @param givenCommit the commit of the given branch
      */
-    private void secondaryFailureCaseChecker(HashSet<String> allFileNames,
+    private void secondaryFailureCaseChecker(Set<String> allFileNames,
                                              HashMap<String, String> givenBlobs,
                                              HashMap<String, String> currBlobs,
                                              HashMap<String, String> splitBlobs,
@@ -757,9 +885,10 @@ public class Repo {
                     && givenBlobs.containsKey(fileName)) {
                 continue;
             }
-            writeConflictFile(fileName, currBlobs, givenBlobs);
-            System.out.println(WARNING_COLOR + "Encountered a merge conflict."
-                    + RESET_COLOR);
+            if (mergeFile(fileName, currBlobs, givenBlobs, splitBlobs)) {
+                System.out.println(WARNING_COLOR
+                        + "Encountered a merge conflict." + RESET_COLOR);
+            }
         }
     }
     /**
@@ -768,70 +897,63 @@ public class Repo {
      * @return the commit of the split point
      */
     private Commit getSplit(Commit givenBranchCommit) {
-        TreeSet<String> currAncestors =
-                new TreeSet<String>(getCurrCommit().getAncestors());
-        TreeSet<String> givenAncestors =
-                new TreeSet<String>(givenBranchCommit.getAncestors());
-        ArrayList<String> commonAncestors = new ArrayList<String>();
-        for (String hash : currAncestors) {
-            if (givenAncestors.contains(hash)) {
-                commonAncestors.add(hash);
-            }
-        }
-        TreeMap<String, Boolean> isMarked = new TreeMap<String, Boolean>();
-        for (String fileName : Utils.plainFilenamesIn(COMMITS_DIR.file())) {
-            isMarked.put(fileName, false);
-        }
-        ArrayDeque<Commit> queue = new ArrayDeque<Commit>();
-        queue.add(getCurrCommit());
-        isMarked.put(getCurrCommit().getHash(), true);
-        while (!queue.isEmpty()) {
-            Commit removed = queue.remove();
-            if (commonAncestors.contains(removed.getHash())) {
-                return removed;
-            }
-            if (removed.getParentHash() != null
-                    && !isMarked.get(removed.getParentHash())) {
-                queue.add(readCommitFromHash(removed.getParentHash()));
-                isMarked.put(readCommitFromHash(removed.getParentHash()).
-                        getHash(), true);
-            }
-            if (removed.getSecondParentHash() != null
-                    && !isMarked.get(removed.getSecondParentHash())) {
-                queue.add(readCommitFromHash(removed.getSecondParentHash()));
-                isMarked.put(readCommitFromHash(removed.getSecondParentHash()).
-                        getHash(), true);
-            }
+        String split = CommitGraph.get().splitPoint(getCurrCommit().getHash(),
+                givenBranchCommit.getHash());
+        if (split == null) {
+            return new Commit();
         }
-        return new Commit();
+        return readCommitFromHash(split);
     }
     /**
-     * Writes a conflict to a conflicting file.
+     * Merges the two sides of a file both changed since the split point, line
+     * by line against the split point's version, and stages the result.
+     * Lines only one side changed are taken from that side, and only the
+     * regions both changed differently are marked as conflicts. The current
+     * side is the current commit's blob, not the working file, so that
+     * changes not staged are never merged in. A side without the file
+     * counts as empty. The result is streamed to a temporary file that is
+     * then moved over the working file.
      * @param fileName name of file to write to
      * @param currBlobs the blobs in the current commit
      * @param givenBlobs the blobs in the given commit
+     * @param splitBlobs the blobs in the split commit
+     * @return whether any region of the file conflicted
      */
-    private void writeConflictFile(String fileName,
-                                   HashMap<String, String> currBlobs,
-                                   HashMap<String, String> givenBlobs) {
-        String newContents = "";
-        newContents += "<<<<<<< HEAD\n";
-        if (currBlobs.containsKey(fileName)) {
-            newContents += (Utils.readContentsAsString(
-                    new File(USER_DIR + "/" + fileName)));
-        }
-        newContents += "=======\n";
-        if (givenBlobs.containsKey(fileName)
-                && givenBlobs.get(fileName) != null) {
-            newContents += Utils.readContentsAsString(
-                    new File(BLOBS_DIR + "/"
-                            + givenBlobs.get(fileName)));
-        }
-        newContents += ">>>>>>>\n";
-        Utils.writeContents(new File(USER_DIR
-                + "/" + fileName), newContents);
+    private boolean mergeFile(String fileName,
+                              HashMap<String, String> currBlobs,
+                              HashMap<String, String> givenBlobs,
+                              HashMap<String, String> splitBlobs) {
+        File file = new File(USER_DIR + "/" + fileName);
+        File tmp = new File(REPO_DIR + "/" + "Conflict");
+        boolean conflicted;
+        try (OutputStream out = new BufferedOutputStream(
+                new FileOutputStream(tmp))) {
+            conflicted = LineMerge.merge(
+                    () -> openBlob(splitBlobs.get(fileName)),
+                    () -> openBlob(currBlobs.get(fileName)),
+                    () -> openBlob(givenBlobs.get(fileName)), out);
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e + RESET_COLOR);
+        }
+        file.getParentFile().mkdirs();
+        try {
+            Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e + RESET_COLOR);
+        }
         add(fileName);
         stage.write();
+        return conflicted;
+    }
+    /**
+     * Opens a blob of the local store.
+     * @param hash hash of the blob, or null
+     * @return stream of the blob's contents, empty if the hash is null
+     */
+    private static InputStream openBlob(String hash) {
+        return hash == null ? InputStream.nullInputStream()
+                : ObjectStore.local().open(ObjectStore.Kind.BLOB, hash);
     }
     /**
      * Adds a remote with the given name and directory.
@@ -840,19 +962,19 @@ public class Repo {
      */
     public void addRemote(String remoteName, String remoteDirectory) {
         if (Utils.plainFilenamesIn(REMOTE_DIR.file()).contains(remoteName)) {
-            System.out.println(ERROR_COLOR
+            throw new GitletException(ERROR_COLOR
                     + "A remote with that name already exists." + RESET_COLOR);
-            System.exit(0);
         }
-        remoteDirectory = remoteDirectory.replace('/',
-                File.separatorChar);
+        if (!RemoteClient.isUrl(remoteDirectory)) {
+            remoteDirectory = remoteDirectory.replace('/',
+                    File.separatorChar);
+        }
         File remote = new File(REMOTE_DIR + "/" + remoteName);
         Utils.writeContents(remote, remoteDirectory);
         try {
             remote.createNewFile();
         } catch (IOException e) {
-            System.out.println(ERROR_COLOR.toString() + e + RESET_COLOR);
-            System.exit(0);
+            throw new GitletException(ERROR_COLOR.toString() + e + RESET_COLOR);
         }
     }
     /**
@@ -861,62 +983,353 @@ public class Repo {
      */
     public void rmRemote(String remoteName) {
         if (!Utils.plainFilenamesIn(REMOTE_DIR.file()).contains(remoteName)) {
-            System.out.println(ERROR_COLOR
+            throw new GitletException(ERROR_COLOR
                     + "A remote with that name does not exist." + RESET_COLOR);
-            System.exit(0);
         }
         new File(REMOTE_DIR + "/" + remoteName).delete();
     }
     /**
-     * Pushes the current branch to the remote at the given branch.
+     * Pushes the current branch to the remote at the given branch. Only the
+     * commits, trees and blobs the remote does not have are copied, and the
+     * remote branch is moved once they are all in place. The remote branch
+     * must not have commits the current branch lacks. A remote named by a
+     * gitlet:// URL is asked over the network which objects it has and sent
+     * the rest as one pack.
      * @param remoteName name of remote to push to
      * @param remoteBranchName branch in commit to push to
      */
     public void push(String remoteName, String remoteBranchName) {
-        if (!new File(getRemoteDirectory(remoteName)).exists()) {
-            System.out.println(ERROR_COLOR + "Remote directory not found."
-                    + RESET_COLOR);
-            System.exit(0);
-        }
-        for (String blobHash : getCurrCommit().getBlobs().values()) {
-            if (!new File(getRemoteDirectory(remoteName)
-                    + "/Blobs/" + blobHash).exists()) {
-                System.out.println(ERROR_COLOR
-                        + "Please pull down remote changes before pushing."
+        String head = getCurrCommit().getHash();
+        String location = getRemoteDirectory(remoteName);
+        if (RemoteClient.isUrl(location)) {
+            try (RemoteClient client = RemoteClient.connect(location,
+                    PackProtocol.PUSH)) {
+                checkFastForward(client.ref(remoteBranchName), head);
+                client.push(remoteBranchName, head);
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR.toString() + e
                         + RESET_COLOR);
-                System.exit(0);
             }
+            return;
+        }
+        File remoteDir = remoteRepoDir(remoteName);
+        File remoteBranch = new File(remoteDir, "Branches/"
+                + remoteBranchName);
+        String remoteHead = RefTransaction.read(remoteBranch);
+        if (!remoteHead.isEmpty()) {
+            checkFastForward(remoteHead, head);
+        }
+        Transfer transfer = Transfer.negotiate(ObjectStore.local(),
+                new ObjectStore(remoteDir), head);
+        transfer.copy();
+        transfer.writeShallow();
+        RefTransaction refs = new RefTransaction().update(remoteBranch,
+                remoteHead, head);
+        File remoteHeadFile = new File(remoteDir, HEAD_FILE.file().getName());
+        if (remoteHeadFile.isFile() && Utils.readContentsAsString(
+                remoteHeadFile).equals(remoteBranchName)) {
+            refs.update(new File(remoteDir, CURRENT_COMMIT.file().getName()),
+                    null, head);
+        }
+        refs.commit();
+    }
+    /**
+     * Checks that a push only adds commits to a remote branch.
+     * @param remoteHead hash of the remote branch's commit, or null if the
+     * remote does not have the branch
+     * @param head hash of the commit pushed
+     */
+    private static void checkFastForward(String remoteHead, String head) {
+        if (remoteHead != null && (!CommitIndex.get().contains(remoteHead)
+                || !CommitGraph.get().isAncestor(remoteHead, head))) {
+            throw new GitletException(ERROR_COLOR
+                    + "Please pull down remote changes before pushing."
+                    + RESET_COLOR);
         }
-        //TODO: implement
     }
     /**
-     * Fetches the remote branch from the specified remote.
+     * Fetches the remote branch from the specified remote into the local
+     * branch REMOTE/BRANCH. Only the commits, trees and blobs this
+     * repository does not have are copied, and the local branch is moved
+     * once they are all in place.
      * @param remoteName remote to fetch from
      * @param remoteBranchName branch to fetch
      */
     public void fetch(String remoteName, String remoteBranchName) {
-        if (!new File(getRemoteDirectory(remoteName)).exists()) {
-            System.out.println(ERROR_COLOR + "Remote directory not found."
-                    + RESET_COLOR);
-            System.exit(0);
-        }
-        if (!new File(getRemoteDirectory(remoteName)
-                + "/Branches/" + remoteBranchName).exists()) {
-            System.out.println(ERROR_COLOR
-                    + "That remote does not have that branch."
-                    + RESET_COLOR);
-            System.exit(0);
+        fetch(remoteName, remoteBranchName, 0);
+    }
+    /**
+     * Fetches the remote branch from the specified remote into the local
+     * branch REMOTE/BRANCH, copying only the commits fewer than a depth back
+     * from the branch's commit. The oldest commits copied are recorded as
+     * shallow, and history walks stop at them. Fetching a commit again
+     * without a depth fills in the history behind it. A remote named by a
+     * gitlet:// URL sends the missing objects over the network as one pack.
+     * @param remoteName remote to fetch from
+     * @param remoteBranchName branch to fetch
+     * @param depth number of commits to fetch along each path back from the
+     * branch's commit, or 0 to fetch the whole history
+     */
+    public void fetch(String remoteName, String remoteBranchName, int depth) {
+        String location = getRemoteDirectory(remoteName);
+        String remoteHead;
+        if (RemoteClient.isUrl(location)) {
+            try (RemoteClient client = RemoteClient.connect(location,
+                    PackProtocol.FETCH)) {
+                checkRemoteBranch(client.ref(remoteBranchName));
+                remoteHead = client.fetch(remoteBranchName, depth);
+            } catch (IOException e) {
+                throw new GitletException(ERROR_COLOR.toString() + e
+                        + RESET_COLOR);
+            }
+        } else {
+            File remoteDir = remoteRepoDir(remoteName);
+            File remoteBranch = new File(remoteDir, "Branches/"
+                    + remoteBranchName);
+            remoteHead = RefTransaction.read(remoteBranch);
+            checkRemoteBranch(remoteHead.isEmpty() ? null : remoteHead);
+            Transfer transfer = Transfer.negotiate(new ObjectStore(remoteDir),
+                    ObjectStore.local(), remoteHead, depth);
+            transfer.copy();
+            transfer.writeShallow();
+        }
+        new RefTransaction().update(new File(BRANCHES_DIR + "/" + remoteName
+                + "/" + remoteBranchName), null, remoteHead).commit();
+    }
+    /**
+     * Checks that a remote has the branch being fetched.
+     * @param remoteHead hash of the remote branch's commit, or null if the
+     * remote does not have the branch
+     */
+    private static void checkRemoteBranch(String remoteHead) {
+        if (remoteHead == null) {
+            throw new GitletException(ERROR_COLOR
+                    + "That remote does not have that branch." + RESET_COLOR);
         }
-        //TODO: implement
     }
     /**
-     * Pulls the remote branch from the given remote.
+     * Pulls the remote branch from the given remote, fetching it and then
+     * merging REMOTE/BRANCH into the current branch.
      * @param remoteName remote to pull from
      * @param remoteBranchName branch to pull
      */
     public void pull(String remoteName, String remoteBranchName) {
         fetch(remoteName, remoteBranchName);
-        push(remoteBranchName, remoteBranchName);
+        merge(remoteName + "/" + remoteBranchName);
+    }
+    /**
+     * Gets the .gitlet directory of a remote.
+     * @param remoteName name of the remote
+     * @return the remote's repository directory
+     */
+    private File remoteRepoDir(String remoteName) {
+        String remoteDirectory = getRemoteDirectory(remoteName);
+        if (remoteDirectory == null || !new File(remoteDirectory)
+                .isDirectory()) {
+            throw new GitletException(ERROR_COLOR
+                    + "Remote directory not found." + RESET_COLOR);
+        }
+        return new File(remoteDirectory);
+    }
+    /**
+     * Moves every loose blob, commit and tree into pack files, and rebuilds
+     * the reachability bitmaps for the tips of every branch.
+     */
+    public void repack() {
+        ObjectStore store = ObjectStore.local();
+        int numPacked = store.repack();
+        ReachabilityBitmaps.write(store,
+                ReachabilityBitmaps.tips(REPO_DIR.file()));
+        System.out.println(COMPLETION_COLOR + "Packed " + numPacked
+                + " objects." + RESET_COLOR);
+    }
+    /**
+     * Moves every branch into the packed refs file, deleting the branch
+     * files, so that a repository with many branches keeps them in one
+     * sorted file.
+     */
+    public void packRefs() {
+        int numPacked = PackedRefs.pack(REPO_DIR.file());
+        System.out.println(COMPLETION_COLOR + "Packed " + numPacked
+                + " refs." + RESET_COLOR);
+    }
+    /**
+     * Prints the branches whose names start with a prefix, including the
+     * branches fetched from remotes, with the current branch starred. Only
+     * the packed lines and branch files that could match are read.
+     * @param prefix the prefix, which is empty to print every branch
+     */
+    public void branches(String prefix) {
+        String currBranch = Utils.readContentsAsString(HEAD_FILE.file());
+        for (String branch : PackedRefs.branches(REPO_DIR.file(), prefix)
+                .keySet()) {
+            if (branch.equals(currBranch)) {
+                System.out.println(COMPLETION_COLOR + "*" + branch
+                        + RESET_COLOR);
+            } else {
+                System.out.println(branch);
+            }
+        }
+    }
+    /**
+     * Deletes the objects that no branch, the current commit or the staging
+     * area reaches and that were written more than a grace period ago, then
+     * prints how many were deleted and how many bytes that freed. The mark
+     * phase takes the reachable objects from the reachability bitmaps, and
+     * reads the trees past them one level at a time in parallel; the sweep
+     * goes through the loose objects and then one pack at a time. The grace
+     * period keeps the objects of a command still running, such as a blob
+     * added but not yet staged. The journal is checkpointed before the
+     * grace period starts, so that recovery does not write back what gc
+     * deletes.
+     * @param graceSeconds grace period in seconds
+     */
+    public void gc(long graceSeconds) {
+        Journal.checkpoint(REPO_DIR.file());
+        long cutoff = System.currentTimeMillis() - graceSeconds * 1000;
+        ObjectStore store = ObjectStore.local();
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.open(store);
+        RoaringBitmap marked = mark(bitmaps);
+        int[] removed = new int[ObjectStore.Kind.values().length];
+        long freed = store.prune(cutoff, (kind, hash) -> {
+            if (marked.contains(bitmaps.position(kind, hash))) {
+                return false;
+            }
+            removed[kind.ordinal()] += 1;
+            return true;
+        });
+        if (removed[ObjectStore.Kind.COMMIT.ordinal()] > 0) {
+            CommitIndex.rebuild();
+            CommitGraph.rebuild();
+        }
+        int total = 0;
+        for (int count : removed) {
+            total += count;
+        }
+        System.out.println(COMPLETION_COLOR + "Removed " + total
+                + " objects and freed " + freed + " bytes." + RESET_COLOR);
+    }
+    /**
+     * Finds the objects reachable from any branch, the current commit or the
+     * staging area.
+     * @param bitmaps the reachability bitmaps of the local store
+     * @return positions of the reachable objects
+     */
+    private RoaringBitmap mark(ReachabilityBitmaps bitmaps) {
+        RoaringBitmap result = bitmaps.reachable(
+                ReachabilityBitmaps.tips(REPO_DIR.file()));
+        for (String blob : stage.getMarkedForAddition().values()) {
+            result.add(bitmaps.position(ObjectStore.Kind.BLOB, blob));
+        }
+        return result;
+    }
+    /**
+     * Prints the number of commits, trees and blobs in the repository and
+     * how many of each are not reachable from any branch, the current commit
+     * or the staging area, found as the difference of the bitmap of every
+     * object in the store and the bitmap of the reachable ones.
+     */
+    public void countObjects() {
+        ObjectStore store = ObjectStore.local();
+        ReachabilityBitmaps bitmaps = ReachabilityBitmaps.open(store);
+        RoaringBitmap reachable = mark(bitmaps);
+        RoaringBitmap stored = new RoaringBitmap();
+        for (ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            for (String hash : store.list(kind)) {
+                stored.add(bitmaps.position(kind, hash));
+            }
+        }
+        int[] counts = new int[ObjectStore.Kind.values().length];
+        int[] unreachable = new int[counts.length];
+        stored.forEach(position ->
+                counts[bitmaps.kind(position).ordinal()] += 1);
+        stored.andNot(reachable).forEach(position ->
+                unreachable[bitmaps.kind(position).ordinal()] += 1);
+        for (ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            System.out.println(kind.dirName().toLowerCase() + ": "
+                    + counts[kind.ordinal()] + ", "
+                    + unreachable[kind.ordinal()] + " unreachable");
+        }
+    }
+    /**
+     * Rewrites every commit still stored with Java serialization in the
+     * current commit format. Rewritten commits get new hashes, so their
+     * children are rewritten to point at them, and the branches and current
+     * commit are moved to the new hashes.
+     */
+    public void migrate() {
+        ObjectStore store = ObjectStore.local();
+        HashMap<String, String> renamed = new HashMap<String, String>();
+        HashSet<String> legacy = new HashSet<String>();
+        for (String hash : store.list(ObjectStore.Kind.COMMIT)) {
+            if (!Commit.isEncoded(store.read(ObjectStore.Kind.COMMIT, hash))) {
+                legacy.add(hash);
+            }
+        }
+        for (String hash : legacy) {
+            ArrayDeque<String> pending = new ArrayDeque<String>();
+            pending.push(hash);
+            while (!pending.isEmpty()) {
+                String next = pending.peek();
+                if (renamed.containsKey(next)) {
+                    pending.pop();
+                    continue;
+                }
+                Commit commit = store.readCommit(next);
+                String first = commit.getParentHash();
+                String second = commit.getSecondParentHash();
+                if (first != null && legacy.contains(first)
+                        && !renamed.containsKey(first)) {
+                    pending.push(first);
+                } else if (second != null && legacy.contains(second)
+                        && !renamed.containsKey(second)) {
+                    pending.push(second);
+                } else {
+                    Commit rewritten = commit.withParents(
+                            renamed.getOrDefault(first, first),
+                            renamed.getOrDefault(second, second));
+                    renamed.put(next, store.writeCommit(rewritten));
+                    pending.pop();
+                }
+            }
+        }
+        RefTransaction refs = new RefTransaction();
+        for (String branch : branchNames()) {
+            File branchFile = new File(BRANCHES_DIR + "/" + branch);
+            String head = RefTransaction.read(branchFile);
+            if (renamed.containsKey(head)) {
+                refs.update(branchFile, head, renamed.get(head));
+            }
+        }
+        String current = Utils.readContentsAsString(CURRENT_COMMIT.file());
+        if (renamed.containsKey(current)) {
+            refs.update(CURRENT_COMMIT.file(), current, renamed.get(current));
+        }
+        refs.commit();
+        store.delete(ObjectStore.Kind.COMMIT, legacy);
+        CommitIndex.rebuild();
+        CommitGraph.rebuild();
+        System.out.println(COMPLETION_COLOR + "Migrated " + renamed.size()
+                + " commits." + RESET_COLOR);
+    }
+    /**
+     * Gets the names of every branch, including the branches fetched from
+     * remotes, which are named REMOTE/BRANCH.
+     * @return names of all branches
+     */
+    private static ArrayList<String> branchNames() {
+        return new ArrayList<String>(PackedRefs.branches(REPO_DIR.file(), "")
+                .keySet());
+    }
+    /**
+     * Gets the names of the branches of this repository, leaving out the
+     * branches fetched from remotes.
+     * @return names of the local branches, sorted
+     */
+    private static ArrayList<String> localBranchNames() {
+        ArrayList<String> result = branchNames();
+        result.removeIf(name -> name.contains("/"));
+        return result;
     }
     /**
      * Gets the directory associated with the given remote name.
@@ -939,13 +1352,11 @@ public class Repo {
         if (hash == null) {
             return null;
         }
-        for (String fileName : Utils.plainFilenamesIn(COMMITS_DIR.file())) {
-            if (fileName.startsWith(hash)) {
-                return Utils.readObject(new File(COMMITS_DIR + "/"
-                        + fileName), Commit.class);
-            }
+        String fullHash = CommitIndex.get().resolve(hash);
+        if (fullHash == null) {
+            return null;
         }
-        return null;
+        return ObjectStore.local().readCommit(fullHash);
     }
     /**
      * Getter method for the current commit (from current commit file).
@@ -0,0 +1,424 @@
+package gitlet;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of non-negative ints, split like a roaring bitmap into
+ * containers of 65536 values sharing their high 16 bits. A container with
+ * few values keeps them as a sorted array, and a fuller one as a bitmap of
+ * 1024 longs, so both sparse and dense sets stay small and the set
+ * operations work a container at a time.
+ * @author Connor Bernard
+ */
+public class RoaringBitmap {
+    /**
+     * Largest number of values a container keeps as an array.
+     */
+    private static final int MAX_ARRAY = 4096;
+    /**
+     * Number of longs in a container kept as a bitmap.
+     */
+    private static final int BITMAP_LONGS = (1 << 16) / Long.SIZE;
+    /**
+     * The values of a bitmap sharing their high 16 bits.
+     */
+    private static class Container {
+        /**
+         * The low 16 bits of each value, sorted, or null if the container
+         * is a bitmap.
+         */
+        private char[] array;
+        /**
+         * The bitmap of the low 16 bits of the values, or null if the
+         * container is an array.
+         */
+        private long[] bits;
+        /**
+         * Number of values in the container.
+         */
+        private int cardinality;
+        /**
+         * Creates an array container.
+         * @param values the low 16 bits of the values, sorted, with room
+         * to spare
+         * @param count number of values
+         */
+        Container(char[] values, int count) {
+            array = values;
+            cardinality = count;
+        }
+        /**
+         * Creates a bitmap container.
+         * @param words the bitmap
+         * @param count number of bits set
+         */
+        Container(long[] words, int count) {
+            bits = words;
+            cardinality = count;
+        }
+        /**
+         * Copies this container.
+         * @return the copy
+         */
+        Container copy() {
+            return array != null
+                    ? new Container(Arrays.copyOf(array, cardinality),
+                            cardinality)
+                    : new Container(bits.clone(), cardinality);
+        }
+        /**
+         * Checks whether this container has a value.
+         * @param low the value's low 16 bits
+         * @return whether it is in this container
+         */
+        boolean contains(char low) {
+            if (array != null) {
+                return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+            }
+            return (bits[low >>> 6] & (1L << low)) != 0;
+        }
+        /**
+         * Adds a value, turning this container into a bitmap once it holds
+         * too many values for an array.
+         * @param low the value's low 16 bits
+         */
+        void add(char low) {
+            if (array == null) {
+                long bit = 1L << low;
+                if ((bits[low >>> 6] & bit) == 0) {
+                    bits[low >>> 6] |= bit;
+                    cardinality += 1;
+                }
+                return;
+            }
+            int at = Arrays.binarySearch(array, 0, cardinality, low);
+            if (at >= 0) {
+                return;
+            }
+            if (cardinality == MAX_ARRAY) {
+                bits = bitmap();
+                array = null;
+                add(low);
+                return;
+            }
+            at = -at - 1;
+            if (cardinality == array.length) {
+                array = Arrays.copyOf(array, Math.min(MAX_ARRAY,
+                        Math.max(4, 2 * cardinality)));
+            }
+            System.arraycopy(array, at, array, at + 1, cardinality - at);
+            array[at] = low;
+            cardinality += 1;
+        }
+        /**
+         * Gets the values of this container as a bitmap.
+         * @return a bitmap of the values, which may be this container's own
+         */
+        long[] bitmap() {
+            if (bits != null) {
+                return bits;
+            }
+            long[] result = new long[BITMAP_LONGS];
+            for (int i = 0; i < cardinality; i += 1) {
+                result[array[i] >>> 6] |= 1L << array[i];
+            }
+            return result;
+        }
+        /**
+         * Makes a container of the values of a bitmap, as an array if there
+         * are few enough.
+         * @param words the bitmap
+         * @return the container, or null if the bitmap is empty
+         */
+        static Container of(long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            if (count == 0) {
+                return null;
+            } else if (count > MAX_ARRAY) {
+                return new Container(words, count);
+            }
+            char[] values = new char[count];
+            int size = 0;
+            for (int i = 0; i < words.length; i += 1) {
+                for (long word = words[i]; word != 0; word &= word - 1) {
+                    values[size] = (char) (i * Long.SIZE
+                            + Long.numberOfTrailingZeros(word));
+                    size += 1;
+                }
+            }
+            return new Container(values, count);
+        }
+        /**
+         * Gets the values in this container or another.
+         * @param other the other container
+         * @return their union
+         */
+        Container or(Container other) {
+            long[] result = bitmap().clone();
+            long[] theirs = other.bitmap();
+            for (int i = 0; i < BITMAP_LONGS; i += 1) {
+                result[i] |= theirs[i];
+            }
+            return of(result);
+        }
+        /**
+         * Gets the values in both this container and another.
+         * @param other the other container
+         * @return their intersection, or null if it is empty
+         */
+        Container and(Container other) {
+            if (array != null || other.array != null) {
+                Container small = array != null ? this : other;
+                Container large = small == this ? other : this;
+                char[] values = new char[small.cardinality];
+                int count = 0;
+                for (int i = 0; i < small.cardinality; i += 1) {
+                    if (large.contains(small.array[i])) {
+                        values[count] = small.array[i];
+                        count += 1;
+                    }
+                }
+                return count == 0 ? null : new Container(values, count);
+            }
+            long[] result = bits.clone();
+            for (int i = 0; i < BITMAP_LONGS; i += 1) {
+                result[i] &= other.bits[i];
+            }
+            return of(result);
+        }
+        /**
+         * Gets the values in this container but not another.
+         * @param other the other container
+         * @return their difference, or null if it is empty
+         */
+        Container andNot(Container other) {
+            if (array != null) {
+                char[] values = new char[cardinality];
+                int count = 0;
+                for (int i = 0; i < cardinality; i += 1) {
+                    if (!other.contains(array[i])) {
+                        values[count] = array[i];
+                        count += 1;
+                    }
+                }
+                return count == 0 ? null : new Container(values, count);
+            }
+            long[] result = bits.clone();
+            long[] theirs = other.bitmap();
+            for (int i = 0; i < BITMAP_LONGS; i += 1) {
+                result[i] &= ~theirs[i];
+            }
+            return of(result);
+        }
+        /**
+         * Passes every value in this container to a consumer, in order.
+         * @param high the high 16 bits of the values
+         * @param action the consumer
+         */
+        void forEach(int high, IntConsumer action) {
+            if (array != null) {
+                for (int i = 0; i < cardinality; i += 1) {
+                    action.accept(high | array[i]);
+                }
+                return;
+            }
+            for (int i = 0; i < BITMAP_LONGS; i += 1) {
+                for (long word = bits[i]; word != 0; word &= word - 1) {
+                    action.accept(high | i * Long.SIZE
+                            + Long.numberOfTrailingZeros(word));
+                }
+            }
+        }
+    }
+    /**
+     * The high 16 bits shared by the values of each container, sorted.
+     */
+    private char[] keys = new char[4];
+    /**
+     * The containers, in the order of their keys.
+     */
+    private Container[] containers = new Container[4];
+    /**
+     * Number of containers.
+     */
+    private int size;
+    /**
+     * Checks whether this set has a value.
+     * @param value the value
+     * @return whether it is in this set
+     */
+    public boolean contains(int value) {
+        int at = find((char) (value >>> 16));
+        return at >= 0 && containers[at].contains((char) value);
+    }
+    /**
+     * Adds a value to this set.
+     * @param value the value, which must not be negative
+     */
+    public void add(int value) {
+        char key = (char) (value >>> 16);
+        int at = find(key);
+        if (at < 0) {
+            at = -at - 1;
+            insert(at, key, new Container(new char[4], 0));
+        }
+        containers[at].add((char) value);
+    }
+    /**
+     * Gets the number of values in this set.
+     * @return the number of values
+     */
+    public int cardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i += 1) {
+            result += containers[i].cardinality;
+        }
+        return result;
+    }
+    /**
+     * Adds every value of another set to this one.
+     * @param other the other set
+     */
+    public void or(RoaringBitmap other) {
+        for (int i = 0; i < other.size; i += 1) {
+            int at = find(other.keys[i]);
+            if (at < 0) {
+                insert(-at - 1, other.keys[i], other.containers[i].copy());
+            } else {
+                containers[at] = containers[at].or(other.containers[i]);
+            }
+        }
+    }
+    /**
+     * Gets the values in both this set and another.
+     * @param other the other set
+     * @return a new set of their intersection
+     */
+    public RoaringBitmap and(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (int i = 0, j = 0; i < size && j < other.size;) {
+            if (keys[i] < other.keys[j]) {
+                i += 1;
+            } else if (keys[i] > other.keys[j]) {
+                j += 1;
+            } else {
+                Container both = containers[i].and(other.containers[j]);
+                if (both != null) {
+                    result.insert(result.size, keys[i], both);
+                }
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+    /**
+     * Gets the values in this set but not another.
+     * @param other the other set
+     * @return a new set of their difference
+     */
+    public RoaringBitmap andNot(RoaringBitmap other) {
+        RoaringBitmap result = new RoaringBitmap();
+        for (int i = 0; i < size; i += 1) {
+            int at = other.find(keys[i]);
+            Container left = at < 0 ? containers[i].copy()
+                    : containers[i].andNot(other.containers[at]);
+            if (left != null) {
+                result.insert(result.size, keys[i], left);
+            }
+        }
+        return result;
+    }
+    /**
+     * Passes every value in this set to a consumer, in increasing order.
+     * @param action the consumer
+     */
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i += 1) {
+            containers[i].forEach(keys[i] << 16, action);
+        }
+    }
+    /**
+     * Writes this set: the number of containers, then each container's key
+     * and number of values, then its values, as an array of chars when
+     * there are at most MAX_ARRAY of them and as a bitmap otherwise.
+     * @param out stream to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i += 1) {
+            Container container = containers[i];
+            out.writeChar(keys[i]);
+            out.writeInt(container.cardinality);
+            if (container.array != null) {
+                for (int j = 0; j < container.cardinality; j += 1) {
+                    out.writeChar(container.array[j]);
+                }
+            } else {
+                for (long word : container.bits) {
+                    out.writeLong(word);
+                }
+            }
+        }
+    }
+    /**
+     * Reads a set written by write.
+     * @param in buffer positioned at the set
+     * @return the set
+     */
+    public static RoaringBitmap read(ByteBuffer in) {
+        RoaringBitmap result = new RoaringBitmap();
+        int numContainers = in.getInt();
+        for (int i = 0; i < numContainers; i += 1) {
+            char key = in.getChar();
+            int count = in.getInt();
+            Container container;
+            if (count <= MAX_ARRAY) {
+                char[] values = new char[count];
+                in.asCharBuffer().get(values);
+                in.position(in.position() + count * Character.BYTES);
+                container = new Container(values, count);
+            } else {
+                long[] words = new long[BITMAP_LONGS];
+                in.asLongBuffer().get(words);
+                in.position(in.position() + BITMAP_LONGS * Long.BYTES);
+                container = new Container(words, count);
+            }
+            result.insert(result.size, key, container);
+        }
+        return result;
+    }
+    /**
+     * Finds a container by binary search over the keys.
+     * @param key the container's key
+     * @return its position, or -(insertion point) - 1 if there is none
+     */
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+    /**
+     * Inserts a container.
+     * @param at position to insert it at
+     * @param key the container's key
+     * @param container the container
+     */
+    private void insert(int at, char key, Container container) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            containers = Arrays.copyOf(containers, 2 * size);
+        }
+        System.arraycopy(keys, at, keys, at + 1, size - at);
+        System.arraycopy(containers, at, containers, at + 1, size - at);
+        keys[at] = key;
+        containers[at] = container;
+        size += 1;
+    }
+}
@@ -0,0 +1,284 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static gitlet.Directories.COMMIT_INDEX;
+import static gitlet.Directories.CURRENT_COMMIT;
+import static gitlet.Directories.HEAD_FILE;
+import static gitlet.TextColors.COMPLETION_COLOR;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * Serves the repositories below the directory it is started in over TCP,
+ * speaking the PackProtocol, so that they can be fetched from and pushed to
+ * with remotes of the form gitlet://HOST:PORT/PATH. PATH is the path of a
+ * repository or its .gitlet directory, relative to that directory.
+ * <p>
+ * The server listens on the loopback address unless the gitlet.serve.address
+ * system property names another. Connections are handled one at a time, so
+ * a push never races another push or fetch of the same branch.
+ * @author Connor Bernard
+ */
+public class Server {
+    /**
+     * Name of the system property giving the address to listen on.
+     */
+    private static final String ADDRESS_PROPERTY = "gitlet.serve.address";
+    /**
+     * Number of milliseconds a connection may go without sending anything
+     * before it is dropped.
+     */
+    static final int TIMEOUT_MILLIS = 5 * 60 * 1000;
+    /**
+     * Size of the buffers of each connection.
+     */
+    static final int BUFFER_SIZE = 1 << 16;
+    /**
+     * Serves the repositories below the current directory until killed.
+     * @param portOperand port to listen on, or null for the default port; 0
+     * picks a free port, which is printed
+     */
+    public static void serve(String portOperand) {
+        int port = PackProtocol.DEFAULT_PORT;
+        if (portOperand != null) {
+            try {
+                port = Integer.parseInt(portOperand);
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+        if (port < 0 || port > 0xffff) {
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                    + RESET_COLOR);
+        }
+        String address = System.getProperty(ADDRESS_PROPERTY);
+        try (ServerSocket server = new ServerSocket(port, 0,
+                address == null ? InetAddress.getLoopbackAddress()
+                        : InetAddress.getByName(address))) {
+            File root = new File(".").getCanonicalFile();
+            System.out.println(COMPLETION_COLOR + "Serving " + root + " on "
+                    + server.getInetAddress().getHostAddress() + ":"
+                    + server.getLocalPort() + RESET_COLOR);
+            System.out.flush();
+            while (true) {
+                try (Socket client = server.accept()) {
+                    handle(client, root);
+                }
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Handles one connection. A request that fails is answered with its
+     * error, and a connection that fails is dropped. An unexpected failure
+     * is also logged, in one line, on the standard error.
+     * @param client connection to the client
+     * @param root directory the repositories are served from
+     */
+    private static void handle(Socket client, File root) {
+        try {
+            client.setSoTimeout(TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    client.getInputStream(), BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(client.getOutputStream(),
+                            BUFFER_SIZE));
+            try {
+                if (!in.readUTF().equals(PackProtocol.VERSION)) {
+                    throw new GitletException(ERROR_COLOR + "Remote speaks"
+                            + " another protocol version." + RESET_COLOR);
+                }
+                String command = in.readUTF();
+                File repoDir = repoDir(root, in.readUTF());
+                if (repoDir == null) {
+                    throw new GitletException(ERROR_COLOR
+                            + "Remote directory not found." + RESET_COLOR);
+                }
+                advertise(out, repoDir);
+                if (command.equals(PackProtocol.FETCH)) {
+                    serveFetch(in, out, repoDir);
+                } else if (command.equals(PackProtocol.PUSH)) {
+                    servePush(in, out, repoDir);
+                } else {
+                    throw PackProtocol.badMessage();
+                }
+            } catch (GitletException e) {
+                PackProtocol.sendError(out, e.getMessage());
+            } catch (RuntimeException e) {
+                System.err.println(ERROR_COLOR + "Request from "
+                        + client.getRemoteSocketAddress() + " failed: " + e
+                        + RESET_COLOR);
+                PackProtocol.sendError(out, ERROR_COLOR + "Remote failed: "
+                        + e + RESET_COLOR);
+            }
+        } catch (IOException e) {
+            return;
+        }
+    }
+    /**
+     * Finds the repository a client asked for.
+     * @param root directory the repositories are served from
+     * @param path path of the repository or its .gitlet directory, relative
+     * to the root
+     * @return the repository's .gitlet directory, or null if the path does
+     * not name a repository below the root
+     * @throws IOException if the path cannot be resolved
+     */
+    private static File repoDir(File root, String path) throws IOException {
+        File dir = new File(root, path).getCanonicalFile();
+        if (!dir.toPath().startsWith(root.toPath())) {
+            return null;
+        }
+        File gitletDir = new File(dir, ".gitlet");
+        if (gitletDir.isDirectory()) {
+            dir = gitletDir;
+        }
+        return new File(dir, "Branches").isDirectory() ? dir : null;
+    }
+    /**
+     * Sends the OK status and the refs of a repository: its branches and
+     * their commits, its current branch and its shallow commits.
+     * @param out stream to the client
+     * @param repoDir the repository's .gitlet directory
+     * @throws IOException if the connection fails
+     */
+    private static void advertise(DataOutputStream out, File repoDir)
+            throws IOException {
+        TreeMap<String, String> branches = PackedRefs.branches(repoDir, "");
+        branches.keySet().removeIf(name -> name.contains("/"));
+        out.writeByte(PackProtocol.OK);
+        out.writeInt(branches.size());
+        for (Map.Entry<String, String> branch : branches.entrySet()) {
+            out.writeUTF(branch.getKey());
+            PackProtocol.writeHash(out, branch.getValue());
+        }
+        File headFile = new File(repoDir, HEAD_FILE.file().getName());
+        out.writeUTF(headFile.isFile()
+                ? Utils.readContentsAsString(headFile) : "");
+        PackProtocol.writeHashes(out, Shallow.read(repoDir));
+        out.flush();
+    }
+    /**
+     * Serves a fetch: finds what the client is missing of a branch by
+     * asking it, and sends it as one pack.
+     * @param in stream from the client
+     * @param out stream to the client
+     * @param repoDir the repository's .gitlet directory
+     * @throws IOException if the connection fails
+     */
+    private static void serveFetch(DataInputStream in, DataOutputStream out,
+                                   File repoDir) throws IOException {
+        File ref = branchFile(repoDir, in.readUTF());
+        int depth = Math.max(0, in.readInt());
+        TreeSet<String> shallow = new TreeSet<String>(
+                PackProtocol.readHashes(in));
+        String tip = ref == null ? "" : RefTransaction.read(ref);
+        if (tip.isEmpty()) {
+            throw new GitletException(ERROR_COLOR
+                    + "That remote does not have that branch." + RESET_COLOR);
+        }
+        Transfer transfer = Transfer.negotiate(new ObjectStore(repoDir),
+                new PackProtocol.Peer(in, out, shallow,
+                        Collections.<String>emptyList()), tip, depth);
+        out.writeByte(PackProtocol.PACK);
+        PackProtocol.writeHash(out, tip);
+        transfer.send(out);
+    }
+    /**
+     * Serves a push: answers which objects the repository has, receives the
+     * client's pack, and moves the branch to the commit sent if the branch
+     * is still where the client saw it. The repository's commit index does
+     * not see the new pack, so it is deleted to be rebuilt. The push is one
+     * journal group, made durable before the client is told it succeeded.
+     * @param in stream from the client
+     * @param out stream to the client
+     * @param repoDir the repository's .gitlet directory
+     * @throws IOException if the connection fails
+     */
+    private static void servePush(DataInputStream in, DataOutputStream out,
+                                  File repoDir) throws IOException {
+        File ref = branchFile(repoDir, in.readUTF());
+        String expected = in.readUTF();
+        if (ref == null) {
+            throw new GitletException(ERROR_COLOR + "Incorrect operands"
+                    + RESET_COLOR);
+        }
+        checkUnmoved(ref, expected);
+        out.writeByte(PackProtocol.OK);
+        out.flush();
+        Journal.begin(repoDir);
+        try {
+            ObjectStore store = new ObjectStore(repoDir);
+            PackProtocol.answer(in, out, store);
+            String tip = PackProtocol.readHash(in);
+            TreeSet<String> before = Shallow.read(repoDir);
+            TreeSet<String> after = PackProtocol.receive(in, store, false);
+            if (!store.contains(ObjectStore.Kind.COMMIT, tip)) {
+                throw new GitletException(ERROR_COLOR + "Missing commit " + tip
+                        + "." + RESET_COLOR);
+            }
+            Shallow.write(repoDir, before, after);
+            new File(repoDir, COMMIT_INDEX.file().getName()).delete();
+            checkUnmoved(ref, expected);
+            RefTransaction refs = new RefTransaction().update(ref, expected,
+                    tip);
+            File headFile = new File(repoDir, HEAD_FILE.file().getName());
+            if (headFile.isFile() && new File(repoDir, "Branches/"
+                    + Utils.readContentsAsString(headFile)).equals(ref)) {
+                refs.update(new File(repoDir, CURRENT_COMMIT.file().getName()),
+                        null, tip);
+            }
+            refs.commit();
+        } finally {
+            Journal.end();
+        }
+        out.writeByte(PackProtocol.OK);
+        out.flush();
+    }
+    /**
+     * Checks that a branch still has the commit a client last saw on it.
+     * @param ref the branch's file
+     * @param expected hash the client saw, or an empty string if the branch
+     * did not exist
+     */
+    private static void checkUnmoved(File ref, String expected) {
+        if (!RefTransaction.read(ref).equals(expected)) {
+            throw new GitletException(ERROR_COLOR
+                    + "Please pull down remote changes before pushing."
+                    + RESET_COLOR);
+        }
+    }
+    /**
+     * Gets the file of a branch a client named.
+     * @param repoDir the repository's .gitlet directory
+     * @param name name of the branch
+     * @return the branch's file, or null if the name could not be a branch
+     */
+    private static File branchFile(File repoDir, String name) {
+        if (name.isEmpty() || name.endsWith(".lock")) {
+            return null;
+        }
+        for (String part : name.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")
+                    || part.contains("\\")) {
+                return null;
+            }
+        }
+        return new File(repoDir, "Branches/" + name);
+    }
+}
@@ -0,0 +1,82 @@
+package gitlet;
+
+import java.io.File;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static gitlet.Directories.COMMIT_GRAPH;
+
+/**
+ * The shallow file of a repository, listing the commits whose parents were
+ * not fetched, one hash per line. History walks treat these commits as if
+ * they had no parents. A repository without shallow commits has no shallow
+ * file.
+ * @author Connor Bernard
+ */
+public class Shallow {
+    /**
+     * Name of the shallow file in a .gitlet directory.
+     */
+    private static final String FILE_NAME = "shallow";
+    /**
+     * Reads the shallow commits of a repository.
+     * @param repoDir the repository's .gitlet directory
+     * @return hashes of its shallow commits
+     */
+    public static TreeSet<String> read(File repoDir) {
+        File shallowFile = new File(repoDir, FILE_NAME);
+        TreeSet<String> result = new TreeSet<String>();
+        if (shallowFile.isFile()) {
+            String contents = Utils.readContentsAsString(shallowFile);
+            for (String line : contents.split("\n")) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+    /**
+     * Replaces the shallow commits of a repository, renaming a new file over
+     * the old one, or deleting it if there are none. If a commit stops being
+     * shallow, its parents are now present, so the repository's commit graph
+     * is deleted to be rebuilt with them.
+     * @param repoDir the repository's .gitlet directory
+     * @param before the shallow commits as they were read
+     * @param after the new shallow commits
+     */
+    public static void write(File repoDir, Set<String> before,
+                             Set<String> after) {
+        if (before.equals(after)) {
+            return;
+        }
+        LockFile lock = LockFile.acquire(new File(repoDir, FILE_NAME));
+        if (after.isEmpty()) {
+            lock.delete();
+        } else {
+            StringBuilder contents = new StringBuilder();
+            for (String hash : new TreeSet<String>(after)) {
+                contents.append(hash).append('\n');
+            }
+            lock.commit(contents.toString());
+        }
+        if (!after.containsAll(before)) {
+            new File(repoDir, COMMIT_GRAPH.file().getName()).delete();
+        }
+    }
+    /**
+     * Gets the parents of a commit as history walks see them: none for a
+     * shallow commit, and its first and second parent otherwise, either of
+     * which may be null.
+     * @param commit the commit
+     * @param shallow hashes of the shallow commits
+     * @return the first and second parent hashes
+     */
+    public static String[] parents(Commit commit, Set<String> shallow) {
+        if (shallow.contains(commit.getHash())) {
+            return new String[2];
+        }
+        return new String[] {commit.getParentHash(),
+            commit.getSecondParentHash()};
+    }
+}
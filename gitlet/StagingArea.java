@@ -12,6 +12,11 @@ import static gitlet.Directories.STAGING_FILE;
  * @author Connor Bernard
  */
 public class StagingArea implements Serializable {
+    /**
+     * Serialization version of the staging area, fixed at the one computed
+     * for its fields so stages written by earlier builds can still be read.
+     */
+    private static final long serialVersionUID = 6072911393112711156L;
     /**
      * HashMap of files marked for addition.
      */
@@ -74,10 +79,43 @@ public class StagingArea implements Serializable {
         markedForRemoval.clear();
     }
     /**
-     * Writes this staging area to the staging area file.
+     * Writes this staging area to the staging area file, under the file's
+     * lock so the write waits for any other command changing the stage.
      */
     public void write() {
-        Utils.writeObject(STAGING_FILE.file(), this);
+        try (LockFile lock = lock()) {
+            write(lock);
+        }
+    }
+    /**
+     * Takes the lock on the staging area file, which a command holds while it
+     * reads the stage, changes it and writes it back, so that changes made
+     * by commands running at the same time are not lost. The lock is taken
+     * before any ref's lock.
+     * @return the lock
+     */
+    public static LockFile lock() {
+        return LockFile.acquire(STAGING_FILE.file());
+    }
+    /**
+     * Writes this staging area to the staging area file and releases the
+     * file's lock.
+     * @param lock the lock on the staging area file
+     */
+    public void write(LockFile lock) {
+        lock.commit(Utils.serialize(this));
+    }
+    /**
+     * Makes a change to the staging area as stored in the staging area file:
+     * under the file's lock, reads the stage, makes the change and writes it.
+     * @param change the change, which works on this staging area
+     */
+    public void update(Runnable change) {
+        try (LockFile lock = lock()) {
+            read();
+            change.run();
+            write(lock);
+        }
     }
     /**
      * Updates this staging area to the staging area stored in the staging area
@@ -0,0 +1,216 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static gitlet.Directories.STAT_CACHE;
+
+/**
+ * A cache of the size, modification time, inode and hash of files in the
+ * working directory, so that a file is only hashed again when its stat data
+ * changed.
+ * <p>
+ * A file modified in the same clock tick as the cache was written may have
+ * changed after it was hashed without its stat data showing it. Such racy
+ * entries, whose modification time is not older than the cache file, are
+ * always hashed again. Lookups may be made from several threads at once.
+ * @author Connor Bernard
+ */
+public class StatCache {
+    /**
+     * Stat data and hash of one file.
+     */
+    static class Entry {
+        /**
+         * Size of the file in bytes.
+         */
+        private final long size;
+        /**
+         * Modification time of the file in nanoseconds.
+         */
+        private final long mtime;
+        /**
+         * Inode number of the file, or 0 where there are none.
+         */
+        private final long inode;
+        /**
+         * Hash of the file's contents when it had this stat data.
+         */
+        private String hash;
+        /**
+         * Creates an entry.
+         * @param fileSize size of the file
+         * @param modified modification time of the file in nanoseconds
+         * @param inodeNumber inode number of the file
+         */
+        Entry(long fileSize, long modified, long inodeNumber) {
+            size = fileSize;
+            mtime = modified;
+            inode = inodeNumber;
+        }
+        /**
+         * Checks whether this entry has the same stat data as another.
+         * @param other entry to compare with
+         * @return whether size, modification time and inode all match
+         */
+        boolean sameStat(Entry other) {
+            return size == other.size && mtime == other.mtime
+                    && inode == other.inode;
+        }
+    }
+    /**
+     * The entries of this cache by file name.
+     */
+    private final ConcurrentHashMap<String, Entry> entries =
+            new ConcurrentHashMap<String, Entry>();
+    /**
+     * Modification time, in nanoseconds, of the cache file when it was read.
+     */
+    private long cacheStamp = Long.MIN_VALUE;
+    /**
+     * Whether this cache changed since it was read.
+     */
+    private volatile boolean dirty;
+    /**
+     * Reads the stat cache of this repository, or creates an empty one.
+     * @return the stat cache
+     */
+    public static StatCache read() {
+        StatCache cache = new StatCache();
+        File file = STAT_CACHE.file();
+        if (!file.exists()) {
+            return cache;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            cache.cacheStamp = Files.getLastModifiedTime(file.toPath())
+                    .to(TimeUnit.NANOSECONDS);
+            int numEntries = in.readInt();
+            byte[] hash = new byte[Utils.UID_LENGTH / 2];
+            for (int i = 0; i < numEntries; i += 1) {
+                String fileName = in.readUTF();
+                Entry entry = new Entry(in.readLong(), in.readLong(),
+                        in.readLong());
+                in.readFully(hash);
+                entry.hash = Utils.bytesToHex(hash, 0, hash.length);
+                cache.entries.put(fileName, entry);
+            }
+        } catch (IOException e) {
+            return new StatCache();
+        }
+        return cache;
+    }
+    /**
+     * Gets the hash of a file in the working directory, hashing it only if
+     * its stat data changed or its entry is racy.
+     * @param fileName name of the file
+     * @return hash of the file's contents, or null if it does not exist
+     */
+    public String hash(String fileName) {
+        Entry current = stat(new File(fileName));
+        if (current == null) {
+            if (entries.remove(fileName) != null) {
+                dirty = true;
+            }
+            return null;
+        }
+        Entry cached = entries.get(fileName);
+        if (cached != null && cached.sameStat(current)
+                && cached.mtime < cacheStamp) {
+            return cached.hash;
+        }
+        current.hash = ObjectStore.hash(new File(fileName));
+        entries.put(fileName, current);
+        dirty = true;
+        return current.hash;
+    }
+    /**
+     * Records the hash of a file whose contents were hashed by the caller.
+     * The stat data must be taken before the file was hashed, so that a
+     * change made while hashing leaves the entry stale rather than wrong.
+     * @param fileName name of the file
+     * @param statBefore stat data from before the file was hashed, as
+     * returned by stat
+     * @param hash hash of the file's contents
+     */
+    public void record(String fileName, Entry statBefore, String hash) {
+        if (statBefore == null) {
+            return;
+        }
+        statBefore.hash = hash;
+        entries.put(fileName, statBefore);
+        dirty = true;
+    }
+    /**
+     * Writes this cache to the cache file if it changed. The file is
+     * replaced through its lock, so a reader never sees it half written; a
+     * cache that cannot be locked or written is left as it was, to be
+     * brought up to date by a later command.
+     */
+    public void write() {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(Utils.hexToBytes(entry.hash));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        try (LockFile lock = LockFile.acquire(STAT_CACHE.file())) {
+            lock.commit(bytes.toByteArray());
+        } catch (GitletException e) {
+            return;
+        }
+        dirty = false;
+    }
+    /**
+     * Gets the stat data of a file.
+     * @param file file to stat
+     * @return the file's stat data without a hash, or null if it is not a
+     * plain file
+     */
+    public static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            long inode = 0;
+            Map<String, Object> attrs;
+            try {
+                attrs = Files.readAttributes(path,
+                        "unix:ino,size,lastModifiedTime,isRegularFile");
+                inode = (Long) attrs.get("ino");
+            } catch (UnsupportedOperationException
+                     | IllegalArgumentException e) {
+                attrs = Files.readAttributes(path,
+                        "size,lastModifiedTime,isRegularFile");
+            }
+            if (!(Boolean) attrs.get("isRegularFile")) {
+                return null;
+            }
+            return new Entry((Long) attrs.get("size"),
+                    ((FileTime) attrs.get("lastModifiedTime"))
+                            .to(TimeUnit.NANOSECONDS), inode);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,769 @@
+package gitlet;
+
+import java.util.ArrayDeque;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * The objects one store is missing to have the whole history of a commit in
+ * another store, found by walking back from the commit until reaching
+ * commits the receiving store already has.
+ * <p>
+ * A store that has a commit always has its ancestors, trees and blobs, since
+ * objects are only ever copied after everything they name. So the walk never
+ * goes past a commit or tree the receiving store has, and its cost depends
+ * on how much history is missing rather than on the size of either store.
+ * The exception is a shallow commit, whose parents were never fetched: the
+ * walk goes on past those in the receiving store, and stops at those in the
+ * sending store, which stay shallow in the receiving one. A transfer may
+ * also be limited to a depth, making the oldest commits it copies shallow.
+ * <p>
+ * Objects are copied by a fixed pool of threads, with the number of threads
+ * taken from the gitlet.transfer.threads system property. Every copied
+ * object is read back and checked against its hash. Blobs are copied first,
+ * then trees and then commits, each in waves of objects whose subtrees or
+ * parents were already copied, so the rule above holds even if a transfer
+ * is cut short.
+ * <p>
+ * The receiving side may also be at the other end of a connection, in which
+ * case the walk asks it which objects it has in batches rather than one at a
+ * time, and the missing objects are sent to it as one stream instead.
+ * @author Connor Bernard
+ */
+public class Transfer {
+    /**
+     * Name of the system property giving the number of copying threads.
+     */
+    private static final String THREADS_PROPERTY = "gitlet.transfer.threads";
+    /**
+     * Number of copying threads used by default. Copies spend most of their
+     * time waiting on the disk, so this is not tied to the processor count.
+     */
+    private static final int DEFAULT_THREADS = 8;
+    /**
+     * Number of copies per thread that may wait for a thread before the
+     * thread handing them out has to run one itself.
+     */
+    private static final int QUEUED_PER_THREAD = 64;
+    /**
+     * Least number of milliseconds between progress updates.
+     */
+    private static final long PROGRESS_MILLIS = 100;
+    /**
+     * Largest number of objects the receiving side is asked about at once.
+     */
+    private static final int BATCH_SIZE = 1024;
+    /**
+     * The side of a transfer receiving the objects, as the sending side sees
+     * it.
+     */
+    public interface Receiver {
+        /**
+         * Checks which of some objects the receiver has.
+         * @param kind kind of the objects
+         * @param hashes hashes of the objects
+         * @return whether the receiver has each object, in the same order
+         */
+        boolean[] has(ObjectStore.Kind kind, List<String> hashes);
+        /**
+         * Gets the shallow commits of the receiver.
+         * @return hashes of the receiver's shallow commits
+         */
+        Set<String> shallow();
+        /**
+         * Gets the tips of the receiver's branches, as far as the sending
+         * side knows them.
+         * @return hashes of the tips, which the sending side may lack
+         */
+        Collection<String> tips();
+    }
+    /**
+     * Store the objects are copied from.
+     */
+    private final ObjectStore source;
+    /**
+     * Store the objects are copied to, or null if the receiver is at the
+     * other end of a connection.
+     */
+    private final ObjectStore target;
+    /**
+     * The side receiving the objects.
+     */
+    private final Receiver receiver;
+    /**
+     * Whether the receiver has each object it was asked about, by kind and
+     * hash.
+     */
+    private final EnumMap<ObjectStore.Kind, HashMap<String, Boolean>> known =
+            new EnumMap<ObjectStore.Kind, HashMap<String, Boolean>>(
+                    ObjectStore.Kind.class);
+    /**
+     * Reachability bitmaps of the source, or null if it has none.
+     */
+    private ReachabilityBitmaps bitmaps;
+    /**
+     * Positions in bitmaps of the objects reachable from the receiver's
+     * tips, which it has without being asked, or null if not known.
+     */
+    private RoaringBitmap targetObjects;
+    /**
+     * Shallow commits of the source.
+     */
+    private final TreeSet<String> sourceShallow;
+    /**
+     * Shallow commits of the target when the transfer was negotiated.
+     */
+    private final TreeSet<String> targetShallow;
+    /**
+     * Shallow commits of the target once the objects are copied.
+     */
+    private final TreeSet<String> newShallow;
+    /**
+     * Whether the transfer is limited to a depth.
+     */
+    private boolean deepen;
+    /**
+     * Commits walked, each after its parents. These are the missing commits,
+     * along with, for a transfer limited to a depth, the commits within the
+     * depth that the target already has.
+     */
+    private final ArrayList<String> commits = new ArrayList<String>();
+    /**
+     * Missing commits in waves: the first wave has no missing parents, and
+     * every later commit has its missing parents in earlier waves.
+     */
+    private final ArrayList<List<String>> commitWaves =
+            new ArrayList<List<String>>();
+    /**
+     * Missing trees in waves: the first wave has no missing subtrees, and
+     * every later tree has its missing subtrees in earlier waves.
+     */
+    private final ArrayList<List<String>> treeWaves =
+            new ArrayList<List<String>>();
+    /**
+     * Missing blobs.
+     */
+    private final ArrayList<String> blobs = new ArrayList<String>();
+    /**
+     * Wave of each tree visited by the walk, or -1 for a tree the target
+     * already has.
+     */
+    private final HashMap<String, Integer> treeWave =
+            new HashMap<String, Integer>();
+    /**
+     * Blobs already visited by the walk.
+     */
+    private final HashSet<String> visitedBlobs = new HashSet<String>();
+    /**
+     * Number of objects copied so far.
+     */
+    private final AtomicInteger copied = new AtomicInteger();
+    /**
+     * Whether progress is shown, which it is when gitlet runs in a terminal.
+     */
+    private final boolean showsProgress = System.console() != null;
+    /**
+     * Time the progress was last shown.
+     */
+    private long lastProgress;
+    /**
+     * Creates an empty transfer.
+     * @param from store to copy from
+     * @param to the side receiving the objects
+     * @param toStore store to copy to, or null if the receiver is at the
+     * other end of a connection
+     */
+    private Transfer(ObjectStore from, Receiver to, ObjectStore toStore) {
+        source = from;
+        receiver = to;
+        target = toStore;
+        sourceShallow = Shallow.read(from.repoDir());
+        targetShallow = new TreeSet<String>(to.shallow());
+        newShallow = new TreeSet<String>(targetShallow);
+        for (ObjectStore.Kind kind : ObjectStore.Kind.values()) {
+            known.put(kind, new HashMap<String, Boolean>());
+        }
+    }
+    /**
+     * Makes the receiver for a store in this file system.
+     * @param store the store
+     * @return a receiver checking the store itself
+     */
+    private static Receiver receiver(ObjectStore store) {
+        return new Receiver() {
+            @Override
+            public boolean[] has(ObjectStore.Kind kind, List<String> hashes) {
+                boolean[] result = new boolean[hashes.size()];
+                for (int i = 0; i < result.length; i += 1) {
+                    result[i] = store.contains(kind, hashes.get(i));
+                }
+                return result;
+            }
+            @Override
+            public Set<String> shallow() {
+                return Shallow.read(store.repoDir());
+            }
+            @Override
+            public Collection<String> tips() {
+                return ReachabilityBitmaps.tips(store.repoDir());
+            }
+        };
+    }
+    /**
+     * Finds the objects a store is missing to have a commit's history.
+     * @param from store holding the commit
+     * @param to store to copy the commit to
+     * @param tip hash of the commit
+     * @return the transfer of the missing objects
+     */
+    public static Transfer negotiate(ObjectStore from, ObjectStore to,
+                                     String tip) {
+        return negotiate(from, to, tip, 0);
+    }
+    /**
+     * Finds the objects a store is missing to have a commit's history, down
+     * to a given depth.
+     * @param from store holding the commit
+     * @param to store to copy the commit to
+     * @param tip hash of the commit
+     * @param depth number of commits to copy along each path back from the
+     * tip, or 0 to copy the whole history
+     * @return the transfer of the missing objects
+     */
+    public static Transfer negotiate(ObjectStore from, ObjectStore to,
+                                     String tip, int depth) {
+        return negotiate(new Transfer(from, receiver(to), to), tip, depth);
+    }
+    /**
+     * Finds the objects the other end of a connection is missing to have a
+     * commit's history, down to a given depth. The transfer can only be sent
+     * over the connection, not copied.
+     * @param from store holding the commit
+     * @param to the other end of the connection
+     * @param tip hash of the commit
+     * @param depth number of commits to copy along each path back from the
+     * tip, or 0 to copy the whole history
+     * @return the transfer of the missing objects
+     */
+    public static Transfer negotiate(ObjectStore from, Receiver to,
+                                     String tip, int depth) {
+        return negotiate(new Transfer(from, to, null), tip, depth);
+    }
+    /**
+     * Finds the objects missing from the receiver of a transfer.
+     * @param transfer the empty transfer
+     * @param tip hash of the commit to copy
+     * @param depth number of commits to copy along each path back from the
+     * tip, or 0 to copy the whole history
+     * @return the transfer, listing the missing objects
+     */
+    private static Transfer negotiate(Transfer transfer, String tip,
+                                      int depth) {
+        transfer.deepen = depth > 0;
+        transfer.findTargetObjects();
+        HashMap<String, Commit> missing = transfer.findCommits(tip,
+                depth > 0 ? transfer.withinDepth(tip, depth) : null);
+        HashMap<String, Integer> commitWave = new HashMap<String, Integer>();
+        ArrayList<String> roots = new ArrayList<String>();
+        for (String hash : transfer.commits) {
+            if (missing.get(hash).getTreeHash() == null) {
+                throw new GitletException(ERROR_COLOR
+                        + "Commit " + hash + " is in an old format; run"
+                        + " migrate in its repository." + RESET_COLOR);
+            }
+            roots.add(missing.get(hash).getTreeHash());
+        }
+        transfer.askTrees(roots);
+        for (String hash : transfer.commits) {
+            Commit commit = missing.get(hash);
+            transfer.findTree(commit.getTreeHash());
+            int wave = 0;
+            for (String parent : new String[] {commit.getParentHash(),
+                commit.getSecondParentHash()}) {
+                if (commitWave.containsKey(parent)) {
+                    wave = Math.max(wave, commitWave.get(parent) + 1);
+                }
+            }
+            commitWave.put(hash, wave);
+            if (!transfer.receiverHas(ObjectStore.Kind.COMMIT, hash)) {
+                addToWave(transfer.commitWaves, wave, hash);
+            }
+        }
+        return transfer;
+    }
+    /**
+     * Finds the objects the receiver has without asking it, from the
+     * source's reachability bitmaps: everything reachable from the tips of
+     * its branches that the source also has. This is skipped for a transfer
+     * limited to a depth or to a shallow receiver, which may lack the
+     * history of its tips, and when the source has no bitmaps, since the
+     * walk would then read the whole history behind the tips.
+     */
+    private void findTargetObjects() {
+        if (deepen || !targetShallow.isEmpty()) {
+            return;
+        }
+        Collection<String> tips = receiver.tips();
+        ReachabilityBitmaps sourceBitmaps = ReachabilityBitmaps.open(source);
+        if (tips.isEmpty() || !sourceBitmaps.hasBitmaps()) {
+            return;
+        }
+        bitmaps = sourceBitmaps;
+        targetObjects = bitmaps.reachable(tips);
+    }
+    /**
+     * Checks whether the walk can stop at a commit because the target has
+     * it and all of its ancestors. A walk limited to a depth never stops
+     * early, since it may deepen a shallow history behind commits the target
+     * has.
+     * @param hash hash of the commit
+     * @return whether the target has the commit and it is not shallow there
+     */
+    private boolean targetHas(String hash) {
+        return !deepen && !targetShallow.contains(hash)
+                && receiverHas(ObjectStore.Kind.COMMIT, hash);
+    }
+    /**
+     * Checks whether the receiver has an object, asking it only if it was
+     * not asked before. A commit is asked about along with up to BATCH_SIZE
+     * of its ancestors that it was not asked about, since the walk is likely
+     * to ask about them next.
+     * @param kind kind of the object
+     * @param hash hash of the object
+     * @return whether the receiver has the object
+     */
+    private boolean receiverHas(ObjectStore.Kind kind, String hash) {
+        if (targetObjects != null
+                && targetObjects.contains(bitmaps.position(kind, hash))) {
+            return true;
+        }
+        Boolean has = known.get(kind).get(hash);
+        if (has != null) {
+            return has;
+        }
+        ArrayList<String> batch = new ArrayList<String>();
+        batch.add(hash);
+        if (kind == ObjectStore.Kind.COMMIT) {
+            HashSet<String> seen = new HashSet<String>(batch);
+            for (int i = 0; i < batch.size() && batch.size() < BATCH_SIZE;
+                 i += 1) {
+                Commit commit = source.readCommit(batch.get(i));
+                if (commit == null) {
+                    continue;
+                }
+                for (String parent : Shallow.parents(commit, sourceShallow)) {
+                    if (parent != null && !known.get(kind).containsKey(parent)
+                            && seen.add(parent)) {
+                        batch.add(parent);
+                    }
+                }
+            }
+        }
+        ask(kind, batch);
+        return known.get(kind).get(hash);
+    }
+    /**
+     * Asks the receiver which of some objects it has, in batches of at most
+     * BATCH_SIZE, and remembers the answers. Objects reachable from its tips
+     * are answered without asking.
+     * @param kind kind of the objects
+     * @param hashes hashes of the objects
+     */
+    private void ask(ObjectStore.Kind kind, List<String> hashes) {
+        HashMap<String, Boolean> answers = known.get(kind);
+        List<String> unknown = hashes;
+        if (targetObjects != null) {
+            unknown = new ArrayList<String>();
+            for (String hash : hashes) {
+                if (targetObjects.contains(bitmaps.position(kind, hash))) {
+                    answers.put(hash, true);
+                } else {
+                    unknown.add(hash);
+                }
+            }
+        }
+        for (int start = 0; start < unknown.size(); start += BATCH_SIZE) {
+            List<String> batch = unknown.subList(start,
+                    Math.min(unknown.size(), start + BATCH_SIZE));
+            boolean[] has = receiver.has(kind, batch);
+            for (int i = 0; i < has.length; i += 1) {
+                answers.put(batch.get(i), has[i]);
+            }
+        }
+    }
+    /**
+     * Asks the receiver about the trees under some trees and their blobs,
+     * one level of directories at a time, going below only the trees it
+     * lacks. This asks about everything the tree walk needs in as few
+     * batches as the trees are deep.
+     * @param roots hashes of the trees to start from
+     */
+    private void askTrees(List<String> roots) {
+        HashSet<String> seen = new HashSet<String>();
+        ArrayList<String> level = new ArrayList<String>();
+        for (String root : roots) {
+            if (!root.equals(Tree.EMPTY_HASH) && seen.add(root)) {
+                level.add(root);
+            }
+        }
+        ArrayList<String> blobHashes = new ArrayList<String>();
+        HashSet<String> seenBlobs = new HashSet<String>();
+        while (!level.isEmpty()) {
+            ask(ObjectStore.Kind.TREE, level);
+            ArrayList<String> next = new ArrayList<String>();
+            for (String hash : level) {
+                if (known.get(ObjectStore.Kind.TREE).get(hash)) {
+                    continue;
+                }
+                Tree tree = Tree.read(source, hash);
+                for (String subtree : tree.hashes(true)) {
+                    if (seen.add(subtree)) {
+                        next.add(subtree);
+                    }
+                }
+                for (String blob : tree.hashes(false)) {
+                    if (seenBlobs.add(blob)) {
+                        blobHashes.add(blob);
+                    }
+                }
+            }
+            level = next;
+        }
+        ask(ObjectStore.Kind.BLOB, blobHashes);
+    }
+    /**
+     * Finds the commits the target lacks that are fewer than a number of
+     * commits back from a tip along some path.
+     * @param tip hash of the commit to start from
+     * @param depth number of commits to include along each path
+     * @return hashes of the commits within the depth
+     */
+    private HashSet<String> withinDepth(String tip, int depth) {
+        HashSet<String> result = new HashSet<String>();
+        ArrayList<String> level = new ArrayList<String>();
+        if (!targetHas(tip)) {
+            level.add(tip);
+            result.add(tip);
+        }
+        for (int i = 1; i < depth && !level.isEmpty(); i += 1) {
+            ArrayList<String> next = new ArrayList<String>();
+            for (String hash : level) {
+                Commit commit = readSource(hash);
+                for (String parent : Shallow.parents(commit, sourceShallow)) {
+                    if (parent != null && !targetHas(parent)
+                            && result.add(parent)) {
+                        next.add(parent);
+                    }
+                }
+            }
+            level = next;
+        }
+        return result;
+    }
+    /**
+     * Walks back from a commit to the commits the target has, listing the
+     * rest parents first. Commits whose parents are not all listed or in the
+     * target become shallow in the target.
+     * @param tip hash of the commit to start from
+     * @param allowed hashes of the only commits that may be listed, or null
+     * if any may be
+     * @return map from the hash of every missing commit to the commit
+     */
+    private HashMap<String, Commit> findCommits(String tip,
+                                                Set<String> allowed) {
+        HashMap<String, Commit> missing = new HashMap<String, Commit>();
+        HashSet<String> listed = new HashSet<String>();
+        ArrayDeque<String> pending = new ArrayDeque<String>();
+        if (!targetHas(tip)) {
+            pending.push(tip);
+        }
+        while (!pending.isEmpty()) {
+            String hash = pending.peek();
+            Commit commit = missing.get(hash);
+            if (commit == null) {
+                commit = readSource(hash);
+                missing.put(hash, commit);
+            }
+            boolean ready = true;
+            boolean shallow = sourceShallow.contains(hash);
+            for (String parent : Shallow.parents(commit, sourceShallow)) {
+                if (parent == null || listed.contains(parent)
+                        || targetHas(parent)) {
+                    continue;
+                } else if (allowed != null && !allowed.contains(parent)) {
+                    shallow = shallow || !receiverHas(
+                            ObjectStore.Kind.COMMIT, parent);
+                } else {
+                    pending.push(parent);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                if (listed.add(hash)) {
+                    commits.add(hash);
+                    if (shallow) {
+                        newShallow.add(hash);
+                    } else {
+                        newShallow.remove(hash);
+                    }
+                }
+            }
+        }
+        return missing;
+    }
+    /**
+     * Reads a commit from the source.
+     * @param hash hash of the commit
+     * @return the commit
+     */
+    private Commit readSource(String hash) {
+        Commit commit = source.readCommit(hash);
+        if (commit == null) {
+            throw new GitletException(ERROR_COLOR + "Missing commit " + hash
+                    + "." + RESET_COLOR);
+        }
+        return commit;
+    }
+    /**
+     * Lists a tree and everything under it that the target does not have.
+     * @param hash hash of the tree
+     * @return the tree's wave, or -1 if the target has the tree
+     */
+    private int findTree(String hash) {
+        Integer known = treeWave.get(hash);
+        if (known != null) {
+            return known;
+        }
+        if (hash.equals(Tree.EMPTY_HASH)
+                || receiverHas(ObjectStore.Kind.TREE, hash)) {
+            treeWave.put(hash, -1);
+            return -1;
+        }
+        Tree tree = Tree.read(source, hash);
+        int wave = 0;
+        for (String subtree : tree.hashes(true)) {
+            wave = Math.max(wave, findTree(subtree) + 1);
+        }
+        for (String blob : tree.hashes(false)) {
+            if (visitedBlobs.add(blob)
+                    && !receiverHas(ObjectStore.Kind.BLOB, blob)) {
+                blobs.add(blob);
+            }
+        }
+        treeWave.put(hash, wave);
+        addToWave(treeWaves, wave, hash);
+        return wave;
+    }
+    /**
+     * Adds an object to a wave, adding empty waves up to it as needed.
+     * @param waves the waves
+     * @param wave index of the wave to add to
+     * @param hash hash of the object
+     */
+    private static void addToWave(ArrayList<List<String>> waves, int wave,
+                                  String hash) {
+        while (waves.size() <= wave) {
+            waves.add(new ArrayList<String>());
+        }
+        waves.get(wave).add(hash);
+    }
+    /**
+     * Writes the target's shallow file as it is once the objects are
+     * copied. This must be done before a branch of the target is moved to
+     * the copied history. A transfer sent over a connection sends the
+     * shallow commits along with the objects instead.
+     */
+    public void writeShallow() {
+        Shallow.write(target.repoDir(), targetShallow, newShallow);
+    }
+    /**
+     * Gets the number of objects this transfer copies.
+     * @return number of missing commits, trees and blobs
+     */
+    public int size() {
+        int result = blobs.size();
+        for (List<String> wave : treeWaves) {
+            result += wave.size();
+        }
+        for (List<String> wave : commitWaves) {
+            result += wave.size();
+        }
+        return result;
+    }
+    /**
+     * Copies the missing objects as they are stored, checking each one once
+     * it is in the target, and shows the progress on standard error if
+     * gitlet is run from a terminal. Only a transfer negotiated with a store
+     * can be copied.
+     */
+    public void copy() {
+        int numThreads = threads();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(numThreads,
+                numThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(
+                        numThreads * QUEUED_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            copyWave(pool, ObjectStore.Kind.BLOB, blobs);
+            for (List<String> wave : treeWaves) {
+                copyWave(pool, ObjectStore.Kind.TREE, wave);
+            }
+            for (List<String> wave : commitWaves) {
+                copyWave(pool, ObjectStore.Kind.COMMIT, wave);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        if (showsProgress && size() > 0) {
+            System.err.println("\rCopying objects: 100% (" + size() + "/"
+                    + size() + "), done.");
+        }
+    }
+    /**
+     * Copies objects on a pool and waits for all of them. Once the pool's
+     * queue is full, the calling thread copies objects itself rather than
+     * queueing more, so no more than a bounded number of copies wait.
+     * @param pool pool of copying threads
+     * @param kind kind of the objects
+     * @param hashes hashes of the objects
+     */
+    private void copyWave(ThreadPoolExecutor pool, ObjectStore.Kind kind,
+                          List<String> hashes) {
+        ArrayList<Future<?>> copies = new ArrayList<Future<?>>();
+        for (String hash : hashes) {
+            copies.add(pool.submit(() -> copyObject(kind, hash)));
+        }
+        for (Future<?> copy : copies) {
+            try {
+                copy.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException(e.getMessage());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalArgumentException(e.getCause().getMessage());
+            }
+        }
+    }
+    /**
+     * Copies one object and checks it against its hash in the target. An
+     * object that does not match is deleted from the target again.
+     * @param kind kind of the object
+     * @param hash hash of the object
+     */
+    private void copyObject(ObjectStore.Kind kind, String hash) {
+        String kindName = kind.name().toLowerCase();
+        byte[] contents = source.read(kind, hash);
+        if (contents == null) {
+            throw new GitletException(ERROR_COLOR + "Missing " + kindName
+                    + " " + hash + "." + RESET_COLOR);
+        }
+        target.write(kind, hash, contents);
+        if (!target.verify(kind, hash)) {
+            target.delete(kind, Collections.singleton(hash));
+            throw new GitletException(ERROR_COLOR + "Copy of " + kindName
+                    + " " + hash + " does not match its hash." + RESET_COLOR);
+        }
+        showProgress(copied.incrementAndGet());
+    }
+    /**
+     * Sends the missing objects over a connection as they are stored, in the
+     * order they would be copied: their number, each object's kind, hash,
+     * length and contents, an END byte, and then the receiver's shallow
+     * commits once it has the objects.
+     * @param out stream to the receiver
+     * @throws IOException if the connection fails
+     */
+    public void send(DataOutputStream out) throws IOException {
+        out.writeInt(size());
+        sendWave(out, ObjectStore.Kind.BLOB, blobs);
+        for (List<String> wave : treeWaves) {
+            sendWave(out, ObjectStore.Kind.TREE, wave);
+        }
+        for (List<String> wave : commitWaves) {
+            sendWave(out, ObjectStore.Kind.COMMIT, wave);
+        }
+        out.writeByte(PackProtocol.END);
+        PackProtocol.writeHashes(out, newShallow);
+        out.flush();
+    }
+    /**
+     * Sends some objects over a connection.
+     * @param out stream to the receiver
+     * @param kind kind of the objects
+     * @param hashes hashes of the objects
+     * @throws IOException if the connection fails
+     */
+    private void sendWave(DataOutputStream out, ObjectStore.Kind kind,
+                          List<String> hashes) throws IOException {
+        for (String hash : hashes) {
+            byte[] contents = source.read(kind, hash);
+            if (contents == null) {
+                throw new GitletException(ERROR_COLOR + "Missing "
+                        + kind.name().toLowerCase() + " " + hash + "."
+                        + RESET_COLOR);
+            }
+            out.writeByte(kind.ordinal());
+            PackProtocol.writeHash(out, hash);
+            out.writeInt(contents.length);
+            out.write(contents);
+        }
+    }
+    /**
+     * Shows how many objects were copied, at most once every
+     * PROGRESS_MILLIS milliseconds and only when run from a terminal.
+     * @param done number of objects copied
+     */
+    private void showProgress(int done) {
+        if (!showsProgress) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (now - lastProgress < PROGRESS_MILLIS) {
+                return;
+            }
+            lastProgress = now;
+        }
+        System.err.print("\rCopying objects: " + (100L * done / size())
+                + "% (" + done + "/" + size() + ")");
+        System.err.flush();
+    }
+    /**
+     * Gets the number of copying threads from the gitlet.transfer.threads
+     * system property.
+     * @return number of threads
+     */
+    private static int threads() {
+        String property = System.getProperty(THREADS_PROPERTY);
+        if (property == null) {
+            return DEFAULT_THREADS;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(property));
+        } catch (NumberFormatException e) {
+            return DEFAULT_THREADS;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The contents of one directory of a commit: the blob of each file in it and
+ * the tree of each subdirectory, by name. Trees are stored by the hash of
+ * their encoding, so a directory that did not change between two commits is
+ * the same tree object in both, and any walk comparing two trees can skip a
+ * subtree whose hash matches.
+ * <p>
+ * A tree is encoded as one line per entry, sorted by name, of the form
+ * "blob HASH NAME" or "tree HASH NAME". Paths of files in subdirectories are
+ * written with forward slashes.
+ * @author Connor Bernard
+ */
+public class Tree {
+    /**
+     * Hash of the tree with no entries, which is never read from a store.
+     */
+    public static final String EMPTY_HASH = Utils.sha1("");
+    /**
+     * Type written for entries naming a blob.
+     */
+    private static final String BLOB_TYPE = "blob";
+    /**
+     * Type written for entries naming a subtree.
+     */
+    private static final String TREE_TYPE = "tree";
+    /**
+     * Largest number of decoded trees kept in memory.
+     */
+    private static final int CACHE_SIZE = 4096;
+    /**
+     * Recently read trees by hash. Trees never change once written, so the
+     * cache is shared by every store.
+     */
+    private static final LinkedHashMap<String, Tree> CACHE =
+            new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+    /**
+     * One entry of a tree.
+     */
+    static class Entry {
+        /**
+         * Whether this entry names a subtree rather than a blob.
+         */
+        private final boolean isTree;
+        /**
+         * Hash of the blob or subtree this entry names.
+         */
+        private final String hash;
+        /**
+         * Creates an entry.
+         * @param subtree whether the entry names a subtree
+         * @param objectHash hash of the blob or subtree
+         */
+        Entry(boolean subtree, String objectHash) {
+            isTree = subtree;
+            hash = objectHash;
+        }
+    }
+    /**
+     * The entries of this tree by name.
+     */
+    private final TreeMap<String, Entry> entries;
+    /**
+     * Creates a tree.
+     * @param treeEntries the entries of the tree by name
+     */
+    private Tree(TreeMap<String, Entry> treeEntries) {
+        entries = treeEntries;
+    }
+    /**
+     * Reads a tree.
+     * @param store store to read the tree from
+     * @param hash hash of the tree
+     * @return the tree
+     */
+    public static Tree read(ObjectStore store, String hash) {
+        if (hash.equals(EMPTY_HASH)) {
+            return new Tree(new TreeMap<String, Entry>());
+        }
+        synchronized (CACHE) {
+            Tree cached = CACHE.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        byte[] contents = store.read(ObjectStore.Kind.TREE, hash);
+        if (contents == null) {
+            throw new IllegalArgumentException("missing tree " + hash);
+        }
+        Tree tree = decode(contents);
+        synchronized (CACHE) {
+            CACHE.put(hash, tree);
+        }
+        return tree;
+    }
+    /**
+     * Writes a tree to a store unless it is empty or already there.
+     * @param store store to write the tree to
+     * @param tree tree to write
+     * @return hash of the tree
+     */
+    private static String write(ObjectStore store, Tree tree) {
+        if (tree.entries.isEmpty()) {
+            return EMPTY_HASH;
+        }
+        byte[] contents = tree.encode();
+        String hash = Utils.sha1(contents);
+        store.write(ObjectStore.Kind.TREE, hash, contents);
+        return hash;
+    }
+    /**
+     * Applies changes to a tree, writing a new tree for every directory a
+     * change falls in. Subtrees no change falls in are kept by hash, and a
+     * subtree left empty is dropped.
+     * @param store store holding the tree, which new trees are written to
+     * @param treeHash hash of the tree to change
+     * @param changes map from the path of each changed file to its new blob
+     * hash, or to null if the file is removed
+     * @return hash of the changed tree
+     */
+    public static String update(ObjectStore store, String treeHash,
+                                Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return treeHash;
+        }
+        TreeMap<String, Entry> updated = new TreeMap<String, Entry>(
+                read(store, treeHash).entries);
+        TreeMap<String, Map<String, String>> bySubdir =
+                new TreeMap<String, Map<String, String>>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                Entry old = updated.get(path);
+                if (change.getValue() == null) {
+                    if (old != null && !old.isTree) {
+                        updated.remove(path);
+                    }
+                } else {
+                    updated.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                bySubdir.computeIfAbsent(path.substring(0, slash),
+                        k -> new TreeMap<String, String>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdir
+                : bySubdir.entrySet()) {
+            Entry old = updated.get(subdir.getKey());
+            String oldHash = old != null && old.isTree ? old.hash : EMPTY_HASH;
+            String newHash = update(store, oldHash, subdir.getValue());
+            if (newHash.equals(EMPTY_HASH)) {
+                if (old != null && old.isTree) {
+                    updated.remove(subdir.getKey());
+                }
+            } else {
+                updated.put(subdir.getKey(), new Entry(true, newHash));
+            }
+        }
+        return write(store, new Tree(updated));
+    }
+    /**
+     * Gets every file in a tree and its subtrees.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @return map from the path of each file to its blob hash
+     */
+    public static HashMap<String, String> flatten(ObjectStore store,
+                                                  String treeHash) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        flatten(store, treeHash, "", result);
+        return result;
+    }
+    /**
+     * Adds every file in a tree and its subtrees to a map.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @param prefix path of the tree's directory, ending in a slash unless
+     * it is the top directory
+     * @param result map to add each file's path and blob hash to
+     */
+    private static void flatten(ObjectStore store, String treeHash,
+                                String prefix, Map<String, String> result) {
+        for (Map.Entry<String, Entry> e : read(store, treeHash).entries
+                .entrySet()) {
+            Entry entry = e.getValue();
+            if (entry.isTree) {
+                flatten(store, entry.hash, prefix + e.getKey() + "/", result);
+            } else {
+                result.put(prefix + e.getKey(), entry.hash);
+            }
+        }
+    }
+    /**
+     * Gets the hashes of the entries directly in this tree of one type.
+     * @param subtrees whether to get the subtrees rather than the blobs
+     * @return hashes of this tree's subtrees or blobs, in name order
+     */
+    public ArrayList<String> hashes(boolean subtrees) {
+        ArrayList<String> result = new ArrayList<String>();
+        for (Entry entry : entries.values()) {
+            if (entry.isTree == subtrees) {
+                result.add(entry.hash);
+            }
+        }
+        return result;
+    }
+    /**
+     * Looks up the blob of one file, reading only the trees on its path.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @param path path of the file
+     * @return hash of the file's blob, or null if the tree has no such file
+     */
+    public static String lookup(ObjectStore store, String treeHash,
+                                String path) {
+        Tree tree = read(store, treeHash);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            Entry subtree = tree.entries.get(path.substring(0, slash));
+            if (subtree == null || !subtree.isTree) {
+                return null;
+            }
+            tree = read(store, subtree.hash);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        Entry entry = tree.entries.get(path);
+        return entry == null || entry.isTree ? null : entry.hash;
+    }
+    /**
+     * Looks up the blobs of some files.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @param paths paths of the files
+     * @return map from the path of each file the tree has to its blob hash
+     */
+    public static HashMap<String, String> select(ObjectStore store,
+                                                 String treeHash,
+                                                 Collection<String> paths) {
+        HashMap<String, String> result = new HashMap<String, String>();
+        for (String path : paths) {
+            String blob = lookup(store, treeHash, path);
+            if (blob != null) {
+                result.put(path, blob);
+            }
+        }
+        return result;
+    }
+    /**
+     * Finds the files in a tree and its subtrees whose blobs are in a set.
+     * Each tree is searched at most once across calls sharing a map of the
+     * trees searched, so searching every commit reads each tree once. Trees
+     * are scanned in their encoding rather than decoded, as most of their
+     * entries are skipped.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @param blobs hashes of the blobs to find
+     * @param searched map from each tree searched so far to the files found
+     * in it, by path relative to that tree
+     * @return map from the path of each file found to its blob hash
+     */
+    public static Map<String, String> find(ObjectStore store, String treeHash,
+                                           Set<String> blobs,
+                                           Map<String, Map<String, String>>
+                                                   searched) {
+        Map<String, String> result = searched.get(treeHash);
+        if (result != null) {
+            return result;
+        }
+        byte[] contents = treeHash.equals(EMPTY_HASH) ? new byte[0]
+                : store.read(ObjectStore.Kind.TREE, treeHash);
+        if (contents == null) {
+            throw new IllegalArgumentException("missing tree " + treeHash);
+        }
+        result = new HashMap<String, String>();
+        int hashStart = BLOB_TYPE.length() + 1;
+        int nameStart = hashStart + Utils.UID_LENGTH + 1;
+        for (int start = 0; start < contents.length;) {
+            int end = start + nameStart;
+            while (end < contents.length && contents[end] != '\n') {
+                end += 1;
+            }
+            boolean isTree = contents[start] == TREE_TYPE.charAt(0);
+            String hash = new String(contents, start + hashStart,
+                    Utils.UID_LENGTH, StandardCharsets.ISO_8859_1);
+            if (isTree || blobs.contains(hash)) {
+                String name = new String(contents, start + nameStart,
+                        end - start - nameStart, StandardCharsets.UTF_8);
+                if (isTree) {
+                    for (Map.Entry<String, String> file : find(store, hash,
+                            blobs, searched).entrySet()) {
+                        result.put(name + "/" + file.getKey(),
+                                file.getValue());
+                    }
+                } else {
+                    result.put(name, hash);
+                }
+            }
+            start = end + 1;
+        }
+        if (result.isEmpty()) {
+            result = Collections.emptyMap();
+        }
+        searched.put(treeHash, result);
+        return result;
+    }
+    /**
+     * Gets the hashes of the entries directly in a tree straight from its
+     * encoding, without decoding the tree or caching it, for walks that
+     * visit every tree once.
+     * @param store store holding the tree
+     * @param treeHash hash of the tree
+     * @param subtrees list to add the hashes of the subtrees to
+     * @param blobs list to add the hashes of the blobs to
+     */
+    public static void hashes(ObjectStore store, String treeHash,
+                              List<String> subtrees, List<String> blobs) {
+        if (treeHash.equals(EMPTY_HASH)) {
+            return;
+        }
+        byte[] contents = store.read(ObjectStore.Kind.TREE, treeHash);
+        if (contents == null) {
+            throw new IllegalArgumentException("missing tree " + treeHash);
+        }
+        int hashStart = BLOB_TYPE.length() + 1;
+        int nameStart = hashStart + Utils.UID_LENGTH + 1;
+        for (int start = 0; start < contents.length;) {
+            int end = start + nameStart;
+            while (end < contents.length && contents[end] != '\n') {
+                end += 1;
+            }
+            String hash = new String(contents, start + hashStart,
+                    Utils.UID_LENGTH, StandardCharsets.ISO_8859_1);
+            if (contents[start] == TREE_TYPE.charAt(0)) {
+                subtrees.add(hash);
+            } else {
+                blobs.add(hash);
+            }
+            start = end + 1;
+        }
+    }
+    /**
+     * Compares two trees, skipping every subtree they share.
+     * @param store store holding both trees
+     * @param oldHash hash of the first tree
+     * @param newHash hash of the second tree
+     * @return map, sorted by path, from each file that differs to a pair of
+     * its blob hash in the first tree and in the second, either of which is
+     * null where that tree does not have the file
+     */
+    public static TreeMap<String, String[]> diff(ObjectStore store,
+                                                 String oldHash,
+                                                 String newHash) {
+        TreeMap<String, String[]> result = new TreeMap<String, String[]>();
+        diff(store, oldHash, newHash, "", result);
+        return result;
+    }
+    /**
+     * Adds the files that differ between two trees to a map.
+     * @param store store holding both trees
+     * @param oldHash hash of the first tree
+     * @param newHash hash of the second tree
+     * @param prefix path of the trees' directory, ending in a slash unless
+     * it is the top directory
+     * @param result map to add each differing file to
+     */
+    private static void diff(ObjectStore store, String oldHash, String newHash,
+                             String prefix, Map<String, String[]> result) {
+        if (oldHash.equals(newHash)) {
+            return;
+        }
+        TreeMap<String, Entry> oldEntries = read(store, oldHash).entries;
+        TreeMap<String, Entry> newEntries = read(store, newHash).entries;
+        TreeMap<String, Entry[]> names = new TreeMap<String, Entry[]>();
+        for (Map.Entry<String, Entry> e : oldEntries.entrySet()) {
+            names.put(e.getKey(), new Entry[] {e.getValue(), null});
+        }
+        for (Map.Entry<String, Entry> e : newEntries.entrySet()) {
+            names.computeIfAbsent(e.getKey(), k -> new Entry[2])[1] =
+                    e.getValue();
+        }
+        for (Map.Entry<String, Entry[]> e : names.entrySet()) {
+            String path = prefix + e.getKey();
+            Entry before = e.getValue()[0];
+            Entry after = e.getValue()[1];
+            String oldBlob = before != null && !before.isTree
+                    ? before.hash : null;
+            String newBlob = after != null && !after.isTree
+                    ? after.hash : null;
+            if (oldBlob != null || newBlob != null) {
+                if (oldBlob == null || !oldBlob.equals(newBlob)) {
+                    result.put(path, new String[] {oldBlob, newBlob});
+                }
+            }
+            String oldTree = before != null && before.isTree
+                    ? before.hash : EMPTY_HASH;
+            String newTree = after != null && after.isTree
+                    ? after.hash : EMPTY_HASH;
+            diff(store, oldTree, newTree, path + "/", result);
+        }
+    }
+    /**
+     * Encodes this tree.
+     * @return the canonical encoding of this tree
+     */
+    private byte[] encode() {
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            result.append(entry.isTree ? TREE_TYPE : BLOB_TYPE).append(' ')
+                    .append(entry.hash).append(' ').append(e.getKey())
+                    .append('\n');
+        }
+        return result.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    /**
+     * Decodes a tree.
+     * @param contents the encoding of the tree
+     * @return the tree
+     */
+    private static Tree decode(byte[] contents) {
+        TreeMap<String, Entry> result = new TreeMap<String, Entry>();
+        String text = new String(contents, StandardCharsets.UTF_8);
+        int hashStart = BLOB_TYPE.length() + 1;
+        int nameStart = hashStart + Utils.UID_LENGTH + 1;
+        Iterator<String> lines = text.lines().iterator();
+        while (lines.hasNext()) {
+            String line = lines.next();
+            result.put(line.substring(nameStart), new Entry(
+                    line.startsWith(TREE_TYPE),
+                    line.substring(hashStart, nameStart - 1)));
+        }
+        return new Tree(result);
+    }
+}
@@ -0,0 +1,664 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static gitlet.Directories.BLOB_TRIGRAMS;
+import static gitlet.Directories.BLOB_TRIGRAMS_LOG;
+import static gitlet.TextColors.ERROR_COLOR;
+import static gitlet.TextColors.RESET_COLOR;
+
+/**
+ * An optional index from the trigrams of blob contents, every run of three
+ * bytes with ASCII letters folded to lowercase, to the blobs holding them,
+ * so that grep only reads the blobs that could match. The index is made by
+ * index-blobs; until then no blob is indexed and grep reads every blob it
+ * searches.
+ * <p>
+ * Blobs are indexed in two files. The index file holds the hashes of the
+ * blobs it covers, their positions sorted by hash for binary search, each
+ * trigram's list of blob positions as varint deltas, and a table of the
+ * trigrams sorted for binary search. It is mapped into memory rather than
+ * read. Blobs indexed since it was written are appended to a log, each as
+ * its hash and its sorted trigrams; add appends the blobs it writes, and
+ * grep appends the unindexed blobs it reads. Once the log grows past an
+ * eighth of the index, both are merged into a new index file.
+ * @author Connor Bernard
+ */
+public class TrigramIndex {
+    /**
+     * Number of bytes in a raw SHA-1 hash.
+     */
+    private static final int HASH_BYTES = Utils.UID_LENGTH / 2;
+    /**
+     * Number of bytes in the index header: the number of blobs, the number
+     * of trigrams and the position of the trigram table.
+     */
+    private static final int HEADER_BYTES = 3 * Integer.BYTES;
+    /**
+     * Number of bytes in each entry of the trigram table: the trigram, and
+     * the start and length of its list of blobs.
+     */
+    private static final int ENTRY_BYTES = 3 * Integer.BYTES;
+    /**
+     * Least number of bytes of log before it is merged into the index.
+     */
+    private static final long MIN_LOG_BYTES = 1 << 20;
+    /**
+     * Least number of bytes of log before it is merged into the index while
+     * index-blobs runs, which bounds the memory a merge takes.
+     */
+    private static final long BUILD_LOG_BYTES = Math.max(MIN_LOG_BYTES,
+            Runtime.getRuntime().maxMemory() / 64);
+    /**
+     * Number of blobs index-blobs reads in parallel before logging them.
+     */
+    private static final int BUILD_BATCH = 256;
+    /**
+     * Contents of the index file, or an empty index if there is none.
+     */
+    private ByteBuffer index;
+    /**
+     * Number of blobs in the index file.
+     */
+    private int numBlobs;
+    /**
+     * Number of trigrams in the index file.
+     */
+    private int numTrigrams;
+    /**
+     * Position of the trigram table in the index file.
+     */
+    private int tableStart;
+    /**
+     * Record in the log of each blob that is not in the index file, in the
+     * order they were logged, each positioned at its trigrams.
+     */
+    private LinkedHashMap<String, ByteBuffer> logged;
+    /**
+     * Number of bytes of whole records in the log.
+     */
+    private long logLength;
+    /**
+     * Reads the index of this repository.
+     */
+    private TrigramIndex() {
+        load();
+    }
+    /**
+     * Opens the index of this repository, if it has one.
+     * @return the index, or null if index-blobs has never been run
+     */
+    public static TrigramIndex open() {
+        return BLOB_TRIGRAMS.file().isFile() ? new TrigramIndex() : null;
+    }
+    /**
+     * Indexes a blob that add just wrote, if this repository has an index
+     * and the blob is not in it yet.
+     * @param hash hash of the blob
+     * @param source file the blob was written from
+     */
+    public static void record(String hash, File source) {
+        TrigramIndex blobs = open();
+        if (blobs == null || blobs.covers(hash)) {
+            return;
+        }
+        byte[] contents;
+        try {
+            contents = Files.readAllBytes(source.toPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        blobs.append(Collections.singletonMap(hash, trigrams(contents)));
+        blobs.mergeIfLarge();
+    }
+    /**
+     * Indexes every blob in this repository's store that is not indexed
+     * yet, reading the blobs in parallel, and creates the index if there is
+     * none.
+     * @return the number of blobs indexed
+     */
+    public static int build() {
+        TrigramIndex blobs = new TrigramIndex();
+        ObjectStore store = ObjectStore.local();
+        List<String> missing = store.list(ObjectStore.Kind.BLOB).stream()
+                .filter(hash -> !blobs.covers(hash))
+                .collect(Collectors.toList());
+        for (int i = 0; i < missing.size(); i += BUILD_BATCH) {
+            List<String> batch = missing.subList(i,
+                    Math.min(missing.size(), i + BUILD_BATCH));
+            Map<String, int[]> found = WorkingTree.run(() -> batch
+                    .parallelStream().collect(Collectors.toMap(
+                            hash -> hash, hash -> trigrams(read(store,
+                                    hash)))));
+            LinkedHashMap<String, int[]> ordered =
+                    new LinkedHashMap<String, int[]>();
+            for (String hash : batch) {
+                ordered.put(hash, found.get(hash));
+            }
+            blobs.append(ordered);
+            blobs.mergeOver(BUILD_LOG_BYTES);
+        }
+        if (!blobs.logged.isEmpty() || !BLOB_TRIGRAMS.file().isFile()) {
+            blobs.merge();
+        }
+        return missing.size();
+    }
+    /**
+     * Checks whether a blob is indexed, in the index file or the log.
+     * @param hash hash of the blob
+     * @return whether the blob is indexed
+     */
+    public boolean covers(String hash) {
+        return logged.containsKey(hash) || find(Utils.hexToBytes(hash)) >= 0;
+    }
+    /**
+     * Finds the indexed blobs holding every one of some trigrams. Blobs that
+     * are not indexed are never named, and must be checked some other way.
+     * @param needed the trigrams, sorted
+     * @return hashes of the indexed blobs holding all of them
+     */
+    public Set<String> candidates(int[] needed) {
+        HashSet<String> result = new HashSet<String>();
+        int[][] lists = new int[needed.length][];
+        for (int i = 0; i < needed.length; i += 1) {
+            int entry = entryOf(needed[i]);
+            lists[i] = entry < 0 ? new int[0] : postings(entry);
+        }
+        Arrays.sort(lists, (a, b) -> Integer.compare(a.length, b.length));
+        int[] ids = lists.length == 0 ? new int[0] : lists[0];
+        for (int i = 1; i < lists.length && ids.length > 0; i += 1) {
+            ids = intersect(ids, lists[i]);
+        }
+        for (int id : ids) {
+            result.add(Utils.bytesToHex(hashAt(id), 0, HASH_BYTES));
+        }
+        for (Map.Entry<String, ByteBuffer> blob : logged.entrySet()) {
+            if (containsAll(decode(blob.getValue().duplicate()), needed)) {
+                result.add(blob.getKey());
+            }
+        }
+        return result;
+    }
+    /**
+     * Logs the trigrams of blobs, first cutting off a record left half
+     * written.
+     * @param added the trigrams of each blob, sorted
+     */
+    public void append(Map<String, int[]> added) {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        LinkedHashMap<String, ByteBuffer> appended =
+                new LinkedHashMap<String, ByteBuffer>();
+        for (Map.Entry<String, int[]> blob : added.entrySet()) {
+            if (covers(blob.getKey())) {
+                continue;
+            }
+            ByteArrayOutputStream trigrams = new ByteArrayOutputStream();
+            encode(trigrams, blob.getValue());
+            ByteBuffer record = ByteBuffer.allocate(Integer.BYTES
+                    + HASH_BYTES + trigrams.size());
+            record.putInt(HASH_BYTES + trigrams.size());
+            record.put(Utils.hexToBytes(blob.getKey()));
+            record.put(trigrams.toByteArray());
+            records.writeBytes(record.array());
+            record.position(Integer.BYTES + HASH_BYTES);
+            appended.put(blob.getKey(), record.slice());
+        }
+        if (appended.isEmpty()) {
+            return;
+        }
+        File log = BLOB_TRIGRAMS_LOG.file();
+        try {
+            if (log.length() > logLength) {
+                try (FileChannel channel = FileChannel.open(log.toPath(),
+                        StandardOpenOption.WRITE)) {
+                    channel.truncate(logLength);
+                }
+            }
+            try (FileOutputStream out = new FileOutputStream(log, true)) {
+                out.write(records.toByteArray());
+            }
+        } catch (IOException e) {
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        logged.putAll(appended);
+        logLength += records.size();
+    }
+    /**
+     * Merges the log into the index file if the log has grown past an
+     * eighth of the index file.
+     */
+    public void mergeIfLarge() {
+        mergeOver(MIN_LOG_BYTES);
+    }
+    /**
+     * Merges the log into the index file if the log has grown past an
+     * eighth of the index file and past a least size.
+     * @param minLogBytes the least size
+     */
+    private void mergeOver(long minLogBytes) {
+        if (logLength > Math.max(minLogBytes, index.capacity() / 8)) {
+            merge();
+        }
+    }
+    /**
+     * Gets the distinct trigrams of some bytes, with ASCII letters folded to
+     * lowercase.
+     * @param contents the bytes
+     * @return the trigrams, each as its three bytes in one int, sorted
+     */
+    public static int[] trigrams(byte[] contents) {
+        if (contents.length < 3) {
+            return new int[0];
+        }
+        int[] result = new int[contents.length - 2];
+        int trigram = fold(contents[0]) << 8 | fold(contents[1]);
+        for (int i = 2; i < contents.length; i += 1) {
+            trigram = (trigram << 8 | fold(contents[i])) & 0xffffff;
+            result[i - 2] = trigram;
+        }
+        Arrays.sort(result);
+        int size = 0;
+        for (int i = 0; i < result.length; i += 1) {
+            if (size == 0 || result[size - 1] != result[i]) {
+                result[size] = result[i];
+                size += 1;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+    /**
+     * Gets the trigrams every blob containing some text must have.
+     * @param text the text
+     * @return the trigrams of its UTF-8 bytes, sorted
+     */
+    public static int[] trigrams(String text) {
+        return trigrams(text.getBytes(StandardCharsets.UTF_8));
+    }
+    /**
+     * Reads the contents of a blob.
+     * @param store store holding the blob
+     * @param hash hash of the blob
+     * @return the blob's contents
+     */
+    static byte[] read(ObjectStore store, String hash) {
+        try (InputStream in = store.open(ObjectStore.Kind.BLOB, hash)) {
+            if (in == null) {
+                throw new IllegalArgumentException("missing blob " + hash);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Folds an ASCII letter to lowercase.
+     * @param b the byte
+     * @return the byte folded, as an unsigned value
+     */
+    private static int fold(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b & 0xff;
+    }
+    /**
+     * Maps the index file and reads the log, skipping logged blobs the
+     * index file already has.
+     */
+    private void load() {
+        File file = BLOB_TRIGRAMS.file();
+        if (file.isFile()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ)) {
+                index = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        channel.size());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        } else {
+            index = ByteBuffer.allocate(HEADER_BYTES);
+        }
+        numBlobs = index.getInt(0);
+        numTrigrams = index.getInt(Integer.BYTES);
+        tableStart = index.getInt(2 * Integer.BYTES);
+        logged = new LinkedHashMap<String, ByteBuffer>();
+        logLength = 0;
+        File log = BLOB_TRIGRAMS_LOG.file();
+        if (!log.isFile()) {
+            return;
+        }
+        ByteBuffer contents = ByteBuffer.wrap(Utils.readContents(log));
+        while (contents.remaining() >= Integer.BYTES) {
+            int size = contents.getInt(contents.position());
+            if (size < HASH_BYTES
+                    || contents.remaining() - Integer.BYTES < size) {
+                break;
+            }
+            contents.getInt();
+            byte[] hash = new byte[HASH_BYTES];
+            contents.get(hash);
+            ByteBuffer trigrams = contents.slice();
+            trigrams.limit(size - HASH_BYTES);
+            contents.position(contents.position() + size - HASH_BYTES);
+            logLength += Integer.BYTES + size;
+            if (find(hash) < 0) {
+                logged.put(Utils.bytesToHex(hash, 0, HASH_BYTES), trigrams);
+            }
+        }
+    }
+    /**
+     * Writes a new index file covering the index file and the log, replacing
+     * the old one in one rename, then deletes the log. Blobs in the log are
+     * numbered after those in the index file, so each trigram's list of
+     * blobs stays sorted by appending the log's blobs to it.
+     */
+    private void merge() {
+        ArrayList<String> added = new ArrayList<String>(logged.keySet());
+        int total = numBlobs + added.size();
+        byte[] hashes = new byte[total * HASH_BYTES];
+        index.get(HEADER_BYTES, hashes, 0, numBlobs * HASH_BYTES);
+        long numPairs = 0;
+        for (int i = 0; i < added.size(); i += 1) {
+            System.arraycopy(Utils.hexToBytes(added.get(i)), 0, hashes,
+                    (numBlobs + i) * HASH_BYTES, HASH_BYTES);
+            numPairs += logged.get(added.get(i)).getInt(0);
+        }
+        long[] pairs = new long[(int) numPairs];
+        int numPaired = 0;
+        for (int i = 0; i < added.size(); i += 1) {
+            for (int trigram : decode(logged.get(added.get(i)).duplicate())) {
+                pairs[numPaired] = (long) trigram << 32 | (numBlobs + i);
+                numPaired += 1;
+            }
+        }
+        Arrays.sort(pairs);
+        Integer[] byHash = new Integer[total];
+        for (int i = 0; i < total; i += 1) {
+            byHash[i] = i;
+        }
+        Arrays.sort(byHash, (a, b) -> Arrays.compareUnsigned(hashes,
+                a * HASH_BYTES, (a + 1) * HASH_BYTES, hashes, b * HASH_BYTES,
+                (b + 1) * HASH_BYTES));
+        File tmp = new File(BLOB_TRIGRAMS.file().getPath() + ".lock");
+        int trigramCount = 0;
+        int table;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.write(new byte[HEADER_BYTES]);
+            out.write(hashes);
+            for (int id : byHash) {
+                out.writeInt(id);
+            }
+            ByteArrayOutputStream entries = new ByteArrayOutputStream();
+            DataOutputStream entriesOut = new DataOutputStream(entries);
+            int entry = 0;
+            int pair = 0;
+            while (entry < numTrigrams || pair < pairs.length) {
+                int oldTrigram = entry < numTrigrams ? trigramAt(entry)
+                        : Integer.MAX_VALUE;
+                int newTrigram = pair < pairs.length
+                        ? (int) (pairs[pair] >>> 32) : Integer.MAX_VALUE;
+                int trigram = Math.min(oldTrigram, newTrigram);
+                int[] ids = trigram == oldTrigram ? postings(entry)
+                        : new int[0];
+                int start = out.size();
+                int last = -1;
+                for (int id : ids) {
+                    writeVarint(out, id - last - 1);
+                    last = id;
+                }
+                int count = ids.length;
+                for (; pair < pairs.length
+                        && (int) (pairs[pair] >>> 32) == trigram; pair += 1) {
+                    int id = (int) pairs[pair];
+                    writeVarint(out, id - last - 1);
+                    last = id;
+                    count += 1;
+                }
+                entry += trigram == oldTrigram ? 1 : 0;
+                entriesOut.writeInt(trigram);
+                entriesOut.writeInt(start);
+                entriesOut.writeInt(count);
+                trigramCount += 1;
+            }
+            table = out.size();
+            out.write(entries.toByteArray());
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        try (RandomAccessFile header = new RandomAccessFile(tmp, "rw")) {
+            header.writeInt(total);
+            header.writeInt(trigramCount);
+            header.writeInt(table);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        try {
+            Files.move(tmp.toPath(), BLOB_TRIGRAMS.file().toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new GitletException(ERROR_COLOR.toString() + e
+                    + RESET_COLOR);
+        }
+        BLOB_TRIGRAMS_LOG.file().delete();
+        load();
+    }
+    /**
+     * Finds a blob in the index file by binary search over the blobs'
+     * positions sorted by hash.
+     * @param hash raw hash of the blob
+     * @return position of the blob, or -1 if the index file does not have
+     * it
+     */
+    private int find(byte[] hash) {
+        int sortedStart = HEADER_BYTES + numBlobs * HASH_BYTES;
+        int lo = 0;
+        int hi = numBlobs;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int id = index.getInt(sortedStart + mid * Integer.BYTES);
+            int at = HEADER_BYTES + id * HASH_BYTES;
+            int comparison = 0;
+            for (int i = 0; i < HASH_BYTES && comparison == 0; i += 1) {
+                comparison = Integer.compare(index.get(at + i) & 0xff,
+                        hash[i] & 0xff);
+            }
+            if (comparison < 0) {
+                lo = mid + 1;
+            } else if (comparison > 0) {
+                hi = mid;
+            } else {
+                return id;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Gets the raw hash of a blob in the index file.
+     * @param id position of the blob
+     * @return the blob's raw hash
+     */
+    private byte[] hashAt(int id) {
+        byte[] result = new byte[HASH_BYTES];
+        index.get(HEADER_BYTES + id * HASH_BYTES, result);
+        return result;
+    }
+    /**
+     * Gets the trigram of an entry of the trigram table.
+     * @param entry position of the entry
+     * @return the entry's trigram
+     */
+    private int trigramAt(int entry) {
+        return index.getInt(tableStart + entry * ENTRY_BYTES);
+    }
+    /**
+     * Finds a trigram in the trigram table by binary search.
+     * @param trigram the trigram
+     * @return position of its entry, or -1 if no blob in the index file
+     * has it
+     */
+    private int entryOf(int trigram) {
+        int lo = 0;
+        int hi = numTrigrams;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int midTrigram = trigramAt(mid);
+            if (midTrigram < trigram) {
+                lo = mid + 1;
+            } else if (midTrigram > trigram) {
+                hi = mid;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Decodes the list of blobs of an entry of the trigram table.
+     * @param entry position of the entry
+     * @return positions of the blobs holding the entry's trigram, in order
+     */
+    private int[] postings(int entry) {
+        int at = tableStart + entry * ENTRY_BYTES;
+        ByteBuffer list = index.duplicate();
+        list.position(index.getInt(at + Integer.BYTES));
+        int[] result = new int[index.getInt(at + 2 * Integer.BYTES)];
+        int id = -1;
+        for (int i = 0; i < result.length; i += 1) {
+            id += readVarint(list) + 1;
+            result[i] = id;
+        }
+        return result;
+    }
+    /**
+     * Intersects two sorted lists of positions.
+     * @param a the first list
+     * @param b the second list
+     * @return positions in both lists, in order
+     */
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length;) {
+            if (a[i] < b[j]) {
+                i += 1;
+            } else if (a[i] > b[j]) {
+                j += 1;
+            } else {
+                result[size] = a[i];
+                size += 1;
+                i += 1;
+                j += 1;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+    /**
+     * Checks whether one sorted list of trigrams holds all of another.
+     * @param has the list to check
+     * @param needed the trigrams it must hold
+     * @return whether every needed trigram is in has
+     */
+    private static boolean containsAll(int[] has, int[] needed) {
+        int i = 0;
+        for (int trigram : needed) {
+            while (i < has.length && has[i] < trigram) {
+                i += 1;
+            }
+            if (i == has.length || has[i] != trigram) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Writes a sorted list of distinct trigrams as its length and varint
+     * deltas.
+     * @param out stream to write to
+     * @param trigrams the trigrams
+     */
+    private static void encode(ByteArrayOutputStream out, int[] trigrams) {
+        DataOutputStream data = new DataOutputStream(out);
+        try {
+            data.writeInt(trigrams.length);
+            int last = -1;
+            for (int trigram : trigrams) {
+                writeVarint(data, trigram - last - 1);
+                last = trigram;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+    /**
+     * Reads a list of trigrams written by encode.
+     * @param in buffer positioned at the list
+     * @return the trigrams, sorted
+     */
+    private static int[] decode(ByteBuffer in) {
+        int[] result = new int[in.getInt()];
+        int trigram = -1;
+        for (int i = 0; i < result.length; i += 1) {
+            trigram += readVarint(in) + 1;
+            result[i] = trigram;
+        }
+        return result;
+    }
+    /**
+     * Writes a non-negative number in seven-bit groups, low group first,
+     * with the high bit of each byte set when more follow.
+     * @param out stream to write to
+     * @param value the number
+     * @throws IOException if writing fails
+     */
+    private static void writeVarint(OutputStream out, int value)
+            throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+    /**
+     * Reads a number written by writeVarint.
+     * @param in buffer to read from
+     * @return the number
+     */
+    private static int readVarint(ByteBuffer in) {
+        int result = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -84,6 +85,28 @@ class Utils {
         return restrictedDelete(new File(file));
     }
 
+    /** Returns the UID_LENGTH / 2 raw bytes of the hexadecimal UID HASH. */
+    static byte[] hexToBytes(String hash) {
+        byte[] result = new byte[hash.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(
+                hash.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /** Returns the hexadecimal numeral for the LEN bytes of BYTES starting at
+     *  OFFSET. */
+    static String bytesToHex(byte[] bytes, int offset, int len) {
+        char[] result = new char[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
     /* READING AND WRITING FILE CONTENTS */
 
     /** Return the entire contents of FILE as a byte array.  FILE must
@@ -218,6 +241,25 @@ class Utils {
 
 
 
+    /** Return an object of type T read from the serialized bytes CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as
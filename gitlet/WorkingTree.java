@@ -0,0 +1,177 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+import static gitlet.Directories.REMOTE_DIR;
+import static gitlet.Directories.REPO_DIR;
+import static gitlet.Directories.USER_DIR;
+
+/**
+ * Scans and hashes the files of the working directory on a fork-join pool.
+ * The number of threads is taken from the gitlet.parallelism system property
+ * and defaults to the number of processors. Results are always sorted by file
+ * name, so output does not depend on the order the threads finish in.
+ * @author Connor Bernard
+ */
+public class WorkingTree {
+    /**
+     * Name of the system property giving the number of threads to use.
+     */
+    private static final String PARALLELISM_PROPERTY = "gitlet.parallelism";
+    /**
+     * The pool working directory scans run on, created on first use.
+     */
+    private static ForkJoinPool pool;
+    /**
+     * Gets the pool that working directory scans and hashing run on.
+     * @return the fork-join pool
+     */
+    public static synchronized ForkJoinPool pool() {
+        if (pool == null) {
+            int parallelism = Runtime.getRuntime().availableProcessors();
+            String property = System.getProperty(PARALLELISM_PROPERTY);
+            if (property != null) {
+                try {
+                    parallelism = Math.max(1, Integer.parseInt(property));
+                } catch (NumberFormatException e) {
+                    parallelism = Runtime.getRuntime().availableProcessors();
+                }
+            }
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+    /**
+     * Lists the working files under one directory, scanning each of its
+     * subdirectories as a separate task.
+     */
+    private static class Scan extends RecursiveTask<List<String>> {
+        /**
+         * Serialization version; scans are never stored.
+         */
+        private static final long serialVersionUID = 1L;
+        /**
+         * Directory to scan.
+         */
+        private final File dir;
+        /**
+         * Path of dir relative to the working directory, ending in a slash
+         * unless dir is the working directory itself.
+         */
+        private final String prefix;
+        /**
+         * Creates a scan of a directory.
+         * @param directory directory to scan
+         * @param path path of directory relative to the working directory
+         */
+        Scan(File directory, String path) {
+            dir = directory;
+            prefix = path;
+        }
+        /**
+         * Lists the working files under this scan's directory.
+         * @return paths of the working files, in no particular order
+         */
+        @Override
+        protected List<String> compute() {
+            ArrayList<String> result = new ArrayList<String>();
+            String[] names = dir.list();
+            if (names == null) {
+                return result;
+            }
+            ArrayList<Scan> subdirs = new ArrayList<Scan>();
+            for (String name : names) {
+                File file = new File(dir, name);
+                if (name.length() > 4 && name.endsWith(".txt")) {
+                    if (file.isFile()) {
+                        result.add(prefix + name);
+                    }
+                } else if (!name.startsWith(".")
+                        && !file.equals(REMOTE_DIR.file())
+                        && file.isDirectory()) {
+                    Scan subdir = new Scan(file, prefix + name + "/");
+                    subdir.fork();
+                    subdirs.add(subdir);
+                }
+            }
+            for (Scan subdir : subdirs) {
+                result.addAll(subdir.join());
+            }
+            return result;
+        }
+    }
+    /**
+     * Gets the paths of the working files in the working directory and its
+     * subdirectories: the plain .txt files, which are the only files gitlet
+     * looks at. Hidden directories, such as .gitlet, are skipped.
+     * @return sorted paths of the working files, separated by forward slashes
+     */
+    public static List<String> files() {
+        List<String> result = pool().invoke(new Scan(USER_DIR.file(), ""));
+        Collections.sort(result);
+        return result;
+    }
+    /**
+     * Deletes a working file, then any directories it leaves empty.
+     * @param path path of the file relative to the working directory
+     * @return whether the file was deleted
+     */
+    public static boolean delete(String path) {
+        if (!REPO_DIR.file().isDirectory()) {
+            throw new IllegalArgumentException("not .gitlet working directory");
+        }
+        File file = new File(USER_DIR.file(), path);
+        if (file.isDirectory() || !file.delete()) {
+            return false;
+        }
+        File parent = file.getParentFile();
+        while (!parent.equals(USER_DIR.file()) && parent.delete()) {
+            parent = parent.getParentFile();
+        }
+        return true;
+    }
+    /**
+     * Gets the hashes of working files, hashing those whose stat data
+     * changed in parallel.
+     * @param fileNames names of the files to hash
+     * @param cache stat cache to look hashes up in and record them into
+     * @return map from each file that exists to its hash, sorted by name
+     */
+    public static TreeMap<String, String> hashes(List<String> fileNames,
+                                                 StatCache cache) {
+        Map<String, String> hashed = run(() -> fileNames.parallelStream()
+                .map(name -> new String[] {name, cache.hash(name)})
+                .filter(pair -> pair[1] != null)
+                .collect(Collectors.toMap(pair -> pair[0], pair -> pair[1])));
+        return new TreeMap<String, String>(hashed);
+    }
+    /**
+     * Runs a parallel computation on the pool and waits for its result.
+     * @param task computation to run
+     * @param <T> type of the result
+     * @return result of the computation
+     */
+    static <T> T run(Callable<T> task) {
+        try {
+            return pool().submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,186 @@
+import sys, re
+from subprocess import run, PIPE, STDOUT, TimeoutExpired
+from os.path import abspath, join, exists
+from getopt import getopt, GetoptError
+from os import environ, getcwd, getpid, listdir, mkdir
+from shutil import rmtree
+from threading import Thread, Lock
+
+SHORT_USAGE = """\
+Usage: python3 stress.py OPTIONS
+   OPTIONS may include
+       --progdir=DIR  Directory or JAR file containing gitlet.Main.
+       --workers=N    Number of commands to run at once (default 6).
+       --rounds=N     Number of files each worker adds (default 8).
+       --timeout=SEC  Number of seconds allowed to each execution of gitlet.
+       --keep         Keep the test directory.
+"""
+
+USAGE = SHORT_USAGE + """\
+
+Runs add, commit and rm in several processes at once against one
+repository, then checks that the refs and the stage came out consistent.
+
+Each worker writes its own files, one per round.  It adds the file and
+commits; every third round it also removes a file it added two rounds
+before, once that file was committed.  When every worker is done, a last
+commit picks up anything still staged, and the repository is checked:
+
+   * the current branch and the current commit are the same commit;
+   * log lists one commit per successful commit, plus the initial commit;
+   * the commit index holds every commit log lists;
+   * status shows nothing staged, removed, modified or deleted;
+   * the untracked files are exactly those whose add failed;
+   * every file removed by a successful rm is gone from the directory.
+
+A command may fail by waiting too long for a lock, which the checks allow
+for; what must never happen is a change that was reported as done being
+lost, or a removal that deleted a file without staging it.
+"""
+
+GITLET_OPTS = "-ea"
+
+def Usage():
+    print(SHORT_USAGE, file=sys.stderr)
+    sys.exit(1)
+
+class Repository:
+    """A repository that workers run gitlet commands in."""
+
+    def __init__(self, dir):
+        self.dir = dir
+        self.lock = Lock()
+        self.commits = 0
+        self.failed_adds = set()
+        self.removed = set()
+        self.errors = []
+
+    def gitlet(self, *args):
+        """Run gitlet with ARGS in this repository, returning its output, or
+        None if it did not finish in time."""
+        try:
+            out = run(["java", GITLET_OPTS, "gitlet.Main"] + list(args),
+                      cwd=self.dir, stdout=PIPE, stderr=STDOUT,
+                      universal_newlines=True, timeout=timeout)
+            return out.stdout
+        except TimeoutExpired:
+            return None
+
+    def write(self, name, contents):
+        with open(join(self.dir, name), "w") as f:
+            f.write(contents)
+
+def worker(repo, n):
+    committed = {}
+    for k in range(rounds):
+        name = "w{}-{}.txt".format(n, k)
+        repo.write(name, "worker {} round {}\n".format(n, k))
+        if repo.gitlet("add", name) != "":
+            with repo.lock:
+                repo.failed_adds.add(name)
+            continue
+        out = repo.gitlet("commit", "worker {} round {}".format(n, k))
+        if out == "":
+            with repo.lock:
+                repo.commits += 1
+        # The file is tracked once a commit was made after its add: by this
+        # worker, or by another whose commit left this one nothing to do.
+        if out == "" or out == "No changes added to the commit.\n":
+            committed[k] = name
+        if k % 3 == 2 and k - 2 in committed:
+            old = committed.pop(k - 2)
+            if repo.gitlet("rm", old) == "":
+                with repo.lock:
+                    repo.removed.add(old)
+
+def section(status, title):
+    """The lines of the section of STATUS headed TITLE."""
+    M = re.search(r"=== {} ===\n((?:.+\n)*)".format(re.escape(title)), status)
+    return [] if M is None else M.group(1).splitlines()
+
+def check(repo):
+    gitlet_dir = join(repo.dir, ".gitlet")
+    head = open(join(gitlet_dir, "HEAD")).read().strip()
+    branch = open(join(gitlet_dir, "Branches", head)).read().strip()
+    current = open(join(gitlet_dir, "CurrentCommit")).read().strip()
+    if branch != current:
+        repo.errors.append("branch {} is at {} but the current commit is {}"
+                           .format(head, branch, current))
+    # The index is read before any command can rebuild it.
+    with open(join(gitlet_dir, "CommitIndex"), "rb") as f:
+        index = f.read()
+    indexed = {index[i:i + 20].hex() for i in range(12, len(index), 20)}
+    rest = repo.gitlet("commit", "the rest") == ""
+    if rest:
+        repo.commits += 1
+    log = repo.gitlet("log")
+    logged = re.findall(r"^commit ([0-9a-f]+)$", log, re.M)
+    if len(logged) != repo.commits + 1:
+        repo.errors.append("log lists {} commits, expected {}"
+                           .format(len(logged), repo.commits + 1))
+    missing = set(logged[1:] if rest else logged) - indexed
+    if missing:
+        repo.errors.append("commit index is missing {}"
+                           .format(sorted(missing)))
+    status = repo.gitlet("status")
+    for title in ("Staged Files", "Removed Files",
+                  "Modifications Not Staged For Commit"):
+        if section(status, title):
+            repo.errors.append("{}: {}".format(title,
+                                               section(status, title)))
+    untracked = set(section(status, "Untracked Files"))
+    if untracked != repo.failed_adds:
+        repo.errors.append("untracked files {}, expected {}"
+                           .format(sorted(untracked),
+                                   sorted(repo.failed_adds)))
+    for name in repo.removed:
+        if exists(join(repo.dir, name)):
+            repo.errors.append("{} was removed but is still there"
+                               .format(name))
+
+if __name__ == "__main__":
+    workers, rounds, timeout, keep = 6, 8, 60, False
+    prog_dir = None
+    try:
+        opts, args = \
+            getopt(sys.argv[1:], '',
+                   ['progdir=', 'workers=', 'rounds=', 'timeout=', 'keep'])
+        for opt, val in opts:
+            if opt == '--progdir':
+                prog_dir = val
+            elif opt == '--workers':
+                workers = int(val)
+            elif opt == '--rounds':
+                rounds = int(val)
+            elif opt == '--timeout':
+                timeout = float(val)
+            elif opt == '--keep':
+                keep = True
+    except (GetoptError, ValueError):
+        Usage()
+    if args:
+        Usage()
+
+    if prog_dir:
+        environ['CLASSPATH'] = "{}:{}".format(abspath(prog_dir),
+                                              environ.get('CLASSPATH', ''))
+
+    dir = join(getcwd(), "stress_{}".format(getpid()))
+    mkdir(dir)
+    repo = Repository(dir)
+    repo.gitlet("init")
+    threads = [Thread(target=worker, args=(repo, n)) for n in range(workers)]
+    for thread in threads:
+        thread.start()
+    for thread in threads:
+        thread.join()
+    check(repo)
+
+    print("Ran {} workers of {} rounds: {} commits, {} removals, {} failed "
+          "adds.".format(workers, rounds, repo.commits, len(repo.removed),
+                         len(repo.failed_adds)))
+    for error in repo.errors:
+        print("ERROR: " + error)
+    if not keep:
+        rmtree(dir)
+    sys.exit(1 if repo.errors else 0)